@@ -1,5 +1,7 @@
 package com.opendoorlogistics.api.cache;
 
+import java.util.List;
+
 /**
  * A pool of multiple caches
  * @author Phil
@@ -20,4 +22,10 @@ public interface ObjectCachePool {
 	 * @return
 	 */
 	ObjectCache create(String cacheId, long maxSizeInBytes);
+	
+	/**
+	 * Get a snapshot of the usage statistics of every cache in the pool
+	 * @return
+	 */
+	List<ObjectCacheStatistics> getStatistics();
 }
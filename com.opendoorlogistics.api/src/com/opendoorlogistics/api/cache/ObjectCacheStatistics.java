@@ -0,0 +1,48 @@
+package com.opendoorlogistics.api.cache;
+
+/**
+ * Snapshot of the usage statistics of a single cache. Counts are since the cache was created.
+ * @author Phil
+ *
+ */
+public interface ObjectCacheStatistics {
+	String getCacheId();
+
+	/**
+	 * @return The current budget in bytes
+	 */
+	long getBytesLimit();
+
+	/**
+	 * @return The estimated bytes currently held, based on the sizes given when objects were cached
+	 */
+	long getEstimatedBytes();
+
+	long getNbEntries();
+
+	long getHits();
+
+	long getMisses();
+
+	long getPuts();
+
+	/**
+	 * @return Number of entries removed to keep within the budget
+	 */
+	long getEvictions();
+
+	/**
+	 * @return Number of entries found to have been garbage collected before they were evicted
+	 */
+	long getCollected();
+
+	/**
+	 * @return Total time spent in get calls
+	 */
+	long getGetNanos();
+
+	/**
+	 * @return Total time spent in put calls, including any evictions they caused
+	 */
+	long getPutNanos();
+}
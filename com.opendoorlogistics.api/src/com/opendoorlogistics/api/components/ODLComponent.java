@@ -134,6 +134,16 @@ public interface ODLComponent extends  net.xeoh.plugins.base.Plugin{
 	 * uncertain dependencies).
 	 */
 	public static final long FLAG_DISABLE_FRAMEWORK_DATA_READ_FOR_DEPENDENCIES= 1<<3;
+
+	/**
+	 * Return this flag if the component can be executed concurrently for different batch keys.
+	 * Each concurrent execution is given its own in-memory copy of its input tables and its own output datastore,
+	 * which is merged (by table name) into the instruction's output datastore in batch key order.
+	 * Warnings and control launchers are also passed on in batch key order.
+	 * The component must therefore not write to its input tables, not rely on output written for other
+	 * batch keys, not show modal panels and not compile functions.
+	 */
+	public static final long FLAG_THREAD_SAFE_BATCH_EXECUTION = 1<<4;
 	
 //	/**
 //	 * Get any default fixed IO structure configurations that the component defines
@@ -18,6 +18,7 @@ public final class DistancesOutputConfiguration implements Serializable{
 	private OutputType outputType = OutputType.DISTANCE;
 	private double distanceWeighting=1;
 	private double timeWeighting=1;
+	private boolean singlePrecision;
 
 	public enum OutputDistanceUnit {
 		METRES, KILOMETRES, MILES;
@@ -34,6 +35,7 @@ public final class DistancesOutputConfiguration implements Serializable{
 		ret.outputType = outputType;
 		ret.distanceWeighting = distanceWeighting;
 		ret.timeWeighting = timeWeighting;
+		ret.singlePrecision = singlePrecision;
 		return ret;
 	}
 	
@@ -111,6 +113,19 @@ public final class DistancesOutputConfiguration implements Serializable{
 		this.timeWeighting = timeWeighting;
 	}
 
+	/**
+	 * Store the matrix values as floats, halving the memory used
+	 * @return
+	 */
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	@XmlElement(name="SinglePrecision")
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -121,6 +136,7 @@ public final class DistancesOutputConfiguration implements Serializable{
 		result = prime * result + ((outputDistanceUnit == null) ? 0 : outputDistanceUnit.hashCode());
 		result = prime * result + ((outputTimeUnit == null) ? 0 : outputTimeUnit.hashCode());
 		result = prime * result + ((outputType == null) ? 0 : outputType.hashCode());
+		result = prime * result + (singlePrecision ? 1231 : 1237);
 		temp = Double.doubleToLongBits(timeWeighting);
 		result = prime * result + (int) (temp ^ (temp >>> 32));
 		return result;
@@ -143,6 +159,8 @@ public final class DistancesOutputConfiguration implements Serializable{
 			return false;
 		if (outputType != other.outputType)
 			return false;
+		if (singlePrecision != other.singlePrecision)
+			return false;
 		if (Double.doubleToLongBits(timeWeighting) != Double.doubleToLongBits(other.timeWeighting))
 			return false;
 		return true;
@@ -12,6 +12,7 @@ public final class GraphhopperConfiguration implements Serializable {
 	private String graphDirectory;
 	private String vehicleType;
 	private double timeMultiplier = 1;
+	private int nbMatrixThreads;
 	
 	public String getGraphDirectory() {
 		return graphDirectory;
@@ -24,7 +25,9 @@ public final class GraphhopperConfiguration implements Serializable {
 	public GraphhopperConfiguration deepCopy(){
 		GraphhopperConfiguration ret = new GraphhopperConfiguration();
 		ret.setGraphDirectory(getGraphDirectory());
+		ret.setVehicleType(getVehicleType());
 		ret.setTimeMultiplier(getTimeMultiplier());
+		ret.setNbMatrixThreads(getNbMatrixThreads());
 		return ret;
 	}
 
@@ -45,6 +48,19 @@ public final class GraphhopperConfiguration implements Serializable {
 		this.vehicleType = vehicleType;
 	}
 
+	/**
+	 * Number of threads used to calculate the matrix; zero or less uses all processors.
+	 * This doesn't change the results so it isn't included in hashCode and equals.
+	 * @return
+	 */
+	public int getNbMatrixThreads() {
+		return nbMatrixThreads;
+	}
+
+	public void setNbMatrixThreads(int nbMatrixThreads) {
+		this.nbMatrixThreads = nbMatrixThreads;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -18,6 +18,22 @@ public interface ODLFlatDatastore extends ODLHasTableCount, TableDeleter, TableN
 	
 	Object getValueById(int tableId,long rowId, int columnIndex);
 
+	/**
+	 * See {@link ODLTableReadOnly#getValuesAt(int, int, int, Object[])}
+	 */
+	default void getValuesAt(int tableId,int fromRowIndex, int toRowIndex, int columnIndex, Object[] out){
+		for(int row = fromRowIndex; row < toRowIndex ; row++){
+			out[row - fromRowIndex] = getValueAt(tableId, row, columnIndex);
+		}
+	}
+
+	/**
+	 * See {@link ODLTableReadOnly#getModificationStamp()}
+	 */
+	default long getModificationStamp(int tableId){
+		return -1;
+	}
+
 	ODLColumnType getColumnFieldType(int tableId,int col) ;
 
 	String getColumnName(int tableId,int col);
@@ -56,6 +72,25 @@ public interface ODLFlatDatastore extends ODLHasTableCount, TableDeleter, TableN
 	
 	void deleteRow(int tableId,int rowNumber);
 
+	/**
+	 * See {@link ODLTable#deleteRows(int[])}
+	 */
+	default void deleteRows(int tableId, int[] rowNumbers){
+		int[] rows = RowNumbers.getRowsToDelete(rowNumbers, getRowCount(tableId));
+		for(int i = rows.length - 1 ; i >= 0 ; i--){
+			deleteRow(tableId, rows[i]);
+		}
+	}
+
+	/**
+	 * See {@link ODLTable#insertEmptyRows(int[], long[])}
+	 */
+	default void insertEmptyRows(int tableId, int[] rowNumbers, long[] rowIds){
+		for(int i =0 ; i < rowNumbers.length ; i++){
+			insertEmptyRow(tableId, rowNumbers[i], rowIds[i]);
+		}
+	}
+
 	ODLTableDefinition deepCopyWithShallowValueCopy(int tableId);
 
 	void deleteCol(int tableId,int col);
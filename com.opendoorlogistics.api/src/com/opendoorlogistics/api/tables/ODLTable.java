@@ -41,4 +41,20 @@ public interface ODLTable extends ODLTableReadOnly{
 	
 	void deleteRow(int rowNumber);
 	
+	/**
+	 * Delete several rows at once. Row numbers refer to the table before any rows
+	 * are deleted and can be in any order; duplicates and numbers outside the table are ignored.
+	 * In-memory tables delete all the rows in a single pass, which is much faster than
+	 * calling {@link #deleteRow(int)} for each row.
+	 * @param rowNumbers
+	 */
+	void deleteRows(int[] rowNumbers);
+	
+	/**
+	 * Insert several empty rows at once, so afterwards the new rows are at the input row numbers.
+	 * This is the reverse of {@link #deleteRows(int[])}. Ids are used as in {@link #insertEmptyRow(int, long)}.
+	 * @param rowNumbers Row numbers of the new rows after the insert, in ascending order
+	 * @param rowIds Id for each new row, or -1 to assign one automatically
+	 */
+	void insertEmptyRows(int[] rowNumbers, long[] rowIds);
 }
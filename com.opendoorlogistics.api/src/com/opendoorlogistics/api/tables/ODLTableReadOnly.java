@@ -37,6 +37,30 @@ public interface ODLTableReadOnly extends ODLTableDefinition, TableModel {
 	 */
 	long[] find(int col, Object value);
 
+	/**
+	 * Get the values in a column for a range of rows, so the value at fromRowIndex + i
+	 * is written to out[i]. Tables with calculated columns override this to calculate
+	 * the whole range together, which is much faster than reading one cell at a time.
+	 * @param fromRowIndex First row (inclusive)
+	 * @param toRowIndex Last row (exclusive)
+	 * @param columnIndex
+	 * @param out
+	 */
+	default void getValuesAt(int fromRowIndex, int toRowIndex, int columnIndex, Object[] out){
+		for(int row = fromRowIndex; row < toRowIndex ; row++){
+			out[row - fromRowIndex] = getValueAt(row, columnIndex);
+		}
+	}
+	
+	/**
+	 * Get a stamp which changes whenever the table's columns, rows or values change
+	 * (but not its row flags), so values calculated from the table can be cached.
+	 * Stamps are unique across all tables. 
+	 * @return The stamp, or -1 if the table does not track its changes.
+	 */
+	default long getModificationStamp(){
+		return -1;
+	}
 	
     /**
      * Needed to make interface compatible with swing TableModel
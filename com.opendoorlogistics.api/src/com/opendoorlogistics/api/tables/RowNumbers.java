@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.api.tables;
+
+import java.util.Arrays;
+
+/**
+ * Utilities for the row numbers passed to bulk row operations
+ * @author Phil
+ *
+ */
+public final class RowNumbers {
+	private RowNumbers(){}
+
+	/**
+	 * Get the rows to delete for {@link ODLTable#deleteRows(int[])} sorted, without duplicates
+	 * and without any outside the table
+	 * @param rowNumbers
+	 * @param rowCount
+	 * @return
+	 */
+	public static int[] getRowsToDelete(int[] rowNumbers, int rowCount){
+		int[] sorted = rowNumbers.clone();
+		Arrays.sort(sorted);
+		int n=0;
+		for(int i =0 ; i < sorted.length ; i++){
+			if(sorted[i] >= 0 && sorted[i] < rowCount && (n==0 || sorted[i]!=sorted[n-1])){
+				sorted[n++] = sorted[i];
+			}
+		}
+		return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+	}
+}
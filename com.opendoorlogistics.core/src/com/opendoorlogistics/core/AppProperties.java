@@ -50,6 +50,66 @@ public class AppProperties  {
 	
 	public static final String SPATIAL_RENDERER_SIMPLIFY_DISTANCE_TOLERANCE_LINESTRING = SPATIAL_RENDERER_SIMPLIFY_DISTANCE_TOLERANCE+ ".linestring";
 
+	/**
+	 * Number of threads rendering map tiles in the background. If missing or zero, one less than the number of processors is used.
+	 */
+	public static final String SPATIAL_RENDERER_TILE_THREADS = SPATIAL_RENDERER_KEY + ".tile_threads";
+
+	public static final String MAPSFORGE_KEY = "mapsforge";
+
+	/**
+	 * Number of threads rendering mapsforge background tiles. If missing or zero, one less than the number of processors is used.
+	 */
+	public static final String MAPSFORGE_RENDER_THREADS = MAPSFORGE_KEY + ".render_threads";
+
+	/**
+	 * Maximum size in megabytes of the on-disk store of rendered mapsforge background tiles. Set to 0 to disable the store.
+	 */
+	public static final String MAPSFORGE_TILE_STORE_SIZE_MB = MAPSFORGE_KEY + ".tile_store.size_mb";
+
+	/**
+	 * Set to false to stop adapter formula columns being calculated for the whole table when a range
+	 * of rows is read, and cached until the data they read changes
+	 */
+	public static final String ADAPTER_MATERIALISE_FORMULAE = "adapter.materialise_formulae";
+
+	/**
+	 * Number of threads evaluating adapter filter, sort and group-by formulae. If missing or zero, all processors
+	 * are used. Set to 1 to evaluate on the calling thread only.
+	 */
+	public static final String ADAPTER_THREADS = "adapter.threads";
+
+	/**
+	 * Number of threads parsing the sheets of an xlsx file when it's loaded. If missing or zero, all processors are used.
+	 */
+	public static final String EXCEL_IMPORT_THREADS = "excel.import_threads";
+
+	/**
+	 * Number of threads executing the batch keys of a component flagged as safe for concurrent batch execution.
+	 * If missing or zero, all processors are used. Set to 1 to execute the batch keys one at a time.
+	 */
+	public static final String SCRIPT_BATCH_THREADS = "script.batch_threads";
+
+	/**
+	 * Maximum size in megabytes of the on-disk cache of road network matrices. Set to 0 to stop saving matrices to it.
+	 */
+	public static final String MATRIX_CACHE_SIZE_MB = "distances.matrix_cache.size_mb";
+
+	public static final String CACHE_KEY = "cache";
+
+	/**
+	 * Multiplier applied to the default budget of every memory cache, e.g. 4 on a machine with lots of memory
+	 */
+	public static final String CACHE_SIZE_MULTIPLIER = CACHE_KEY + ".size_multiplier";
+
+	/**
+	 * Budget in megabytes for an individual memory cache, overriding the default and the multiplier.
+	 * The key is cache.[cacheid].size_mb, e.g. cache.projected-renderer-geometry.size_mb=1024
+	 */
+	public static String getCacheSizeMBKey(String cacheId){
+		return CACHE_KEY + "." + cacheId + ".size_mb";
+	}
+
 	public synchronized static Double getDouble(String key){
 		if(applicationProperties!=null){
 			Object val = getValue(key);
@@ -114,6 +174,13 @@ public class AppProperties  {
 		}
 	}
 	
+	/**
+	 * Re-read the external properties file, so changes made while the application is running are picked up
+	 */
+	public synchronized static void reloadExternal(){
+		add(PropertiesUtils.loadFromFile(new File(AppConstants.ODL_EXTERNAL_PROPERTIES_FILE)));
+	}
+	
 	public synchronized static void add(Properties properties){
 		if(applicationProperties==null){
 			applicationProperties = new Properties();
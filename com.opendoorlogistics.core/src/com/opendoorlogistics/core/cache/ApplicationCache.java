@@ -8,27 +8,41 @@
  ******************************************************************************/
 package com.opendoorlogistics.core.cache;
 
+import java.lang.management.ManagementFactory;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.opendoorlogistics.api.cache.ObjectCachePool;
+import com.opendoorlogistics.api.cache.ObjectCacheStatistics;
 import com.opendoorlogistics.api.ui.Disposable;
-import com.opendoorlogistics.core.utils.Pair;
+import com.opendoorlogistics.core.AppProperties;
 
 /**
  * A class to store all other caches! Note that cache retrieval by string
  * is not standardised - e.g. lower case strings will be treated differently 
- * to upper case strings etc. This is because cache retrieval needs to be fast
+ * to upper case strings etc. This is because cache retrieval needs to be fast.
+ * <p>
+ * Cache budgets can be overridden in the properties file (see {@link AppProperties#CACHE_SIZE_MULTIPLIER}
+ * and {@link AppProperties#getCacheSizeMBKey(String)}). Each cache and the pool itself are registered
+ * with JMX under the domain {@value #JMX_DOMAIN}.
  * @author Phil
  *
  */
-public class ApplicationCache implements Disposable, ObjectCachePool{
+public class ApplicationCache implements Disposable, ObjectCachePool, ApplicationCacheMXBean{
+	private static final Logger logger = Logger.getLogger(ApplicationCache.class.getName());
+	public static final String JMX_DOMAIN = "com.opendoorlogistics";
 	private static final ApplicationCache singleton = new ApplicationCache();
-	private final HashMap<String, RecentlyUsedCache> caches = new HashMap<>();
+	private final ConcurrentHashMap<String, RecentlyUsedCache> caches = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Long> defaultBudgets = new ConcurrentHashMap<>();
 	
 	public static final String DISTANCE_MATRIX_CACHE = "distance-matrix-cache";
 	public static final String ROUTE_GEOMETRY_CACHE = "route-geometry-cache";
@@ -39,7 +53,6 @@ public class ApplicationCache implements Disposable, ObjectCachePool{
 	public static final String IMPORTED_SHAPEFILE_CACHE = "imported-shapefile-cache";
 	public static final String GEOM_CENTROID_CACHE = "geom-centroid-cache";
 	public static final String PROJECTED_RENDERER_GEOMETRY = "projected-renderer-geometry";
-	public static final String ROG_QUADTREE_BLOCKS = "render-optimised-geometry-quadtree-blocks";
 	public static final String ROG_FULL_GEOMETRY = "render-optimised-geometry-full-geometry";
 	public static final String MAPSFORGE_BACKGROUND_TILES = "mapsforge-background-tiles";
 	public static final String TEXT_LAYOUT_CACHE = "text-layout-cache";
@@ -53,6 +66,7 @@ public class ApplicationCache implements Disposable, ObjectCachePool{
 	public static final String FAST_CONTAINED_POINTS_QUADTREE= "fast-contained-points-quadtree";
 	public static final String FUNCTION_IMPORTED_DATASTORES= "function-imported-datastores";
 	
+	@Override
 	public void clearCache(){
 		for(RecentlyUsedCache cache : caches.values()){
 			cache.clear();
@@ -74,7 +88,6 @@ public class ApplicationCache implements Disposable, ObjectCachePool{
 		create(IMPORTED_SHAPEFILE_CACHE, 128*MB);
 		create(GEOM_CENTROID_CACHE, 16 * MB);
 		create(PROJECTED_RENDERER_GEOMETRY, 256 * MB);
-		create(ROG_QUADTREE_BLOCKS, 128 * MB);
 		create(ROG_FULL_GEOMETRY, 64 * MB);
 		create(MAPSFORGE_BACKGROUND_TILES, 64 * MB);
 		create(TEXT_LAYOUT_CACHE, 32 * MB);
@@ -88,9 +101,54 @@ public class ApplicationCache implements Disposable, ObjectCachePool{
 		create(FAST_CONTAINED_POINTS_QUADTREE, 64 * MB);
 		create(FUNCTION_IMPORTED_DATASTORES, 512 * MB);
 		
+		registerMBean(this, "type=ApplicationCache");
+	}
+	
+	private static void registerMBean(Object bean, String keyProperties){
+		try {
+			ObjectName objectName = new ObjectName(JMX_DOMAIN + ":" + keyProperties);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(!server.isRegistered(objectName)){
+				server.registerMBean(bean, objectName);
+			}
+		} catch (Throwable e) {
+			// monitoring is optional, so don't stop the cache working
+			logger.info("Could not register cache with JMX: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Get the budget for the cache, taking into account any overrides in the properties file
+	 * @param cacheId
+	 * @param defaultBytes
+	 * @return
+	 */
+	private static long getConfiguredBudget(String cacheId, long defaultBytes){
+		Double mb = AppProperties.getDouble(AppProperties.getCacheSizeMBKey(cacheId));
+		if(mb!=null && mb>=0){
+			return (long)(mb * 1024 * 1024);
+		}
 		
-		
-				
+		double multiplier = AppProperties.getDouble(AppProperties.CACHE_SIZE_MULTIPLIER, 1);
+		if(multiplier>=0){
+			return (long)(defaultBytes * multiplier);
+		}
+		return defaultBytes;
+	}
+	
+	@Override
+	public void reloadBudgets(){
+		AppProperties.reloadExternal();
+		for(Map.Entry<String, RecentlyUsedCache> entry : caches.entrySet()){
+			Long defaultBytes = defaultBudgets.get(entry.getKey());
+			if(defaultBytes!=null){
+				long budget = getConfiguredBudget(entry.getKey(), defaultBytes);
+				if(budget!=entry.getValue().getBytesLimit()){
+					entry.getValue().setBytesLimit(budget);
+					logger.info("Set cache " + entry.getKey() + " budget to " + budget + " bytes");
+				}
+			}
+		}
 	}
 	
 	@Override
@@ -100,33 +158,48 @@ public class ApplicationCache implements Disposable, ObjectCachePool{
 	
 	@Override
 	public RecentlyUsedCache create(String cacheId, long maxSizeInBytes){
-		if(get(cacheId)!=null){
+		RecentlyUsedCache ret = new RecentlyUsedCache(cacheId,getConfiguredBudget(cacheId, maxSizeInBytes));
+		if(caches.putIfAbsent(cacheId,ret )!=null){
 			throw new RuntimeException("Cache already exists with id: " + cacheId);
 		}
-		
-		RecentlyUsedCache ret = new RecentlyUsedCache(cacheId,maxSizeInBytes);
-		caches.put(cacheId,ret );
+		defaultBudgets.put(cacheId, maxSizeInBytes);
+		registerMBean(ret, "type=Cache,name=" + ObjectName.quote(cacheId));
+		return ret;
+	}
+	
+	@Override
+	public List<ObjectCacheStatistics> getStatistics(){
+		ArrayList<ObjectCacheStatistics> ret = new ArrayList<>();
+		for(RecentlyUsedCache cache : caches.values()){
+			ret.add(cache.getStatistics());
+		}
+		Collections.sort(ret, new Comparator<ObjectCacheStatistics>() {
+
+			@Override
+			public int compare(ObjectCacheStatistics o1, ObjectCacheStatistics o2) {
+				return o1.getCacheId().compareTo(o2.getCacheId());
+			}
+		});
 		return ret;
 	}
 	
+	@Override
 	public String getUsageReport(){
 		StringBuilder builder = new StringBuilder();
 		long total=0;
 		
-		ArrayList<Pair<Long, String>> list = new ArrayList<Pair<Long,String>>();
-		for(Map.Entry<String,RecentlyUsedCache> entry : caches.entrySet()){
-			long bytes = entry.getValue().getEstimatedTotalBytes();
-			list.add(new Pair<Long, String>(bytes, entry.getKey()));
-			total += bytes;
+		List<ObjectCacheStatistics> list = getStatistics();
+		for(ObjectCacheStatistics stats : list){
+			total += stats.getEstimatedBytes();
 		}
 		
-		Collections.sort(list, new Comparator<Pair<Long, String>>() {
+		Collections.sort(list, new Comparator<ObjectCacheStatistics>() {
 
 			@Override
-			public int compare(Pair<Long, String> o1, Pair<Long, String> o2) {
-				int diff = o2.getFirst().compareTo(o1.getFirst());
+			public int compare(ObjectCacheStatistics o1, ObjectCacheStatistics o2) {
+				int diff = Long.compare(o2.getEstimatedBytes(), o1.getEstimatedBytes());
 				if(diff==0){
-					diff = o1.getSecond().compareTo(o2.getSecond());
+					diff = o1.getCacheId().compareTo(o2.getCacheId());
 				}
 				return diff;
 			}
@@ -143,8 +216,13 @@ public class ApplicationCache implements Disposable, ObjectCachePool{
 		ToMbString toMB = new ToMbString();
 		
 		builder.append("Estimated total usage is " + toMB.toMB(total) + " MB" + System.lineSeparator());
-		for(Pair<Long, String> pair : list){
-			builder.append(pair.getSecond() + " estimated " + toMB.toMB(pair.getFirst()) + " MB" + System.lineSeparator());
+		DecimalFormat percent = new DecimalFormat("0.0");
+		for(ObjectCacheStatistics stats : list){
+			long lookups = stats.getHits() + stats.getMisses();
+			builder.append(stats.getCacheId() + " estimated " + toMB.toMB(stats.getEstimatedBytes()) + " MB of " + toMB.toMB(stats.getBytesLimit()) + " MB");
+			builder.append(", " + stats.getNbEntries() + " entries");
+			builder.append(", hit rate " + (lookups > 0 ? percent.format(100.0 * stats.getHits() / lookups) : "0.0") + "% of " + lookups);
+			builder.append(", " + stats.getEvictions() + " evicted, " + stats.getCollected() + " collected" + System.lineSeparator());
 		}
 		return builder.toString();
 	}
@@ -0,0 +1,23 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.cache;
+
+/**
+ * JMX view of the {@link ApplicationCache}
+ * @author Phil
+ *
+ */
+public interface ApplicationCacheMXBean {
+	String getUsageReport();
+
+	void clearCache();
+
+	/**
+	 * Re-read the external properties file and apply any cache budgets it sets
+	 */
+	void reloadBudgets();
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.cache;
+
+import com.opendoorlogistics.api.cache.ObjectCacheStatistics;
+
+/**
+ * Immutable snapshot of a cache's statistics
+ * @author Phil
+ *
+ */
+final class CacheStatistics implements ObjectCacheStatistics {
+	private final String cacheId;
+	private final long bytesLimit;
+	private final long estimatedBytes;
+	private final long nbEntries;
+	private final long hits;
+	private final long misses;
+	private final long puts;
+	private final long evictions;
+	private final long collected;
+	private final long getNanos;
+	private final long putNanos;
+
+	CacheStatistics(String cacheId, long bytesLimit, long estimatedBytes, long nbEntries, long hits, long misses, long puts, long evictions,
+			long collected, long getNanos, long putNanos) {
+		this.cacheId = cacheId;
+		this.bytesLimit = bytesLimit;
+		this.estimatedBytes = estimatedBytes;
+		this.nbEntries = nbEntries;
+		this.hits = hits;
+		this.misses = misses;
+		this.puts = puts;
+		this.evictions = evictions;
+		this.collected = collected;
+		this.getNanos = getNanos;
+		this.putNanos = putNanos;
+	}
+
+	@Override
+	public String getCacheId() {
+		return cacheId;
+	}
+
+	@Override
+	public long getBytesLimit() {
+		return bytesLimit;
+	}
+
+	@Override
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	@Override
+	public long getNbEntries() {
+		return nbEntries;
+	}
+
+	@Override
+	public long getHits() {
+		return hits;
+	}
+
+	@Override
+	public long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public long getPuts() {
+		return puts;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public long getCollected() {
+		return collected;
+	}
+
+	@Override
+	public long getGetNanos() {
+		return getNanos;
+	}
+
+	@Override
+	public long getPutNanos() {
+		return putNanos;
+	}
+
+	@Override
+	public String toString() {
+		return cacheId + " [bytesLimit=" + bytesLimit + ", estimatedBytes=" + estimatedBytes + ", nbEntries=" + nbEntries + ", hits=" + hits
+				+ ", misses=" + misses + ", puts=" + puts + ", evictions=" + evictions + ", collected=" + collected + "]";
+	}
+}
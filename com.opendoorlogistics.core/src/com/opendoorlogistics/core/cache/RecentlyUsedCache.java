@@ -8,141 +8,203 @@ package com.opendoorlogistics.core.cache;
 
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.opendoorlogistics.api.cache.ObjectCache;
+import com.opendoorlogistics.api.cache.ObjectCacheStatistics;
 import com.opendoorlogistics.core.utils.Pair;
 
 /**
  * Cache which stores only the recently used objects. Objects are stored as soft references
  * and can hence still get dropped from the cache early if the memory is really needed.
+ * <p>
+ * The cache is split into segments by key hash, each with its own lock and its own
+ * least-recently-used ordering, so threads using different keys rarely contend. The bytes
+ * and entries limits are shared by all segments. When over a limit, the least recently used
+ * entry of each segment is evicted in turn until back under the limit, which approximates
+ * least-recently-used eviction over the whole cache at constant cost per evicted entry.
+ * <p>
+ * Usage counters are kept for tuning the budget and can be read through {@link #getStatistics()} or JMX.
  * @author Phil
  *
  */
-final public class RecentlyUsedCache implements ObjectCache{
-	private long timeIndex=0;
-	private long totalBytes;
-	private final long bytesLimit;
+final public class RecentlyUsedCache implements ObjectCache, RecentlyUsedCacheMXBean{
+	private static final int NB_SEGMENTS = 16;
+	private final Segment[] segments = new Segment[NB_SEGMENTS];
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicLong totalEntries = new AtomicLong();
+	private final AtomicInteger nextEvictionSegment = new AtomicInteger();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder puts = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder collected = new LongAdder();
+	private final LongAdder getNanos = new LongAdder();
+	private final LongAdder putNanos = new LongAdder();
+	private volatile long bytesLimit;
 	private final long entriesLimit;
-	private WeakHashMap<Object, CacheEntry> cached = new WeakHashMap<>();
 	private final String name;
-	private boolean logToConsole=false;
+	private volatile boolean logToConsole=false;
 
 	public RecentlyUsedCache(String name,long bytesLimit){
 		this(name, bytesLimit, Long.MAX_VALUE);
 	}
-	
+
 	public RecentlyUsedCache(String name,long bytesLimit, long entriesLimit){
 		this.name = name;
 		this.bytesLimit = bytesLimit;
 		this.entriesLimit = entriesLimit;
+		for(int i =0 ; i < NB_SEGMENTS ; i++){
+			segments[i] = new Segment();
+		}
 	}
 
-	private static class CacheEntry implements Comparable<CacheEntry>{
+	private static class CacheEntry{
 		static final int CONTAINER_OVERHEAD_BYTES = 8 + 16 + 4 + 8 + 8; // rough guess....
-		final Object key;
 		final SoftReference<Object> data;
 		final long nbBytes;
-		long lastUsed;
-		
-		CacheEntry(Object key,Object obj, long nbBytes) {
-			this.key = key;
+
+		CacheEntry(Object obj, long nbBytes) {
 			this.data = new SoftReference<Object>(obj);
 			this.nbBytes = nbBytes + CONTAINER_OVERHEAD_BYTES;
 		}
-		
-		@Override
-		public int compareTo(CacheEntry o) {
-			// oldest first
-			return Long.compare(o.lastUsed, lastUsed);
+	}
+
+	/**
+	 * Access-ordered map, so the eldest entry is always the least recently used.
+	 * All access must be synchronised on the segment.
+	 */
+	private static class Segment extends LinkedHashMap<Object, CacheEntry>{
+		private static final long serialVersionUID = 1L;
+
+		Segment(){
+			super(16, 0.75f, true);
 		}
 	}
-	
+
+	private Segment segment(Object key){
+		int h = key!=null ? key.hashCode() : 0;
+		h ^= (h >>> 16);
+		h ^= (h >>> 8);
+		return segments[h & (NB_SEGMENTS-1)];
+	}
+
 	private String getDisplayId(){
 		return "" + name + "-" + System.identityHashCode(this);
 	}
-	
-	private void clearIfNeeded(){
-		if(timeIndex == Long.MAX_VALUE){
-			// reset long value...
-			timeIndex = 0;
-			cached.clear();
-		}else{
-			if(totalBytes > bytesLimit || cached.size() > entriesLimit ){
-				// sort by last used time, latest first
-				ArrayList<CacheEntry> sorted = new ArrayList<>();
-				for(CacheEntry o : cached.values()){
-					if(o.data.get()!=null){
-						sorted.add(o);
+
+	private void removed(CacheEntry entry){
+		totalBytes.addAndGet(-entry.nbBytes);
+		totalEntries.decrementAndGet();
+	}
+
+	private boolean isOverLimit(){
+		return totalBytes.get() > bytesLimit || totalEntries.get() > entriesLimit;
+	}
+
+	/**
+	 * Evict least recently used entries until we're within the limits. Only one segment is locked at a time.
+	 * The newly added entry is never evicted, so we always keep at least one object.
+	 * Note if we decide to change this in the future to not cache any objects if the total size of every object is greater than the limit,
+	 * we should update the component which does spatial queries against postcodes because for the UK postcode set,
+	 * its quadtree will no longer be cached and performance will be very bad...
+	 */
+	private void evictIfNeeded(CacheEntry keep){
+		int segmentsWithoutEviction=0;
+		while(isOverLimit() && segmentsWithoutEviction < NB_SEGMENTS){
+			Segment segment = segments[(nextEvictionSegment.getAndIncrement() & Integer.MAX_VALUE) % NB_SEGMENTS];
+			boolean evicted=false;
+			synchronized (segment) {
+				Iterator<CacheEntry> it = segment.values().iterator();
+				while(it.hasNext()){
+					CacheEntry entry = it.next();
+					if(entry==keep){
+						continue;
 					}
+					it.remove();
+					removed(entry);
+
+					// don't count entries already collected as an eviction
+					if(entry.data.get()!=null){
+						evictions.increment();
+						evicted = true;
+						break;
+					}
+					collected.increment();
 				}
-				Collections.sort(sorted);
-				
-				// Keep on adding until we reach half the bytes limit. This always keeps at least one object.
-				// Note if we decide to change this in the future to not cache any objects if the total size of every object is greater than the limit,
-				// we should update the component which does spatial queries against postcodes because for the UK postcode set,
-				// its quadtree will no longer be cached and performance will be very bad...
-				totalBytes = 0;
-				cached.clear();
-				int i =0;
-				while(i<sorted.size() && totalBytes < bytesLimit /2 && cached.size() < entriesLimit ){
-					cached.put(sorted.get(i).key, sorted.get(i));
-					totalBytes += sorted.get(i).nbBytes;
-					i++;
-				}
-				
-				if(logToConsole){
-					System.out.println(getDisplayId() + " - cleared, total bytes now " + totalBytes+ " ("  + (totalBytes/(1024*1024)) + " MB) in "+ cached.size() + " entries.");
-				}
-				
-		//		System.out.println("CLEARED");
 			}
+			segmentsWithoutEviction = evicted ? 0 : segmentsWithoutEviction+1;
+		}
+
+		if(logToConsole && segmentsWithoutEviction==0){
+			System.out.println(getDisplayId() + " - evicted, total bytes now " + totalBytes.get()+ " ("  + (totalBytes.get()/(1024*1024)) + " MB) in "+ totalEntries.get() + " entries.");
 		}
 	}
-	
+
 	@Override
-	public synchronized void put(Object objectKey, Object value, long nbBytes){
-		// remove the old object just in case it's already here so bytes count is correct
-		remove(objectKey);
-		
-		timeIndex++;
-		CacheEntry obj = new CacheEntry(objectKey, value, nbBytes);
-		obj.lastUsed = timeIndex;
-		cached.put(objectKey, obj);
-		
+	public void put(Object objectKey, Object value, long nbBytes){
+		long start = System.nanoTime();
+		CacheEntry obj = new CacheEntry(value, nbBytes);
+		Segment segment = segment(objectKey);
+		synchronized (segment) {
+			// replace the old object just in case it's already here so bytes count is correct
+			CacheEntry old = segment.put(objectKey, obj);
+			if(old!=null){
+				removed(old);
+			}
+			totalEntries.incrementAndGet();
+		}
+		long before = totalBytes.getAndAdd(obj.nbBytes);
+
 		if(logToConsole){
-			long mb = totalBytes / (1024*1024);
-			long newMB  = (totalBytes+obj.nbBytes) / (1024*1024);
+			long mb = before / (1024*1024);
+			long newMB  = (before+obj.nbBytes) / (1024*1024);
 			if(mb!=newMB){
-				System.out.println(getDisplayId() + " - now " + (totalBytes+nbBytes) + " bytes (" + newMB + " MB) in " + cached.size() + " entries.");				
+				System.out.println(getDisplayId() + " - now " + (before+obj.nbBytes) + " bytes (" + newMB + " MB) in " + totalEntries.get() + " entries.");
 			}
 		}
-		
-		totalBytes += obj.nbBytes;
-		clearIfNeeded();
-	}
-	
-	@Override
-	public synchronized Object get(Object key){
-		CacheEntry c = cached.get(key);
-		if(c!=null){
-			c.lastUsed = timeIndex;
-			Object obj = c.data.get();
-			if(obj!=null){
-				return obj;
-			}else{
-				// collected already....
-				cached.remove(key);
-				totalBytes -= c.nbBytes;
+
+		if(isOverLimit()){
+			evictIfNeeded(obj);
+		}
+		puts.increment();
+		putNanos.add(System.nanoTime() - start);
+	}
+
+	@Override
+	public Object get(Object key){
+		long start = System.nanoTime();
+		Object ret = null;
+		Segment segment = segment(key);
+		synchronized (segment) {
+			CacheEntry c = segment.get(key);
+			if(c!=null){
+				ret = c.data.get();
+				if(ret==null){
+					// collected already....
+					segment.remove(key);
+					removed(c);
+					collected.increment();
+				}
 			}
 		}
-		return null;
+
+		if(ret!=null){
+			hits.increment();
+		}else{
+			misses.increment();
+		}
+		getNanos.add(System.nanoTime() - start);
+		return ret;
 
 	}
-	
+
 	public static void main(String []args){
 		RecentlyUsedCache lus = new RecentlyUsedCache("test",10*(8 + CacheEntry.CONTAINER_OVERHEAD_BYTES));
 		int n = 1000;
@@ -155,56 +217,63 @@ final public class RecentlyUsedCache implements ObjectCache{
 	}
 
 	@Override
-	public synchronized void clear(){
-		timeIndex=0;
-		totalBytes=0;
-		cached.clear();
+	public void clear(){
+		for(Segment segment : segments){
+			synchronized (segment) {
+				for(CacheEntry entry : segment.values()){
+					removed(entry);
+				}
+				segment.clear();
+			}
+		}
 	}
-	
+
 	@Override
-	public synchronized String toString(){
+	public String toString(){
 		StringBuilder builder = new StringBuilder();
 		builder.append("[");
 		int count=0;
-		for(Map.Entry<Object, CacheEntry> entry:cached.entrySet()){
-			Object val = entry.getValue().data.get();
-			if(val!=null){
-				if(count>0){
-					builder.append(", ");
-				}
-				builder.append("{" + entry.getKey() + "=" + val + "}");
-				count++;
+		for(Pair<Object, Object> pair : getSnapshot()){
+			if(count>0){
+				builder.append(", ");
 			}
+			builder.append("{" + pair.getFirst() + "=" + pair.getSecond() + "}");
+			count++;
 		}
 		builder.append("]");
 		return builder.toString();
 	}
-	
+
 	/**
-	 * Get snapshot of the keys and values stored in the cache. 
+	 * Get snapshot of the keys and values stored in the cache.
 	 * This could change directly after calling this method if anything
-	 * is garbage collected. Calling this method does not update the last
+	 * is garbage collected or another thread modifies the cache. Calling this method does not update the last
 	 * used state on the entries.
 	 * @return
 	 */
-	public synchronized List<Pair<Object, Object>> getSnapshot(){
-		ArrayList<Pair<Object, Object>> ret = new ArrayList<>(cached.size());
-		for(Map.Entry<Object, CacheEntry> entry:cached.entrySet()){
-			Object val= entry.getValue().data.get();
-			if(val!=null){
-				ret.add(new Pair<Object, Object>(entry.getKey(), val));
+	public List<Pair<Object, Object>> getSnapshot(){
+		ArrayList<Pair<Object, Object>> ret = new ArrayList<>();
+		for(Segment segment : segments){
+			synchronized (segment) {
+				for(Map.Entry<Object, CacheEntry> entry:segment.entrySet()){
+					Object val= entry.getValue().data.get();
+					if(val!=null){
+						ret.add(new Pair<Object, Object>(entry.getKey(), val));
+					}
+				}
 			}
 		}
 		return ret;
 	}
-	
-	@Override
-	public synchronized void remove(Object key){
-		CacheEntry container = cached.get(key);
-		if(container!=null){
-			cached.remove(key);
-			totalBytes -= container.nbBytes;
 
+	@Override
+	public void remove(Object key){
+		Segment segment = segment(key);
+		synchronized (segment) {
+			CacheEntry container = segment.remove(key);
+			if(container!=null){
+				removed(container);
+			}
 		}
 	}
 
@@ -212,11 +281,82 @@ final public class RecentlyUsedCache implements ObjectCache{
 	public void setLogToConsole(boolean logToConsole) {
 		this.logToConsole = logToConsole;
 	}
-	
+
+	@Override
 	public long getEstimatedTotalBytes(){
-		return totalBytes;
+		return totalBytes.get();
+	}
+
+	@Override
+	public long getNbEntries(){
+		return totalEntries.get();
+	}
+
+	@Override
+	public String getCacheId(){
+		return name;
+	}
+
+	@Override
+	public long getBytesLimit(){
+		return bytesLimit;
+	}
+
+	@Override
+	public void setBytesLimit(long bytesLimit){
+		this.bytesLimit = bytesLimit;
+		if(isOverLimit()){
+			evictIfNeeded(null);
+		}
+	}
+
+	@Override
+	public long getHits(){
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRate(){
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total > 0 ? (double)h / total : 0;
+	}
+
+	@Override
+	public long getPuts(){
+		return puts.sum();
 	}
 
+	@Override
+	public long getEvictions(){
+		return evictions.sum();
+	}
+
+	@Override
+	public long getCollected(){
+		return collected.sum();
+	}
+
+	@Override
+	public double getAverageGetNanos(){
+		long n = hits.sum() + misses.sum();
+		return n > 0 ? (double)getNanos.sum() / n : 0;
+	}
+
+	@Override
+	public double getAveragePutNanos(){
+		long n = puts.sum();
+		return n > 0 ? (double)putNanos.sum() / n : 0;
+	}
+
+	public ObjectCacheStatistics getStatistics(){
+		return new CacheStatistics(name, bytesLimit, totalBytes.get(), totalEntries.get(), hits.sum(), misses.sum(), puts.sum(), evictions.sum(),
+				collected.sum(), getNanos.sum(), putNanos.sum());
+	}
 
-	
 }
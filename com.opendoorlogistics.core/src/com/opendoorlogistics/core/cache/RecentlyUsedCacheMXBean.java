@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.cache;
+
+/**
+ * JMX view of a single {@link RecentlyUsedCache}
+ * @author Phil
+ *
+ */
+public interface RecentlyUsedCacheMXBean {
+	String getCacheId();
+
+	long getBytesLimit();
+
+	/**
+	 * Change the budget. If it is reduced, entries are evicted straight away.
+	 * @param bytesLimit
+	 */
+	void setBytesLimit(long bytesLimit);
+
+	long getEstimatedTotalBytes();
+
+	long getNbEntries();
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRate();
+
+	long getPuts();
+
+	long getEvictions();
+
+	long getCollected();
+
+	double getAverageGetNanos();
+
+	double getAveragePutNanos();
+
+	void clear();
+}
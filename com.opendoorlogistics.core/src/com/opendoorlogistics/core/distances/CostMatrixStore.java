@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.distances;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Storage for the values of an {@link ODLCostMatrixImpl}. Each cost type is held as one
+ * contiguous block of n x n values in from-major order, either in flat heap arrays or in
+ * byte buffers (direct or memory-mapped). Values can be held as floats to halve the memory.
+ * Reads are safe from multiple threads.
+ * @author Phil
+ *
+ */
+public abstract class CostMatrixStore {
+	protected final int nbCosts;
+	protected final int n;
+	protected final boolean singlePrecision;
+
+	private CostMatrixStore(int nbCosts, int n, boolean singlePrecision) {
+		this.nbCosts = nbCosts;
+		this.n = n;
+		this.singlePrecision = singlePrecision;
+	}
+
+	public abstract double get(int dim, int fromIndex, int toIndex);
+
+	public abstract void set(double value, int dim, int fromIndex, int toIndex);
+
+	public int getNbCosts() {
+		return nbCosts;
+	}
+
+	public int getN() {
+		return n;
+	}
+
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	public long getSizeInBytes() {
+		return (long) nbCosts * n * n * (singlePrecision ? 4 : 8);
+	}
+
+	/**
+	 * Create a store using flat arrays on the heap (one array per cost type)
+	 * @param nbCosts
+	 * @param n
+	 * @param singlePrecision
+	 * @return
+	 */
+	public static CostMatrixStore createHeap(int nbCosts, int n, boolean singlePrecision) {
+		if ((long) n * n > Integer.MAX_VALUE - 8) {
+			throw new RuntimeException("Matrix with " + n + " locations is too large to hold on the heap.");
+		}
+		return singlePrecision ? new HeapFloats(nbCosts, n) : new HeapDoubles(nbCosts, n);
+	}
+
+	/**
+	 * Create a store using direct (off-heap) byte buffers
+	 * @param nbCosts
+	 * @param n
+	 * @param singlePrecision
+	 * @return
+	 */
+	public static CostMatrixStore createDirect(int nbCosts, int n, boolean singlePrecision) {
+		Buffers ret = new Buffers(nbCosts, n, singlePrecision);
+		for (int i = 0; i < ret.chunks.length; i++) {
+			ret.chunks[i] = ByteBuffer.allocateDirect(ret.getChunkBytes(i)).order(ByteOrder.nativeOrder());
+		}
+		return ret;
+	}
+
+	/**
+	 * Create a store backed by a memory-mapped file. The file is resized to fit the matrix;
+	 * any existing contents are kept so this can also reopen a matrix written earlier.
+	 * Values are stored big-endian so the file is portable.
+	 * @param file
+	 * @param nbCosts
+	 * @param n
+	 * @param singlePrecision
+	 * @return
+	 */
+	public static CostMatrixStore createMapped(File file, int nbCosts, int n, boolean singlePrecision) {
+		return map(file, nbCosts, n, singlePrecision, false);
+	}
+
+	/**
+	 * Map an existing matrix file read-only. Calling set on the returned store throws an exception.
+	 * @param file
+	 * @param nbCosts
+	 * @param n
+	 * @param singlePrecision
+	 * @return
+	 */
+	public static CostMatrixStore openMappedReadOnly(File file, int nbCosts, int n, boolean singlePrecision) {
+		return map(file, nbCosts, n, singlePrecision, true);
+	}
+
+	private static CostMatrixStore map(File file, int nbCosts, int n, boolean singlePrecision, boolean readOnly) {
+		Buffers ret = new Buffers(nbCosts, n, singlePrecision);
+		try (RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw")) {
+			if (readOnly) {
+				if (raf.length() != ret.getSizeInBytes()) {
+					throw new RuntimeException("Matrix file has the wrong size");
+				}
+			} else {
+				raf.setLength(ret.getSizeInBytes());
+			}
+			FileChannel channel = raf.getChannel();
+
+			// mappings stay valid after the channel is closed
+			long position = 0;
+			for (int i = 0; i < ret.chunks.length; i++) {
+				int bytes = ret.getChunkBytes(i);
+				ret.chunks[i] = channel.map(readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE, position, bytes);
+				position += bytes;
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Could not map matrix file " + file.getAbsolutePath(), e);
+		}
+		return ret;
+	}
+
+	private static final class HeapDoubles extends CostMatrixStore {
+		private final double[][] values;
+
+		HeapDoubles(int nbCosts, int n) {
+			super(nbCosts, n, false);
+			values = new double[nbCosts][];
+			for (int i = 0; i < nbCosts; i++) {
+				values[i] = new double[n * n];
+			}
+		}
+
+		@Override
+		public double get(int dim, int fromIndex, int toIndex) {
+			return values[dim][fromIndex * n + toIndex];
+		}
+
+		@Override
+		public void set(double value, int dim, int fromIndex, int toIndex) {
+			values[dim][fromIndex * n + toIndex] = value;
+		}
+	}
+
+	private static final class HeapFloats extends CostMatrixStore {
+		private final float[][] values;
+
+		HeapFloats(int nbCosts, int n) {
+			super(nbCosts, n, true);
+			values = new float[nbCosts][];
+			for (int i = 0; i < nbCosts; i++) {
+				values[i] = new float[n * n];
+			}
+		}
+
+		@Override
+		public double get(int dim, int fromIndex, int toIndex) {
+			return values[dim][fromIndex * n + toIndex];
+		}
+
+		@Override
+		public void set(double value, int dim, int fromIndex, int toIndex) {
+			values[dim][fromIndex * n + toIndex] = (float) value;
+		}
+	}
+
+	/**
+	 * Values held in byte buffers. A single buffer is limited to 2GB so the rows
+	 * (over all cost types) are split into chunks of whole rows.
+	 */
+	private static final class Buffers extends CostMatrixStore {
+		private final ByteBuffer[] chunks;
+		private final int bytesPerValue;
+		private final int rowsPerChunk;
+
+		Buffers(int nbCosts, int n, boolean singlePrecision) {
+			super(nbCosts, n, singlePrecision);
+			bytesPerValue = singlePrecision ? 4 : 8;
+			long nbRows = (long) nbCosts * n;
+			rowsPerChunk = (int) Math.max(1, Math.min(nbRows, Integer.MAX_VALUE / Math.max(1L, (long) n * bytesPerValue)));
+			chunks = new ByteBuffer[nbRows > 0 ? (int) ((nbRows + rowsPerChunk - 1) / rowsPerChunk) : 0];
+		}
+
+		int getChunkBytes(int chunk) {
+			long nbRows = (long) nbCosts * n;
+			long rows = Math.min(rowsPerChunk, nbRows - (long) chunk * rowsPerChunk);
+			return (int) (rows * n * bytesPerValue);
+		}
+
+		@Override
+		public double get(int dim, int fromIndex, int toIndex) {
+			int row = dim * n + fromIndex;
+			int offset = ((row % rowsPerChunk) * n + toIndex) * bytesPerValue;
+			ByteBuffer chunk = chunks[row / rowsPerChunk];
+			return singlePrecision ? chunk.getFloat(offset) : chunk.getDouble(offset);
+		}
+
+		@Override
+		public void set(double value, int dim, int fromIndex, int toIndex) {
+			int row = dim * n + fromIndex;
+			int offset = ((row % rowsPerChunk) * n + toIndex) * bytesPerValue;
+			ByteBuffer chunk = chunks[row / rowsPerChunk];
+			if (singlePrecision) {
+				chunk.putFloat(offset, (float) value);
+			} else {
+				chunk.putDouble(offset, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,416 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.distances;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opendoorlogistics.api.distances.DistancesConfiguration;
+import com.opendoorlogistics.api.distances.DistancesConfiguration.CalculationMethod;
+import com.opendoorlogistics.api.distances.DistancesOutputConfiguration;
+import com.opendoorlogistics.api.distances.GraphhopperConfiguration;
+import com.opendoorlogistics.api.distances.ODLCostMatrix;
+import com.opendoorlogistics.api.geometry.LatLong;
+import com.opendoorlogistics.core.AppConstants;
+import com.opendoorlogistics.core.AppProperties;
+import com.opendoorlogistics.core.distances.graphhopper.CHMatrixGenWithGeomFuncs;
+import com.opendoorlogistics.core.gis.map.data.LatLongImpl;
+import com.opendoorlogistics.core.utils.io.RelativeFiles;
+import com.opendoorlogistics.core.utils.strings.StandardisedStringTreeMap;
+import com.opendoorlogistics.core.utils.strings.Strings;
+
+/**
+ * Second tier cache for road network matrices, held on disk so they survive restarts.
+ * Each matrix is stored as two files named {configuration hash}-{points hash}:
+ * a .matrix file holding the values, which is memory-mapped when loaded,
+ * and a .ids file holding the location ids and positions. The configuration hash
+ * includes the graph directory and the time the graph was built. Both files are
+ * written to temporary files and renamed, and the ids file is written last, so a
+ * matrix is only ever read once complete and a mapped file is never rewritten.
+ * @author Phil
+ *
+ */
+final class DiskMatrixCache {
+	private static final Logger logger = Logger.getLogger(DiskMatrixCache.class.getName());
+	private static final int FILE_VERSION = 1;
+	private static final String MATRIX_EXTENSION = ".matrix";
+	private static final String IDS_EXTENSION = ".ids";
+	private static final String TMP_EXTENSION = ".tmp";
+	private static final long DEFAULT_MAX_MB = 4096;
+	private final File directory;
+	private final long maxTotalBytes;
+
+	DiskMatrixCache() {
+		this(new File(AppConstants.MATRIX_CACHE_DIRECTORY), AppProperties.getDouble(AppProperties.MATRIX_CACHE_SIZE_MB, DEFAULT_MAX_MB).longValue() * 1024 * 1024);
+	}
+
+	DiskMatrixCache(File directory, long maxTotalBytes) {
+		this.directory = directory;
+		this.maxTotalBytes = maxTotalBytes;
+	}
+
+	/**
+	 * Get the hash identifying the configuration, or null if matrices for the configuration
+	 * shouldn't be cached on disk (i.e. they're not road network matrices).
+	 * @param request
+	 * @return
+	 */
+	static String getConfigHash(DistancesConfiguration request) {
+		if (request.getMethod() != CalculationMethod.ROAD_NETWORK) {
+			return null;
+		}
+
+		GraphhopperConfiguration ghConfig = request.getGraphhopperConfig();
+		File graphDirectory = RelativeFiles.validateRelativeFiles(ghConfig.getGraphDirectory(), AppConstants.GRAPHHOPPER_DIRECTORY);
+		if (graphDirectory == null) {
+			return null;
+		}
+		graphDirectory = graphDirectory.getAbsoluteFile();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream dos = new DataOutputStream(bytes)) {
+			dos.writeInt(FILE_VERSION);
+			dos.writeUTF(graphDirectory.getAbsolutePath());
+			dos.writeLong(CHMatrixGenWithGeomFuncs.getNodesFileLastModified(graphDirectory.getAbsolutePath()));
+			dos.writeUTF(Strings.std(ghConfig.getVehicleType()));
+			dos.writeDouble(ghConfig.getTimeMultiplier());
+
+			DistancesOutputConfiguration output = request.getOutputConfig();
+			dos.writeUTF(output.getOutputDistanceUnit().name());
+			dos.writeUTF(output.getOutputTimeUnit().name());
+			dos.writeUTF(output.getOutputType().name());
+			dos.writeDouble(output.getDistanceWeighting());
+			dos.writeDouble(output.getTimeWeighting());
+			dos.writeBoolean(output.isSinglePrecision());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return hash(bytes.toByteArray());
+	}
+
+	static String getPointsHash(StandardisedStringTreeMap<LatLong> points) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream dos = new DataOutputStream(bytes)) {
+			for (Map.Entry<String, LatLong> entry : points.entrySet()) {
+				dos.writeUTF(entry.getKey());
+				dos.writeDouble(entry.getValue().getLatitude());
+				dos.writeDouble(entry.getValue().getLongitude());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return hash(bytes.toByteArray());
+	}
+
+	private static String hash(byte[] bytes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			StringBuilder builder = new StringBuilder();
+			for (byte b : digest.digest(bytes)) {
+				builder.append(String.format("%02x", b & 0xFF));
+			}
+			return builder.toString();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Load the matrix if it is in the cache, returning null otherwise
+	 * @param request
+	 * @param points
+	 * @return
+	 */
+	ODLCostMatrixImpl load(DistancesConfiguration request, StandardisedStringTreeMap<LatLong> points) {
+		String configHash = getConfigHash(request);
+		if (configHash == null) {
+			return null;
+		}
+
+		String name = configHash + "-" + getPointsHash(points);
+		try {
+			CachedMatrixFile file = readIds(new File(directory, name + IDS_EXTENSION));
+			if (file == null || !file.points.equals(points)) {
+				return null;
+			}
+			return file.open();
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Could not load cached matrix " + name, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Find the cached matrix for the same configuration which shares the most points (i.e. same id
+	 * and position) with the input points, provided it shares more than minShared. Returns null if
+	 * there isn't one. The values file is not mapped until {@link CachedMatrixFile#open()} is called.
+	 * @param request
+	 * @param points
+	 * @param minShared
+	 * @return
+	 */
+	CachedMatrixFile findBestOverlap(DistancesConfiguration request, StandardisedStringTreeMap<LatLong> points, int minShared) {
+		String configHash = getConfigHash(request);
+		File[] idsFiles = configHash != null ? listIdsFiles(directory) : null;
+		if (idsFiles == null) {
+			return null;
+		}
+
+		CachedMatrixFile ret = null;
+		int bestShared = minShared;
+		for (File idsFile : idsFiles) {
+			if (!idsFile.getName().startsWith(configHash + "-")) {
+				continue;
+			}
+
+			try {
+				CachedMatrixFile file = readIds(idsFile);
+				if (file != null) {
+					int shared = countShared(points, file.points);
+					if (shared > bestShared) {
+						bestShared = shared;
+						ret = file;
+					}
+				}
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Could not read cached matrix " + idsFile.getName(), e);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Count the points with the same id and position in both maps
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	static int countShared(StandardisedStringTreeMap<LatLong> a, StandardisedStringTreeMap<LatLong> b) {
+		int ret = 0;
+		for (Map.Entry<String, LatLong> entry : a.entrySet()) {
+			LatLong other = b.get(entry.getKey());
+			if (other != null && other.equals(entry.getValue())) {
+				ret++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Save the matrix to the cache, unless it's already cached or the cache size is 0. Failures
+	 * are logged but otherwise ignored.
+	 * @param request
+	 * @param points
+	 * @param matrix
+	 */
+	void save(DistancesConfiguration request, StandardisedStringTreeMap<LatLong> points, ODLCostMatrix matrix) {
+		String configHash = getConfigHash(request);
+		if (configHash == null || maxTotalBytes <= 0) {
+			return;
+		}
+
+		String name = configHash + "-" + getPointsHash(points);
+		try {
+			if (!directory.exists() && !directory.mkdirs()) {
+				throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+			}
+
+			// the cached matrix file may be mapped, so don't rewrite it
+			File idsFile = new File(directory, name + IDS_EXTENSION);
+			CachedMatrixFile existing = readIds(idsFile);
+			if (existing != null && existing.points.equals(points)) {
+				idsFile.setLastModified(System.currentTimeMillis());
+				return;
+			}
+
+			// write the values in the mapped layout (rows of each cost type, big-endian) to a temporary file
+			// and then rename, as a file which is still mapped can't be renamed on some platforms (e.g. Windows)
+			int n = matrix.getNbFroms();
+			int nbCosts = matrix.getNbCosts();
+			boolean singlePrecision = request.getOutputConfig().isSinglePrecision();
+			File matrixTmp = new File(directory, name + MATRIX_EXTENSION + TMP_EXTENSION);
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(matrixTmp)))) {
+				for (int dim = 0; dim < nbCosts; dim++) {
+					for (int from = 0; from < n; from++) {
+						for (int to = 0; to < n; to++) {
+							if (singlePrecision) {
+								dos.writeFloat((float) matrix.get(from, to, dim));
+							} else {
+								dos.writeDouble(matrix.get(from, to, dim));
+							}
+						}
+					}
+				}
+			}
+			File matrixFile = new File(directory, name + MATRIX_EXTENSION);
+			if ((matrixFile.exists() && !matrixFile.delete()) || !matrixTmp.renameTo(matrixFile)) {
+				matrixTmp.delete();
+				throw new IOException("Cannot replace " + matrixFile.getAbsolutePath());
+			}
+
+			// write the ids to a temporary file and then rename, so the ids file only exists once everything is written
+			File tmp = new File(directory, name + IDS_EXTENSION + TMP_EXTENSION);
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				dos.writeInt(FILE_VERSION);
+				dos.writeInt(nbCosts);
+				dos.writeBoolean(singlePrecision);
+				dos.writeInt(n);
+				for (int i = 0; i < n; i++) {
+					String id = matrix.getFromId(i);
+					LatLong ll = points.get(id);
+					dos.writeUTF(id);
+					dos.writeDouble(ll.getLatitude());
+					dos.writeDouble(ll.getLongitude());
+				}
+			}
+			idsFile.delete();
+			if (!tmp.renameTo(idsFile)) {
+				throw new IOException("Cannot rename " + tmp.getAbsolutePath());
+			}
+
+			trim();
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Could not save matrix to the disk cache " + name, e);
+		}
+	}
+
+	/**
+	 * A matrix file in the cache. The values file is only mapped when {@link #open()} is called.
+	 */
+	static class CachedMatrixFile {
+		final File idsFile;
+		final File matrixFile;
+		final int nbCosts;
+		final boolean singlePrecision;
+		final List<String> ids;
+		final StandardisedStringTreeMap<LatLong> points = new StandardisedStringTreeMap<>(false);
+
+		private CachedMatrixFile(File idsFile, File matrixFile, int nbCosts, boolean singlePrecision, List<String> ids) {
+			this.idsFile = idsFile;
+			this.matrixFile = matrixFile;
+			this.nbCosts = nbCosts;
+			this.singlePrecision = singlePrecision;
+			this.ids = ids;
+		}
+
+		ODLCostMatrixImpl open() {
+			CostMatrixStore store = CostMatrixStore.openMappedReadOnly(matrixFile, nbCosts, ids.size(), singlePrecision);
+
+			// record the access so the least recently used matrices are deleted first
+			idsFile.setLastModified(System.currentTimeMillis());
+			return new ODLCostMatrixImpl(ids, ODLCostMatrixImpl.STANDARD_COST_FIELDNAMES, store);
+		}
+	}
+
+	private static CachedMatrixFile readIds(File idsFile) throws IOException {
+		// the matrix file is deleted first when the matrix is removed from the cache
+		if (!idsFile.exists() || !getMatrixFile(idsFile).exists()) {
+			return null;
+		}
+
+		String name = idsFile.getName().substring(0, idsFile.getName().length() - IDS_EXTENSION.length());
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(idsFile)))) {
+			if (dis.readInt() != FILE_VERSION) {
+				return null;
+			}
+			int nbCosts = dis.readInt();
+			boolean singlePrecision = dis.readBoolean();
+			int n = dis.readInt();
+			ArrayList<String> ids = new ArrayList<>(n);
+			CachedMatrixFile ret = new CachedMatrixFile(idsFile, new File(idsFile.getParentFile(), name + MATRIX_EXTENSION), nbCosts, singlePrecision, ids);
+			for (int i = 0; i < n; i++) {
+				String id = dis.readUTF();
+				ids.add(id);
+				ret.points.put(id, new LatLongImpl(dis.readDouble(), dis.readDouble()));
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Delete the least recently used matrices until the cache is within its size limit. A matrix file
+	 * which can't be deleted because it's mapped (e.g. on Windows) is kept along with its ids file,
+	 * so it's deleted by a later trim instead.
+	 */
+	private void trim() {
+		File[] idsFiles = listIdsFiles(directory);
+		if (idsFiles == null) {
+			return;
+		}
+
+		long total = 0;
+		for (File idsFile : idsFiles) {
+			total += idsFile.length() + getMatrixFile(idsFile).length();
+		}
+
+		Arrays.sort(idsFiles, new Comparator<File>() {
+
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (int i = 0; i < idsFiles.length - 1 && total > maxTotalBytes; i++) {
+			File matrixFile = getMatrixFile(idsFiles[i]);
+			long bytes = idsFiles[i].length() + matrixFile.length();
+
+			// delete the matrix first, so a matrix which is still mapped keeps its ids file and is counted
+			// and retried by a later trim. An ids file without its matrix file is never read.
+			if ((matrixFile.delete() || !matrixFile.exists()) && idsFiles[i].delete()) {
+				total -= bytes;
+			}
+		}
+
+		// delete matrix files orphaned by earlier failures, unless they're still mapped
+		File[] matrixFiles = directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(MATRIX_EXTENSION);
+			}
+		});
+		if (matrixFiles != null) {
+			for (File matrixFile : matrixFiles) {
+				String name = matrixFile.getName();
+				if (!new File(directory, name.substring(0, name.length() - MATRIX_EXTENSION.length()) + IDS_EXTENSION).exists()) {
+					matrixFile.delete();
+				}
+			}
+		}
+	}
+
+	private static File[] listIdsFiles(File directory) {
+		return directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(IDS_EXTENSION);
+			}
+		});
+	}
+
+	private static File getMatrixFile(File idsFile) {
+		String name = idsFile.getName();
+		return new File(idsFile.getParentFile(), name.substring(0, name.length() - IDS_EXTENSION.length()) + MATRIX_EXTENSION);
+	}
+}
@@ -28,6 +28,7 @@ import com.opendoorlogistics.core.AppConstants;
 import com.opendoorlogistics.core.api.impl.GeometryImpl;
 import com.opendoorlogistics.core.cache.ApplicationCache;
 import com.opendoorlogistics.core.cache.RecentlyUsedCache;
+import com.opendoorlogistics.core.distances.DiskMatrixCache.CachedMatrixFile;
 import com.opendoorlogistics.core.distances.external.FileVersionId;
 import com.opendoorlogistics.core.distances.external.LoadedMatrixFile;
 import com.opendoorlogistics.core.distances.external.LoadedMatrixFile.ValueType;
@@ -39,6 +40,7 @@ import com.opendoorlogistics.core.geometry.GreateCircle;
 import com.opendoorlogistics.core.gis.map.data.LatLongImpl;
 import com.opendoorlogistics.core.scripts.wizard.TagUtils;
 import com.opendoorlogistics.core.tables.ColumnValueProcessor;
+import com.opendoorlogistics.core.utils.Pair;
 import com.opendoorlogistics.core.utils.io.RelativeFiles;
 import com.opendoorlogistics.core.utils.iterators.IteratorUtils;
 import com.opendoorlogistics.core.utils.strings.StandardisedStringTreeMap;
@@ -56,6 +58,7 @@ public final class DistancesSingleton implements Closeable{
 	//private final RecentlyUsedCache recentMatrixCache = new RecentlyUsedCache(128 * 1024 * 1024);
 	//private final RecentlyUsedCache recentGeomCache = new RecentlyUsedCache(64 * 1024 * 1024);
 	private CHMatrixGenWithGeomFuncs lastCHGraph;
+	private final DiskMatrixCache diskCache = new DiskMatrixCache();
 	
 	private DistancesSingleton() {
 	}
@@ -115,12 +118,127 @@ public final class DistancesSingleton implements Closeable{
 
 	}
 
-	private synchronized ODLCostMatrix calculateGraphhopper(DistancesConfiguration request, StandardisedStringTreeMap<LatLong> points, final ProcessingApi processingApi) {
+	/**
+	 * A matrix calculated earlier for the same configuration but a different set of points.
+	 * The values for the points it shares with a new request can be copied instead of recalculated.
+	 */
+	private static class BaseMatrix{
+		final ODLCostMatrix matrix;
+		final StandardisedStringTreeMap<LatLong> points;
+		
+		BaseMatrix(ODLCostMatrix matrix, StandardisedStringTreeMap<LatLong> points) {
+			this.matrix = matrix;
+			this.points = points;
+		}
+		
+		/**
+		 * Get the index of the point in the base matrix or -1 if it isn't there (or is at a different position)
+		 */
+		int getIndex(String id, LatLong ll){
+			LatLong baseLL = points.get(id);
+			if(baseLL==null || !baseLL.equals(ll)){
+				return -1;
+			}
+			return matrix.getIndex(id);
+		}
+	}
+	
+	/**
+	 * Find the matrix in the memory or disk caches sharing the most points with the input points
+	 * @param request
+	 * @param points
+	 * @return
+	 */
+	private BaseMatrix findBaseMatrix(DistancesConfiguration request, StandardisedStringTreeMap<LatLong> points){
+		BaseMatrix ret = null;
+		int bestShared = 0;
+		RecentlyUsedCache cache = ApplicationCache.singleton().get(ApplicationCache.DISTANCE_MATRIX_CACHE);
+		for(Pair<Object, Object> pair : cache.getSnapshot()){
+			if(pair.getFirst() instanceof MatrixCacheKey){
+				MatrixCacheKey key = (MatrixCacheKey)pair.getFirst();
+				ODLCostMatrix matrix = (ODLCostMatrix)pair.getSecond();
+				if(key.distanceConfig.equals(request) && matrix.isStillValid()){
+					int shared = DiskMatrixCache.countShared(points, key.points);
+					if(shared > bestShared){
+						bestShared = shared;
+						ret = new BaseMatrix(matrix, key.points);
+					}
+				}
+			}
+		}
+		
+		CachedMatrixFile file = diskCache.findBestOverlap(request, points, bestShared);
+		if(file!=null){
+			try {
+				ret = new BaseMatrix(file.open(), file.points);				
+			} catch (Exception e) {
+				// ignore and use the in-memory matrix (if any) instead
+			}
+		}
+		return ret;
+	}
+	
+	private synchronized ODLCostMatrix calculateGraphhopper(DistancesConfiguration request, StandardisedStringTreeMap<LatLong> points,BaseMatrix base, final ProcessingApi processingApi) {
+		// find which points are in the base matrix, if we have one
+		int n = points.size();
+		List<Map.Entry<String, LatLong>> list = IteratorUtils.toList(points.entrySet());
+		int [] baseIndices = new int[n];
+		boolean [] required = new boolean[n];
+		int nbRequired=0;
+		for(int i =0 ; i<n ; i++){
+			baseIndices[i] = base!=null ? base.getIndex(list.get(i).getKey(), list.get(i).getValue()) : -1;
+			required[i] = baseIndices[i]==-1;
+			if(required[i]){
+				nbRequired++;
+			}
+		}
+
+		// calculate the missing rows and columns, skipping graphhopper if every point is in the base matrix
+		MatrixResult result = null;
+		if(nbRequired>0){
+			result = calculateGraphhopperResult(request, list, nbRequired < n ? required : null, nbRequired, processingApi);
+			if(result==null){
+				return null;
+			}
+		}
+
+		// convert result to the output data structure
+		ODLCostMatrixImpl output = ODLCostMatrixImpl.createEmptyMatrix(list, request.getOutputConfig().isSinglePrecision());
+		for (int ifrom = 0; ifrom < n; ifrom++) {
+			for (int ito = 0; ito < n; ito++) {
+				if(!required[ifrom] && !required[ito]){
+					for(int k=0; k<3 ;k++){
+						output.set(base.matrix.get(baseIndices[ifrom], baseIndices[ito], k), ifrom, ito, k);						
+					}
+					continue;
+				}
+				
+				double timeSeconds = result.getTimeMilliseconds(ifrom, ito) * 0.001;
+				timeSeconds *= request.getGraphhopperConfig().getTimeMultiplier();
+				if(!result.isInfinite(ifrom, ito)){
+					setOutputValues(ifrom, ito, result.getDistanceMetres(ifrom, ito), timeSeconds, request.getOutputConfig(), output);					
+				}else{
+					for(int k=0; k<3 ;k++){
+						output.set(UNCONNECTED_TRAVEL_COST, ifrom, ito, k);						
+					}
+				}
+			}
+		}
+		
+		return output;
+	}
+	
+	private MatrixResult calculateGraphhopperResult(DistancesConfiguration request, List<Map.Entry<String, LatLong>> list, boolean [] required,int nbRequired, final ProcessingApi processingApi) {
 		CHMatrixGeneration graph=initGraphhopperGraph(request, processingApi);
 		
+		int n = list.size();
 		final StringBuilder statusMessage = new StringBuilder();
 		statusMessage.append ("Loaded the graph " + new File(request.getGraphhopperConfig().getGraphDirectory()).getAbsolutePath());				
-		statusMessage.append(System.lineSeparator() + "Calculating " + points.size() + "x" + points.size() + " matrix using Graphhopper road network distances.");
+		if(required!=null){
+			statusMessage.append(System.lineSeparator() + "Calculating the rows and columns for " + nbRequired + " new locations in a " + n + "x" + n + " matrix using Graphhopper road network distances.");			
+		}else{
+			statusMessage.append(System.lineSeparator() + "Calculating " + n + "x" + n + " matrix using Graphhopper road network distances.");			
+		}
 		if(processingApi!=null){
 			processingApi.postStatusMessage(statusMessage.toString());			
 		}
@@ -131,9 +249,7 @@ public final class DistancesSingleton implements Closeable{
 		}
 
 		// convert input to an array of graphhopper points
-		int n = points.size();
 		int i =0;
-		List<Map.Entry<String, LatLong>> list = IteratorUtils.toList(points.entrySet());
 		GHPoint []ghPoints = new GHPoint[n];
 		for(Map.Entry<String, LatLong> entry:list){
 			ghPoints[i++] = new GHPoint(entry.getValue().getLatitude(), entry.getValue().getLongitude());
@@ -155,28 +271,11 @@ public final class DistancesSingleton implements Closeable{
 			}
 		};
 		
-		MatrixResult result = graph.calculateMatrix(ghPoints,chprocApi);
+		MatrixResult result = graph.calculateMatrix(ghPoints,required,request.getGraphhopperConfig().getNbMatrixThreads(),chprocApi);
 		if(processingApi!=null && processingApi.isCancelled()){
 			return null;
 		}
-
-		// convert result to the output data structure
-		ODLCostMatrixImpl output = ODLCostMatrixImpl.createEmptyMatrix(list);
-		for (int ifrom = 0; ifrom < n; ifrom++) {
-			for (int ito = 0; ito < n; ito++) {
-				double timeSeconds = result.getTimeMilliseconds(ifrom, ito) * 0.001;
-				timeSeconds *= request.getGraphhopperConfig().getTimeMultiplier();
-				if(!result.isInfinite(ifrom, ito)){
-					setOutputValues(ifrom, ito, result.getDistanceMetres(ifrom, ito), timeSeconds, request.getOutputConfig(), output);					
-				}else{
-					for(int k=0; k<3 ;k++){
-						output.set(UNCONNECTED_TRAVEL_COST, ifrom, ito, k);						
-					}
-				}
-			}
-		}
-		
-		return output;
+		return result;
 	}
 
 	/**
@@ -249,7 +348,7 @@ public final class DistancesSingleton implements Closeable{
 		}
 		
 		List<Map.Entry<String, LatLong>> list = IteratorUtils.toList(points.entrySet());
-		ODLCostMatrixImpl output = ODLCostMatrixImpl.createEmptyMatrix(list);
+		ODLCostMatrixImpl output = ODLCostMatrixImpl.createEmptyMatrix(list, request.getOutputConfig().isSinglePrecision());
 
 		int n = list.size();
 		for (int ifrom = 0; ifrom < n; ifrom++) {
@@ -308,7 +407,7 @@ public final class DistancesSingleton implements Closeable{
 
 		// create cost matrix, including the logic to check if the file has changed
 		@SuppressWarnings("serial")
-		ODLCostMatrixImpl output = new ODLCostMatrixImpl(points.keySet(), ODLCostMatrixImpl.STANDARD_COST_FIELDNAMES){
+		ODLCostMatrixImpl output = new ODLCostMatrixImpl(IteratorUtils.toList(points.keySet()), ODLCostMatrixImpl.STANDARD_COST_FIELDNAMES, request.getOutputConfig().isSinglePrecision()){
 			@Override
 			public boolean isStillValid() {
 				return !FileVersionId.isFileModified(loadedMatrixFile.getFileVersionId());
@@ -595,7 +694,15 @@ public final class DistancesSingleton implements Closeable{
 			break;
 
 		case ROAD_NETWORK:
-			ret = calculateGraphhopper(request, points, processingApi);
+			// try the disk cache before calculating
+			ret = diskCache.load(request, points);
+			if(ret==null){
+				// reuse the shared rows and columns of a matrix calculated earlier for a similar set of points
+				ret = calculateGraphhopper(request, points,findBaseMatrix(request, points), processingApi);
+				if(ret!=null){
+					diskCache.save(request, points, ret);
+				}
+			}
 			break;
 			
 		case EXTERNAL_MATRIX:
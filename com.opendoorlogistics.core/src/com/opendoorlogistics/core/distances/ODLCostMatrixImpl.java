@@ -26,7 +26,7 @@ import com.opendoorlogistics.core.utils.strings.StandardisedStringTreeMap;
 public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTable,ODLCostMatrix {
 	final private List<String> ids;
 	protected final static String [] STANDARD_COST_FIELDNAMES =  new String[] { PredefinedTags.TRAVEL_COST, PredefinedTags.DISTANCE, PredefinedTags.TIME };
-	final private double[][][] matrix;
+	final private CostMatrixStore matrix;
 	final private int n;
 	final private int nSquared;
 	final private int nbCosts;
@@ -41,10 +41,27 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 
 	@Override
 	public long getSizeInBytes() {
-		return nbCosts * n * n * 8;
+		return matrix.getSizeInBytes();
 	}
 	
 	public ODLCostMatrixImpl(Iterable<String> ids,String[]costFieldNames) {
+		this(IteratorUtils.toList(ids), costFieldNames, false);
+	}
+
+	public ODLCostMatrixImpl(List<String> ids,String[]costFieldNames, boolean singlePrecision) {
+		this(ids, costFieldNames, CostMatrixStore.createHeap(costFieldNames.length, ids.size(), singlePrecision));
+	}
+
+	/**
+	 * Create the matrix using the input store, which can be direct or memory-mapped
+	 * @param ids
+	 * @param costFieldNames
+	 * @param store
+	 */
+	public ODLCostMatrixImpl(List<String> ids,String[]costFieldNames, CostMatrixStore store) {
+		if(store.getNbCosts()!=costFieldNames.length || store.getN()!=ids.size()){
+			throw new IllegalArgumentException("Cost matrix store has the wrong dimensions");
+		}
 		setName(PredefinedTags.TRAVEL_COSTS);
 		nbCosts = costFieldNames.length;
 		
@@ -56,16 +73,10 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 			addColumn(-1, costFieldNames[i], ODLColumnType.DOUBLE, 0);			
 		}
 
-		this.ids = IteratorUtils.toList(ids);
+		this.ids = new ArrayList<>(ids);
 		this.n = this.ids.size();
 		this.nSquared = n * n;
-		matrix = new double[costFieldNames.length][][];
-		for (int i = 0; i < costFieldNames.length; i++) {
-			matrix[i] = new double[n][];
-			for (int j = 0; j < n; j++) {
-				matrix[i][j] = new double[n];
-			}
-		}
+		this.matrix = store;
 
 		// setup id lookup
 		for (int i = 0; i < n; i++) {
@@ -91,7 +102,7 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 		} else if (columnIndex == 1) {
 			return ids.get(to);
 		} else if (columnIndex > 1) {
-			return (double) matrix[columnIndex - 2][from][to];
+			return matrix.get(columnIndex - 2, from, to);
 		}
 		return null;
 	}
@@ -130,7 +141,7 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 			} else {
 				f = 0;
 			}
-			matrix[columnIndex - 2][from][to] = f;
+			matrix.set(f, columnIndex - 2, from, to);
 		} else {
 			throw new UnsupportedOperationException();
 		}
@@ -142,7 +153,7 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 
 	@Override
 	public double get(int fromIndex, int toIndex, int dim) {
-		return matrix[dim][fromIndex][toIndex];
+		return matrix.get(dim, fromIndex, toIndex);
 	}
 
 	//
@@ -151,7 +162,7 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 	// }
 
 	public void set(double val, int fromIndex, int toIndex, int dim) {
-		matrix[dim][fromIndex][toIndex] = val;
+		matrix.set(val, dim, fromIndex, toIndex);
 	}
 
 	@Override
@@ -175,6 +186,16 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public void deleteRows(int[] rowNumbers) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void insertEmptyRows(int[] rowNumbers, long[] rowIds) {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public String toString() {
 		return TableUtils.convertToString(this);
@@ -194,7 +215,7 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 
 	@Override
 	public int getNbCosts() {
-		return matrix.length;
+		return nbCosts;
 	}
 
 	@Override
@@ -230,8 +251,9 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 
 	@Override
 	public boolean getIsConnected(int from, int to) {
-		for(int i=0 ; i < matrix.length ; i++){
-			if(matrix[i][from][to]==Double.POSITIVE_INFINITY || matrix[i][from][to]==Double.NaN || matrix[i][from][to]==Double.MAX_VALUE ){
+		for(int i=0 ; i < nbCosts ; i++){
+			double value = matrix.get(i, from, to);
+			if(value==Double.POSITIVE_INFINITY || value==Double.NaN || value==Double.MAX_VALUE ){
 				return false;
 			}
 		}
@@ -250,11 +272,15 @@ public class ODLCostMatrixImpl extends ODLTableDefinitionImpl implements ODLTabl
 
 
 	public static ODLCostMatrixImpl createEmptyMatrix(List<Map.Entry<String, LatLong>> list) {
+		return createEmptyMatrix(list, false);
+	}
+
+	public static ODLCostMatrixImpl createEmptyMatrix(List<Map.Entry<String, LatLong>> list, boolean singlePrecision) {
 		ArrayList<String> idList = new ArrayList<>();
 		for (Map.Entry<String, LatLong> entry : list) {
 			idList.add(entry.getKey());
 		}
-		ODLCostMatrixImpl output = new ODLCostMatrixImpl(idList,STANDARD_COST_FIELDNAMES);
+		ODLCostMatrixImpl output = new ODLCostMatrixImpl(idList,STANDARD_COST_FIELDNAMES, singlePrecision);
 		return output;
 	}
 
@@ -13,8 +13,10 @@ import javax.swing.SwingUtilities;
 import com.opendoorlogistics.api.distances.GraphhopperConfiguration;
 import com.opendoorlogistics.api.ui.UIFactory.DoubleChangedListener;
 import com.opendoorlogistics.api.ui.UIFactory.FilenameChangeListener;
+import com.opendoorlogistics.api.ui.UIFactory.IntChangedListener;
 import com.opendoorlogistics.core.utils.ui.DoubleEntryPanel;
 import com.opendoorlogistics.core.utils.ui.FileBrowserPanel;
+import com.opendoorlogistics.core.utils.ui.IntegerEntryPanel;
 
 public class GraphhopperBox extends AbstractDistancesConfigBox{
 	private final GraphhopperConfiguration config;
@@ -43,6 +45,16 @@ public class GraphhopperBox extends AbstractDistancesConfigBox{
 			}
 		});
 		panel.add(dblEntryPanel);
+		panel.addHalfWhitespace();
+		
+		IntegerEntryPanel threadsPanel = new IntegerEntryPanel("Number matrix threads ", config.getNbMatrixThreads(), "Number of threads used to calculate the matrix. Use 0 for all processors.", new IntChangedListener() {
+			
+			@Override
+			public void intChange(int newInt) {
+				config.setNbMatrixThreads(newInt);
+			}
+		});
+		panel.add(threadsPanel);
 		
 		pack();
 	}
@@ -18,6 +18,7 @@ import com.opendoorlogistics.api.distances.DistancesOutputConfiguration;
 import com.opendoorlogistics.api.distances.DistancesOutputConfiguration.OutputDistanceUnit;
 import com.opendoorlogistics.api.distances.DistancesOutputConfiguration.OutputTimeUnit;
 import com.opendoorlogistics.core.utils.ui.EnumComboBox;
+import com.opendoorlogistics.core.utils.ui.VerticalLayoutPanel.CheckChangedListener;
 
 public class UnitsBox extends AbstractDistancesConfigBox{
 	private final JLabel outputDistanceUnitLabel;
@@ -51,6 +52,16 @@ public class UnitsBox extends AbstractDistancesConfigBox{
 		};
 						
 		panel.addLine(outputDistanceUnitLabel, outputDistanceUnit, Box.createRigidArea(new Dimension(10, 1)),outputTimeUnitLabel, outputTimeUnit);
+		panel.addHalfWhitespace();
+		
+		// matrix precision
+		panel.addCheckBox("Store matrix in single precision (halves memory)", config.isSinglePrecision(), new CheckChangedListener() {
+			
+			@Override
+			public void checkChanged(boolean isChecked) {
+				config.setSinglePrecision(isChecked);
+			}
+		});
 
 		pack();
 	}
@@ -10,6 +10,20 @@ package com.opendoorlogistics.core.formulae;
 
 public interface Function {
 	Object execute(FunctionParameters parameters) ;
+	
+	/**
+	 * Execute the function once for each of the parameters, e.g. for every row in a column,
+	 * writing the result for parameters[i] to out[i]. Functions which can share work between
+	 * executions override this.
+	 * @param parameters
+	 * @param out
+	 */
+	default void executeBatch(FunctionParameters[] parameters, Object[] out){
+		for(int i =0 ; i < parameters.length ; i++){
+			out[i] = execute(parameters[i]);
+		}
+	}
+	
 	int nbChildren();
 	Function child(int i);
 	void replaceChild(int i, Function newChild);
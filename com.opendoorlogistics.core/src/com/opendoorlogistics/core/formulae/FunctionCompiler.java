@@ -0,0 +1,534 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.formulae;
+
+import java.awt.Color;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.opendoorlogistics.api.tables.ODLTime;
+import com.opendoorlogistics.core.formulae.Functions.FmAbs;
+import com.opendoorlogistics.core.formulae.Functions.FmAcos;
+import com.opendoorlogistics.core.formulae.Functions.FmAnd;
+import com.opendoorlogistics.core.formulae.Functions.FmAsin;
+import com.opendoorlogistics.core.formulae.Functions.FmAtan;
+import com.opendoorlogistics.core.formulae.Functions.FmBitwiseOr;
+import com.opendoorlogistics.core.formulae.Functions.FmCeil;
+import com.opendoorlogistics.core.formulae.Functions.FmColour;
+import com.opendoorlogistics.core.formulae.Functions.FmColourMultiply;
+import com.opendoorlogistics.core.formulae.Functions.FmConcatenate;
+import com.opendoorlogistics.core.formulae.Functions.FmConst;
+import com.opendoorlogistics.core.formulae.Functions.FmContains;
+import com.opendoorlogistics.core.formulae.Functions.FmCos;
+import com.opendoorlogistics.core.formulae.Functions.FmDarken;
+import com.opendoorlogistics.core.formulae.Functions.FmDecimalHours;
+import com.opendoorlogistics.core.formulae.Functions.FmDivide;
+import com.opendoorlogistics.core.formulae.Functions.FmEquals;
+import com.opendoorlogistics.core.formulae.Functions.FmFirstNonNull;
+import com.opendoorlogistics.core.formulae.Functions.FmFloor;
+import com.opendoorlogistics.core.formulae.Functions.FmGreaterThan;
+import com.opendoorlogistics.core.formulae.Functions.FmGreaterThanEqualTo;
+import com.opendoorlogistics.core.formulae.Functions.FmGreyscale;
+import com.opendoorlogistics.core.formulae.Functions.FmIfThenElse;
+import com.opendoorlogistics.core.formulae.Functions.FmIndexOf;
+import com.opendoorlogistics.core.formulae.Functions.FmLeft;
+import com.opendoorlogistics.core.formulae.Functions.FmLen;
+import com.opendoorlogistics.core.formulae.Functions.FmLerp;
+import com.opendoorlogistics.core.formulae.Functions.FmLessThan;
+import com.opendoorlogistics.core.formulae.Functions.FmLessThanEqualTo;
+import com.opendoorlogistics.core.formulae.Functions.FmLighten;
+import com.opendoorlogistics.core.formulae.Functions.FmLn;
+import com.opendoorlogistics.core.formulae.Functions.FmLog10;
+import com.opendoorlogistics.core.formulae.Functions.FmLower;
+import com.opendoorlogistics.core.formulae.Functions.FmMax;
+import com.opendoorlogistics.core.formulae.Functions.FmMin;
+import com.opendoorlogistics.core.formulae.Functions.FmMod;
+import com.opendoorlogistics.core.formulae.Functions.FmMultiply;
+import com.opendoorlogistics.core.formulae.Functions.FmNegate;
+import com.opendoorlogistics.core.formulae.Functions.FmNot;
+import com.opendoorlogistics.core.formulae.Functions.FmNotEqual;
+import com.opendoorlogistics.core.formulae.Functions.FmOr;
+import com.opendoorlogistics.core.formulae.Functions.FmPostcodeUKFormatUnit;
+import com.opendoorlogistics.core.formulae.Functions.FmPostcodeUk;
+import com.opendoorlogistics.core.formulae.Functions.FmPow;
+import com.opendoorlogistics.core.formulae.Functions.FmRand;
+import com.opendoorlogistics.core.formulae.Functions.FmRandPalletColour;
+import com.opendoorlogistics.core.formulae.Functions.FmRandomSymbol;
+import com.opendoorlogistics.core.formulae.Functions.FmRegExpMatchedGroup;
+import com.opendoorlogistics.core.formulae.Functions.FmRegExpMatches;
+import com.opendoorlogistics.core.formulae.Functions.FmRelativeComparisonBase;
+import com.opendoorlogistics.core.formulae.Functions.FmReplace;
+import com.opendoorlogistics.core.formulae.Functions.FmRound;
+import com.opendoorlogistics.core.formulae.Functions.FmRound2Second;
+import com.opendoorlogistics.core.formulae.Functions.FmSin;
+import com.opendoorlogistics.core.formulae.Functions.FmSqrt;
+import com.opendoorlogistics.core.formulae.Functions.FmStringDateTimeStamp;
+import com.opendoorlogistics.core.formulae.Functions.FmSubtract;
+import com.opendoorlogistics.core.formulae.Functions.FmSum;
+import com.opendoorlogistics.core.formulae.Functions.FmSwitch;
+import com.opendoorlogistics.core.formulae.Functions.FmTan;
+import com.opendoorlogistics.core.formulae.Functions.FmTemperatureColours;
+import com.opendoorlogistics.core.formulae.Functions.FmUpper;
+import com.opendoorlogistics.core.scripts.formulae.FmLocalElement;
+import com.opendoorlogistics.core.utils.Numbers;
+
+/**
+ * Optimises a parsed function tree before it is executed many times (e.g. once per row of an adapter).
+ * <ul>
+ * <li>Constant folding - deterministic functions whose inputs are all constant are replaced by their result.</li>
+ * <li>Common subexpression elimination - identical deterministic subtrees are executed once per top-level execution.</li>
+ * <li>Specialisation - chained sums and products are flattened so the intermediate results aren't boxed, and
+ * comparisons against a numeric constant convert the constant once only.</li>
+ * </ul>
+ * Only the function types listed in {@link #DETERMINISTIC} are optimised; everything else
+ * (lookups, random numbers, user-defined functions etc) is left alone. The compiled function
+ * gives the same results as the original and is thread safe if the original was.
+ * @author Phil
+ *
+ */
+public final class FunctionCompiler {
+	private static final HashSet<Class<? extends Function>> DETERMINISTIC = new HashSet<>();
+
+	static {
+		for (Class<? extends Function> cls : Arrays.<Class<? extends Function>> asList(FmAbs.class, FmAcos.class, FmAnd.class, FmAsin.class,
+				FmAtan.class, FmBitwiseOr.class, FmCeil.class, FmColour.class, FmColourMultiply.class, FmConcatenate.class, FmContains.class,
+				FmCos.class, FmDarken.class, FmDecimalHours.class, FmDivide.class, FmEquals.class, FmFirstNonNull.class, FmFloor.class,
+				FmGreaterThan.class, FmGreaterThanEqualTo.class, FmGreyscale.class, FmIfThenElse.class, FmIndexOf.class, FmLeft.class,
+				FmLen.class, FmLerp.class, FmLessThan.class, FmLessThanEqualTo.class, FmLighten.class, FmLn.class, FmLog10.class,
+				FmLower.class, FmMax.class, FmMin.class, FmMod.class, FmMultiply.class, FmNegate.class, FmNot.class, FmNotEqual.class,
+				FmOr.class, FmPostcodeUk.class, FmPostcodeUKFormatUnit.class, FmPow.class, FmRegExpMatchedGroup.class,
+				FmRegExpMatches.class, FmReplace.class, FmRound.class, FmRound2Second.class, FmSin.class, FmSqrt.class, FmSubtract.class,
+				FmSum.class, FmSwitch.class, FmTan.class, FmTemperatureColours.class, FmUpper.class)) {
+			DETERMINISTIC.add(cls);
+		}
+	}
+
+	/**
+	 * Functions which can give a different result each time they're executed with the same inputs
+	 */
+	private static final List<Class<? extends Function>> VOLATILE = Arrays.<Class<? extends Function>> asList(FmRand.class,
+			FmRandomSymbol.class, FmRandPalletColour.class, FmStringDateTimeStamp.class);
+
+	private FunctionCompiler() {
+	}
+
+	/**
+	 * Test if the function (or any of its children) can give a different result each time it's executed with the
+	 * same data, e.g. random numbers, in which case its results should never be cached.
+	 * 
+	 * @param f
+	 * @return
+	 */
+	public static boolean isVolatile(Function f) {
+		if (f == null) {
+			return false;
+		}
+		for (Class<? extends Function> cls : VOLATILE) {
+			if (cls.isInstance(f)) {
+				return true;
+			}
+		}
+		int n = f.nbChildren();
+		for (int i = 0; i < n; i++) {
+			if (isVolatile(f.child(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isDeterministic(Function f) {
+		return f != null && DETERMINISTIC.contains(f.getClass());
+	}
+
+	/**
+	 * Only fold to values which can't be modified, as the same instance is returned on every execution
+	 *
+	 * @param o
+	 * @return
+	 */
+	private static boolean isImmutableValue(Object o) {
+		return o == null || o instanceof String || o instanceof Long || o instanceof Double || o instanceof Integer || o instanceof Boolean
+				|| o instanceof Color || o instanceof ODLTime || o instanceof LocalDate;
+	}
+
+	/**
+	 * Replace deterministic functions of constants by the constant result. The input function may be modified. This doesn't change the
+	 * type of any non-constant function, so it is safe to use on functions which are later inspected by type.
+	 *
+	 * @param f
+	 * @return The folded function, which may be the input function
+	 */
+	public static Function foldConstants(Function f) {
+		if (f == null) {
+			return null;
+		}
+
+		int n = f.nbChildren();
+		boolean allConst = true;
+		for (int i = 0; i < n; i++) {
+			Function child = f.child(i);
+			Function folded = foldConstants(child);
+			if (folded != child) {
+				f.replaceChild(i, folded);
+			}
+			allConst &= folded instanceof FmConst;
+		}
+
+		if (!isDeterministic(f)) {
+			return f;
+		}
+
+		if (f instanceof FmIfThenElse && f.child(0) instanceof FmConst) {
+			// only the chosen branch would ever be executed
+			Double d = Numbers.toDouble(((FmConst) f.child(0)).value());
+			if (d != null) {
+				return d == 1 ? f.child(1) : f.child(2);
+			}
+		}
+
+		if (allConst && n > 0) {
+			try {
+				Object val = f.execute(null);
+				if (val != Functions.EXECUTION_ERROR && isImmutableValue(val)) {
+					return new FmConst(val);
+				}
+			} catch (Throwable e) {
+				// leave as is and let it fail at execution
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Fully compile the function for repeated execution. The returned function should only be executed, as common subexpressions are
+	 * wrapped in new function types which code inspecting the function tree won't recognise.
+	 *
+	 * @param f
+	 * @return
+	 */
+	public static Function compile(Function f) {
+		if (f == null) {
+			return null;
+		}
+		f = foldConstants(f);
+		f = specialise(f);
+		return eliminateCommonSubexpressions(f);
+	}
+
+	private static Function specialise(Function f) {
+		int n = f.nbChildren();
+		for (int i = 0; i < n; i++) {
+			Function child = f.child(i);
+			Function specialised = specialise(child);
+			if (specialised != child) {
+				f.replaceChild(i, specialised);
+			}
+		}
+
+		// Flatten left-nested chains like (a+b)+c, keeping the order of operations so the floating point result is identical
+		if (f.getClass() == FmSum.class && n > 0 && f.child(0).getClass() == FmSum.class && f.child(0).nbChildren() > 0) {
+			return new FmSum(flattenLeft(f));
+		}
+		if (f.getClass() == FmMultiply.class && n > 0 && f.child(0).getClass() == FmMultiply.class) {
+			return new FmMultiply(flattenLeft(f));
+		}
+
+		if (f instanceof FmRelativeComparisonBase) {
+			for (int i = 0; i < 2; i++) {
+				if (f.child(i) instanceof FmConst) {
+					Double d = Numbers.toDouble(((FmConst) f.child(i)).value());
+					if (d != null && !(f.child(1 - i) instanceof FmConst)) {
+						return new FmCompareWithConstant((FmRelativeComparisonBase) f, 1 - i, d);
+					}
+				}
+			}
+		}
+		return f;
+	}
+
+	private static Function[] flattenLeft(Function f) {
+		Function first = f.child(0);
+		int n = f.nbChildren();
+		Function[] ret = new Function[first.nbChildren() + n - 1];
+		for (int i = 0; i < first.nbChildren(); i++) {
+			ret[i] = first.child(i);
+		}
+		for (int i = 1; i < n; i++) {
+			ret[first.nbChildren() + i - 1] = f.child(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * Comparison where one side is a constant number, which is converted once at compilation
+	 */
+	static final class FmCompareWithConstant extends FunctionImpl {
+		private final FmRelativeComparisonBase original;
+		private final double constant;
+		private final boolean constantFirst;
+
+		FmCompareWithConstant(FmRelativeComparisonBase original, int variableChild, double constant) {
+			super(original.child(variableChild));
+			this.original = original;
+			this.constant = constant;
+			this.constantFirst = variableChild == 1;
+		}
+
+		@Override
+		public Object execute(FunctionParameters parameters) {
+			Object a = child(0).execute(parameters);
+			if (a == Functions.EXECUTION_ERROR) {
+				return Functions.EXECUTION_ERROR;
+			}
+
+			Double d = Numbers.toDouble(a);
+			if (d == null) {
+				// comparing nulls always gives false
+				return false;
+			}
+			return constantFirst ? original.compare(constant, d) : original.compare(d, constant);
+		}
+
+		@Override
+		public Function deepCopy() {
+			return original.deepCopy();
+		}
+
+		@Override
+		public String toString() {
+			return original.toString();
+		}
+	}
+
+	/**
+	 * Get a key which is equal for functions which always give the same result for the same parameters, or null if the function can't be
+	 * shared
+	 */
+	private static String structuralKey(Function f, IdentityHashMap<Function, String> keys) {
+		if (keys.containsKey(f)) {
+			return keys.get(f);
+		}
+
+		String key = null;
+		if (f instanceof FmConst) {
+			Object val = ((FmConst) f).value();
+			key = val != null ? "const:" + val.getClass().getName() + ":" + val : "const:null";
+		} else if (f != null && f.getClass() == FmLocalElement.class) {
+			key = "local:" + ((FmLocalElement) f).getColumnIndex();
+		} else if (isDeterministic(f)) {
+			StringBuilder builder = new StringBuilder();
+			builder.append(f.getClass().getName()).append("(");
+			int n = f.nbChildren();
+			for (int i = 0; i < n && builder != null; i++) {
+				String childKey = structuralKey(f.child(i), keys);
+				if (childKey == null) {
+					builder = null;
+				} else {
+					builder.append(i > 0 ? "," : "").append(childKey);
+				}
+			}
+			if (builder != null) {
+				key = builder.append(")").toString();
+			}
+		} else {
+			// still find keys within the children
+			int n = f != null ? f.nbChildren() : 0;
+			for (int i = 0; i < n; i++) {
+				structuralKey(f.child(i), keys);
+			}
+		}
+
+		keys.put(f, key);
+		return key;
+	}
+
+	private static boolean isShareable(Function f, String key) {
+		// no point sharing leaves, they're as cheap as a cache lookup
+		return key != null && f.nbChildren() > 0;
+	}
+
+	private static void countDescendants(Function f, IdentityHashMap<Function, String> keys, HashMap<String, Integer> counts, int delta) {
+		int n = f.nbChildren();
+		for (int i = 0; i < n; i++) {
+			Function child = f.child(i);
+			String key = keys.get(child);
+			if (isShareable(child, key)) {
+				Integer count = counts.get(key);
+				counts.put(key, (count != null ? count : 0) + delta);
+			}
+			countDescendants(child, keys, counts, delta);
+		}
+	}
+
+	private static Function eliminateCommonSubexpressions(Function f) {
+		IdentityHashMap<Function, String> keys = new IdentityHashMap<>();
+		String rootKey = structuralKey(f, keys);
+		HashMap<String, Integer> counts = new HashMap<>();
+		if (isShareable(f, rootKey)) {
+			counts.put(rootKey, 1);
+		}
+		countDescendants(f, keys, counts, 1);
+
+		// Don't count repeats which only occur within another repeated subtree, as only one copy of that subtree is kept
+		removeRepeatedWithinRepeated(f, keys, counts, new HashSet<String>());
+
+		final ArrayList<FmCommonSubexpression> shared = new ArrayList<>();
+		final ThreadLocal<Object[]> evaluationCache = new ThreadLocal<>();
+		Function ret = share(f, keys, counts, new HashMap<String, FmCommonSubexpression>(), shared, evaluationCache);
+		if (shared.size() == 0) {
+			return ret;
+		}
+		return new FmCompiled(ret, shared.size(), evaluationCache);
+	}
+
+	private static void removeRepeatedWithinRepeated(Function f, IdentityHashMap<Function, String> keys, HashMap<String, Integer> counts,
+			HashSet<String> seen) {
+		String key = keys.get(f);
+		if (isShareable(f, key) && counts.get(key) >= 2) {
+			if (!seen.add(key)) {
+				countDescendants(f, keys, counts, -1);
+				return;
+			}
+		}
+		int n = f.nbChildren();
+		for (int i = 0; i < n; i++) {
+			removeRepeatedWithinRepeated(f.child(i), keys, counts, seen);
+		}
+	}
+
+	private static Function share(Function f, IdentityHashMap<Function, String> keys, HashMap<String, Integer> counts,
+			HashMap<String, FmCommonSubexpression> created, ArrayList<FmCommonSubexpression> shared, ThreadLocal<Object[]> evaluationCache) {
+		String key = keys.get(f);
+		boolean repeated = isShareable(f, key) && counts.get(key) >= 2;
+		if (repeated) {
+			FmCommonSubexpression existing = created.get(key);
+			if (existing != null) {
+				return existing;
+			}
+		}
+
+		int n = f.nbChildren();
+		for (int i = 0; i < n; i++) {
+			Function child = f.child(i);
+			Function replaced = share(child, keys, counts, created, shared, evaluationCache);
+			if (replaced != child) {
+				f.replaceChild(i, replaced);
+			}
+		}
+
+		if (repeated) {
+			FmCommonSubexpression cse = new FmCommonSubexpression(f, shared.size(), evaluationCache);
+			created.put(key, cse);
+			shared.add(cse);
+			return cse;
+		}
+		return f;
+	}
+
+	/**
+	 * Root of a compiled function with common subexpressions. Each execution gets a fresh cache of the subexpression results, so results
+	 * are never reused between executions even if the same parameters object is passed again.
+	 */
+	static final class FmCompiled extends FunctionImpl {
+		private final int nbShared;
+		private final ThreadLocal<Object[]> evaluationCache;
+
+		FmCompiled(Function compiled, int nbShared, ThreadLocal<Object[]> evaluationCache) {
+			super(compiled);
+			this.nbShared = nbShared;
+			this.evaluationCache = evaluationCache;
+		}
+
+		@Override
+		public Object execute(FunctionParameters parameters) {
+			// save and restore the previous cache in case we're called recursively
+			Object[] previous = evaluationCache.get();
+			evaluationCache.set(new Object[2 * nbShared]);
+			try {
+				return child(0).execute(parameters);
+			} finally {
+				evaluationCache.set(previous);
+			}
+		}
+
+		/**
+		 * The cache can be shared by the whole batch as each execution has its own parameters object
+		 */
+		@Override
+		public void executeBatch(FunctionParameters[] parameters, Object[] out) {
+			Object[] previous = evaluationCache.get();
+			evaluationCache.set(new Object[2 * nbShared]);
+			try {
+				for (int i = 0; i < parameters.length; i++) {
+					out[i] = child(0).execute(parameters[i]);
+				}
+			} finally {
+				evaluationCache.set(previous);
+			}
+		}
+
+		@Override
+		public Function deepCopy() {
+			return child(0).deepCopy();
+		}
+
+		@Override
+		public boolean hasBrackets() {
+			return child(0).hasBrackets();
+		}
+	}
+
+	/**
+	 * A subexpression occurring more than once in a compiled function. The result is cached against the parameters object, as within a
+	 * single execution aggregate functions can execute the same subexpression with different parameters.
+	 */
+	static final class FmCommonSubexpression extends FunctionImpl {
+		private static final Object NULL_RESULT = new Object();
+		private final int index;
+		private final ThreadLocal<Object[]> evaluationCache;
+
+		FmCommonSubexpression(Function expression, int index, ThreadLocal<Object[]> evaluationCache) {
+			super(expression);
+			this.index = index;
+			this.evaluationCache = evaluationCache;
+		}
+
+		@Override
+		public Object execute(FunctionParameters parameters) {
+			Object[] cache = evaluationCache.get();
+			if (cache == null) {
+				return child(0).execute(parameters);
+			}
+
+			Object ret = cache[2 * index + 1];
+			if (ret != null && cache[2 * index] == parameters) {
+				return ret == NULL_RESULT ? null : ret;
+			}
+
+			ret = child(0).execute(parameters);
+			cache[2 * index] = parameters;
+			cache[2 * index + 1] = ret != null ? ret : NULL_RESULT;
+			return ret;
+		}
+
+		@Override
+		public Function deepCopy() {
+			return child(0).deepCopy();
+		}
+
+		@Override
+		public boolean hasBrackets() {
+			return child(0).hasBrackets();
+		}
+	}
+}
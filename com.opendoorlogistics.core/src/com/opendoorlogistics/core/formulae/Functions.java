@@ -1858,7 +1858,7 @@ public class Functions {
 
 		@Override
 		public Function deepCopy() {
-			return new FmMultiply(child(0).deepCopy(), child(1).deepCopy());
+			return new FmMultiply(deepCopy(children));
 		}
 
 		@Override
@@ -10,6 +10,7 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 
 /*
  * Specialised quadtree designed for fast lookups of points with an id contained within a polygon
@@ -17,6 +18,12 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 public class FastContainedPointsQuadtree {
 	private final static int MAX_POINTS_PER_NODE = 10;
 	
+	/**
+	 * JTS prepared polygons share a static line intersector when testing against other
+	 * geometries (but not points) so we can only run these tests on one thread at a time
+	 */
+	private final static Object PREPARED_INTERSECTION_LOCK = new Object();
+	
 	private final CacheKey cacheKey;
 	private final Node root;
 	
@@ -242,7 +249,7 @@ public class FastContainedPointsQuadtree {
 			return ret;
 		}
 		
-		NodeQueryResult getRelationToGeometry(Geometry g, QueryStats stats){
+		NodeQueryResult getRelationToGeometry(PreparedGeometry g, QueryStats stats){
 			if(g==null){
 				// everything is outside of null geometry
 				return NodeQueryResult.OUTSIDE;				
@@ -255,15 +262,20 @@ public class FastContainedPointsQuadtree {
 			
 			stats.nbQuadIntersectionTests++;
 			
-			// check for no intersection
-			boolean intersects = g.intersects(polygonEnvelope);
+			// check for no intersection, or completely contained
+			boolean intersects;
+			boolean contains=false;
+			synchronized (PREPARED_INTERSECTION_LOCK) {
+				intersects = g.intersects(polygonEnvelope);
+				if(intersects){
+					contains = g.contains(polygonEnvelope);
+				}
+			}
 			if(!intersects){
 				stats.nbOutsideQuads++;
 				return NodeQueryResult.OUTSIDE;
 			}
 			
-			// check for completely contained
-			boolean contains = g.contains(polygonEnvelope);
 			if(contains){
 				stats.nbContainedQuads++;
 				return NodeQueryResult.INSIDE;
@@ -288,7 +300,7 @@ public class FastContainedPointsQuadtree {
 		
 
 
-		void query(Geometry g, TLongHashSet ids, QueryStats stats){
+		void query(PreparedGeometry g, TLongHashSet ids, QueryStats stats){
 			// Check for the case where we only have one non-null child and descend straight away.
 			// This can happen for highly-concentrated points where we may have to descend many levels until finding them
 			if(nbNonNullChildren()==1){
@@ -352,8 +364,9 @@ public class FastContainedPointsQuadtree {
 	
 	public QueryStats query(Geometry g, TLongHashSet ids){
 		QueryStats stats = new QueryStats();
-		if(root!=null){
-			root.query(g, ids, stats);			
+		if(root!=null && g!=null){
+			// use the prepared geometry, which is indexed for faster intersection tests
+			root.query(GeomContains.prepare(g), ids, stats);			
 		}
 		return stats;
 	}
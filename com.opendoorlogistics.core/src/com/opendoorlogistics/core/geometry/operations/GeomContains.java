@@ -1,7 +1,5 @@
 package com.opendoorlogistics.core.geometry.operations;
 
-import gnu.trove.map.hash.TObjectByteHashMap;
-
 import com.opendoorlogistics.core.cache.ApplicationCache;
 import com.opendoorlogistics.core.cache.RecentlyUsedCache;
 import com.opendoorlogistics.core.geometry.Spatial;
@@ -9,10 +7,13 @@ import com.opendoorlogistics.core.utils.ObjectDefaultSystemHashingDecorator;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedPolygon;
 
 
 public class GeomContains {
-	private static int MAX_CACHE_POINT_SIZE_PER_RESULTS_OBJ = 100000;
 	
 	private static class CacheKey{
 		final Geometry geometry;
@@ -60,39 +61,57 @@ public class GeomContains {
 	}
 	
 	private static class CachedResultRecord{
-		Geometry projected;
-		TObjectByteHashMap<Coordinate> results = new TObjectByteHashMap<Coordinate>();
+		final PreparedGeometry prepared;
+		final GridTransforms transforms;
+		
+		CachedResultRecord(PreparedGeometry prepared, GridTransforms transforms) {
+			this.prepared = prepared;
+			this.transforms = transforms;
+		}
 	}
 	
 	/**
-	 *  Calculate if the input geometry contains the input point, using the projection of both
+	 * Get the prepared (i.e. indexed) version of the geometry, caching it so we only build the index
+	 * once for each geometry object. Point-in-polygon tests against the prepared geometry take
+	 * logarithmic time in the number of vertices instead of linear time.
 	 * @param g
-	 * @param c
 	 * @return
 	 */
-	public static boolean containsPoint(Geometry g, Coordinate c){
-		// Get results object (for whole geometry) from cache if it exists
+	public static PreparedGeometry prepare(Geometry g){
 		CacheKey key = new CacheKey(g, null);
 		RecentlyUsedCache cache = ApplicationCache.singleton().get(ApplicationCache.PROJECTED_GEOMETRY_CONTAINS_CACHE);
-		Object cached = cache.get(key);
-		CachedResultRecord result = (CachedResultRecord)cached;
-		
+		CachedResultRecord result = (CachedResultRecord)cache.get(key);
 		if(result==null){
-			result = new CachedResultRecord();
+			result = new CachedResultRecord(PreparedGeometryFactory.prepare(g), null);
+			cacheResult(key, result, false, cache);
 		}
-		
-		// Check if we already have the result
-		if(result.results.containsKey(c)){
-			return result.results.get(c)==1;
+		return result.prepared;
+	}
+	
+	/**
+	 * Test if the prepared geometry contains the point. This is thread-safe.
+	 * @param prepared
+	 * @param c
+	 * @return
+	 */
+	public static boolean containsPoint(PreparedGeometry prepared, Coordinate c){
+		if(prepared instanceof PreparedPolygon){
+			// Use the polygon's indexed locator directly. A point is only contained if it's in the interior.
+			return ((PreparedPolygon)prepared).getPointLocator().locate(c) == Location.INTERIOR;
 		}
 		
-		// calculate it
 		GeometryFactory factory = new GeometryFactory();
-		Geometry p = factory.createPoint(c);
-		boolean contains = g.contains(p);
-		
-		cacheResult(key, new Coordinate(c), contains, false, cached!=null, result, cache);
-		return contains;
+		return prepared.contains(factory.createPoint(c));
+	}
+	
+	/**
+	 *  Calculate if the input geometry contains the input point, using the projection of both
+	 * @param g
+	 * @param c
+	 * @return
+	 */
+	public static boolean containsPoint(Geometry g, Coordinate c){
+		return containsPoint(prepare(g), c);
 	}
 	
 	/**
@@ -105,69 +124,36 @@ public class GeomContains {
 	 * @return
 	 */
 	public static boolean containsPoint(Geometry g, double latitude, double longitude, String espg){
+		Coordinate coordinate = new Coordinate(longitude, latitude);
+		if(espg==null){
+			return containsPoint(g, coordinate);
+		}
 		
-		// Get results object (for whole geometry) from cache if it exists
+		// Get prepared projected geometry from cache if it exists, creating if needed
 		CacheKey key = new CacheKey(g, espg);
 		RecentlyUsedCache cache = ApplicationCache.singleton().get(ApplicationCache.PROJECTABLE_GEOMETRY_CONTAINS_CACHE);
-		Object cached = cache.get(key);
-		CachedResultRecord result = (CachedResultRecord)cached;
-		
-		// Create results object if needed
-		GridTransforms transforms =null;
+		CachedResultRecord result = (CachedResultRecord)cache.get(key);
 		if(result==null){
-			result = new CachedResultRecord();
-			
-			// Transform if needed
-			if(espg!=null){
-				transforms = GridTransforms.getAndCache(espg);
-				result.projected = transforms.wgs84ToGrid(g);
-			}
+			GridTransforms transforms = GridTransforms.getAndCache(espg);
+			result = new CachedResultRecord(PreparedGeometryFactory.prepare(transforms.wgs84ToGrid(g)), transforms);
+			cacheResult(key, result, true, cache);
 		}
 
-		// Check if we already have the result
-		Coordinate coordinate = new Coordinate(longitude, latitude, 0);
-		if(result.results.containsKey(coordinate)){
-			return result.results.get(coordinate)==1;
-		}
-
-		// Calculate the contains, projecting as needed
-		Geometry polygonGeom = g;
+		// Calculate the contains in the projection
 		GeometryFactory factory = new GeometryFactory();
-		Geometry pointGeom = factory.createPoint(new Coordinate(longitude, latitude));
-		if(transforms!=null){
-			polygonGeom = result.projected;
-			pointGeom = transforms.wgs84ToGrid(pointGeom);
-		}
-		boolean contains = polygonGeom.contains(pointGeom);
-
-		cacheResult(key, coordinate, contains, transforms!=null, cached!=null, result, cache);
-		return contains;
+		Geometry pointGeom = result.transforms.wgs84ToGrid(factory.createPoint(coordinate));
+		return containsPoint(result.prepared, pointGeom.getCoordinate());
 	}
 
-	private static void cacheResult(CacheKey key, Coordinate coordinate, boolean isContained, boolean hasTransform, boolean wasCached, CachedResultRecord cachedResultRecord, RecentlyUsedCache cache) {
-		// If the results object is getting silly big, assume most of the results are old and clear them
-		if(cachedResultRecord.results.size() > MAX_CACHE_POINT_SIZE_PER_RESULTS_OBJ){
-			cachedResultRecord.results.clear();
-		}
-		
-		// Add result to the results object
-		cachedResultRecord.results.put(coordinate, isContained ? (byte)1 : (byte)0);
-		
-		// Remove existing results object from cache (if it was cached) as its size has changed
-		if(wasCached){
-			cache.remove(key);			
-		}
-		
+	private static void cacheResult(CacheKey key, CachedResultRecord cachedResultRecord, boolean hasTransform, RecentlyUsedCache cache) {
 		// Estimate size. We assume that the geometry is wholey owned by the cache record,
 		// as typically we use contains for short-lived geometry (e.g. when geometry is edited and each edit is a geom)
-		// which may only be referenced from here
-		long nbBytes = Spatial.getEstimatedSizeInBytes(key.geometry);
+		// which may only be referenced from here. The prepared geometry's index is assumed to be
+		// about the same size as the geometry.
+		long nbBytes = 2 * Spatial.getEstimatedSizeInBytes(key.geometry);
 		if(hasTransform){
 			nbBytes *=2;
 		}
-		long llSize = 3*8;
-		long mapSize = cachedResultRecord.results.size() * (llSize + 8) + 64;
-		nbBytes += mapSize;
 		
 		// Cache it
 		cache.put(key, cachedResultRecord, nbBytes);
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.geometry.operations;
+
+import java.util.Arrays;
+
+import com.opendoorlogistics.core.geometry.GreateCircle;
+import com.opendoorlogistics.graphhopper.GreateCircleVincetty;
+
+/**
+ * Static k-d tree over items approximated by bounding circles (or spheres), used to find
+ * the item nearest to a query object without testing every item. The tree only provides
+ * lower bounds for pruning; the caller supplies the exact distance for each item.
+ * Items are returned by their index in the arrays passed to the constructor.
+ * Queries are thread safe.
+ * @author Phil
+ *
+ */
+public final class NearestNeighbourTree {
+	private static final int LEAF_SIZE = 8;
+
+	private final int dims;
+	private final boolean greatCircle;
+	private final int[] items;
+	private final double[] centres;
+
+	private int nbNodes;
+	private int[] nodeStart;
+	private int[] nodeEnd;
+	private int[] nodeLeft;
+	private int[] nodeRight;
+	private double[] nodeMin;
+	private double[] nodeMax;
+
+	/**
+	 * Supplies the distances for the items in the tree
+	 */
+	public static interface ItemDistances {
+		/**
+		 * A cheap lower bound on the distance to the item. When two items are
+		 * at the same distance the one with the lowest bound wins, then the one with the
+		 * lowest index.
+		 * @param item
+		 * @return
+		 */
+		double lowerBound(int item);
+
+		double distance(int item);
+	}
+
+	/**
+	 * Build a tree in a planar coordinate system where each item is a circle.
+	 * @param centres x and y of each item centre, interleaved
+	 * @param radii
+	 * @return
+	 */
+	public static NearestNeighbourTree createPlanar(double[] centres, double[] radii) {
+		return new NearestNeighbourTree(2, false, centres, radii);
+	}
+
+	/**
+	 * Build a tree of points on the earth's surface, using great circle distances as calculated by
+	 * {@link GreateCircle#greatCircleApprox}.
+	 * @param latitudes
+	 * @param longitudes
+	 * @return
+	 */
+	public static NearestNeighbourTree createGreatCircle(double[] latitudes, double[] longitudes) {
+		int n = latitudes.length;
+		double[] centres = new double[3 * n];
+		for (int i = 0; i < n; i++) {
+			toUnitVector(latitudes[i], longitudes[i], centres, 3 * i);
+		}
+		return new NearestNeighbourTree(3, true, centres, new double[n]);
+	}
+
+	private NearestNeighbourTree(int dims, boolean greatCircle, double[] itemCentres, double[] radii) {
+		this.dims = dims;
+		this.greatCircle = greatCircle;
+		int n = radii.length;
+		items = new int[n];
+		for (int i = 0; i < n; i++) {
+			items[i] = i;
+		}
+		centres = Arrays.copyOf(itemCentres, n * dims);
+
+		int capacity = Math.max(1, 4 * n / LEAF_SIZE + 1);
+		nodeStart = new int[capacity];
+		nodeEnd = new int[capacity];
+		nodeLeft = new int[capacity];
+		nodeRight = new int[capacity];
+		nodeMin = new double[capacity * dims];
+		nodeMax = new double[capacity * dims];
+		if (n > 0) {
+			build(0, n, radii);
+		}
+	}
+
+	private static void toUnitVector(double latitude, double longitude, double[] out, int offset) {
+		double lat = Math.toRadians(latitude);
+		double lng = Math.toRadians(longitude);
+		double cosLat = Math.cos(lat);
+		out[offset] = cosLat * Math.cos(lng);
+		out[offset + 1] = cosLat * Math.sin(lng);
+		out[offset + 2] = Math.sin(lat);
+	}
+
+	public int size() {
+		return items.length;
+	}
+
+	private int build(int start, int end, double[] radii) {
+		int node = nbNodes++;
+		if (node >= nodeStart.length) {
+			int capacity = nodeStart.length * 2;
+			nodeStart = Arrays.copyOf(nodeStart, capacity);
+			nodeEnd = Arrays.copyOf(nodeEnd, capacity);
+			nodeLeft = Arrays.copyOf(nodeLeft, capacity);
+			nodeRight = Arrays.copyOf(nodeRight, capacity);
+			nodeMin = Arrays.copyOf(nodeMin, capacity * dims);
+			nodeMax = Arrays.copyOf(nodeMax, capacity * dims);
+		}
+		nodeStart[node] = start;
+		nodeEnd[node] = end;
+		nodeLeft[node] = -1;
+		nodeRight[node] = -1;
+
+		// bounds of the items' circles, also finding the widest spread of centres
+		int splitDim = 0;
+		double widest = -1;
+		for (int d = 0; d < dims; d++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			double minCentre = Double.POSITIVE_INFINITY;
+			double maxCentre = Double.NEGATIVE_INFINITY;
+			for (int i = start; i < end; i++) {
+				double c = centres[i * dims + d];
+				double r = radii[items[i]];
+				min = Math.min(min, c - r);
+				max = Math.max(max, c + r);
+				minCentre = Math.min(minCentre, c);
+				maxCentre = Math.max(maxCentre, c);
+			}
+			nodeMin[node * dims + d] = min;
+			nodeMax[node * dims + d] = max;
+			if (maxCentre - minCentre > widest) {
+				widest = maxCentre - minCentre;
+				splitDim = d;
+			}
+		}
+
+		if (end - start > LEAF_SIZE && widest > 0) {
+			int mid = (start + end) >>> 1;
+			select(start, end - 1, mid, splitDim);
+			int left = build(start, mid, radii);
+			int right = build(mid, end, radii);
+			nodeLeft[node] = left;
+			nodeRight[node] = right;
+		}
+		return node;
+	}
+
+	/**
+	 * Partially sort the range so the item at position k has the k-th smallest centre on the dimension
+	 */
+	private void select(int lo, int hi, int k, int dim) {
+		while (hi > lo) {
+			double pivot = centres[((lo + hi) >>> 1) * dims + dim];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (centres[i * dims + dim] < pivot) {
+					i++;
+				}
+				while (centres[j * dims + dim] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int a, int b) {
+		int tmp = items[a];
+		items[a] = items[b];
+		items[b] = tmp;
+		for (int d = 0; d < dims; d++) {
+			double c = centres[a * dims + d];
+			centres[a * dims + d] = centres[b * dims + d];
+			centres[b * dims + d] = c;
+		}
+	}
+
+	private double nodeLowerBound(int node, double[] query, double queryRadius) {
+		double sumSq = 0;
+		for (int d = 0; d < dims; d++) {
+			double q = query[d];
+			double gap = Math.max(nodeMin[node * dims + d] - q, q - nodeMax[node * dims + d]);
+			if (gap > 0) {
+				sumSq += gap * gap;
+			}
+		}
+		double dist = Math.sqrt(sumSq);
+		if (greatCircle) {
+			// chord length on the unit sphere to central angle
+			return GreateCircleVincetty.EARTH_RADIUS_METRES * 2 * Math.asin(Math.min(1, 0.5 * dist));
+		}
+		return dist - queryRadius;
+	}
+
+	private static class Search {
+		final double[] query;
+		final double queryRadius;
+		final ItemDistances distances;
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+		double bestLowerBound = Double.MAX_VALUE;
+
+		Search(double[] query, double queryRadius, ItemDistances distances) {
+			this.query = query;
+			this.queryRadius = queryRadius;
+			this.distances = distances;
+		}
+	}
+
+	/**
+	 * Find the nearest item to a circle in a planar tree
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param distances
+	 * @return The item index or -1 if the tree is empty
+	 */
+	public int nearestPlanar(double x, double y, double radius, ItemDistances distances) {
+		if (greatCircle) {
+			throw new UnsupportedOperationException();
+		}
+		return nearest(new Search(new double[] { x, y }, radius, distances));
+	}
+
+	/**
+	 * Find the nearest item to a point in a great circle tree
+	 * @param latitude
+	 * @param longitude
+	 * @param distances
+	 * @return The item index or -1 if the tree is empty
+	 */
+	public int nearestGreatCircle(double latitude, double longitude, ItemDistances distances) {
+		if (!greatCircle) {
+			throw new UnsupportedOperationException();
+		}
+		double[] query = new double[3];
+		toUnitVector(latitude, longitude, query, 0);
+		return nearest(new Search(query, 0, distances));
+	}
+
+	private int nearest(Search search) {
+		if (nbNodes > 0) {
+			visit(0, search);
+		}
+		return search.best;
+	}
+
+	private void visit(int node, Search search) {
+		int left = nodeLeft[node];
+		if (left == -1) {
+			for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+				int item = items[i];
+				double lowerBound = search.distances.lowerBound(item);
+				if (lowerBound > search.bestDistance) {
+					continue;
+				}
+
+				double distance = search.distances.distance(item);
+				if (distance < search.bestDistance || (distance == search.bestDistance
+						&& (lowerBound < search.bestLowerBound || (lowerBound == search.bestLowerBound && item < search.best)))) {
+					search.best = item;
+					search.bestDistance = distance;
+					search.bestLowerBound = lowerBound;
+				}
+			}
+			return;
+		}
+
+		// visit the closer child first so the other is more likely to be pruned
+		int right = nodeRight[node];
+		double leftBound = nodeLowerBound(left, search.query, search.queryRadius);
+		double rightBound = nodeLowerBound(right, search.query, search.queryRadius);
+		if (rightBound < leftBound) {
+			int tmp = left;
+			left = right;
+			right = tmp;
+			double tmpBound = leftBound;
+			leftBound = rightBound;
+			rightBound = tmpBound;
+		}
+		if (!canPrune(leftBound, search)) {
+			visit(left, search);
+		}
+		if (!canPrune(rightBound, search)) {
+			visit(right, search);
+		}
+	}
+
+	private static boolean canPrune(double nodeBound, Search search) {
+		// Allow a little slack as the node bound is calculated differently to the item bounds
+		// and we must not lose items which tie with the current best
+		return nodeBound - 1E-9 * (1 + Math.abs(nodeBound)) > search.bestDistance;
+	}
+}
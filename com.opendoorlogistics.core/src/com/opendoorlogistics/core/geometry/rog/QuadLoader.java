@@ -15,8 +15,13 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.geotools.geometry.jts.JTS;
@@ -29,15 +34,15 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.opendoorlogistics.codefromweb.jxmapviewer2.fork.swingx.OSMTileFactoryInfo;
 import com.opendoorlogistics.codefromweb.jxmapviewer2.fork.swingx.mapviewer.TileFactoryInfo;
-import com.opendoorlogistics.core.cache.ApplicationCache;
-import com.opendoorlogistics.core.cache.RecentlyUsedCache;
 import com.opendoorlogistics.core.utils.LargeList;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.InStream;
 import com.vividsolutions.jts.io.WKBReader;
 
 import de.undercouch.bson4jackson.BsonFactory;
 
 public class QuadLoader implements Closeable, RogFileInformation{
+	private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
 	private final LargeList<Long> quadPositions = new LargeList<>();
 	private final RandomAccessFile rf; 	
 	private final File file;
@@ -45,6 +50,8 @@ public class QuadLoader implements Closeable, RogFileInformation{
 	private final TileFactoryInfo info = new OSMTileFactoryInfo();
 	private final Point2D [] mapCentresAtZoom ;
 	private boolean isNOLP;
+	private long [] chunkStarts;
+	private MappedByteBuffer [] chunks;
 	
 	public QuadLoader(File file ) {
 		this(file, null);
@@ -72,6 +79,8 @@ public class QuadLoader implements Closeable, RogFileInformation{
 			for(long l= 0 ; l < n ; l++){
 				quadPositions.add(dis.readLong());
 			}	
+			
+			mapQuadData();
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -89,7 +98,7 @@ public class QuadLoader implements Closeable, RogFileInformation{
 		return ret;
 	}
 
-	private void readObjects( List<ODLRenderOptimisedGeom> list) {
+	private synchronized void readObjects( List<ODLRenderOptimisedGeom> list) {
 		try {
 			channel.position(0);
 			DataInputStream dis = createDIS();
@@ -148,139 +157,110 @@ public class QuadLoader implements Closeable, RogFileInformation{
 		}
 	}
 	
-	private static class CacheKey{
-		final File file;
-		final int blockNb;
-		
-		CacheKey(File file, int blockNb) {
-			this.file = file;
-			this.blockNb = blockNb;
-		}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + blockNb;
-			result = prime * result + ((file == null) ? 0 : file.hashCode());
-			return result;
-		}
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			CacheKey other = (CacheKey) obj;
-			if (blockNb != other.blockNb)
-				return false;
-			if (file == null) {
-				if (other.file != null)
-					return false;
-			} else if (!file.equals(other.file))
-				return false;
-			return true;
-		}
-		
-	}
-	
-	private static class CachedQuadBlock{
-		private final byte[] quadBinaryData;
-		private final long [] geomIds;
-		private final byte[][] bjsonBytes;
-		private final byte[][] geomBytes;
-		private long sizeBytes=0;
-		
-		public CachedQuadBlock(DataInputStream dis, int blockNb) {
-			try {
-				
-				// read block nb
-				int readBlockNb = dis.readInt();
-				if(readBlockNb!=blockNb){
-					throw new RuntimeException("Corrupt quadtree file.");
-				}
-
-				// read bjson
-				quadBinaryData = RogReaderUtils.readBytesArray(dis);
-				
-				// read number of leaves
-				int n =dis.readInt();
-				
-				// allocate arrays to hold the data, incrementing the object size
-				geomIds = new long[n];
-				sizeBytes += n*8;
-
-				sizeBytes += n*8 + 8;
-				bjsonBytes = new byte[n][];
-
-				sizeBytes += n*8 + 8;
-				geomBytes = new byte[n][];
-						
-				// skip past the position of all leaves relative to block start...
-				for(int i =0 ; i<n ; i++){
-					dis.readInt();
-				}
-				
-				// read the leaves themselves
-				for(int i =0 ; i<n ; i++){
-					
-					// read geom id
-					geomIds[i] = dis.readLong();
-	
-					// read bjson array
-					bjsonBytes[i] = RogReaderUtils.readBytesArray(dis);
-					addToSize(bjsonBytes[i]);
-					
-					// read geom array
-					geomBytes[i] = RogReaderUtils.readBytesArray(dis);
-					addToSize(geomBytes[i]);
-	
-				}
-	
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+	/**
+	 * Map the quad data at the end of the file into read-only buffers. A mapped buffer can't
+	 * be larger than 2GB so large files are mapped in chunks, split at block boundaries so
+	 * each block is wholly within one chunk.
+	 */
+	private void mapQuadData() throws IOException{
+		long fileSize = channel.size();
+		long nbBlocks = quadPositions.longSize();
+		ArrayList<Long> starts = new ArrayList<>();
+		ArrayList<MappedByteBuffer> buffers = new ArrayList<>();
+		long chunkStart = -1;
+		for(long i =0 ; i<=nbBlocks ; i++){
+			long blockStart = i < nbBlocks ? quadPositions.get(i) : fileSize;
+			if(chunkStart==-1){
+				chunkStart = blockStart;
 			}
-
-		}
-		
-		private void addToSize(byte[]bytes){
-			if(bytes!=null){
-				sizeBytes += bytes.length;
+			
+			// the chunk ends at the end of the file or at the start of a block which would make it too long
+			long nextBlockEnd = i + 1 < nbBlocks ? quadPositions.get(i + 1) : fileSize;
+			if(i == nbBlocks || nextBlockEnd - chunkStart > MAX_CHUNK_BYTES){
+				if(blockStart > chunkStart){
+					starts.add(chunkStart);
+					buffers.add(channel.map(MapMode.READ_ONLY, chunkStart, blockStart - chunkStart));					
+				}
+				chunkStart = blockStart;
 			}
 		}
 		
-		public long getSizeInBytes(){
-			return sizeBytes;
+		chunkStarts = new long[starts.size()];
+		for(int i =0 ; i<chunkStarts.length ; i++){
+			chunkStarts[i] = starts.get(i);
 		}
+		chunks = buffers.toArray(new MappedByteBuffer[buffers.size()]);
 	}
 	
-	public synchronized Geometry loadGeometry(long geomId, int blockNb, int geomNbInBlock){
-		// try fetching the block from the cache
-		RecentlyUsedCache cache = ApplicationCache.singleton().get(ApplicationCache.ROG_QUADTREE_BLOCKS);
-		CacheKey cacheKey = new CacheKey(file, blockNb);
-		CachedQuadBlock block = (CachedQuadBlock)cache.get(cacheKey);
+	/**
+	 * Reads WKB directly from the mapped file
+	 */
+	private static class ByteBufferInStream implements InStream{
+		private final ByteBuffer buffer;
 		
-		// load block and cache it if we didn't find it
-		if(block==null){
-			try {
-				channel.position(quadPositions.get(blockNb));
-				block = new CachedQuadBlock(createDIS(),blockNb);
-				cache.put(cacheKey, block, block.getSizeInBytes());
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}	
+		ByteBufferInStream(ByteBuffer buffer) {
+			this.buffer = buffer;
 		}
-		
-		// read the geometry
-		if(block.geomIds[geomNbInBlock]!=geomId){
-			throw new RuntimeException("Invalid quadtree file; read incorrect geometry id");
+
+		@Override
+		public void read(byte[] buf) throws IOException {
+			buffer.get(buf);
 		}
-		
+	}
+	
+	/**
+	 * Load the geometry directly from the mapped file. This doesn't lock so can be called
+	 * from many threads at once. The file is laid out as follows, with all positions in
+	 * a block being relative to the block start:
+	 * <p>
+	 * block = block nb (int), bjson (int length + bytes), nb leaves (int), leaf positions (int per leaf), leaves<br>
+	 * leaf = geom id (long), bjson (int length + bytes), wkb (int length + bytes)
+	 * @param geomId
+	 * @param blockNb
+	 * @param geomNbInBlock
+	 * @return
+	 */
+	public Geometry loadGeometry(long geomId, int blockNb, int geomNbInBlock){
 		try {
+			// find the chunk holding the block and take our own view of it, so we can set its position
+			long blockPosition = quadPositions.get(blockNb);
+			int chunkIndex = Arrays.binarySearch(chunkStarts, blockPosition);
+			if(chunkIndex < 0){
+				chunkIndex = -chunkIndex - 2;
+			}
+			ByteBuffer buffer = chunks[chunkIndex].duplicate();
+			int blockStart = (int)(blockPosition - chunkStarts[chunkIndex]);
+			
+			// read block nb
+			if(buffer.getInt(blockStart)!=blockNb){
+				throw new RuntimeException("Corrupt quadtree file.");
+			}
+			
+			// skip the bjson and read the number of leaves
+			int pos = blockStart + 4;
+			pos += 4 + buffer.getInt(pos);
+			int n = buffer.getInt(pos);
+			if(geomNbInBlock < 0 || geomNbInBlock >= n){
+				throw new RuntimeException("Invalid quadtree file; incorrect geometry number in block");				
+			}
+			
+			// go straight to the leaf
+			int leafStart = blockStart + buffer.getInt(pos + 4 + 4*geomNbInBlock);
+			if(buffer.getLong(leafStart)!=geomId){
+				throw new RuntimeException("Invalid quadtree file; read incorrect geometry id");
+			}
+			
+			// skip the bjson and read the geometry
+			pos = leafStart + 8;
+			pos += 4 + buffer.getInt(pos);
+			int geomLength = buffer.getInt(pos);
+			pos += 4;
+			buffer.limit(pos + geomLength);
+			buffer.position(pos);
 			WKBReader reader = new WKBReader();
-			Geometry g = reader.read(block.geomBytes[geomNbInBlock]);
-			return g;			
+			return reader.read(new ByteBufferInStream(buffer));
+		} catch (RuntimeException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
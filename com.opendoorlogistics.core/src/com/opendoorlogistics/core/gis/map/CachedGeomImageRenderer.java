@@ -24,9 +24,26 @@ import com.opendoorlogistics.core.utils.Colours;
 import com.opendoorlogistics.core.utils.images.ImageUtils;
 
 public class CachedGeomImageRenderer implements ObjectRenderer{
-	private final RecentImageCache geomCache = new RecentImageCache(RecentImageCache.ZipType.LZ4, 64*1024*1024);
+	private final RecentImageCache geomCache;
 	private final DatastoreRenderer renderer = new DatastoreRenderer();
 	
+	public CachedGeomImageRenderer(){
+		this(createGeomCache());
+	}
+	
+	/**
+	 * Create the renderer using a geometry image cache which can be shared with other 
+	 * renderers (e.g. one renderer per thread)
+	 * @param geomCache
+	 */
+	public CachedGeomImageRenderer(RecentImageCache geomCache){
+		this.geomCache = geomCache;
+	}
+	
+	public static RecentImageCache createGeomCache(){
+		return new RecentImageCache(RecentImageCache.ZipType.LZ4, 64*1024*1024);
+	}
+	
 	@Override
 	public boolean renderObject(Graphics2D g, LatLongToScreen converter, DrawableObject obj, boolean isSelected, long renderFlags){
 		if(!DatastoreRenderer.isVisibleAtZoom(obj, converter.getZoomForObjectFiltering())){
@@ -147,7 +147,7 @@ public final class BackgroundTileFactorySingleton {
 		if (type == BackgroundType.MAPSFORGE) {
 			MapDataStore result = MapsforgeTileFactory.openMapsforgeDb(config.getMapsforgeFilename());
 			if (result != null) {
-				return new MapsforgeTileFactory(info, config.getMapsforgeXMLRenderTheme(), result, config.getFade());
+				return new MapsforgeTileFactory(info, config.getMapsforgeXMLRenderTheme(), config.getMapsforgeFilename(), result, config.getFade());
 			}
 			type = BackgroundType.EMPTY;
 		}
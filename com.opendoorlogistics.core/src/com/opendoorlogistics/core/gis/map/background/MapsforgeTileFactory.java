@@ -15,14 +15,18 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FilenameUtils;
 import org.mapsforge.core.graphics.Canvas;
@@ -46,6 +50,7 @@ import com.opendoorlogistics.codefromweb.jxmapviewer2.fork.swingx.mapviewer.Tile
 import com.opendoorlogistics.codefromweb.jxmapviewer2.fork.swingx.mapviewer.TileFactory;
 import com.opendoorlogistics.codefromweb.jxmapviewer2.fork.swingx.mapviewer.TileFactoryInfo;
 import com.opendoorlogistics.core.AppConstants;
+import com.opendoorlogistics.core.AppProperties;
 import com.opendoorlogistics.core.cache.ApplicationCache;
 import com.opendoorlogistics.core.cache.RecentlyUsedCache;
 import com.opendoorlogistics.core.utils.images.CompressedImage;
@@ -57,44 +62,110 @@ class MapsforgeTileFactory extends TileFactory {
 	private static final int TILE_SIZE = 256;
 	private static final float TEXT_SCALE = 1.0f;
 
+	private final String mapsforgeFilename;
 	private final MapDataStore mapDatabase;
 	private final LinkedList<Tile> toCreate = new LinkedList<>();
-	private final DatabaseRenderer databaseRenderer;
+	private final HashSet<String> rendering = new HashSet<>();
+	private final ArrayList<TileRenderer> allRenderers = new ArrayList<>();
+	private final LinkedList<TileRenderer> idleRenderers = new LinkedList<>();
 	private final XmlRenderTheme renderTheme;
 	private final DisplayModel model;
 	private final FadeConfig fadeColour;
 	private final ZoomLevelConverter zoomLevelConverter;
+	private final PersistentTileStore store;
 	private ExecutorService service;
 
-	private static XmlRenderTheme getRenderTheme(String xmlRenderThemeFilename){
+	private static File getRenderThemeFile(String xmlRenderThemeFilename){
 		if(Strings.isEmpty(xmlRenderThemeFilename)==false){
 			File renderThemeFile = RelativeFiles.validateRelativeFiles(xmlRenderThemeFilename, AppConstants.ODL_CONFIG_DIR);
 			if (renderThemeFile != null) {
-				try {
-					return new ExternalRenderTheme(renderThemeFile.getAbsoluteFile());					
-				} catch (Exception e) {
-					// just return the default theme
-				}
+				return renderThemeFile.getAbsoluteFile();
 			}			
 		}		
+		return null;
+	}
+	
+	private static XmlRenderTheme getRenderTheme(String xmlRenderThemeFilename){
+		File renderThemeFile = getRenderThemeFile(xmlRenderThemeFilename);
+		if (renderThemeFile != null) {
+			try {
+				return new ExternalRenderTheme(renderThemeFile);					
+			} catch (Exception e) {
+				// just return the default theme
+			}
+		}			
 		return InternalRenderTheme.OSMARENDER;
 	}
 	
-	MapsforgeTileFactory(TileFactoryInfo info, String xmlRenderThemeFilename,MapDataStore mapDatabase, FadeConfig fadeColour) {
+	/**
+	 * Get the key identifying everything which changes the rendered tiles, so the persistent
+	 * tile store is only used for tiles rendered with the same map files and theme.
+	 * @param mapsforgeFilename
+	 * @param xmlRenderThemeFilename
+	 * @param fadeColour
+	 * @return
+	 */
+	private static String getTileStoreVersionKey(String mapsforgeFilename, String xmlRenderThemeFilename, FadeConfig fadeColour){
+		StringBuilder builder = new StringBuilder();
+		builder.append("tilesize=" + TILE_SIZE + ",textscale=" + TEXT_SCALE + ",background=" + backgroundMapColour().getRGB());
+		List<File> files = getMapFiles(mapsforgeFilename);
+		if(files!=null){
+			for(File file : files){
+				builder.append(",map=" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified());
+			}			
+		}
+		
+		File renderThemeFile = getRenderThemeFile(xmlRenderThemeFilename);
+		if(renderThemeFile!=null){
+			builder.append(",theme=" + renderThemeFile.getAbsolutePath() + ":" + renderThemeFile.length() + ":" + renderThemeFile.lastModified());
+		}else{
+			builder.append(",theme=" + InternalRenderTheme.OSMARENDER.name());
+		}
+		
+		if(fadeColour!=null){
+			builder.append(",fade=" + (fadeColour.getColour()!=null ? Integer.toString(fadeColour.getColour().getRGB()) : "null") + ":" + fadeColour.getGreyscale());
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Renders tiles on one thread at a time. Mapsforge map files and database renderers aren't thread-safe, 
+	 * so each renderer has its own, along with its own parsed copy of the render theme.
+	 */
+	private class TileRenderer{
+		final MapDataStore mapDatabase;
+		final DatabaseRenderer databaseRenderer;
+		final RenderThemeFuture renderThemeFuture;
+		
+		TileRenderer(MapDataStore mapDatabase) {
+			this.mapDatabase = mapDatabase;
+			databaseRenderer = new DatabaseRenderer(mapDatabase, AwtGraphicFactory.INSTANCE,createDummyTileCacheForMapsforgeLabelPlacementAlgorithm());
+			renderThemeFuture = new RenderThemeFuture(AwtGraphicFactory.INSTANCE, renderTheme, model);
+			renderThemeFuture.run();
+		}
+		
+		void destroy(){
+			databaseRenderer.destroy();
+			mapDatabase.close();
+		}
+	}
+	
+	MapsforgeTileFactory(TileFactoryInfo info, String xmlRenderThemeFilename,String mapsforgeFilename, MapDataStore mapDatabase, FadeConfig fadeColour) {
 		super(info);
 		this.fadeColour =fadeColour;
+		this.mapsforgeFilename = mapsforgeFilename;
 		this.mapDatabase = mapDatabase;
 
 		zoomLevelConverter = new ZoomLevelConverter(info);
-		databaseRenderer = new DatabaseRenderer(mapDatabase, AwtGraphicFactory.INSTANCE,createDummyTileCacheForMapsforgeLabelPlacementAlgorithm());
 		renderTheme =getRenderTheme(xmlRenderThemeFilename);
+		store = PersistentTileStore.open(getTileStoreVersionKey(mapsforgeFilename, xmlRenderThemeFilename, fadeColour));
 
 		model = new DisplayModel();
 		model.setFixedTileSize(TILE_SIZE);
 		model.setBackgroundColor(backgroundMapColour().getRGB());
 
-		// use single thread at the moment as DatabaseRenderer is probably single threaded
-		service = Executors.newFixedThreadPool(1, new ThreadFactory() {
+		// each thread renders with its own renderer
+		service = Executors.newFixedThreadPool(getNbRenderThreads(), new ThreadFactory() {
 			private int count = 0;
 
 			@Override
@@ -107,6 +178,42 @@ class MapsforgeTileFactory extends TileFactory {
 		});
 	}
 
+	private static int getNbRenderThreads() {
+		int ret = AppProperties.getDouble(AppProperties.MAPSFORGE_RENDER_THREADS, 0).intValue();
+		if (ret <= 0) {
+			// leave a processor free for the EDT
+			ret = Runtime.getRuntime().availableProcessors() - 1;
+		}
+		return Math.max(1, ret);
+	}
+	
+	/**
+	 * Get an idle renderer, creating one if needed. The first renderer uses the map database
+	 * passed into the constructor; the others open their own.
+	 * @return
+	 */
+	private TileRenderer acquireRenderer(){
+		synchronized (idleRenderers) {
+			if(idleRenderers.size()>0){
+				return idleRenderers.removeFirst();
+			}
+			
+			MapDataStore db = allRenderers.size()==0 ? mapDatabase : openMapsforgeDb(mapsforgeFilename);
+			if(db==null){
+				throw new RuntimeException("Cannot open mapsforge map files.");
+			}
+			TileRenderer ret = new TileRenderer(db);
+			allRenderers.add(ret);
+			return ret;
+		}
+	}
+	
+	private void releaseRenderer(TileRenderer renderer){
+		synchronized (idleRenderers) {
+			idleRenderers.addFirst(renderer);
+		}
+	}
+
 	private static Color backgroundMapColour() {
 		return Color.BLUE;
 	}
@@ -249,18 +356,43 @@ class MapsforgeTileFactory extends TileFactory {
 
 	@Override
 	public void dispose() {
+		synchronized (this) {
+			toCreate.clear();
+		}
+		
 		if (service != null) {
+			// wait for tiles currently being rendered, so we don't close their map files
 			service.shutdown();
+			try {
+				service.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 			service = null;
 		}
 
-		databaseRenderer.destroy();
-		mapDatabase.close();
+		synchronized (idleRenderers) {
+			for(TileRenderer renderer : allRenderers){
+				renderer.destroy();
+			}
+			if(allRenderers.size()==0){
+				mapDatabase.close();
+			}
+			allRenderers.clear();
+			idleRenderers.clear();
+		}
+		
+		if(store!=null){
+			store.release();
+		}
 	}
 
 	@Override
 	protected synchronized void startLoading(Tile tile) {
-		// check not already pending
+		// check not already pending or being rendered
+		if(rendering.contains(getTileId(tile.getX(), tile.getY(), tile.getZoom()))){
+			return;
+		}
 		for (Tile pending : toCreate) {
 			if (isSameTile(tile, pending)) {
 				return;
@@ -300,17 +432,26 @@ class MapsforgeTileFactory extends TileFactory {
 
 		@Override
 		public BufferedImage call()  {
+			// check if another thread has already rendered it
+			BufferedImage cached = getCachedTileImage(tile.getX(), tile.getY(), tile.getZoom());
+			if(cached!=null){
+				removeTile(tile);
+				return cached;
+			}
+			
 			// get mapsforge zoom from jxmapviewer2 zoom (they use different conventions)
 			byte mapsforgeZoom = zoomLevelConverter.getMapsforge(tile.getZoom());
 
-			// load the render them
-			RenderThemeFuture rtf = new RenderThemeFuture(AwtGraphicFactory.INSTANCE, renderTheme, model);
-			rtf.run();
-
-			// render the mapsforge tile
+			// render the mapsforge tile using a renderer which no other thread is using
 			org.mapsforge.core.model.Tile mtile = new org.mapsforge.core.model.Tile(tile.getX(), tile.getY(), mapsforgeZoom, TILE_SIZE);
-			RendererJob job = new RendererJob(mtile, mapDatabase, rtf, model, TEXT_SCALE, true, false);
-			TileBitmap bitmap = databaseRenderer.executeJob(job);
+			TileBitmap bitmap;
+			TileRenderer renderer = acquireRenderer();
+			try {
+				RendererJob job = new RendererJob(mtile, renderer.mapDatabase, renderer.renderThemeFuture, model, TEXT_SCALE, true, false);
+				bitmap = renderer.databaseRenderer.executeJob(job);				
+			} finally {
+				releaseRenderer(renderer);
+			}
 
 			// copy it over onto an image (CompressedImage needs TYPE_INT_ARGB and anyway we can't access the buffered image internal to the tile)
 			BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
@@ -332,9 +473,12 @@ class MapsforgeTileFactory extends TileFactory {
 			// TEST save to file
 		//	ImageUtils.toPNGFile(image, new File("C:\\temp\\MapsforgeOutput\\" + System.currentTimeMillis() + ".png"));
 			
-			// add to cache
+			// add to cache and the store on disk
 			CompressedImage compressed = new CompressedImage(image, CompressedType.LZ4);
 			cacheImage(tile.getX(), tile.getY(), tile.getZoom(), compressed);
+			if(store!=null){
+				store.put(tile.getX(), tile.getY(), tile.getZoom(), compressed);
+			}
 
 			// remove from pending after adding from cache (so can't be added twice)
 			removeTile(tile);
@@ -369,12 +513,15 @@ class MapsforgeTileFactory extends TileFactory {
 
 	private synchronized Tile pollTopPending() {
 		if (toCreate.size() > 0) {
-			return toCreate.poll();
+			Tile ret = toCreate.poll();
+			rendering.add(getTileId(ret.getX(), ret.getY(), ret.getZoom()));
+			return ret;
 		}
 		return null;
 	}
 
 	private synchronized void removeTile(Tile tile) {
+		rendering.remove(getTileId(tile.getX(), tile.getY(), tile.getZoom()));
 		Iterator<Tile> it = toCreate.iterator();
 		while (it.hasNext()) {
 			Tile other = it.next();
@@ -384,17 +531,42 @@ class MapsforgeTileFactory extends TileFactory {
 		}
 	}
 
-	private synchronized BufferedImage getCachedTileImage(int x, int y, int zoom) {
+	/**
+	 * Get the tile image from the memory cache or the store on disk. This is thread-safe.
+	 * @param x
+	 * @param y
+	 * @param zoom
+	 * @return
+	 */
+	private BufferedImage getCachedTileImage(int x, int y, int zoom) {
 		String id = getTileId(x, y, zoom);
 		RecentlyUsedCache cache = ApplicationCache.singleton().get(ApplicationCache.MAPSFORGE_BACKGROUND_TILES);
 		CompressedImage compressed = (CompressedImage) cache.get(id);
+		if(compressed==null && store!=null){
+			compressed = store.get(x, y, zoom);
+			if(compressed!=null){
+				cacheImage(x, y, zoom, compressed);
+			}
+		}
 		final BufferedImage img = compressed != null ? compressed.getBufferedImage() : null;
 		return img;
 	}
+	
+	/**
+	 * Test if the tile is in the memory cache or the store without decompressing it
+	 * @param x
+	 * @param y
+	 * @param zoom
+	 * @return
+	 */
+	private boolean isCached(int x, int y, int zoom){
+		RecentlyUsedCache cache = ApplicationCache.singleton().get(ApplicationCache.MAPSFORGE_BACKGROUND_TILES);
+		return cache.get(getTileId(x, y, zoom))!=null || (store!=null && store.contains(x, y, zoom));
+	}
 
 	// private final HashMap<String, CompressedImage> cache = new HashMap<>();
 
-	private synchronized void cacheImage(int x, int y, int zoom, CompressedImage compressed) {
+	private void cacheImage(int x, int y, int zoom, CompressedImage compressed) {
 		RecentlyUsedCache cache = ApplicationCache.singleton().get(ApplicationCache.MAPSFORGE_BACKGROUND_TILES);
 		cache.put(getTileId(x, y, zoom), compressed, compressed.getSizeBytes());
 		// cache.put(getTileId(x,y,zoom), compressed);
@@ -447,7 +619,7 @@ class MapsforgeTileFactory extends TileFactory {
 			@Override
 			public boolean containsKey(Job key) {
 				int odlZoom = zoomLevelConverter.getODL(key.tile.zoomLevel);
-				return getCachedTileImage(key.tile.tileX, key.tile.tileY, odlZoom)!=null;
+				return isCached(key.tile.tileX, key.tile.tileY, odlZoom);
 			}
 
 			@Override
@@ -521,7 +693,12 @@ class MapsforgeTileFactory extends TileFactory {
 		return true;
 	}
 	
-	static MapDataStore openMapsforgeDb(String filename) {
+	/**
+	 * Get the map files, which are either the single file or all the files in the directory
+	 * @param filename
+	 * @return Files or null if the file or directory doesn't exist
+	 */
+	private static List<File> getMapFiles(String filename){
 		File file = null;
 		if (Strings.isEmpty(filename)) {
 			// to do.. assume loading all files in the mapsforge directory
@@ -535,20 +712,29 @@ class MapsforgeTileFactory extends TileFactory {
 		}
 		
 		// if its a directory, load all the ones from the directory
-		MultiMapDataStore ret = new MultiMapDataStore(DataPolicy.RETURN_ALL);
+		ArrayList<File> ret = new ArrayList<>();
 		if(file.isDirectory()){
 			for(File child : file.listFiles()){
 				String ext = FilenameUtils.getExtension(child.getAbsolutePath());
 				if(ext!=null && ext.toLowerCase().equals("map")){
-					try {
-						MapFile mf= new MapFile(child);
-						ret.addMapDataStore(mf, false, false);
-					} catch (Exception e) {
-					}			
+					ret.add(child);
 				}
 			}
 		}
 		else{
+			ret.add(file);
+		}
+		return ret;
+	}
+	
+	static MapDataStore openMapsforgeDb(String filename) {
+		List<File> files = getMapFiles(filename);
+		if (files == null) {
+			return null;
+		}
+		
+		MultiMapDataStore ret = new MultiMapDataStore(DataPolicy.RETURN_ALL);
+		for(File file : files){
 			try {
 				MapFile mf= new MapFile(file);
 				ret.addMapDataStore(mf, false, false);
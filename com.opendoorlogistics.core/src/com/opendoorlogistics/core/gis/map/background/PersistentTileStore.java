@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.gis.map.background;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opendoorlogistics.core.AppConstants;
+import com.opendoorlogistics.core.AppProperties;
+import com.opendoorlogistics.core.utils.images.CompressedImage;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TLongLongHashMap;
+
+/**
+ * Store of rendered background tiles held in a single file on disk, so tiles survive restarts.
+ * The file is named by a hash of a version key (e.g. the map files, their modified times and the render theme),
+ * so a new store is used whenever anything which changes the rendering changes. The file is a header followed by
+ * appended records of tile key, length and compressed image. Records are only indexed once completely written and a
+ * partially-written record at the end (e.g. after a crash) is truncated on opening. Tiles are read from a memory-mapped
+ * view of the file. Once the store reaches its size limit no more tiles are added; the least recently used
+ * store files are deleted when a store is opened so the directory stays within the limit.
+ * <p>
+ * Stores are shared between all users in the application and locked against use by other processes.
+ *
+ * @author Phil
+ *
+ */
+final class PersistentTileStore {
+	private static final Logger logger = Logger.getLogger(PersistentTileStore.class.getName());
+	private static final int MAGIC = 0x4F444C54;
+	private static final int FILE_VERSION = 1;
+	private static final String EXTENSION = ".tiles";
+	private static final long DEFAULT_MAX_MB = 1024;
+	private static final int RECORD_HEADER_BYTES = 8 + 4;
+	private static final HashMap<File, PersistentTileStore> OPEN_STORES = new HashMap<>();
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final FileLock lock;
+	private final long maxBytes;
+	private final TLongLongHashMap index = new TLongLongHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1, -1);
+	private long fileLength;
+	private MappedByteBuffer mapped;
+	private boolean closed;
+	private int nbUsers;
+
+	private PersistentTileStore(File file, RandomAccessFile raf, FileLock lock, long maxBytes) {
+		this.file = file;
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.lock = lock;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Open the store for the version key in the default directory, using the size limit from the application properties.
+	 * Returns null if the store is disabled or cannot be opened. Call {@link #release()} when finished with it.
+	 *
+	 * @param versionKey
+	 * @return
+	 */
+	static PersistentTileStore open(String versionKey) {
+		long maxMB = AppProperties.getDouble(AppProperties.MAPSFORGE_TILE_STORE_SIZE_MB, DEFAULT_MAX_MB).longValue();
+		return open(new File(AppConstants.MAPSFORGE_TILE_STORE_DIRECTORY), versionKey, maxMB * 1024 * 1024);
+	}
+
+	static synchronized PersistentTileStore open(File directory, String versionKey, long maxBytes) {
+		// a mapped buffer can't exceed 2GB
+		maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+		if (maxBytes <= 0) {
+			return null;
+		}
+
+		File file = new File(directory, hash(versionKey) + EXTENSION).getAbsoluteFile();
+		PersistentTileStore ret = OPEN_STORES.get(file);
+		if (ret == null) {
+			RandomAccessFile raf = null;
+			try {
+				if (!directory.exists() && !directory.mkdirs()) {
+					throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+				}
+
+				raf = new RandomAccessFile(file, "rw");
+				FileLock lock = raf.getChannel().tryLock();
+				if (lock == null) {
+					// used by another process
+					raf.close();
+					return null;
+				}
+
+				ret = new PersistentTileStore(file, raf, lock, maxBytes);
+				ret.readIndex(versionKey);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Could not open tile store " + file.getName(), e);
+				if (raf != null) {
+					try {
+						raf.close();
+					} catch (IOException e2) {
+					}
+				}
+				return null;
+			}
+
+			// record the access so the least recently used stores are deleted first
+			file.setLastModified(System.currentTimeMillis());
+			OPEN_STORES.put(file, ret);
+			trim(directory, maxBytes);
+		}
+
+		ret.nbUsers++;
+		return ret;
+	}
+
+	/**
+	 * Release the store, closing it if it has no other users
+	 */
+	void release() {
+		synchronized (PersistentTileStore.class) {
+			if (--nbUsers > 0) {
+				return;
+			}
+			OPEN_STORES.remove(file);
+		}
+
+		synchronized (this) {
+			closed = true;
+			mapped = null;
+			try {
+				lock.release();
+				raf.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not close tile store " + file.getName(), e);
+			}
+		}
+	}
+
+	private static long getTileKey(int x, int y, int zoom) {
+		return ((long) zoom << 56) | ((long) x << 28) | y;
+	}
+
+	/**
+	 * Read the header and index all the complete records, creating the header if the file is new
+	 * or was written for a different version key.
+	 *
+	 * @param versionKey
+	 * @throws IOException
+	 */
+	private void readIndex(String versionKey) throws IOException {
+		byte[] keyBytes = versionKey.getBytes(StandardCharsets.UTF_8);
+		long headerLength = 4 + 4 + 4 + keyBytes.length;
+		long size = channel.size();
+		long position = 0;
+		if (size >= headerLength) {
+			// don't close the stream as this would close the channel
+			channel.position(0);
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			byte[] fileKeyBytes = new byte[keyBytes.length];
+			if (dis.readInt() == MAGIC && dis.readInt() == FILE_VERSION && dis.readInt() == keyBytes.length) {
+				dis.readFully(fileKeyBytes);
+				if (Arrays.equals(keyBytes, fileKeyBytes)) {
+					position = headerLength;
+					try {
+						while (position + RECORD_HEADER_BYTES <= size) {
+							long tileKey = dis.readLong();
+							int length = dis.readInt();
+							if (length < 0 || position + RECORD_HEADER_BYTES + length > size) {
+								break;
+							}
+							dis.skipBytes(length);
+							index.put(tileKey, position + 8);
+							position += RECORD_HEADER_BYTES + length;
+						}
+					} catch (EOFException e) {
+						// partial record
+					}
+				}
+			}
+		}
+
+		if (position == 0) {
+			// new or invalid file
+			channel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate((int) headerLength);
+			header.putInt(MAGIC);
+			header.putInt(FILE_VERSION);
+			header.putInt(keyBytes.length);
+			header.put(keyBytes);
+			header.flip();
+			writeFully(header, 0);
+			position = headerLength;
+		} else if (position < size) {
+			channel.truncate(position);
+		}
+		fileLength = position;
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	synchronized boolean contains(int x, int y, int zoom) {
+		return !closed && index.containsKey(getTileKey(x, y, zoom));
+	}
+
+	/**
+	 * Get the tile or null if it isn't in the store. Reads from different threads can run concurrently.
+	 *
+	 * @param x
+	 * @param y
+	 * @param zoom
+	 * @return
+	 */
+	CompressedImage get(int x, int y, int zoom) {
+		ByteBuffer buffer;
+		long position;
+		synchronized (this) {
+			position = closed ? -1 : index.get(getTileKey(x, y, zoom));
+			if (position == -1) {
+				return null;
+			}
+
+			// remap if the record was written after we last mapped; records are only indexed once
+			// completely written so the whole record is within the mapped region
+			try {
+				if (mapped == null || position >= mapped.capacity()) {
+					mapped = channel.map(MapMode.READ_ONLY, 0, fileLength);
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not read tile store " + file.getName(), e);
+				return null;
+			}
+			buffer = mapped.duplicate();
+		}
+
+		try {
+			buffer.position((int) position);
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return CompressedImage.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Could not read tile from tile store " + file.getName(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Add the tile to the store if it isn't already present and the store isn't full. Failures are logged but otherwise ignored.
+	 *
+	 * @param x
+	 * @param y
+	 * @param zoom
+	 * @param image
+	 */
+	void put(int x, int y, int zoom, CompressedImage image) {
+		long tileKey = getTileKey(x, y, zoom);
+		byte[] bytes;
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try (DataOutputStream dos = new DataOutputStream(baos)) {
+				image.write(dos);
+			}
+			bytes = baos.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		synchronized (this) {
+			long recordLength = RECORD_HEADER_BYTES + bytes.length;
+			if (closed || index.containsKey(tileKey) || fileLength + recordLength > maxBytes) {
+				return;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) recordLength);
+			buffer.putLong(tileKey);
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+			buffer.flip();
+			try {
+				writeFully(buffer, fileLength);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not write to tile store " + file.getName(), e);
+
+				// stop using the store so we don't index a partial record
+				closed = true;
+				return;
+			}
+			index.put(tileKey, fileLength + 8);
+			fileLength += recordLength;
+		}
+	}
+
+	synchronized int size() {
+		return index.size();
+	}
+
+	private static String hash(String s) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			StringBuilder builder = new StringBuilder();
+			for (byte b : digest.digest(s.getBytes(StandardCharsets.UTF_8))) {
+				builder.append(String.format("%02x", b & 0xFF));
+			}
+			return builder.toString();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Delete the least recently used store files which aren't open until the directory is within the size limit
+	 */
+	private static void trim(File directory, long maxBytes) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(EXTENSION);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (int i = 0; i < files.length && total > maxBytes; i++) {
+			if (!OPEN_STORES.containsKey(files[i].getAbsoluteFile())) {
+				long length = files[i].length();
+				if (files[i].delete()) {
+					total -= length;
+				}
+			}
+		}
+	}
+}
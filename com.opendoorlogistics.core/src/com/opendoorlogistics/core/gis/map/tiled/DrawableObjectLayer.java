@@ -8,10 +8,15 @@
  ******************************************************************************/
 package com.opendoorlogistics.core.gis.map.tiled;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
+import com.opendoorlogistics.api.geometry.LatLongToScreen;
 import com.opendoorlogistics.api.geometry.ODLGeom;
 import com.opendoorlogistics.core.gis.map.data.DrawableObject;
 
@@ -21,10 +26,23 @@ import com.opendoorlogistics.core.gis.map.data.DrawableObject;
  *
  */
 class DrawableObjectLayer implements Iterable<DrawableObject>{
-	final private LinkedList<DrawableObject> drawables = new LinkedList<>();
+	/**
+	 * Number of zoom levels we keep tile indices for
+	 */
+	private static final int MAX_CACHED_TILE_INDICES = 4;
+	
+	final private ArrayList<DrawableObject> drawables = new ArrayList<>();
 	final private String NOVLPLGroupId;
 	final private DrawableObjectLayer.LayerType type;
 	final private HashSet<ODLGeom> geomSet = new HashSet<>();
+	final private LinkedHashMap<Object, DrawableObjectTileIndex> tileIndices = new LinkedHashMap<Object, DrawableObjectTileIndex>(16, 0.75f, true){
+		private static final long serialVersionUID = -3512896720449817307L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, DrawableObjectTileIndex> eldest) {
+			return size() > MAX_CACHED_TILE_INDICES;
+		}
+	};
 	
 	DrawableObjectLayer(String NOVLPLGroupId) {
 		this.NOVLPLGroupId = NOVLPLGroupId;
@@ -69,6 +87,37 @@ class DrawableObjectLayer implements Iterable<DrawableObject>{
 		return drawables.iterator();
 	}
 	
+	/**
+	 * Get the objects which may be drawn on the tile, in drawing order. The index for
+	 * the tile's zoom level is built on first use, outside the lock so rendering threads
+	 * aren't serialised; if several threads build it at once the first one stored is kept.
+	 * @param position
+	 * @param converter
+	 * @return
+	 */
+	List<DrawableObject> getObjectsForTile(TilePosition position, LatLongToScreen converter){
+		DrawableObjectTileIndex index;
+		synchronized (tileIndices) {
+			index = tileIndices.get(position.zoomKey);
+		}
+		if(index==null){
+			DrawableObjectTileIndex built = new DrawableObjectTileIndex(drawables, converter);
+			synchronized (tileIndices) {
+				index = tileIndices.putIfAbsent(position.zoomKey, built);
+			}
+			if(index==null){
+				index = built;
+			}
+		}
+		
+		int [] indices = index.getObjectIndices(position);
+		ArrayList<DrawableObject> ret = new ArrayList<>(indices.length);
+		for(int i : indices){
+			ret.add(drawables.get(i));
+		}
+		return ret;
+	}
+	
 
 	
 	static LinkedList<DrawableObject> layers2SingleList(Iterable<? extends DrawableObjectLayer> layers){
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.gis.map.tiled;
+
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+
+import com.opendoorlogistics.api.geometry.LatLongToScreen;
+import com.opendoorlogistics.core.gis.map.DatastoreRenderer;
+import com.opendoorlogistics.core.gis.map.data.DrawableObject;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Index of a layer's objects by the tiles their rendered bounds intersect, for a single zoom level.
+ * Objects covering many tiles are kept in a separate list and tested against each tile instead.
+ * Lookups return the objects in their original drawing order. Immutable once built, so thread safe.
+ * @author Phil
+ *
+ */
+class DrawableObjectTileIndex {
+	/**
+	 * Extra pixels around the rendered bounds to allow for outlines, selection etc
+	 */
+	private static final int PADDING_PIXELS = 4;
+
+	private static final int MAX_TILES_PER_INDEXED_OBJECT = 16;
+
+	private final TLongObjectHashMap<TIntArrayList> tiles = new TLongObjectHashMap<>();
+	private final TIntArrayList large = new TIntArrayList();
+	private final TIntArrayList unbounded = new TIntArrayList();
+	private final Rectangle2D[] largeBounds;
+
+	DrawableObjectTileIndex(List<DrawableObject> objects, LatLongToScreen converter) {
+		int n = objects.size();
+		Rectangle2D[] bounds = new Rectangle2D[n];
+		for (int i = 0; i < n; i++) {
+			DrawableObject obj = objects.get(i);
+			Rectangle2D b = null;
+			try {
+				b = DatastoreRenderer.getRenderedWorldBitmapBounds(obj, converter);
+			} catch (Throwable e) {
+				// treat as unbounded so the renderer decides
+			}
+
+			if (b == null || !isFinite(b)) {
+				unbounded.add(i);
+				continue;
+			}
+
+			double pad = PADDING_PIXELS + obj.getPixelWidth();
+			b = new Rectangle2D.Double(b.getX() - pad, b.getY() - pad, b.getWidth() + 2 * pad, b.getHeight() + 2 * pad);
+			int minX = toTileIndex(b.getMinX());
+			int maxX = toTileIndex(b.getMaxX());
+			int minY = toTileIndex(b.getMinY());
+			int maxY = toTileIndex(b.getMaxY());
+			if ((long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_TILES_PER_INDEXED_OBJECT) {
+				large.add(i);
+				bounds[i] = b;
+				continue;
+			}
+
+			for (int ix = minX; ix <= maxX; ix++) {
+				for (int iy = minY; iy <= maxY; iy++) {
+					long key = toKey(ix, iy);
+					TIntArrayList list = tiles.get(key);
+					if (list == null) {
+						list = new TIntArrayList(4);
+						tiles.put(key, list);
+					}
+					list.add(i);
+				}
+			}
+		}
+
+		largeBounds = new Rectangle2D[large.size()];
+		for (int i = 0; i < largeBounds.length; i++) {
+			largeBounds[i] = bounds[large.get(i)];
+		}
+	}
+
+	private static boolean isFinite(Rectangle2D b) {
+		return !Double.isNaN(b.getX()) && !Double.isInfinite(b.getX()) && !Double.isNaN(b.getY()) && !Double.isInfinite(b.getY())
+				&& !Double.isNaN(b.getWidth()) && !Double.isInfinite(b.getWidth()) && !Double.isNaN(b.getHeight())
+				&& !Double.isInfinite(b.getHeight());
+	}
+
+	private static int toTileIndex(double worldBitmapPixel) {
+		return (int) Math.floor(worldBitmapPixel / TilePosition.TILE_SIZE);
+	}
+
+	private static long toKey(int ix, int iy) {
+		return ((long) ix << 32) | (iy & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Get the indices of the objects which may be drawn on the tile, in ascending order
+	 * @param position
+	 * @return
+	 */
+	int[] getObjectIndices(TilePosition position) {
+		TIntArrayList indexed = tiles.get(toKey(position.ix, position.iy));
+		Rectangle2D tileBounds = position.createBounds();
+		TIntArrayList others = new TIntArrayList(unbounded);
+		for (int i = 0; i < largeBounds.length; i++) {
+			if (largeBounds[i].intersects(tileBounds)) {
+				others.add(large.get(i));
+			}
+		}
+		others.sort();
+
+		// merge the sorted lists
+		int na = indexed != null ? indexed.size() : 0;
+		int nb = others.size();
+		int[] ret = new int[na + nb];
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < ret.length; i++) {
+			if (b >= nb || (a < na && indexed.get(a) < others.get(b))) {
+				ret[i] = indexed.get(a++);
+			} else {
+				ret[i] = others.get(b++);
+			}
+		}
+		return ret;
+	}
+}
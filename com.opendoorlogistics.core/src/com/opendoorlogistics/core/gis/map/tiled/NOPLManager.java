@@ -25,15 +25,25 @@ import com.opendoorlogistics.core.utils.strings.Strings;
 
 public class NOPLManager {
 	final private StandardisedStringTreeMap<LayerCache> currentLayers = new StandardisedStringTreeMap<>(false);
-	final private ObjectRenderer renderer =new DatastoreRenderer(){
-		
-		/**
-		 * Layer rendering handles poly colour itself so we need to ensure
-		 * the render doesn't set it here...
-		 */
+	
+	/**
+	 * Tiles can be created by several rendering threads at once and the renderer isn't
+	 * thread safe, so each thread gets its own
+	 */
+	final private ThreadLocal<ObjectRenderer> renderer = new ThreadLocal<ObjectRenderer>(){
 		@Override
-		protected Color getPolygonBorderColour(Color polyCol){
-			return polyCol;
+		protected ObjectRenderer initialValue() {
+			return new DatastoreRenderer(){
+				
+				/**
+				 * Layer rendering handles poly colour itself so we need to ensure
+				 * the render doesn't set it here...
+				 */
+				@Override
+				protected Color getPolygonBorderColour(Color polyCol){
+					return polyCol;
+				}
+			};
 		}
 	};
 	
@@ -216,7 +226,7 @@ public class NOPLManager {
 		
 		NOVLPolyLayerTile ret =(NOVLPolyLayerTile)layerCache.tileCache.get(position);
 		if(ret==null){
-			ret = new NOVLPolyLayerTile(converter, renderer, layerCache.layer);
+			ret = new NOVLPolyLayerTile(converter, renderer.get(), layerCache.layer);
 			layerCache.tileCache.put(position, ret, ret.getSizeInBytes());
 		}
 		
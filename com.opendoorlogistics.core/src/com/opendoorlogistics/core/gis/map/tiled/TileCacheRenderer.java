@@ -29,10 +29,12 @@ import com.opendoorlogistics.api.geometry.LatLongToScreen;
 import com.opendoorlogistics.api.geometry.ODLGeom;
 import com.opendoorlogistics.api.ui.Disposable;
 import com.opendoorlogistics.codefromweb.BlockingLifoQueue;
+import com.opendoorlogistics.core.AppProperties;
 import com.opendoorlogistics.core.cache.RecentlyUsedCache;
 import com.opendoorlogistics.core.gis.map.CachedGeomImageRenderer;
 import com.opendoorlogistics.core.gis.map.DatastoreRenderer;
 import com.opendoorlogistics.core.gis.map.ObjectRenderer;
+import com.opendoorlogistics.core.gis.map.RecentImageCache;
 import com.opendoorlogistics.core.gis.map.RenderProperties;
 import com.opendoorlogistics.core.gis.map.data.DrawableObject;
 import com.opendoorlogistics.core.gis.map.tiled.DrawableObjectLayer.LayerType;
@@ -47,7 +49,14 @@ final public class TileCacheRenderer implements Disposable {
 	//private static final int MAX_GEOM_POINTS_FILL_FOR_EDT_RENDER = 5000;
 	private final DatastoreRenderer EDTrenderer = new DatastoreRenderer();
 	// private final DatastoreRenderer workerThreadRenderer = new DatastoreRenderer(true, RecentImageCache.ZipType.LZ4);
-	private final ObjectRenderer workerThreadRenderer = new CachedGeomImageRenderer();
+	private final RecentImageCache workerThreadGeomCache = CachedGeomImageRenderer.createGeomCache();
+	private final ThreadLocal<ObjectRenderer> workerThreadRenderer = new ThreadLocal<ObjectRenderer>(){
+		@Override
+		protected ObjectRenderer initialValue() {
+			// renderers aren't thread safe but the geometry image cache is
+			return new CachedGeomImageRenderer(workerThreadGeomCache);
+		}
+	};
 	private final ExecutorService service;
 	private final RecentlyUsedCache updatedCompletedTileMap = new RecentlyUsedCache("updated-completed-tile-map",64 * 1024 * 1024);
 	private final RecentlyUsedCache outdatedCompleteTileMap = new RecentlyUsedCache("outdated-complete-tile-map",16 * 1024 * 1024);
@@ -69,11 +78,11 @@ final public class TileCacheRenderer implements Disposable {
 	private LinkedList<CachedTile> lastUsedTiles = new LinkedList<>();
 
 	public TileCacheRenderer() {
-		// Create with a single rendering thread so we don't have to worry about synchronisation issues
+		// Each rendering thread has its own object renderer so tiles are drawn independently.
 		// We use a LIFO queue so last requested is executed first. If the user zooms around a lot
 		// their most recent viewpoint should therefore generally be prioritised (unless they've
 		// zoomed back and forth quickly...)
-		int nThreads = 1;
+		int nThreads = getNbRenderThreads();
 		service = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new BlockingLifoQueue<Runnable>(), new ThreadFactory() {
 			ThreadFactory factory = Executors.defaultThreadFactory();
 			
@@ -87,6 +96,15 @@ final public class TileCacheRenderer implements Disposable {
 
 	}
 
+	private static int getNbRenderThreads() {
+		int ret = AppProperties.getDouble(AppProperties.SPATIAL_RENDERER_TILE_THREADS, 0).intValue();
+		if (ret <= 0) {
+			// leave a processor free for the EDT
+			ret = Runtime.getRuntime().availableProcessors() - 1;
+		}
+		return Math.max(1, ret);
+	}
+
 	private static BufferedImage createLoadingImage() {
 		BufferedImage ret = new BufferedImage(TilePosition.TILE_SIZE, TilePosition.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
 		Graphics2D g = ret.createGraphics();
@@ -199,6 +217,7 @@ final public class TileCacheRenderer implements Disposable {
 				
 				// create a lat-long to onscreen converter which gives gives the viewable viewport bounds as the tile
 				LatLongToScreen converter = position.createConverter(renderInfo.originalConverter);
+				ObjectRenderer renderer = workerThreadRenderer.get();
 
 				// render objects
 				for(DrawableObjectLayer layer:renderInfo.layers){
@@ -213,8 +232,8 @@ final public class TileCacheRenderer implements Disposable {
 						}
 					}
 					else{
-						// draw each object one-by-one
-						for(DrawableObject obj:layer){
+						// draw each object which could be on the tile one-by-one
+						for(DrawableObject obj:layer.getObjectsForTile(position, converter)){
 
 							// check for quitting (flagged from other thread)
 							if (invalid || isDisposed) {
@@ -222,7 +241,7 @@ final public class TileCacheRenderer implements Disposable {
 							}
 							
 							try {
-								workerThreadRenderer.renderObject(g, converter, obj, renderInfo.selectedObjectIds.contains(obj.getGlobalRowId()),0);
+								renderer.renderObject(g, converter, obj, renderInfo.selectedObjectIds.contains(obj.getGlobalRowId()),0);
 							} catch (Throwable e) {
 							}
 						}						
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.scripts.execution;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.opendoorlogistics.api.ExecutionReport;
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.api.tables.TableFlags;
+import com.opendoorlogistics.core.tables.ColumnValueProcessor;
+import com.opendoorlogistics.core.tables.decorators.datastores.RowFilterDecorator;
+import com.opendoorlogistics.core.utils.strings.Strings;
+
+/**
+ * The batch key values of a datastore, with its rows partitioned by batch key
+ * in a single pass over each table
+ * @author Phil
+ *
+ */
+class BatchKeyInformation {
+	final List<String> values;
+	final int[] batchKeys;
+
+	// row ids for each table and, for tables with a batch key, the row numbers
+	// partitioned by standardised key and the row numbers with a null key
+	private final long[][] rowIds;
+	private final ArrayList<HashMap<String, TIntArrayList>> rowsByKey = new ArrayList<>();
+	private final ArrayList<TIntArrayList> nullKeyRows = new ArrayList<>();
+
+	/**
+	 * Read the batch key values, or just check the batch key columns if we're only compiling
+	 * @param ds
+	 * @param compileOnly
+	 * @param report
+	 */
+	BatchKeyInformation(ODLDatastore<? extends ODLTableReadOnly> ds, boolean compileOnly, ExecutionReport report) {
+		int nt = ds.getTableCount();
+		batchKeys = new int[nt];
+		Arrays.fill(batchKeys, -1);
+		rowIds = new long[nt][];
+
+		TreeSet<String> valueset = new TreeSet<>();
+
+		for (int tbl = 0; tbl < nt; tbl++) {
+			ODLTableReadOnly table = ds.getTableAt(tbl);
+			int nc = table.getColumnCount();
+			for (int col = 0; col < nc; col++) {
+				if ((table.getColumnFlags(col) & TableFlags.FLAG_IS_BATCH_KEY) != 0) {
+					if (batchKeys[tbl] != -1) {
+						report.setFailed("Table \"" + table.getName() + "\" has more than one batch key column.");
+						values = null;
+						return;
+					}
+
+					ODLColumnType type = table.getColumnType(col);
+					if (ColumnValueProcessor.isBatchKeyCompatible(type) == false) {
+						report.setFailed(
+								"Table \"" + table.getName() + "\" has batch key column \"" + table.getColumnName(col) + "\" of type " + type.name() + " which is not batch key compatible.");
+						values = null;
+						return;
+					}
+
+					batchKeys[tbl] = col;
+				}
+			}
+		}
+
+		// read the key values and partition the rows by key, in a single pass over each table
+		boolean hasBatchKey = false;
+		for (int col : batchKeys) {
+			hasBatchKey |= col != -1;
+		}
+		for (int tbl = 0; tbl < nt; tbl++) {
+			HashMap<String, TIntArrayList> byKey = new HashMap<>();
+			TIntArrayList nullRows = new TIntArrayList();
+			rowsByKey.add(byKey);
+			nullKeyRows.add(nullRows);
+			if (!compileOnly && hasBatchKey) {
+				ODLTableReadOnly table = ds.getTableAt(tbl);
+				int nr = table.getRowCount();
+				rowIds[tbl] = new long[nr];
+				int col = batchKeys[tbl];
+				ODLColumnType type = col != -1 ? table.getColumnType(col) : null;
+				for (int row = 0; row < nr; row++) {
+					rowIds[tbl][row] = table.getRowId(row);
+					if (col == -1) {
+						continue;
+					}
+
+					Object val = table.getValueAt(row, col);
+					if (val != null) {
+						String s = (String) ColumnValueProcessor.convertToMe(ODLColumnType.STRING, val, type);
+						s = Strings.std(s);
+						valueset.add(s);
+
+						// rows are matched to keys on their standardised string value
+						String partition = Strings.std(val.toString());
+						TIntArrayList rows = byKey.get(partition);
+						if (rows == null) {
+							rows = new TIntArrayList();
+							byKey.put(partition, rows);
+						}
+						rows.add(row);
+					} else {
+						nullRows.add(row);
+					}
+				}
+			}
+		}
+
+		values = new ArrayList<>(valueset);
+	}
+
+	/**
+	 * Create the filter for the batch key, holding its rows and the rows with a null key
+	 * (and all rows of tables without a batch key) in their original order.
+	 * The rows are those read when this object was created.
+	 *
+	 * @param ds
+	 * @param batchKey
+	 * @return
+	 */
+	RowFilterDecorator<ODLTable> createFilter(ODLDatastore<? extends ODLTable> ds, String batchKey) {
+		RowFilterDecorator<ODLTable> filterDecorator = new RowFilterDecorator<ODLTable>(ds);
+		String partition = Strings.std(batchKey);
+		for (int tableIndex = 0; tableIndex < rowIds.length; tableIndex++) {
+			int tableId = ds.getTableAt(tableIndex).getImmutableId();
+			long[] ids = rowIds[tableIndex];
+			if (batchKeys[tableIndex] == -1) {
+				for (long id : ids) {
+					filterDecorator.addRowToFilter(tableId, id);
+				}
+				continue;
+			}
+
+			// merge the key's rows with the null key rows
+			TIntArrayList keyRows = rowsByKey.get(tableIndex).get(partition);
+			TIntArrayList nullRows = nullKeyRows.get(tableIndex);
+			int nKey = keyRows != null ? keyRows.size() : 0;
+			int nNull = nullRows.size();
+			int i = 0;
+			int j = 0;
+			while (i < nKey || j < nNull) {
+				int row;
+				if (j == nNull || (i < nKey && keyRows.get(i) < nullRows.get(j))) {
+					row = keyRows.get(i++);
+				} else {
+					row = nullRows.get(j++);
+				}
+				filterDecorator.addRowToFilter(tableId, ids[row]);
+			}
+		}
+		return filterDecorator;
+	}
+}
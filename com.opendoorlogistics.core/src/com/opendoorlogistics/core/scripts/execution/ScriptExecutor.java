@@ -8,12 +8,14 @@ package com.opendoorlogistics.core.scripts.execution;
 
 import java.awt.Dimension;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JPanel;
 
@@ -36,7 +38,6 @@ import com.opendoorlogistics.api.scripts.parameters.Parameters;
 import com.opendoorlogistics.api.scripts.parameters.Parameters.ParamDefinitionField;
 import com.opendoorlogistics.api.scripts.parameters.Parameters.TableType;
 import com.opendoorlogistics.api.scripts.parameters.ParametersControlFactory;
-import com.opendoorlogistics.api.tables.ODLColumnType;
 import com.opendoorlogistics.api.tables.ODLDatastore;
 import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
 import com.opendoorlogistics.api.tables.ODLDatastoreAlterable.ODLDatastoreAlterableFactory;
@@ -46,6 +47,7 @@ import com.opendoorlogistics.api.tables.ODLTableDefinition;
 import com.opendoorlogistics.api.tables.ODLTableDefinitionAlterable;
 import com.opendoorlogistics.api.tables.ODLTableReadOnly;
 import com.opendoorlogistics.api.tables.TableFlags;
+import com.opendoorlogistics.core.AppProperties;
 import com.opendoorlogistics.core.components.ODLGlobalComponents;
 import com.opendoorlogistics.core.components.UpdateQueryComponent;
 import com.opendoorlogistics.core.formulae.Function;
@@ -71,11 +73,9 @@ import com.opendoorlogistics.core.scripts.formulae.TableParameters;
 import com.opendoorlogistics.core.scripts.io.ScriptIO;
 import com.opendoorlogistics.core.scripts.parameters.ParametersImpl;
 import com.opendoorlogistics.core.scripts.utils.ScriptUtils;
-import com.opendoorlogistics.core.tables.ColumnValueProcessor;
 import com.opendoorlogistics.core.tables.ODLRowReadOnly;
 import com.opendoorlogistics.core.tables.decorators.datastores.AdaptedDecorator;
 import com.opendoorlogistics.core.tables.decorators.datastores.AdaptedDecorator.AdapterMapping;
-import com.opendoorlogistics.core.tables.decorators.datastores.RowFilterDecorator;
 import com.opendoorlogistics.core.tables.decorators.datastores.dependencies.DataDependencies;
 import com.opendoorlogistics.core.tables.decorators.datastores.dependencies.DataDependenciesRecorder;
 import com.opendoorlogistics.core.tables.decorators.datastores.undoredo.UndoRedoDecorator;
@@ -605,59 +605,6 @@ final public class ScriptExecutor {
 	 */
 	private void executeBatchedInstruction(Script root, InstructionConfig instruction, final ScriptExecutionBlackboardImpl result) {
 
-		// helper class to store information on the batch keys
-		class BatchKeyInformation {
-			final List<String> values;
-			final int[] batchKeys;
-
-			BatchKeyInformation(ODLDatastore<? extends ODLTableReadOnly> ds) {
-				int nt = ds.getTableCount();
-				batchKeys = new int[nt];
-				Arrays.fill(batchKeys, -1);
-
-				TreeSet<String> valueset = new TreeSet<>();
-
-				for (int tbl = 0; tbl < nt; tbl++) {
-					ODLTableReadOnly table = ds.getTableAt(tbl);
-					int nc = table.getColumnCount();
-					for (int col = 0; col < nc; col++) {
-						if ((table.getColumnFlags(col) & TableFlags.FLAG_IS_BATCH_KEY) != 0) {
-							if (batchKeys[tbl] != -1) {
-								result.setFailed("Table \"" + table.getName() + "\" has more than one batch key column.");
-								values = null;
-								return;
-							}
-
-							ODLColumnType type = table.getColumnType(col);
-							if (ColumnValueProcessor.isBatchKeyCompatible(type) == false) {
-								result.setFailed(
-										"Table \"" + table.getName() + "\" has batch key column \"" + table.getColumnName(col) + "\" of type " + type.name() + " which is not batch key compatible.");
-								values = null;
-								return;
-							}
-
-							batchKeys[tbl] = col;
-
-							if (!compileOnly) {
-								int nr = table.getRowCount();
-								for (int row = 0; row < nr; row++) {
-									Object val = table.getValueAt(row, col);
-									if (val != null) {
-										String s = (String) ColumnValueProcessor.convertToMe(ODLColumnType.STRING, val, type);
-										s = Strings.std(s);
-										valueset.add(s);
-									}
-								}
-
-							}
-						}
-					}
-				}
-
-				values = new ArrayList<>(valueset);
-			}
-		}
-
 		// check if we're doing an update query... this has special logic
 
 		// get the input/output datastore or adapter (can be null)
@@ -670,55 +617,34 @@ final public class ScriptExecutor {
 			}
 		}
 
-		// inspect the input data store for batch keys, getting values
+		// inspect the input data store for batch keys, getting values and partitioning rows by key
 		BatchKeyInformation batchKeys = null;
 		if (availableIODS != null) {
-			batchKeys = new BatchKeyInformation(availableIODS);
+			batchKeys = new BatchKeyInformation(availableIODS, compileOnly, result);
 			if (result.isFailed()) {
 				return;
 			}
 		}
 
 		if (batchKeys != null && batchKeys.values.size() > 0) {
+			int nbThreads = getNbBatchThreads(instruction, batchKeys.values.size(), result);
+			if (result.isFailed()) {
+				return;
+			}
 
-			// loop over each batch
-			for (final String batchKey : batchKeys.values) {
-				// create a filtering adapter...
-				RowFilterDecorator<ODLTable> filterDecorator = new RowFilterDecorator<ODLTable>(availableIODS);
-				for (int tableIndex = 0; tableIndex < availableIODS.getTableCount(); tableIndex++) {
-					int keyCol = batchKeys.batchKeys[tableIndex];
-					ODLTableReadOnly table = availableIODS.getTableAt(tableIndex);
-
-					// loop over each row of the source table
-					int nr = table.getRowCount();
-					for (int row = 0; row < nr; row++) {
-
-						// accept row if no key field
-						boolean accept = keyCol == -1;
-
-						// accept row if its keyfield value is null
-						if (!accept) {
-							accept = table.getValueAt(row, keyCol) == null;
-						}
-
-						// accept if strings the same
-						if (!accept) {
-							accept = Strings.equalsStd(batchKey, table.getValueAt(row, keyCol).toString());
-						}
+			if (nbThreads > 1) {
+				executeBatchesConcurrently(root, instruction, batchKeys, availableIODS, nbThreads, result);
+			} else {
+				// loop over each batch
+				for (final String batchKey : batchKeys.values) {
+					// execute with filtered data
+					executeSingleInstruction(root, instruction, batchKeys.createFilter(availableIODS, batchKey), batchKey, result);
 
-						if (accept) {
-							filterDecorator.addRowToFilter(table.getImmutableId(), table.getRowId(row));
-						}
+					checkForUserCancellation(result);
+					if (result.isFailed()) {
+						break;
 					}
 				}
-
-				// execute with filtered data
-				executeSingleInstruction(root, instruction, filterDecorator, batchKey, result);
-
-				checkForUserCancellation(result);
-				if (result.isFailed()) {
-					break;
-				}
 			}
 		} else {
 			executeSingleInstruction(root, instruction, availableIODS, null, result);
@@ -732,6 +658,133 @@ final public class ScriptExecutor {
 
 	}
 
+	/**
+	 * Get the number of threads to execute the batch keys on. This is 1 unless the component
+	 * has flagged that it can be executed concurrently for different batch keys.
+	 * 
+	 * @param instruction
+	 * @param nbBatchKeys
+	 * @param result
+	 * @return
+	 */
+	private int getNbBatchThreads(InstructionConfig instruction, int nbBatchKeys, ScriptExecutionBlackboardImpl result) {
+		if (compileOnly || nbBatchKeys < 2) {
+			return 1;
+		}
+
+		ODLComponent component = getComponent(instruction, result);
+		if (result.isFailed()) {
+			return 1;
+		}
+
+		long flags = component.getFlags(api, instruction.getExecutionMode());
+		if ((flags & ODLComponent.FLAG_THREAD_SAFE_BATCH_EXECUTION) != ODLComponent.FLAG_THREAD_SAFE_BATCH_EXECUTION) {
+			return 1;
+		}
+
+		int ret = AppProperties.getDouble(AppProperties.SCRIPT_BATCH_THREADS, 0).intValue();
+		if (ret <= 0) {
+			ret = Runtime.getRuntime().availableProcessors();
+		}
+		return Math.min(ret, nbBatchKeys);
+	}
+
+	/**
+	 * A batch key executed concurrently with other batch keys. The component writes its output, warnings
+	 * and control launchers here instead of to the blackboard, and they are passed on to the blackboard
+	 * on the calling thread.
+	 */
+	private static class ConcurrentBatch {
+		final ExecutionReportImpl report = new ExecutionReportImpl();
+		final ArrayList<ControlLauncherCallback> controlLaunchers = new ArrayList<>();
+		final ODLDatastoreAlterable<ODLTableAlterable> outputDb;
+		PreparedInstruction prepared;
+		Future<?> future;
+
+		ConcurrentBatch(ODLDatastoreAlterable<ODLTableAlterable> outputDb) {
+			this.outputDb = outputDb;
+		}
+	}
+
+	/**
+	 * Execute the batch keys concurrently on a bounded pool. The component's input for each key is prepared
+	 * and copied on the calling thread, so dependencies on the input data are recorded as normal and the
+	 * component only reads its own copy. Each key has its own output datastore and report, which are merged
+	 * into the blackboard on the calling thread in batch key order, so the output and any failure are the same
+	 * as executing the keys one at a time, regardless of the order the keys finish in.
+	 * 
+	 * @param root
+	 * @param instruction
+	 * @param batchKeys
+	 * @param availableIODS
+	 * @param nbThreads
+	 * @param result
+	 */
+	private void executeBatchesConcurrently(Script root, InstructionConfig instruction, BatchKeyInformation batchKeys, ODLDatastore<? extends ODLTable> availableIODS,
+			int nbThreads, ScriptExecutionBlackboardImpl result) {
+
+		// limit the number of batches prepared ahead of the ones being merged, as each holds a copy of its input
+		int maxRunning = nbThreads * 2;
+		ODLDatastoreAlterable<? extends ODLTableAlterable> outputDb = result.getDsByInstruction(instruction).getDs();
+		ArrayDeque<ConcurrentBatch> running = new ArrayDeque<>();
+		ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+		try {
+			Iterator<String> itKey = batchKeys.values.iterator();
+			while (!result.isFailed() && (itKey.hasNext() || running.size() > 0)) {
+				if (itKey.hasNext() && running.size() < maxRunning) {
+					String batchKey = itKey.next();
+
+					// give the key an empty copy of the output tables
+					final ConcurrentBatch batch = new ConcurrentBatch(datastoreFactory.create());
+					DatastoreCopier.copyStructure(outputDb, batch.outputDb);
+
+					batch.prepared = prepareSingleInstruction(root, instruction, batchKeys.createFilter(availableIODS, batchKey), batchKey, result, batch);
+					if (batch.prepared == null) {
+						break;
+					}
+
+					if (batch.prepared.ioDS != null) {
+						batch.prepared.ioDS = DatastoreCopier.copyAll(batch.prepared.ioDS);
+					}
+					batch.future = pool.submit(new Runnable() {
+
+						@Override
+						public void run() {
+							batch.prepared.execute(batch.outputDb);
+						}
+					});
+					running.addLast(batch);
+				} else {
+					// wait for the oldest batch and merge its output
+					ConcurrentBatch batch = running.removeFirst();
+					try {
+						batch.future.get();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+
+					result.add(batch.report);
+					if (!result.isFailed()) {
+						DatastoreCopier.mergeAll(batch.outputDb, outputDb);
+						for (ControlLauncherCallback cb : batch.controlLaunchers) {
+							submitControlLauncher(instruction, batch.prepared.component, batch.prepared.reportTopLabel, cb, result);
+						}
+					}
+				}
+
+				checkForUserCancellation(result);
+			}
+		} finally {
+			// any batches still running are discarded
+			pool.shutdownNow();
+		}
+
+		if (!result.isFailed()) {
+			DataDependencies depends = extractDependencies(result);
+			internalExecutionApi.addInstructionDependencies(instruction.getUuid(), depends);
+		}
+	}
+
 	/**
 	 * Execute a single instruction once for a single batch key
 	 * 
@@ -743,11 +796,77 @@ final public class ScriptExecutor {
 	 */
 	private void executeSingleInstruction(Script root, final InstructionConfig instruction, final ODLDatastore<? extends ODLTable> availableIODS, final String batchKey,
 			final ScriptExecutionBlackboardImpl result) {
+		PreparedInstruction prepared = prepareSingleInstruction(root, instruction, availableIODS, batchKey, result, null);
+		if (prepared == null) {
+			return;
+		}
+
+		prepared.execute(result.getDsByInstruction(instruction).getDs());
+		if (result.isFailed()) {
+			return;
+		}
+
+		// register or update the external datasource dependencies for any
+		// UI components that were created or updated
+		DataDependencies depends = extractDependencies(result);
+		internalExecutionApi.addInstructionDependencies(instruction.getUuid(), depends);
+	}
+
+	/**
+	 * A component ready to be called for a single batch key
+	 */
+	private static class PreparedInstruction {
+		final ODLComponent component;
+		final int mode;
+		final Serializable config;
+		final String reportTopLabel;
+		final ComponentExecutionApi externalApi;
+		final ExecutionReport report;
+		ODLDatastore<? extends ODLTable> ioDS;
+
+		PreparedInstruction(ODLComponent component, int mode, Serializable config, String reportTopLabel, ComponentExecutionApi externalApi, ExecutionReport report,
+				ODLDatastore<? extends ODLTable> ioDS) {
+			this.component = component;
+			this.mode = mode;
+			this.config = config;
+			this.reportTopLabel = reportTopLabel;
+			this.externalApi = externalApi;
+			this.report = report;
+			this.ioDS = ioDS;
+		}
+
+		void execute(ODLDatastoreAlterable<? extends ODLTableAlterable> outputDb) {
+			try {
+				externalApi.postStatusMessage("Calling component: " + component.getName());
+				component.execute(externalApi, mode, config, ioDS, outputDb);
+			} catch (Throwable e) {
+				report.setFailed(e);
+				report.setFailed("Component " + component.getId() + " threw an exception.");
+			}
+		}
+	}
+
+	/**
+	 * Build the component's input adapter and read its input data, ready for the component to be called.
+	 * Returns null if we're only compiling or preparation failed. If the batch is set the component is
+	 * being executed concurrently with other batch keys, and its warnings, control launchers and any exception
+	 * it throws are recorded in the batch instead of the blackboard.
+	 * 
+	 * @param root
+	 * @param instruction
+	 * @param availableIODS
+	 * @param batchKey
+	 * @param result
+	 * @param batch
+	 * @return
+	 */
+	private PreparedInstruction prepareSingleInstruction(Script root, final InstructionConfig instruction, final ODLDatastore<? extends ODLTable> availableIODS, final String batchKey,
+			final ScriptExecutionBlackboardImpl result, final ConcurrentBatch batch) {
 
 		// get the component
 		final ODLComponent component = getComponent(instruction, result);
 		if (result.isFailed()) {
-			return;
+			return null;
 		}
 
 		// get the component's expected datastore
@@ -771,13 +890,13 @@ final public class ScriptExecutor {
 		if(!Strings.isEmpty(instruction.getReportTopLabelFormula())){
 			Func func = executeFunctionCompilationFromComponent(root,instruction.getReportTopLabelFormula(), null, availableIODS, result);
 			if(result.isFailed()){
-				return;
+				return null;
 			}
 			
 			Object val=func.execute(-1);
 			if(val== Functions.EXECUTION_ERROR){
 				result.setFailed("Error executing report title formula: " + instruction.getReportTopLabelFormula());
-				return;
+				return null;
 			}
 			reportTopLabel = val!=null? val.toString():null;
 		}else{
@@ -805,12 +924,14 @@ final public class ScriptExecutor {
 
 			@Override
 			public <T extends JPanel & ClosedStatusObservable> void showModalPanel(T panel, String title) {
+				checkNotConcurrent("show modal panels");
 				internalExecutionApi.showModalPanel(panel, title);
 
 			}
 
 			@Override
 			public ModalDialogResult showModalPanel(JPanel panel, String title, ModalDialogResult... buttons) {
+				checkNotConcurrent("show modal panels");
 				return internalExecutionApi.showModalPanel(panel, title, buttons);
 			}
 
@@ -825,7 +946,11 @@ final public class ScriptExecutor {
 
 			@Override
 			public void logWarning(String warning) {
-				result.log(warning);
+				if (batch != null) {
+					batch.report.log(warning);
+				} else {
+					result.log(warning);
+				}
 			}
 
 			@Override
@@ -840,19 +965,12 @@ final public class ScriptExecutor {
 
 			@Override
 			public void submitControlLauncher(ControlLauncherCallback cb) {
-				// Take a copy of the parameters and parameters value tables
-				// from the internal ds.
-				// This ensures we pass an immutable snapshot to the GUI code.
-				Tables tables = api.tables();
-				Parameters parameters = api.scripts().parameters();
-				ODLDatastore<? extends ODLTable> internalDs = result.getDatastore(parameters.getDSId());
-				ODLTableReadOnly paramTable = parameters.findTable(internalDs, TableType.PARAMETERS);
-				ODLTableReadOnly paramValuesTable = parameters.findTable(internalDs, TableType.PARAMETER_VALUES);
-				ODLDatastoreAlterable<? extends ODLTableAlterable> copyDs = tables.createAlterableDs();
-				tables.copyTable(paramTable, copyDs);
-				tables.copyTable(paramValuesTable, copyDs);
-
-				internalExecutionApi.submitControlLauncher(instruction.getUuid(), component, copyDs,reportTopLabel, cb);
+				// concurrent batches are submitted when the batch is merged
+				if (batch != null) {
+					batch.controlLaunchers.add(cb);
+				} else {
+					ScriptExecutor.this.submitControlLauncher(instruction, component, reportTopLabel, cb, result);
+				}
 			}
 
 			@Override
@@ -862,8 +980,15 @@ final public class ScriptExecutor {
 
 			@Override
 			public Func compileFunction(String formulaText, String sourceTableName) {
+				checkNotConcurrent("compile functions");
 				return executeFunctionCompilationFromComponent(root,formulaText, sourceTableName, availableIODS, result);
 			}
+
+			private void checkNotConcurrent(String operation) {
+				if (batch != null) {
+					throw new UnsupportedOperationException("Component " + component.getId() + " cannot " + operation + " when its batch keys are executed concurrently.");
+				}
+			}
 		};
 
 		// execute the component
@@ -901,25 +1026,35 @@ final public class ScriptExecutor {
 			}
 
 			if (result.isFailed()) {
-				return;
+				return null;
 			}
 
-			try {
-				externalApi.postStatusMessage("Calling component: " + component.getName());
-				ODLDatastoreAlterable<? extends ODLTableAlterable> outputDb = result.getDsByInstruction(instruction).getDs();
-				component.execute(externalApi, instruction.getExecutionMode(), config, ioDS, outputDb);
-			} catch (Throwable e) {
-				result.setFailed(e);
-				result.setFailed("Component " + component.getId() + " threw an exception.");
-				return;
-			}
-
-			// register or update the external datasource dependencies for any
-			// UI components that were created or updated
-			DataDependencies depends = extractDependencies(result);
-			internalExecutionApi.addInstructionDependencies(instruction.getUuid(), depends);
-
+			return new PreparedInstruction(component, instruction.getExecutionMode(), config, reportTopLabel, externalApi, batch != null ? batch.report : result, ioDS);
 		}
+		return null;
+	}
+
+	/**
+	 * Submit the component's control launcher with a copy of the parameters and parameters value tables
+	 * from the internal ds. This ensures we pass an immutable snapshot to the GUI code.
+	 * 
+	 * @param instruction
+	 * @param component
+	 * @param reportTopLabel
+	 * @param cb
+	 * @param result
+	 */
+	private void submitControlLauncher(InstructionConfig instruction, ODLComponent component, String reportTopLabel, ControlLauncherCallback cb, ScriptExecutionBlackboardImpl result) {
+		Tables tables = api.tables();
+		Parameters parameters = api.scripts().parameters();
+		ODLDatastore<? extends ODLTable> internalDs = result.getDatastore(parameters.getDSId());
+		ODLTableReadOnly paramTable = parameters.findTable(internalDs, TableType.PARAMETERS);
+		ODLTableReadOnly paramValuesTable = parameters.findTable(internalDs, TableType.PARAMETER_VALUES);
+		ODLDatastoreAlterable<? extends ODLTableAlterable> copyDs = tables.createAlterableDs();
+		tables.copyTable(paramTable, copyDs);
+		tables.copyTable(paramValuesTable, copyDs);
+
+		internalExecutionApi.submitControlLauncher(instruction.getUuid(), component, copyDs, reportTopLabel, cb);
 	}
 
 	private ODLComponent getComponent(ComponentConfig instruction, ScriptExecutionBlackboardImpl result) {
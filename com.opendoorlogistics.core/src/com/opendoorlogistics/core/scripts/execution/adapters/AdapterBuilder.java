@@ -9,8 +9,11 @@ package com.opendoorlogistics.core.scripts.execution.adapters;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.opendoorlogistics.api.ExecutionReport;
 import com.opendoorlogistics.api.components.ProcessingApi;
@@ -24,9 +27,11 @@ import com.opendoorlogistics.api.tables.ODLTableDefinition;
 import com.opendoorlogistics.api.tables.ODLTableDefinitionAlterable;
 import com.opendoorlogistics.api.tables.ODLTableReadOnly;
 import com.opendoorlogistics.api.tables.TableFlags;
+import com.opendoorlogistics.core.AppProperties;
 import com.opendoorlogistics.core.api.impl.ODLApiImpl;
 import com.opendoorlogistics.core.formulae.FormulaParser;
 import com.opendoorlogistics.core.formulae.Function;
+import com.opendoorlogistics.core.formulae.FunctionCompiler;
 import com.opendoorlogistics.core.formulae.FunctionParameters;
 import com.opendoorlogistics.core.formulae.FunctionUtils;
 import com.opendoorlogistics.core.formulae.Functions;
@@ -40,11 +45,14 @@ import com.opendoorlogistics.core.scripts.elements.AdapterColumnConfig.SortField
 import com.opendoorlogistics.core.scripts.elements.AdapterConfig;
 import com.opendoorlogistics.core.scripts.elements.UserFormula;
 import com.opendoorlogistics.core.scripts.execution.ScriptExecutionBlackboard;
+import com.opendoorlogistics.core.scripts.execution.adapters.ParallelRowEvaluator.FirstError;
+import com.opendoorlogistics.core.scripts.execution.adapters.ParallelRowEvaluator.RangeProcessor;
 import com.opendoorlogistics.core.scripts.execution.adapters.TableFormulaBuilder.DependencyInjector;
 import com.opendoorlogistics.core.scripts.execution.adapters.vls.VLSBuilder;
 import com.opendoorlogistics.core.scripts.execution.adapters.vls.VLSBuilder.VLSDependencyInjector;
 import com.opendoorlogistics.core.scripts.formulae.FmLocalElement;
 import com.opendoorlogistics.core.scripts.formulae.TableParameters;
+import com.opendoorlogistics.core.scripts.formulae.TableParameters.TableFetcher;
 import com.opendoorlogistics.core.tables.ColumnValueProcessor;
 import com.opendoorlogistics.core.tables.ODLRowReadOnly;
 import com.opendoorlogistics.core.tables.decorators.datastores.AdaptedDecorator;
@@ -107,6 +115,12 @@ final public class AdapterBuilder {
 //		this(adapterConfig, adapterConfig.getId(), callerAdapters, env,continueCb, result);
 //	}
 
+	private void setFailed(FirstError error) {
+		for (String message : error.getMessages()) {
+			report.setFailed(message);
+		}
+	}
+
 	private void setFailed() {
 		report.setFailed("Failed to build adapter \"" + id + "\"");
 	}
@@ -545,42 +559,54 @@ final public class AdapterBuilder {
 				}
 			}
 
-			// execute each formula
+			// execute each formula, evaluating ranges of rows in parallel
 			int n = idsToSort.size();
-			ArrayList<SortRow> list = new ArrayList<>(n);
-			for (int i = 0; i < n; i++) {
-				SortRow row = new SortRow();
-				list.add(row);
-				row.id = idsToSort.get(i);
-				row.values = new Object[formulae.length];
-				FunctionParameters parameters = new TableParameters(datasources, sourceTableRef.dsIndex, sourceTable.getImmutableId(), row.id,-1,null);
-				for (int j = 0; j < row.values.length; j++) {
-					 row.values[j] = formulae[j].execute(parameters);
-					if (row.values[j] == Functions.EXECUTION_ERROR) {
-						report.setFailed("Failed to execute sort formula or read sort field number " + (i + 1));
-						report.setFailed("If you were doing a group-by, from the source table you can only sort on the group-by source field (and not a formula).");
-						return null;
-					}
+			final SortRow[] rows = new SortRow[n];
+			final TableFetcher fetcher = TableParameters.createTableFetcher(datasources);
+			final FirstError error = new FirstError();
+			ParallelRowEvaluator.process(n, new RangeProcessor() {
+				
+				@Override
+				public void process(int rangeIndex, int fromRow, int toRow) {
+					for (int i = fromRow; i < toRow && !error.isSetBefore(i); i++) {
+						SortRow row = new SortRow();
+						rows[i] = row;
+						row.id = idsToSort.get(i);
+						row.values = new Object[formulae.length];
+						FunctionParameters parameters = new TableParameters(fetcher, sourceTableRef.dsIndex, sourceTable.getImmutableId(), row.id,-1,null);
+						for (int j = 0; j < row.values.length; j++) {
+							 row.values[j] = formulae[j].execute(parameters);
+							if (row.values[j] == Functions.EXECUTION_ERROR) {
+								error.set(i, "Failed to execute sort formula or read sort field number " + (i + 1),
+										"If you were doing a group-by, from the source table you can only sort on the group-by source field (and not a formula).");
+								return;
+							}
 
-					// convert to the type so we do comparisons as string, number etc as needed
-					if (row.values[j] != null) {
-						ODLColumnType type = adaptedTableConfig.getColumnType(sortColumns[j]);
-						row.values[j] = ColumnValueProcessor.convertToMe(type,row.values[j]);
-						if (row.values[j] == null) {
-							report.setFailed("Failed to convert result of sort formula or read sort field to correct type: " + Strings.convertEnumToDisplayFriendly(type));
-							return null;
-						}
+							// convert to the type so we do comparisons as string, number etc as needed
+							if (row.values[j] != null) {
+								ODLColumnType type = adaptedTableConfig.getColumnType(sortColumns[j]);
+								row.values[j] = ColumnValueProcessor.convertToMe(type,row.values[j]);
+								if (row.values[j] == null) {
+									error.set(i, "Failed to convert result of sort formula or read sort field to correct type: " + Strings.convertEnumToDisplayFriendly(type));
+									return;
+								}
 
+							}
+						}
 					}
 				}
+			});
+			if (error.isSet()) {
+				setFailed(error);
+				return null;
 			}
 
-			// now sort based on the formula results
-			Collections.sort(list);
+			// now sort based on the formula results; this is a stable parallel merge sort
+			Arrays.parallelSort(rows);
 
 			TLongArrayList ret = new TLongArrayList(n);
 			for (int i = 0; i < n; i++) {
-				ret.add(list.get(i).id);
+				ret.add(rows[i].id);
 			}
 			return ret;
 		}
@@ -782,7 +808,13 @@ final public class AdapterBuilder {
 			if (field.isUseFormula()) {
 				Function formula = buildFormulaWithTableVariables(srcTable, field.getFormula(), originalFromDsIndex, tableConfig.getUserFormulae(),tableConfig);
 				if (formula != null) {
-					mapping.setFieldFormula(destTable.getImmutableId(), destFieldIndx, formula);
+					// field formulae are only ever executed (not inspected), so can be fully compiled
+					Function compiled = FunctionCompiler.compile(formula);
+					mapping.setFieldFormula(destTable.getImmutableId(), destFieldIndx, compiled);
+					
+					// cache the values for all rows unless they can change without the data changing
+					Boolean materialise = AppProperties.getBool(AppProperties.ADAPTER_MATERIALISE_FORMULAE);
+					mapping.setFieldMaterialised(destTable.getImmutableId(), destFieldIndx, (materialise==null || materialise) && !FunctionCompiler.isVolatile(compiled));
 				}
 			} else {
 				// If we use a mapped field instead of a formula we can write back to the original table
@@ -867,17 +899,34 @@ final public class AdapterBuilder {
 					didIndexedSearch = true;	
 				}
 				
-				// get all the row ids in the table which pass the filter
+				// get all the row ids in the table which pass the filter, evaluating ranges of rows in parallel
 				if(!didIndexedSearch){
-					for (int row = 0; row < nbRows; row++) {
-						FunctionParameters parameters = new TableParameters(datasources, tableRef.dsIndex, srcTable.getImmutableId(), srcTable.getRowId(row),row,null);
-						Object exec = formula.execute(parameters);
-						if (exec == Functions.EXECUTION_ERROR) {
-							report.setFailed("Failed to execute filter formula on row number " + (row+1)+"/" + nbRows + " of table " + srcTable.getName() +": " + filterFormula);
-							return null;
+					final boolean[] passes = new boolean[nbRows];
+					final int dsIndex = tableRef.dsIndex;
+					final TableFetcher fetcher = TableParameters.createTableFetcher(datasources);
+					final FirstError error = new FirstError();
+					ParallelRowEvaluator.process(nbRows, new RangeProcessor() {
+						
+						@Override
+						public void process(int rangeIndex, int fromRow, int toRow) {
+							for (int row = fromRow; row < toRow && !error.isSetBefore(row); row++) {
+								FunctionParameters parameters = new TableParameters(fetcher, dsIndex, srcTable.getImmutableId(), srcTable.getRowId(row),row,null);
+								Object exec = formula.execute(parameters);
+								if (exec == Functions.EXECUTION_ERROR) {
+									error.set(row, "Failed to execute filter formula on row number " + (row+1)+"/" + nbRows + " of table " + srcTable.getName() +": " + filterFormula);
+									return;
+								}
+								passes[row] = FunctionUtils.isTrue(exec);
+							}
 						}
+					});
+					if (error.isSet()) {
+						setFailed(error);
+						return null;
+					}
 	
-						if(FunctionUtils.isTrue(exec)){
+					for (int row = 0; row < nbRows; row++) {
+						if(passes[row]){
 							rowIds.add(srcTable.getRowId(row));														
 						}
 					}
@@ -1048,42 +1097,84 @@ final public class AdapterBuilder {
 			
 		}
 		
-		// Fill in group table for the columns defining the groups, creating the groups as we do this.
-		// We build all groups with complexity O( nrows x ngroups).
-		int nbSourceRows = srcTable.getRowCount();
-		final TLongObjectHashMap<TLongArrayList> groupRowIdToSourceRowIds = new TLongObjectHashMap<>();
-		final TObjectIntHashMap<GroupByKey> keyToRow = new TObjectIntHashMap<GroupByKey>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
-		for (int srcRow = 0; srcRow < nbSourceRows; srcRow++) {
-
-			// get grouped by key by executing the formulae
-			Object[] key = new Object[nbDestCols];
-			for (int gbf : groupByFields) {
-				FunctionParameters parameters = new TableParameters(datasources, srcTableRef.dsIndex, srcTable.getImmutableId(), srcTable.getRowId(srcRow),srcRow,null);
-				key[gbf] = nonSortFormulae[gbf].execute(parameters);
-				if (key[gbf] == Functions.EXECUTION_ERROR) {
-					report.setFailed("Error executing formula or reading field in group-by adapter: " + nonSortFormulae[gbf]);
-					return;
-				}
+		// A group found in a range of the source rows
+		class PartialGroup{
+			final Object[] key;
+			final TLongArrayList srcRowIds = new TLongArrayList();
+			
+			PartialGroup(Object[] key) {
+				this.key = key;
 			}
+		}
+		
+		// Execute the group-by formulae for ranges of source rows in parallel, grouping each range's rows 
+		// in order of the first row in each group
+		final int nbSourceRows = srcTable.getRowCount();
+		final int[] ranges = ParallelRowEvaluator.split(nbSourceRows);
+		final ArrayList<LinkedHashMap<GroupByKey, PartialGroup>> rangeGroups = new ArrayList<>(Collections.<LinkedHashMap<GroupByKey, PartialGroup>>nCopies(ranges.length - 1, null));
+		final TableFetcher fetcher = TableParameters.createTableFetcher(datasources);
+		final FirstError error = new FirstError();
+		ParallelRowEvaluator.process(ranges, new RangeProcessor() {
+			
+			@Override
+			public void process(int rangeIndex, int fromRow, int toRow) {
+				LinkedHashMap<GroupByKey, PartialGroup> groups = new LinkedHashMap<>();
+				for (int srcRow = fromRow; srcRow < toRow && !error.isSetBefore(srcRow); srcRow++) {
+
+					// get grouped by key by executing the formulae
+					long srcRowId = srcTable.getRowId(srcRow);
+					FunctionParameters parameters = new TableParameters(fetcher, srcTableRef.dsIndex, srcTable.getImmutableId(), srcRowId,srcRow,null);
+					Object[] key = new Object[nbDestCols];
+					for (int gbf : groupByFields) {
+						key[gbf] = nonSortFormulae[gbf].execute(parameters);
+						if (key[gbf] == Functions.EXECUTION_ERROR) {
+							error.set(srcRow, "Error executing formula or reading field in group-by adapter: " + nonSortFormulae[gbf]);
+							return;
+						}
+					}
 
-			// find matching row in grouped table
-			GroupByKey gbyKey = new GroupByKey(key);
-			int groupIndx = keyToRow.get(gbyKey);
-
-			// create new group if needed
-			if (groupIndx == -1) {
-				groupIndx = groupedTable.createEmptyRow(-1);
-				for (int gbf : groupByFields) {
-					groupedTable.setValueAt(key[gbf], groupIndx, gbf);
+					// find matching group in the range, creating if needed, and copy row reference
+					GroupByKey gbyKey = new GroupByKey(key);
+					PartialGroup group = groups.get(gbyKey);
+					if(group==null){
+						group = new PartialGroup(key);
+						groups.put(gbyKey, group);
+					}
+					group.srcRowIds.add(srcRowId);
 				}
-				groupRowIdToSourceRowIds.put(groupedTable.getRowId(groupIndx), new TLongArrayList());
-				keyToRow.put(gbyKey, groupIndx);
+				rangeGroups.set(rangeIndex, groups);
 			}
+		});
+		if (error.isSet()) {
+			setFailed(error);
+			return;
+		}
 
-			// copy row reference
-			long groupRowId = groupedTable.getRowId(groupIndx);
-			long srcRowId = srcTable.getRowId(srcRow);
-			groupRowIdToSourceRowIds.get(groupRowId).add(srcRowId);
+		// Merge the ranges in order, filling in the group table for the columns defining the groups.
+		// This gives the same groups in the same order as grouping the rows one-by-one.
+		final TLongObjectHashMap<TLongArrayList> groupRowIdToSourceRowIds = new TLongObjectHashMap<>();
+		final TObjectIntHashMap<GroupByKey> keyToRow = new TObjectIntHashMap<GroupByKey>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
+		for (LinkedHashMap<GroupByKey, PartialGroup> groups : rangeGroups) {
+			for (Map.Entry<GroupByKey, PartialGroup> entry : groups.entrySet()) {
+
+				// find matching row in grouped table
+				GroupByKey gbyKey = entry.getKey();
+				int groupIndx = keyToRow.get(gbyKey);
+
+				// create new group if needed
+				if (groupIndx == -1) {
+					groupIndx = groupedTable.createEmptyRow(-1);
+					for (int gbf : groupByFields) {
+						groupedTable.setValueAt(entry.getValue().key[gbf], groupIndx, gbf);
+					}
+					groupRowIdToSourceRowIds.put(groupedTable.getRowId(groupIndx), new TLongArrayList());
+					keyToRow.put(gbyKey, groupIndx);
+				}
+
+				// copy row references
+				long groupRowId = groupedTable.getRowId(groupIndx);
+				groupRowIdToSourceRowIds.get(groupRowId).addAll(entry.getValue().srcRowIds);
+			}
 		}
 
 		// create function library with the aggregate functions
@@ -1122,9 +1213,12 @@ final public class AdapterBuilder {
 							}
 						}
 						
-						if(!errorReporter.reportedAccessingNonGroupByField){
-							errorReporter.reportedAccessingNonGroupByField = true;
-							report.log("Attempted to access field from the ungrouped table: " + getName() + ". Only non-formula group-by fields can be accessed.");
+						// formulae can be executed on several threads
+						synchronized (errorReporter) {
+							if(!errorReporter.reportedAccessingNonGroupByField){
+								errorReporter.reportedAccessingNonGroupByField = true;
+								report.log("Attempted to access field from the ungrouped table: " + getName() + ". Only non-formula group-by fields can be accessed.");
+							}							
 						}
 						return Functions.EXECUTION_ERROR;
 					}
@@ -1156,34 +1250,57 @@ final public class AdapterBuilder {
 			nonSortFormulae[col] = bngf.build(nonSortCols.getColumn(col));
 		}
 
-		// Fill in non-group column values
-		int nbGroups = groupedTable.getRowCount();
-		UpdateTimer timer = new UpdateTimer(100);
-		for (int groupRow = 0; groupRow < nbGroups; groupRow++) {
-			
-			if(continueCb!=null && timer.isUpdate()){
-				continueCb.postStatusMessage("Building row " +(groupRow+1) + "/" + nbGroups+ " of group-by query table " + groupedTable.getName());
-			}
+		// Calculate non-group column values for ranges of groups in parallel. The grouped table
+		// is only read while doing this, so the values are saved to it afterwards.
+		final int nbGroups = groupedTable.getRowCount();
+		final Object[][] nonGroupValues = new Object[nbGroups][];
+		final UpdateTimer timer = new UpdateTimer(100);
+		final AtomicInteger nbGroupsDone = new AtomicInteger();
+		final FirstError nonGroupError = new FirstError();
+		ParallelRowEvaluator.process(nbGroups, new RangeProcessor() {
 			
-			for (int col : nonGroupByFields) {
-
-				// execute formula against the grouped table; aggregate formulae redirect to source table
-				Object val = executeNonSortNonGroupByFormulaInGroupedTable(nonSortFormulae, groupedDsIndex, groupedTable, groupRow, col);
-				if (val == Functions.EXECUTION_ERROR) {
-					AdapterColumnConfig colObj = nonSortCols.getColumn(col);
-					report.setFailed("Error executing formula or reading field in grouping, destination field " + colObj.getName()
-						+ (!Strings.isEmpty(colObj.getFormula()) ? " with formula " + colObj.getFormula() + ".":"."));
-					return;
+			@Override
+			public void process(int rangeIndex, int fromRow, int toRow) {
+				for (int groupRow = fromRow; groupRow < toRow && !nonGroupError.isSetBefore(groupRow); groupRow++) {
+					if(continueCb!=null){
+						int done = nbGroupsDone.incrementAndGet();
+						synchronized (timer) {
+							if(timer.isUpdate()){
+								continueCb.postStatusMessage("Building row " +done + "/" + nbGroups+ " of group-by query table " + groupedTable.getName());
+							}
+						}
+					}
+					
+					Object[] values = new Object[nbDestCols];
+					for (int col : nonGroupByFields) {
+
+						// execute formula against the grouped table; aggregate formulae redirect to source table
+						values[col] = executeNonSortNonGroupByFormulaInGroupedTable(nonSortFormulae, groupedDsIndex, groupedTable, groupRow, col);
+						if (values[col] == Functions.EXECUTION_ERROR) {
+							AdapterColumnConfig colObj = nonSortCols.getColumn(col);
+							nonGroupError.set(groupRow, "Error executing formula or reading field in grouping, destination field " + colObj.getName()
+								+ (!Strings.isEmpty(colObj.getFormula()) ? " with formula " + colObj.getFormula() + ".":"."));
+							return;
+						}
+					}
+					nonGroupValues[groupRow] = values;
+					
+					if(continueCb!=null && continueCb.isCancelled()){
+						nonGroupError.set(groupRow, "User cancelled the process.");
+						return;
+					}
 				}
-
-				// save the value to the grouped table
-				groupedTable.setValueAt(val, groupRow, col);
-
 			}
-			
-			if(continueCb!=null && continueCb.isCancelled()){
-				report.setFailed("User cancelled the process.");
-				return;
+		});
+		if (nonGroupError.isSet()) {
+			setFailed(nonGroupError);
+			return;
+		}
+
+		// save the values to the grouped table
+		for (int groupRow = 0; groupRow < nbGroups; groupRow++) {
+			for (int col : nonGroupByFields) {
+				groupedTable.setValueAt(nonGroupValues[groupRow][col], groupRow, col);
 			}
 		}
 
@@ -1333,15 +1450,10 @@ final public class AdapterBuilder {
 		FilterFormulaOptimiser filterFormulaOptimiser = new FilterFormulaOptimiser(tableConfig.getFilterFormula(), formula, outerTable.getColumnCount());
 		filterFormulaOptimiser.fillJoinTable(outerTable, innerTable, joinTable, datasources, datastoreIndx, report);
 		
-		// speed up ideas???
-		// - Split filter formula into equivalent ANDS array.
-		// - Sort formula based on (a) row independent,(b) indexable outer only first, (c) other outer only, (d) indexable inner, (e) all others.
-		// - Reduce or eliminate outer row set first.
-		// - Try indexing inner rows with values of outer
-		// - General...
-		
-		// What about a spatial lookup (e.g. quadtree) for the inner table??
-		
+		// The optimiser splits the filter into ANDs, filters outer and inner rows on anything
+		// dependent on only one table and then hash joins on any outer = inner equalities
+		// (or uses a quadtree for geomcontains) before testing the remaining ANDs.
+
 //		// add the rows
 //		for(int i = 0 ; i < nro ; i++){
 //			long orid = outerTable.getRowId(i);
@@ -1407,7 +1519,7 @@ final public class AdapterBuilder {
 			if (formula == null) {
 				throw new RuntimeException();
 			}
-			return formula;
+			return FunctionCompiler.foldConstants(formula);
 		} catch (Throwable e) {
 			report.setFailed(e);
 			report.setFailed("Failed building formula " + formulaText);
@@ -1,11 +1,16 @@
 package com.opendoorlogistics.core.scripts.execution.adapters;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.procedure.TLongProcedure;
 import gnu.trove.set.hash.TLongHashSet;
 
+import java.awt.Color;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 import com.opendoorlogistics.api.ExecutionReport;
@@ -21,6 +26,7 @@ import com.opendoorlogistics.core.formulae.FunctionParameters;
 import com.opendoorlogistics.core.formulae.FunctionUtils;
 import com.opendoorlogistics.core.formulae.FunctionUtils.FunctionVisitor;
 import com.opendoorlogistics.core.formulae.Functions;
+import com.opendoorlogistics.core.formulae.Functions.FmEquals;
 import com.opendoorlogistics.core.geometry.ODLGeomImpl;
 import com.opendoorlogistics.core.geometry.functions.FmGeomContains;
 import com.opendoorlogistics.core.geometry.operations.FastContainedPointsQuadtree;
@@ -44,9 +50,21 @@ public class FilterFormulaOptimiser {
 	public enum OptMethod{
 		ROW_INDEPENDENT,
 		INNER_TABLE_INDEPENDENT,
-		UNPROJECTED_GEOMCONTAINS_WITH_OUTER_GEOM_INNER_LAT_LONG
+		UNPROJECTED_GEOMCONTAINS_WITH_OUTER_GEOM_INNER_LAT_LONG,
+		OUTER_TABLE_INDEPENDENT,
+		OUTER_EQUALS_INNER
 	}
 	
+	/**
+	 * Placeholder key for null values in a hash join
+	 */
+	private static final Object NULL_KEY = new Object();
+	
+	/**
+	 * Returned when a value cannot be placed in a hash join
+	 */
+	private static final Object UNHASHABLE = new Object();
+	
 	private static interface LookupOptMethod{
 		long[] lookup(int outerRowIndex);
 	}
@@ -134,6 +152,8 @@ public class FilterFormulaOptimiser {
 		final Function f;
 		final boolean [] optMethods = new boolean[OptMethod.values().length];
 		final int optMethodCount;
+		Function outerSide;
+		Function innerSide;
 		
 		FunctionRecord(Function f,final int nbOuterTableColumns){
 			this.f = f;
@@ -154,6 +174,23 @@ public class FilterFormulaOptimiser {
 				}
 			}
 			
+			// test for independence of the outer table so we can filter inner rows before joining
+			optMethods[OptMethod.OUTER_TABLE_INDEPENDENT.ordinal()] = isIndependentOfOuterTable(f, nbOuterTableColumns);
+			
+			// test for an equality between something only dependent on the outer table and something
+			// only dependent on the inner table, which we can do as a hash join
+			if(FmEquals.class.isInstance(f) && !get(OptMethod.INNER_TABLE_INDEPENDENT) && !get(OptMethod.OUTER_TABLE_INDEPENDENT)){
+				for(int i =0 ; i<=1 && outerSide==null ; i++){
+					Function a = f.child(i);
+					Function b = f.child(1-i);
+					if(isIndependentOfInnerTable(a, nbOuterTableColumns) && isIndependentOfOuterTable(b, nbOuterTableColumns)){
+						outerSide = a;
+						innerSide = b;
+						optMethods[OptMethod.OUTER_EQUALS_INNER.ordinal()] = true;
+					}
+				}
+			}
+			
 			int count=0;
 			for(boolean b : optMethods){
 				if(b){
@@ -304,10 +341,17 @@ public class FilterFormulaOptimiser {
 			return ret;
 		}
 		
-		int addIfOK(long outerRowId,long innerRowId, boolean testZeroOptMethodFunctionsOnly){
+		/**
+		 * Add the row and keep it if it passes all functions which haven't already been tested
+		 * @param outerRowId
+		 * @param innerRowId
+		 * @param tested
+		 * @return
+		 */
+		int addIfOK(long outerRowId,long innerRowId, boolean [] tested){
 			add(outerRowId, innerRowId);
 			for(int i =0 ; i < nbFuncRecords ; i++){
-				if(!testZeroOptMethodFunctionsOnly || records.get(i).optMethodCount==0){
+				if(!tested[i]){
 					int result = execute(i);
 					if(result!=TRUE){
 						removeLast();
@@ -345,6 +389,73 @@ public class FilterFormulaOptimiser {
 		}
 	}
 	
+	/**
+	 * Get the key for a value in a hash join. Values which {@link ColumnValueProcessor#isEqual(Object, Object)}
+	 * considers equal always get the same key, although unequal values can share a key, so joined rows must
+	 * still be tested with the equals function.
+	 * @param value
+	 * @return
+	 */
+	private static Object getJoinKey(Object value){
+		if(value == null){
+			return NULL_KEY;
+		}
+		
+		// numbers are compared numerically with each other but by their string form with other types
+		Class<?> cls = value.getClass();
+		if(cls == Double.class || cls == Long.class || cls == Integer.class || cls == Short.class || cls == Byte.class){
+			double d = ((Number)value).doubleValue();
+			if(Double.isNaN(d) || Double.isInfinite(d)){
+				return Strings.std(value.toString());
+			}
+			return d == 0 ? 0.0 : d;
+		}
+		
+		// other types are compared by equals with themselves and their string form otherwise,
+		// so only accept types where equal objects have the same string form. ODLTime is a number
+		// so is compared numerically with other numbers but by its string form with strings; no single key works
+		if(cls != String.class && cls != Boolean.class && cls != LocalDate.class && cls != Color.class){
+			return UNHASHABLE;
+		}
+		
+		String std = Strings.std(value.toString());
+		if(std.length()>0 && (Character.isDigit(std.charAt(0)) || std.charAt(0)=='-' || std.charAt(0)=='+' || std.charAt(0)=='.')){
+			try {
+				double d = Double.parseDouble(std);
+				if(!Double.isNaN(d) && !Double.isInfinite(d)){
+					return d == 0 ? 0.0 : d;
+				}
+			} catch (NumberFormatException e) {
+				// not a number
+			}
+		}
+		return std;
+	}
+
+	/**
+	 * Get the key for the current row in the adder using the outer or inner side of the equality functions
+	 * @param adder
+	 * @param equalities
+	 * @param outer
+	 * @return The key, {@link #UNHASHABLE} or null if an error occurred
+	 */
+	private Object getJoinKey(RowAdder adder, TIntArrayList equalities, boolean outer){
+		int n = equalities.size();
+		Object [] keys = new Object[n];
+		for(int i =0 ; i < n ; i++){
+			FunctionRecord rec = records.get(equalities.get(i));
+			Object exec = adder.executeReturnResult(outer ? rec.outerSide : rec.innerSide);
+			if(processExecError(exec, adder.report)){
+				return null;
+			}
+			keys[i] = getJoinKey(exec);
+			if(keys[i] == UNHASHABLE){
+				return UNHASHABLE;
+			}
+		}
+		return n==1 ? keys[0] : Arrays.asList(keys);
+	}
+	
 	public void fillJoinTable(ODLTableReadOnly outerTable, ODLTableReadOnly innerTable,ODLTable joinTable, List<? extends ODLDatastore<? extends ODLTableReadOnly>> datasources, int datastoreIndx, ExecutionReport report){
 		final int nro = outerTable.getRowCount();
 		final int nri = innerTable.getRowCount();
@@ -357,6 +468,9 @@ public class FilterFormulaOptimiser {
 			return;
 		}
 		
+		// functions which we test before adding a row, so needn't be tested again
+		boolean [] tested = new boolean[nbFuncRecords];
+		
 		// first check for anything global that rejects the whole table
 		for(int i =0 ; i < nbFuncRecords ; i++){
 			FunctionRecord rec = records.get(i);
@@ -370,6 +484,10 @@ public class FilterFormulaOptimiser {
 					// whole join table must be empty
 					return;
 				}
+				tested[i] = true;
+			}
+			else if(rec.get(OptMethod.INNER_TABLE_INDEPENDENT)){
+				tested[i] = true;
 			}
 		}
 
@@ -379,6 +497,80 @@ public class FilterFormulaOptimiser {
 			FunctionRecord rec = records.get(i);						
 			if(rec.get(OptMethod.UNPROJECTED_GEOMCONTAINS_WITH_OUTER_GEOM_INNER_LAT_LONG)){
 				innerLookupOptMethod = initOptMethod(rec, outerTable, innerTable,joinTable, datasources, datastoreIndx, report);
+				tested[i] = innerLookupOptMethod!=null;
+			}
+		}
+		if(report.isFailed()){
+			return;
+		}
+		
+		// push down anything independent of the outer table, testing it once for each inner row
+		TIntArrayList pushedDown = new TIntArrayList();
+		for(int i =0 ; i < nbFuncRecords ; i++){
+			if(!tested[i] && records.get(i).get(OptMethod.OUTER_TABLE_INDEPENDENT)){
+				pushedDown.add(i);
+				tested[i] = true;
+			}
+		}
+		TLongArrayList innerIds = new TLongArrayList(nri);
+		for(int innerRow=0; innerRow < nri ; innerRow++){
+			long irid = innerTable.getRowId(innerRow);
+			if(pushedDown.size()>0){
+				adder.add(-1, irid);
+				int result = TRUE;
+				for(int i =0 ; i < pushedDown.size() && result==TRUE ; i++){
+					result = adder.execute(pushedDown.get(i));
+				}
+				adder.removeLast();
+				if(result == ERROR){
+					return;
+				}
+				else if (result == FALSE){
+					continue;
+				}
+			}
+			innerIds.add(irid);
+		}
+		TLongHashSet innerIdsSet = null;
+		if(innerLookupOptMethod!=null && pushedDown.size()>0){
+			innerIdsSet = new TLongHashSet(innerIds);
+		}
+		
+		// hash the inner rows on the inner side of any outer = inner equalities. 
+		// The equalities are still tested on the joined rows.
+		TIntArrayList equalities = new TIntArrayList();
+		HashMap<Object, TLongArrayList> hashJoin = null;
+		if(innerLookupOptMethod==null){
+			for(int i =0 ; i < nbFuncRecords ; i++){
+				if(!tested[i] && records.get(i).get(OptMethod.OUTER_EQUALS_INNER)){
+					equalities.add(i);
+				}
+			}
+			
+			if(equalities.size()>0){
+				hashJoin = new HashMap<Object, TLongArrayList>();
+				int n = innerIds.size();
+				for(int i =0 ; i < n && hashJoin!=null ; i++){
+					long irid = innerIds.get(i);
+					adder.add(-1, irid);
+					Object key = getJoinKey(adder, equalities, false);
+					adder.removeLast();
+					if(key == null){
+						return;
+					}
+					else if(key == UNHASHABLE){
+						// fall back to testing every inner row
+						hashJoin = null;
+					}
+					else{
+						TLongArrayList bucket = hashJoin.get(key);
+						if(bucket==null){
+							bucket = new TLongArrayList(1);
+							hashJoin.put(key, bucket);
+						}
+						bucket.add(irid);
+					}
+				}
 			}
 		}
 		
@@ -407,22 +599,42 @@ public class FilterFormulaOptimiser {
 			}
 			
 			if(!report.isFailed()){
+				TLongArrayList candidates = innerIds;
 				if(innerLookupOptMethod!=null){
-					long[] innerIds = innerLookupOptMethod.lookup( outerRow);
-					if(innerIds!=null){
-						for(long irid : innerIds){
-							if(report.isFailed() || adder.addIfOK(orid,irid, true)==ERROR){
+					long[] lookedUp = innerLookupOptMethod.lookup( outerRow);
+					if(lookedUp!=null){
+						for(long irid : lookedUp){
+							if(innerIdsSet!=null && !innerIdsSet.contains(irid)){
+								continue;
+							}
+							if(report.isFailed() || adder.addIfOK(orid,irid, tested)==ERROR){
 								return;
 							}	
 						}
-					}					
-				}else{
-					for(int innerRow=0; innerRow < nri && !report.isFailed(); innerRow++){
-						if(adder.addIfOK(orid, innerTable.getRowId(innerRow), true)==ERROR){
-							return;
-						}
 					}	
+					continue;
 				}
+				else if(hashJoin!=null){
+					adder.add(orid, -1);
+					Object key = getJoinKey(adder, equalities, true);
+					adder.removeLast();
+					if(key == null){
+						return;
+					}
+					else if(key != UNHASHABLE){
+						candidates = hashJoin.get(key);
+						if(candidates==null){
+							continue;
+						}
+					}
+				}
+				
+				int n = candidates.size();
+				for(int i=0; i < n && !report.isFailed(); i++){
+					if(adder.addIfOK(orid, candidates.get(i), tested)==ERROR){
+						return;
+					}
+				}	
 			}
 		}
 
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.scripts.execution.adapters;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.opendoorlogistics.core.AppProperties;
+
+/**
+ * Splits a table's rows into ranges which are processed on all cores using fork-join. Used when
+ * building an adapter to evaluate filter, sort and group-by formulae, which are independent per row
+ * as the source tables are not modified while the adapter is built. Small tables are processed
+ * on the calling thread.
+ * @author Phil
+ *
+ */
+final class ParallelRowEvaluator {
+	private static final int MIN_ROWS_PER_RANGE = 512;
+	private static final int RANGES_PER_THREAD = 4;
+	private static ForkJoinPool pool;
+	private static boolean poolCreated;
+
+	private ParallelRowEvaluator() {
+	}
+
+	interface RangeProcessor {
+		/**
+		 * Process rows fromRow (inclusive) to toRow (exclusive). Called concurrently for different ranges.
+		 * @param rangeIndex
+		 * @param fromRow
+		 * @param toRow
+		 */
+		void process(int rangeIndex, int fromRow, int toRow);
+	}
+
+	/**
+	 * Records the error on the lowest row, so the same error is reported as when processing in order
+	 */
+	static class FirstError {
+		private volatile int row = Integer.MAX_VALUE;
+		private String[] messages;
+
+		synchronized void set(int row, String... messages) {
+			if (row < this.row) {
+				this.row = row;
+				this.messages = messages;
+			}
+		}
+
+		synchronized boolean isSet() {
+			return messages != null;
+		}
+
+		synchronized String[] getMessages() {
+			return messages;
+		}
+
+		/**
+		 * Other ranges can stop once an earlier row has failed
+		 * @param row
+		 * @return
+		 */
+		boolean isSetBefore(int row) {
+			return this.row < row;
+		}
+	}
+
+	/**
+	 * Get the pool, or null if all rows should be processed on the calling thread
+	 * @return
+	 */
+	private static synchronized ForkJoinPool getPool() {
+		if (!poolCreated) {
+			int nbThreads = AppProperties.getDouble(AppProperties.ADAPTER_THREADS, 0).intValue();
+			if (nbThreads <= 0) {
+				pool = ForkJoinPool.commonPool();
+			} else if (nbThreads > 1) {
+				pool = new ForkJoinPool(nbThreads);
+			}
+			poolCreated = true;
+		}
+		return pool;
+	}
+
+	/**
+	 * Split the rows into ranges
+	 * @param nbRows
+	 * @return Boundaries of the ranges, so range i is rows ret[i] (inclusive) to ret[i+1] (exclusive)
+	 */
+	static int[] split(int nbRows) {
+		ForkJoinPool p = getPool();
+		int nbRanges = 1;
+		if (p != null) {
+			// the calling thread helps, so can be one more than the pool's parallelism
+			nbRanges = Math.min(nbRows / MIN_ROWS_PER_RANGE, (p.getParallelism() + 1) * RANGES_PER_THREAD);
+			nbRanges = Math.max(1, nbRanges);
+		}
+
+		int[] ret = new int[nbRanges + 1];
+		for (int i = 0; i <= nbRanges; i++) {
+			ret[i] = (int) ((long) nbRows * i / nbRanges);
+		}
+		return ret;
+	}
+
+	static void process(int nbRows, RangeProcessor processor) {
+		process(split(nbRows), processor);
+	}
+
+	/**
+	 * Process all ranges, returning when they're all finished. Any exception is rethrown on the calling thread.
+	 * @param ranges
+	 * @param processor
+	 */
+	static void process(int[] ranges, RangeProcessor processor) {
+		int nbRanges = ranges.length - 1;
+		if (nbRanges == 1) {
+			processor.process(0, ranges[0], ranges[1]);
+		} else if (nbRanges > 1) {
+			getPool().invoke(new RangesTask(ranges, processor, 0, nbRanges));
+		}
+	}
+
+	private static class RangesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] ranges;
+		private final RangeProcessor processor;
+		private final int fromRange;
+		private final int toRange;
+
+		RangesTask(int[] ranges, RangeProcessor processor, int fromRange, int toRange) {
+			this.ranges = ranges;
+			this.processor = processor;
+			this.fromRange = fromRange;
+			this.toRange = toRange;
+		}
+
+		@Override
+		protected void compute() {
+			if (toRange - fromRange == 1) {
+				processor.process(fromRange, ranges[fromRange], ranges[toRange]);
+			} else {
+				int mid = (fromRange + toRange) >>> 1;
+				invokeAll(new RangesTask(ranges, processor, fromRange, mid), new RangesTask(ranges, processor, mid, toRange));
+			}
+		}
+	}
+}
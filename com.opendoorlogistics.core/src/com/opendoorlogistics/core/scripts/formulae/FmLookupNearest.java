@@ -10,7 +10,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 
-import org.apache.commons.collections.BinaryHeap;
 import org.geotools.geometry.jts.JTS;
 import org.opengis.referencing.operation.MathTransform;
 
@@ -33,12 +32,14 @@ import com.opendoorlogistics.core.formulae.definitions.FunctionDefinition.Functi
 import com.opendoorlogistics.core.geometry.GreateCircle;
 import com.opendoorlogistics.core.geometry.ODLGeomImpl;
 import com.opendoorlogistics.core.geometry.Spatial;
+import com.opendoorlogistics.core.geometry.operations.NearestNeighbourTree;
 import com.opendoorlogistics.core.gis.map.data.LatLongImpl;
 import com.opendoorlogistics.core.scripts.execution.adapters.FunctionsBuilder;
 import com.opendoorlogistics.core.scripts.execution.adapters.IndexedDatastores;
 import com.opendoorlogistics.core.scripts.execution.adapters.FunctionsBuilder.ProcessedLookupReferences;
 import com.opendoorlogistics.core.scripts.execution.adapters.FunctionsBuilder.ToProcessLookupReferences;
 import com.opendoorlogistics.core.tables.ColumnValueProcessor;
+import com.opendoorlogistics.core.tables.memory.ODLAbstractTableDefinition;
 import com.opendoorlogistics.core.utils.Numbers;
 import com.opendoorlogistics.core.utils.Pair;
 import com.opendoorlogistics.core.utils.strings.Strings;
@@ -47,6 +48,8 @@ import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 
+import gnu.trove.list.array.TIntArrayList;
+
 /**
  * Looks up the closest object to the input geometry. For polygons the distance used is the distance to the boundary, not the polygon centre. When
  * comparing two objects which are both within the polygon, the closest distance to the centre is instead used.
@@ -60,6 +63,7 @@ final public class FmLookupNearest extends FunctionImpl {
 	//private final Pair<Class<?>, String> cacheKey;
 	private final LCType type;
 	private ProcessedLookupReferences refs;
+	private volatile RowIndex rowIndex;
 
 	private FmLookupNearest(LCType type, String espg_srid, MathTransform transform, Function... children) {
 		super(children);
@@ -316,139 +320,263 @@ final public class FmLookupNearest extends FunctionImpl {
 	// return geom;
 	// }
 
-	private Object executeLL(FunctionParameters parameters, ODLTableReadOnly table) {
-		LatLong ll = getLatLongFromExecution(parameters);
-		if (ll == null) {
-			return Functions.EXECUTION_ERROR;
+	/**
+	 * Records the state of the other table when an index was built, to check the index is still current in constant time.
+	 * Tables which track their modification stamp are compared by stamp. For other tables the row ids and their last modified
+	 * times are checked, but only when some table has been modified since they were last checked.
+	 * 
+	 * @author Phil
+	 * 
+	 */
+	private static class IndexValidation {
+		final long tableStamp;
+		final long fingerprint;
+		final long builtMillis;
+		volatile long validatedLatestStamp;
+
+		/**
+		 * Create before building the index, so changes made during the build are detected
+		 * @param table
+		 */
+		IndexValidation(ODLTableReadOnly table) {
+			validatedLatestStamp = ODLAbstractTableDefinition.getLatestModificationStamp();
+			tableStamp = table.getModificationStamp();
+			builtMillis = System.currentTimeMillis();
+			fingerprint = tableStamp == -1 ? getFingerprint(table) : 0;
 		}
 
-		int nr = table.getRowCount();
-		int closestRow = -1;
-		double closest = Double.MAX_VALUE;
-		for (int row = 0; row < nr; row++) {
-			Pair<LatLong, Boolean> other = getLatLongFromRow(table, row);
-			if (other.getSecond() == false) {
-				// critical error
-				return Functions.EXECUTION_ERROR;
-			} else if (other.getFirst() != null) {
-				double dist = GreateCircle.greatCircleApprox(ll, other.getFirst());
-				if (dist < closest) {
-					closest = dist;
-					closestRow = row;
+		boolean isCurrent(ODLTableReadOnly table) {
+			if (tableStamp != -1) {
+				return table.getModificationStamp() == tableStamp;
+			}
+
+			long latest = ODLAbstractTableDefinition.getLatestModificationStamp();
+			if (latest == validatedLatestStamp) {
+				// nothing has been modified since the last check
+				return true;
+			}
+
+			int nr = table.getRowCount();
+			long hash = nr;
+			for (int row = 0; row < nr; row++) {
+				long id = table.getRowId(row);
+				long modified = table.getRowLastModifiedTimeMillsecs(id);
+				if (modified >= builtMillis) {
+					// modified during or after the build; we can't tell which so rebuild
+					return false;
 				}
+				hash = 31 * (31 * hash + id) + modified;
+			}
+			if (hash != fingerprint) {
+				return false;
 			}
+			validatedLatestStamp = latest;
+			return true;
 		}
 
-		if (closestRow != -1) {
-			return getReturnObject(table, closestRow);
+		static long getFingerprint(ODLTableReadOnly table) {
+			int nr = table.getRowCount();
+			long hash = nr;
+			for (int row = 0; row < nr; row++) {
+				long id = table.getRowId(row);
+				hash = 31 * (31 * hash + id) + table.getRowLastModifiedTimeMillsecs(id);
+			}
+			return hash;
 		}
-
-		return null;
 	}
 
-	@Override
-	public Object execute(FunctionParameters parameters) {
-		TableParameters tp = (TableParameters) parameters;
-		ODLTableReadOnly table = (ODLTableReadOnly) tp.getTableById(refs.datastoreIndx, refs.tableId);
-
-		if (type == LCType.LL) {
-			return executeLL(parameters, table);
+	/**
+	 * Index over the rows of the other table, built once and reused for each row the
+	 * formula is executed on until the other table changes.
+	 * 
+	 * @author Phil
+	 * 
+	 */
+	private static class RowIndex {
+		final IndexValidation validation;
+		final boolean criticalError;
+		final int[] rows;
+		final LatLong[] latLongs;
+		final CachedProcessedGeom[] geoms;
+		final NearestNeighbourTree tree;
+
+		RowIndex(IndexValidation validation, boolean criticalError, int[] rows, LatLong[] latLongs, CachedProcessedGeom[] geoms,
+				NearestNeighbourTree tree) {
+			this.validation = validation;
+			this.criticalError = criticalError;
+			this.rows = rows;
+			this.latLongs = latLongs;
+			this.geoms = geoms;
+			this.tree = tree;
 		}
 
-		CachedProcessedGeom searchObject = getSearchGeom(parameters);
-		if (searchObject == null || searchObject.geometry == null) {
-			return Functions.EXECUTION_ERROR;
+		static RowIndex createCriticalError(IndexValidation validation) {
+			return new RowIndex(validation, true, null, null, null, null);
 		}
+	}
 
-		class RowElement implements Comparable<RowElement>{
-			int row;
-			CachedProcessedGeom geom;
-			double minDistance;
-			
-			@Override
-			public int compareTo(RowElement o) {
-				int ret= Double.compare(minDistance, o.minDistance);
-				if(ret==0){
-					ret= Integer.compare(row, o.row);
-				}
-				return ret;
-			}
+	private RowIndex getRowIndex(ODLTableReadOnly table) {
+		RowIndex ret = rowIndex;
+		if (ret == null || !ret.validation.isCurrent(table)) {
+			ret = buildRowIndex(table);
+			rowIndex = ret;
 		}
-		
-		// Get all geometries, transformed into the coord system and with bounding circles.
-		// Place them in a binary heap, sorted by their minimum possible distance according to bounding circle
+		return ret;
+	}
+
+	private RowIndex buildRowIndex(ODLTableReadOnly table) {
+		IndexValidation validation = new IndexValidation(table);
+
 		int nr = table.getRowCount();
-		BinaryHeap sortedHeap = new BinaryHeap();
+		TIntArrayList rows = new TIntArrayList(nr);
+		ArrayList<LatLong> latLongs = new ArrayList<>();
+		ArrayList<CachedProcessedGeom> geoms = new ArrayList<>();
 		for (int row = 0; row < nr; row++) {
-			CachedProcessedGeom otherGeom = null;
 			switch (type) {
-			case GL:
+			case LL:
+			case GL: {
 				Pair<LatLong, Boolean> result = getLatLongFromRow(table, row);
 				if (result.getSecond() == false) {
 					// critical error
-					return Functions.EXECUTION_ERROR;
+					return RowIndex.createCriticalError(validation);
 				} else if (result.getFirst() != null) {
-
-					LatLong ll = result.getFirst();
-
-					// put into our comparison object and convert
-					otherGeom = new CachedProcessedGeom(ll, transform);
+					if (type == LCType.LL) {
+						latLongs.add(result.getFirst());
+					} else {
+						// put into our comparison object and convert
+						CachedProcessedGeom otherGeom = new CachedProcessedGeom(result.getFirst(), transform);
+						if (otherGeom.geometry == null) {
+							// critical error
+							return RowIndex.createCriticalError(validation);
+						}
+						geoms.add(otherGeom);
+					}
+					rows.add(row);
 				}
 				break;
+			}
 
 			case GG:
 			case LG: {
 				Object val = table.getValueAt(row, refs.columnIndices[0]);
 				if (val != null) {
 
-					ODLGeomImpl odlGeom = (ODLGeomImpl) ColumnValueProcessor.convertToMe(ODLColumnType.GEOM,val);
+					ODLGeomImpl odlGeom = (ODLGeomImpl) ColumnValueProcessor.convertToMe(ODLColumnType.GEOM, val);
 					if (odlGeom == null) {
 						// critical error
-						return Functions.EXECUTION_ERROR;
+						return RowIndex.createCriticalError(validation);
 					}
 
-					otherGeom = toCoordSystem(odlGeom);
+					CachedProcessedGeom otherGeom = toCoordSystem(odlGeom);
 					if (otherGeom == null || otherGeom.geometry == null) {
 						// critical error
-						return Functions.EXECUTION_ERROR;
+						return RowIndex.createCriticalError(validation);
 					}
+					geoms.add(otherGeom);
+					rows.add(row);
 				}
-			}
-			default:
 				break;
 			}
+			}
+		}
 
-			if (otherGeom != null) {
-				RowElement rowElement = new RowElement();
-				rowElement.row = row;
-				rowElement.minDistance =  searchObject.boundingCircle.minimumSeparation(otherGeom.boundingCircle);
-				rowElement.geom = otherGeom;
-				sortedHeap.add(rowElement);
+		int n = rows.size();
+		NearestNeighbourTree tree;
+		if (type == LCType.LL) {
+			double[] lats = new double[n];
+			double[] lngs = new double[n];
+			for (int i = 0; i < n; i++) {
+				lats[i] = latLongs.get(i).getLatitude();
+				lngs[i] = latLongs.get(i).getLongitude();
 			}
+			tree = NearestNeighbourTree.createGreatCircle(lats, lngs);
+		} else {
+			double[] centres = new double[2 * n];
+			double[] radii = new double[n];
+			for (int i = 0; i < n; i++) {
+				BoundingCircle circle = geoms.get(i).boundingCircle;
+				centres[2 * i] = circle.envelopeCentre.x;
+				centres[2 * i + 1] = circle.envelopeCentre.y;
+				radii[i] = circle.envelopeRadius;
+			}
+			tree = NearestNeighbourTree.createPlanar(centres, radii);
 		}
 
+		return new RowIndex(validation, false, rows.toArray(), latLongs.toArray(new LatLong[latLongs.size()]),
+				geoms.toArray(new CachedProcessedGeom[geoms.size()]), tree);
+	}
 
-		// loop over the table
-		RowElement closest=null;
-		double closestDistance = Double.MAX_VALUE;
-		while(sortedHeap.size()>0){
-			RowElement row = (RowElement)sortedHeap.pop();
-			if(row.minDistance > closestDistance){
-				// We can stop searching now as the minimum possible distance is greater than our closest
-				break;
+	private Object executeLL(FunctionParameters parameters, ODLTableReadOnly table) {
+		final LatLong ll = getLatLongFromExecution(parameters);
+		if (ll == null) {
+			return Functions.EXECUTION_ERROR;
+		}
+
+		final RowIndex index = getRowIndex(table);
+		if (index.criticalError) {
+			return Functions.EXECUTION_ERROR;
+		}
+
+		int closest = index.tree.nearestGreatCircle(ll.getLatitude(), ll.getLongitude(), new NearestNeighbourTree.ItemDistances() {
+
+			@Override
+			public double lowerBound(int item) {
+				// ties are decided on the row alone
+				return 0;
 			}
-			
-			// Explicitly get the distance
-			double distance = searchObject.geometry.distance(row.geom.geometry);
-			if(distance < closestDistance){
-				closestDistance = distance;
-				closest = row;
+
+			@Override
+			public double distance(int item) {
+				return GreateCircle.greatCircleApprox(ll, index.latLongs[item]);
 			}
+		});
+
+		if (closest != -1) {
+			return getReturnObject(table, index.rows[closest]);
 		}
 
+		return null;
+	}
+
+	@Override
+	public Object execute(FunctionParameters parameters) {
+		TableParameters tp = (TableParameters) parameters;
+		ODLTableReadOnly table = (ODLTableReadOnly) tp.getTableById(refs.datastoreIndx, refs.tableId);
+
+		if (type == LCType.LL) {
+			return executeLL(parameters, table);
+		}
+
+		final CachedProcessedGeom searchObject = getSearchGeom(parameters);
+		if (searchObject == null || searchObject.geometry == null) {
+			return Functions.EXECUTION_ERROR;
+		}
+
+		final RowIndex index = getRowIndex(table);
+		if (index.criticalError) {
+			return Functions.EXECUTION_ERROR;
+		}
+
+		// Search the tree of bounding circles. Rows are only tested explicitly if the minimum
+		// possible distance according to their bounding circle is within the closest found so far.
+		// When distances are equal, the row with the smallest minimum distance then the lowest row wins.
+		BoundingCircle circle = searchObject.boundingCircle;
+		int closest = index.tree.nearestPlanar(circle.envelopeCentre.x, circle.envelopeCentre.y, circle.envelopeRadius,
+				new NearestNeighbourTree.ItemDistances() {
+
+					@Override
+					public double lowerBound(int item) {
+						return searchObject.boundingCircle.minimumSeparation(index.geoms[item].boundingCircle);
+					}
+
+					@Override
+					public double distance(int item) {
+						return searchObject.geometry.distance(index.geoms[item].geometry);
+					}
+				});
 
-		if(closest!=null){
-			return getReturnObject(table, closest.row);	
+		if (closest != -1) {
+			return getReturnObject(table, index.rows[closest]);
 		}
 
 		return null;
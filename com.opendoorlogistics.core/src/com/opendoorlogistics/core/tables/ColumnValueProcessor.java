@@ -44,7 +44,16 @@ public class ColumnValueProcessor {
 	private ColumnValueProcessor() {
 	}
 
-	private static final WKTReader wktReader = new WKTReader();
+	/**
+	 * Values can be converted on several threads at once (e.g. when loading Excel sheets)
+	 * and the reader isn't thread safe, so each thread gets its own
+	 */
+	private static final ThreadLocal<WKTReader> wktReader = new ThreadLocal<WKTReader>() {
+		@Override
+		protected WKTReader initialValue() {
+			return new WKTReader();
+		}
+	};
 
 	public static Class<?> getJavaClass(ODLColumnType colType) {
 		// Each column type must have its own java class or the bean mapping gets confused...
@@ -321,7 +330,7 @@ public class ColumnValueProcessor {
 				if (link != null) {
 					return new ODLShapefileLinkGeom(link);
 				}
-				Geometry geometry = wktReader.read(other.toString());
+				Geometry geometry = wktReader.get().read(other.toString());
 				return geometry != null ? new ODLLoadedGeometry(geometry) : null;
 			} catch (Throwable e) {
 				return null;
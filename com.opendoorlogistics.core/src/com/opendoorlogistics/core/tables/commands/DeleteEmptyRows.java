@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.tables.commands;
+
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableDefinition;
+
+/**
+ * Delete several empty rows in one operation. The rows must be sorted ascending and unique.
+ * @author Phil
+ *
+ */
+final public class DeleteEmptyRows extends Command{
+	private final int [] rows;
+	
+	public DeleteEmptyRows(int tableId, int [] rows) {
+		super(tableId);
+		this.rows = rows;
+	}
+
+	@Override
+	public Command doCommand(ODLDatastore<? extends ODLTableDefinition> database) {
+		ODLTable table = (ODLTable)database.getTableByImmutableId(tableId);
+		if(table==null){
+			return null;
+		}
+		
+		long [] rowids = new long[rows.length];
+		for(int i =0 ; i < rows.length ; i++){
+			rowids[i] = table.getRowId(rows[i]);
+		}
+		table.deleteRows(rows);
+		return new InsertEmptyRows(tableId, rows,rowids);
+	}
+
+
+	@Override
+	public long calculateEstimateSizeBytes() {
+		return 12 + 4 * rows.length;
+	}
+	
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.tables.commands;
+
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableDefinition;
+
+/**
+ * Insert several empty rows in one operation. The rows are the final row numbers
+ * of the inserted rows and must be sorted ascending and unique.
+ * @author Phil
+ *
+ */
+final public class InsertEmptyRows extends Command{
+	final private int [] rows;
+	final private long [] rowIds;
+	
+	public InsertEmptyRows(int tableId, int [] rows, long [] rowIds) {
+		super(tableId);
+		this.rows = rows;
+		this.rowIds = rowIds;
+	}
+
+	@Override
+	public Command doCommand(ODLDatastore<? extends ODLTableDefinition> database) {	
+		ODLTable table = (ODLTable)database.getTableByImmutableId(tableId);
+		if(table==null){
+			return null;
+		}
+		
+		table.insertEmptyRows(rows,rowIds);
+		return new DeleteEmptyRows(tableId, rows);
+	}
+
+	@Override
+	public long calculateEstimateSizeBytes() {
+		return 12 + (4 + 8) * rows.length;
+	}
+
+
+}
@@ -109,22 +109,25 @@ final public class MergeBranchedDatastore {
 		}
 		TableUtils.deleteById(destination, rowIdsToDelete.toArray());
 
-		// append into the destination all rows appended in the source
+		// append into the destination all rows appended in the source. As rows can only be appended,
+		// these are all after the original rows so we only read the end of the source table
 		int nr = source.getRowCount();
-		for (int srcRow = 0; srcRow < nr; srcRow++) {
+		int firstAppended = nr;
+		while (firstAppended > 0 && mergeFromDs.isAppendedRow(source.getRowId(firstAppended - 1))) {
+			firstAppended--;
+		}
+		for (int srcRow = firstAppended; srcRow < nr; srcRow++) {
 			long rowId = source.getRowId(srcRow);
-			if (mergeFromDs.isAppendedRow(rowId)) {
-				result = MergeTableResult.WRITES_DONE;
-				
-				// append, using correct rowid if still available in the destination
-				if (destination.containsRowId(rowId)) {
-					rowId = -1;
-				}
-				int destRow = destination.createEmptyRow(rowId);
-				int nc = source.getColumnCount();
-				for (int col = 0; col < nc; col++) {
-					destination.setValueAt(source.getValueAt(srcRow, col), destRow, col);
-				}
+			result = MergeTableResult.WRITES_DONE;
+
+			// append, using correct rowid if still available in the destination
+			if (destination.containsRowId(rowId)) {
+				rowId = -1;
+			}
+			int destRow = destination.createEmptyRow(rowId);
+			int nc = source.getColumnCount();
+			for (int col = 0; col < nc; col++) {
+				destination.setValueAt(source.getValueAt(srcRow, col), destRow, col);
 			}
 		}
 
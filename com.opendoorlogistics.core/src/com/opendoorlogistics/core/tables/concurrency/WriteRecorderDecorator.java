@@ -18,6 +18,7 @@ import com.opendoorlogistics.api.tables.ODLTable;
 import com.opendoorlogistics.api.tables.ODLTableDefinition;
 import com.opendoorlogistics.api.tables.ODLTableReadOnly;
 import com.opendoorlogistics.core.tables.decorators.datastores.SimpleDecorator;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
 
 /**
  * A decorator which records all writes (row creation, insertion, deletion, setting
@@ -118,6 +119,42 @@ final public class WriteRecorderDecorator<T extends ODLTableDefinition> extends
 		super.deleteRow(tableId, rowNumber);
 	}
 
+	@Override
+	public void insertEmptyRows(int tableId, int[] rowNumbers, long[] rowIds) {
+		// only allow insertion at end
+		ODLTable table = (ODLTable)getTableByImmutableId(tableId);
+		int rowCount = table.getRowCount();
+		for(int i =0 ; i< rowNumbers.length ; i++){
+			if(rowNumbers[i]!=rowCount + i){
+				throw new UnsupportedOperationException();
+			}
+		}
+		
+		super.insertEmptyRows(tableId, rowNumbers, rowIds);
+		for(int row : rowNumbers){
+			appendedRowIds.add(getRowGlobalId(tableId, row));
+		}
+	}
+
+	@Override
+	public void deleteRows(int tableId, int[] rowNumbers) {
+		ODLTable table = (ODLTable)getTableByImmutableId(tableId);
+		if(table==null){
+			return;
+		}
+
+		// only record the rows which will actually be deleted
+		int[] rows = TableUtils.getRowsToDelete(rowNumbers, table.getRowCount());
+		for(int row : rows){
+			long rowId = getRowGlobalId(tableId, row);
+			if(appendedRowIds.contains(rowId)==false){
+				deletedOriginalRowIds.add(rowId);			
+			}
+		}
+		
+		super.deleteRows(tableId, rows);
+	}
+
 	@Override
 	public int addColumn(int tableId,int id, String name, ODLColumnType type, long flags) {
 		if(createdTableIds.contains(tableId)){
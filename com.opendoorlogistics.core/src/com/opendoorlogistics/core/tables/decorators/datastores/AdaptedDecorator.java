@@ -7,10 +7,15 @@
 package com.opendoorlogistics.core.tables.decorators.datastores;
 
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.opendoorlogistics.api.Func;
 import com.opendoorlogistics.api.Tables;
@@ -44,6 +49,9 @@ import com.opendoorlogistics.core.scripts.wizard.TagUtils;
 import com.opendoorlogistics.core.tables.ColumnValueProcessor;
 import com.opendoorlogistics.core.tables.ODLRow;
 import com.opendoorlogistics.core.tables.ODLRowReadOnly;
+import com.opendoorlogistics.core.tables.decorators.datastores.dependencies.DataDependencies;
+import com.opendoorlogistics.core.tables.decorators.datastores.dependencies.DataDependenciesRecorder;
+import com.opendoorlogistics.core.tables.decorators.datastores.dependencies.RowLocalityRecorder;
 import com.opendoorlogistics.core.tables.memory.ODLDatastoreImpl;
 import com.opendoorlogistics.core.tables.utils.TableFlagUtils;
 import com.opendoorlogistics.core.tables.utils.TableUtils;
@@ -58,6 +66,7 @@ import com.sun.corba.se.impl.oa.toa.TOA;
 final public class AdaptedDecorator<T extends ODLTableDefinition> extends AbstractDecorator<T> {
 	private final AdapterMapping mapping;
 	private final List<ODLDatastore<? extends T>> sources;
+	private final ConcurrentHashMap<Long, MaterialisedColumn> materialised = new ConcurrentHashMap<>();
 
 	public static class AdapterMapping {
 		private final ODLDatastore<? extends ODLTableDefinition> outputDs;
@@ -114,6 +123,7 @@ final public class AdaptedDecorator<T extends ODLTableDefinition> extends Abstra
 		public static class MappedField {
 			private int sourceColumnIndex;
 			private Function formula;
+			private boolean materialised;
 
 			public int getSourceColumnIndex() {
 				return sourceColumnIndex;
@@ -131,6 +141,19 @@ final public class AdaptedDecorator<T extends ODLTableDefinition> extends Abstra
 				this.formula = formula;
 			}
 
+			public boolean isMaterialised() {
+				return materialised;
+			}
+
+			/**
+			 * Set whether the formula's values are calculated for the whole table at once and then cached
+			 * until a table the formula reads is modified
+			 * @param materialised
+			 */
+			public void setMaterialised(boolean materialised) {
+				this.materialised = materialised;
+			}
+
 		}
 
 		public static AdapterMapping createUnassignedMapping(ODLDatastore<? extends ODLTableDefinition> dm) {
@@ -215,6 +238,14 @@ final public class AdaptedDecorator<T extends ODLTableDefinition> extends Abstra
 			mappedByDestTableId.get(destinationTableId).fields.get(destinationFieldIndx).formula = calc;
 		}
 
+		public void setFieldMaterialised(int destinationTableId, int destinationFieldIndx, boolean materialised) {
+			mappedByDestTableId.get(destinationTableId).fields.get(destinationFieldIndx).materialised = materialised;
+		}
+
+		public boolean isFieldMaterialised(int destinationTableId, int destinationColIndx) {
+			return mappedByDestTableId.get(destinationTableId).fields.get(destinationColIndx).materialised;
+		}
+
 		public int getSourceDatasourceIndx(int destinationTableId) {
 			return mappedByDestTableId.get(destinationTableId).sourceDataSourceIndx;
 		}
@@ -356,6 +387,18 @@ final public class AdaptedDecorator<T extends ODLTableDefinition> extends Abstra
 	 * @return
 	 */
 	private Object getValue(final int destinationTableId,final long originalRowId,final int rowIndex,final int columnIndex) {
+		// use a cached value if it's still valid, but don't calculate the whole column for a single value
+		MaterialisedColumn column = getCachedMaterialised(destinationTableId, columnIndex);
+		if(column!=null){
+			Validity validity = column.getValidity(sources);
+			int row = rowIndex!=-1 ? rowIndex : column.getRowIndex(originalRowId);
+			if(row>=0 && row < column.values.length){
+				if(validity == Validity.VALID || (validity == Validity.CHECK_ROWS && column.isRowValid(column.getRowLocalTable(sources), row))){
+					return column.values[row];
+				}
+			}
+		}
+		
 		TableFetcher tableFetcher = TableParameters.createTableFetcher(sources);
 		return getValue(destinationTableId, originalRowId, rowIndex, columnIndex, tableFetcher);
 	}
@@ -386,30 +429,7 @@ final public class AdaptedDecorator<T extends ODLTableDefinition> extends Abstra
 			}
 			
 			// create the 'this row' object so formula can reference other formula in the same table adapter
-			ODLRowReadOnly thisRow = new ODLRowReadOnly() {
-				
-				@Override
-				public int getRowIndex() {
-					throw new UnsupportedOperationException();
-				}
-				
-				@Override
-				public ODLTableDefinition getDefinition() {
-					return destTable;
-				}
-				
-				@Override
-				public int getColumnCount() {
-					throw new UnsupportedOperationException();
-				}
-				
-				@Override
-				public Object get(int col) {
-					return getValue(destinationTableId, originalRowId, rowIndex, col);
-				}
-				
-	
-			};
+			ODLRowReadOnly thisRow = new ThisRow(destTable, destinationTableId, originalRowId, rowIndex, srcTableFetcher);
 
 			FunctionParameters parameters = new TableParameters(srcTableFetcher, mapping.getSourceDatasourceIndx(destinationTableId), mapping.getSourceTableId(destinationTableId), rowId, rowIndex, thisRow);
 			ret = formula.execute(parameters);
@@ -437,6 +457,480 @@ final public class AdaptedDecorator<T extends ODLTableDefinition> extends Abstra
 		return ret;
 	}
 
+	/**
+	 * Row passed to formulae so they can reference other formulae in the same table adapter
+	 */
+	private class ThisRow implements ODLRowReadOnly{
+		private final ODLTableDefinition destTable;
+		private final int destinationTableId;
+		private final long originalRowId;
+		private final int rowIndex;
+		private final TableFetcher tableFetcher;
+
+		ThisRow(ODLTableDefinition destTable, int destinationTableId, long originalRowId, int rowIndex, TableFetcher tableFetcher) {
+			this.destTable = destTable;
+			this.destinationTableId = destinationTableId;
+			this.originalRowId = originalRowId;
+			this.rowIndex = rowIndex;
+			this.tableFetcher = tableFetcher;
+		}
+
+		@Override
+		public int getRowIndex() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public ODLTableDefinition getDefinition() {
+			return destTable;
+		}
+		
+		@Override
+		public int getColumnCount() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Object get(int col) {
+			// use the same fetcher so reads are recorded when materialising a column
+			return getValue(destinationTableId, originalRowId, rowIndex, col, tableFetcher);
+		}
+	}
+
+	private enum Validity{
+		VALID,
+		
+		/**
+		 * Only the adapted table has changed, and each row's value is valid unless the row has changed or moved
+		 */
+		CHECK_ROWS,
+		
+		INVALID
+	}
+	
+	/**
+	 * A formula column's values for the whole table, with the modification stamps of every table
+	 * read when calculating them. The values are valid until any of the stamps change. If the formula
+	 * only reads its own row from the adapted table, a change to the adapted table only invalidates the rows
+	 * modified since the calculation started, or moved. Immutable once created, except for the lazily-built
+	 * row id lookup.
+	 */
+	private static class MaterialisedColumn{
+		final Function formula;
+		final Object[] values;
+		final long[] rowIds;
+		final int[] dependencyDsIndices;
+		final int[] dependencyTableIds;
+		final long[] dependencyStamps;
+		
+		/**
+		 * Index of the adapted table in the dependencies if the formula only reads its own row from it, otherwise -1
+		 */
+		final int rowLocalDependency;
+		
+		/**
+		 * Rows of the adapted table last modified before this time haven't changed since their values were calculated
+		 */
+		final long calculatedMillis;
+		
+		/**
+		 * The adapted table's column ids, as formulae read columns by index
+		 */
+		final int[] sourceColumnIds;
+		volatile TLongIntHashMap rowIndexById;
+		
+		/**
+		 * Create a record that the column can't be materialised with this formula
+		 */
+		MaterialisedColumn(Function formula) {
+			this(formula, null, null, new int[0], new int[0], new long[0], -1, 0, null);
+		}
+		
+		MaterialisedColumn(Function formula, Object[] values, long[] rowIds, int[] dependencyDsIndices, int[] dependencyTableIds,long[] dependencyStamps,
+				int rowLocalDependency, long calculatedMillis, int[] sourceColumnIds) {
+			this.formula = formula;
+			this.values = values;
+			this.rowIds = rowIds;
+			this.dependencyDsIndices = dependencyDsIndices;
+			this.dependencyTableIds = dependencyTableIds;
+			this.dependencyStamps = dependencyStamps;
+			this.rowLocalDependency = rowLocalDependency;
+			this.calculatedMillis = calculatedMillis;
+			this.sourceColumnIds = sourceColumnIds;
+		}
+		
+		Validity getValidity(List<? extends ODLDatastore<?>> sources){
+			Validity ret = Validity.VALID;
+			for(int i =0 ; i<dependencyStamps.length ; i++){
+				if(getModificationStamp(sources, dependencyDsIndices[i], dependencyTableIds[i])!=dependencyStamps[i]){
+					if(i!=rowLocalDependency){
+						return Validity.INVALID;
+					}
+					ret = Validity.CHECK_ROWS;
+				}
+			}
+			
+			if(ret == Validity.CHECK_ROWS && !Arrays.equals(sourceColumnIds, getColumnIds(getRowLocalTable(sources)))){
+				return Validity.INVALID;
+			}
+			return ret;
+		}
+		
+		ODLTableReadOnly getRowLocalTable(List<? extends ODLDatastore<?>> sources){
+			if(rowLocalDependency==-1){
+				return null;
+			}
+			return getTable(sources, dependencyDsIndices[rowLocalDependency], dependencyTableIds[rowLocalDependency]);
+		}
+		
+		/**
+		 * Check if the row's value is still valid when the validity is {@link Validity#CHECK_ROWS}
+		 * @param table The table returned by {@link #getRowLocalTable(List)}
+		 * @param row
+		 * @return
+		 */
+		boolean isRowValid(ODLTableReadOnly table, int row){
+			return table!=null && row>=0 && row < rowIds.length && row < table.getRowCount() && table.getRowId(row)==rowIds[row]
+					&& table.getRowLastModifiedTimeMillsecs(rowIds[row]) < calculatedMillis;
+		}
+		
+		/**
+		 * Get the row index from the id, or -1 if not found or the id is not unique (which unions can cause)
+		 */
+		int getRowIndex(long rowId){
+			TLongIntHashMap map = rowIndexById;
+			if(map==null){
+				map = new TLongIntHashMap(rowIds.length, 0.5f, -1, -1);
+				for(int i =0 ; i < rowIds.length ; i++){
+					if(map.containsKey(rowIds[i])){
+						map.put(rowIds[i], -2);
+					}else{
+						map.put(rowIds[i], i);						
+					}
+				}
+				rowIndexById = map;
+			}
+			return map.get(rowId);
+		}
+	}
+	
+	private static ODLTableReadOnly getTable(List<? extends ODLDatastore<?>> sources, int dsIndx, int tableId){
+		if(dsIndx < 0 || dsIndx >= sources.size()){
+			return null;
+		}
+		return (ODLTableReadOnly)sources.get(dsIndx).getTableByImmutableId(tableId);
+	}
+	
+	private static long getModificationStamp(List<? extends ODLDatastore<?>> sources, int dsIndx, int tableId){
+		ODLTableReadOnly table = getTable(sources, dsIndx, tableId);
+		if(table==null){
+			return -1;
+		}
+		return table.getModificationStamp();
+	}
+	
+	private static int[] getColumnIds(ODLTableReadOnly table){
+		if(table==null){
+			return null;
+		}
+		int [] ret = new int[table.getColumnCount()];
+		for(int i =0 ; i < ret.length ; i++){
+			ret[i] = table.getColumnImmutableId(i);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Get the formula if the column is materialised, otherwise null
+	 * @param tableId
+	 * @param col
+	 * @return
+	 */
+	private Function getMaterialisedFormula(int tableId, int col){
+		if(col < 0 || col >= mapping.getFieldCount(tableId) || !mapping.isFieldMaterialised(tableId, col)){
+			return null;
+		}
+		return mapping.getFieldFormula(tableId, col);
+	}
+	
+	private static Long getMaterialisedKey(int tableId, int col){
+		return ((long)tableId << 32) | (col & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Get the column's cached values without calculating them, even if they're out-of-date.
+	 * Returns null if the column isn't materialised or hasn't been calculated.
+	 * @param tableId
+	 * @param col
+	 * @return
+	 */
+	private MaterialisedColumn getCachedMaterialised(int tableId, int col){
+		Function formula = getMaterialisedFormula(tableId, col);
+		if(formula==null){
+			return null;
+		}
+		MaterialisedColumn ret = materialised.get(getMaterialisedKey(tableId, col));
+		return ret!=null && ret.formula==formula && ret.values!=null ? ret : null;
+	}
+	
+	/**
+	 * Get the column's cached values, calculating them if the column is materialised and the cached values are missing or
+	 * out-of-date. Only the changed rows are recalculated when possible. Returns null if the column isn't materialised or can't be,
+	 * because a table it reads doesn't record its changes.
+	 * @param tableId
+	 * @param col
+	 * @return
+	 */
+	private MaterialisedColumn getUpToDateMaterialised(int tableId, int col){
+		Function formula = getMaterialisedFormula(tableId, col);
+		if(formula==null){
+			return null;
+		}
+		
+		Long key = getMaterialisedKey(tableId, col);
+		MaterialisedColumn ret = materialised.get(key);
+		Validity validity = Validity.INVALID;
+		if(ret!=null && ret.formula==formula){
+			if(ret.values==null){
+				return null;
+			}
+			validity = ret.getValidity(sources);
+			if(validity == Validity.VALID){
+				return ret;
+			}
+		}
+		
+		ret = materialise(tableId, col, formula, validity == Validity.CHECK_ROWS ? ret : null);
+		materialised.put(key, ret);
+		return ret.values!=null ? ret : null;
+	}
+	
+	/**
+	 * Creates the table fetcher used when calculating each row's value
+	 */
+	private interface RowFetcherFactory{
+		TableFetcher create(int rowIndex, long rowId);
+	}
+	
+	/**
+	 * Calculate the column's values
+	 * @param tableId
+	 * @param col
+	 * @param formula
+	 * @param previous Previous values with validity {@link Validity#CHECK_ROWS}, whose valid rows are reused, or null 
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private MaterialisedColumn materialise(int tableId, int col, Function formula, MaterialisedColumn previous){
+		// rows of the adapted table modified from now on are recalculated next time
+		long calculatedMillis = System.currentTimeMillis();
+		
+		// record every table read, and its stamp from when first fetched so changes made while we're calculating are still detected
+		final int nbSources = sources.size();
+		final ArrayList<ODLDatastore<? extends ODLTableReadOnly>> recorders = new ArrayList<>(nbSources);
+		final ArrayList<DataDependencies> dependencies = new ArrayList<>(nbSources);
+		final ArrayList<TLongLongHashMap> stamps = new ArrayList<>(nbSources);
+		for(ODLDatastore<? extends T> source : sources){
+			DataDependencies dependency = new DataDependencies();
+			dependencies.add(dependency);
+			recorders.add(new DataDependenciesRecorder<ODLTableReadOnly>(ODLTableReadOnly.class, (ODLDatastore<? extends ODLTableReadOnly>)source, dependency));
+			stamps.add(new TLongLongHashMap());
+		}
+		final TableFetcher recordersFetcher = TableParameters.createTableFetcher(recorders);
+		final TableFetcher fetcher = new TableFetcher() {
+			
+			@Override
+			public ODLTableReadOnly getTableById(int datastoreIndx, int tableId) {
+				if(datastoreIndx>=0 && datastoreIndx < nbSources){
+					synchronized (stamps) {
+						TLongLongHashMap dsStamps = stamps.get(datastoreIndx);
+						if(!dsStamps.containsKey(tableId)){
+							dsStamps.put(tableId, getModificationStamp(sources, datastoreIndx, tableId));
+						}
+					}
+				}
+				return recordersFetcher.getTableById(datastoreIndx, tableId);
+			}
+		};
+		
+		final int srcDsIndx = mapping.getSourceDatasourceIndx(tableId);
+		final int srcTableId = mapping.getSourceTableId(tableId);
+		ODLTableReadOnly srcTable = fetcher.getTableById(srcDsIndx, srcTableId);
+		if(srcTable==null){
+			return new MaterialisedColumn(formula);
+		}
+		int[] columnIds = getColumnIds(srcTable);
+		int n = srcTable.getRowCount();
+		long [] rowIds = new long[n];
+		for(int i =0 ; i < n ; i++){
+			rowIds[i] = srcTable.getRowId(i);
+		}
+		Object[] values = new Object[n];
+		
+		// reuse the values of rows which haven't changed or moved
+		boolean [] reused = new boolean[n];
+		if(previous!=null){
+			ODLTableReadOnly previousTable = previous.getRowLocalTable(sources);
+			for(int i =0 ; i < n ; i++){
+				if(previous.isRowValid(previousTable, i)){
+					values[i] = previous.values[i];
+					reused[i] = true;
+				}
+			}
+		}
+		
+		// calculate the other rows, recording if any row's formula reads anything else from the adapted table
+		final AtomicBoolean readOtherRows = new AtomicBoolean();
+		RowFetcherFactory rowFetchers = new RowFetcherFactory() {
+			
+			@Override
+			public TableFetcher create(final int rowIndex, final long rowId) {
+				return new TableFetcher() {
+					
+					@Override
+					public ODLTableReadOnly getTableById(int datastoreIndx, int readTableId) {
+						ODLTableReadOnly ret = fetcher.getTableById(datastoreIndx, readTableId);
+						if(ret!=null && datastoreIndx==srcDsIndx && readTableId==srcTableId){
+							ret = new RowLocalityRecorder<ODLTableReadOnly>(ODLTableReadOnly.class, recorders.get(datastoreIndx), srcTableId, rowId, rowIndex, readOtherRows)
+									.getTableByImmutableId(srcTableId);
+						}
+						return ret;
+					}
+				};
+			}
+		};
+		int from = 0;
+		while(from < n){
+			if(reused[from]){
+				from++;
+				continue;
+			}
+			int to = from + 1;
+			while(to < n && !reused[to]){
+				to++;
+			}
+			Object [] calculated = new Object[to - from];
+			getValuesAt(tableId, from, to, col, calculated, fetcher, rowFetchers);
+			System.arraycopy(calculated, 0, values, from, calculated.length);
+			from = to;
+		}
+		
+		// the reused rows also depend on the previous tables other than the adapted table, which haven't changed
+		if(previous!=null){
+			for(int i =0 ; i < previous.dependencyStamps.length ; i++){
+				if(i!=previous.rowLocalDependency){
+					int dsIndx = previous.dependencyDsIndices[i];
+					dependencies.get(dsIndx).addReadTableId(previous.dependencyTableIds[i], true);
+					stamps.get(dsIndx).put(previous.dependencyTableIds[i], previous.dependencyStamps[i]);
+				}
+			}
+		}
+		
+		// we can only use the values if we can tell when every table read has changed
+		int nbDependencies=0;
+		for(int i =0 ; i < nbSources ; i++){
+			if(dependencies.get(i).isReadRowFlags()){
+				return new MaterialisedColumn(formula);
+			}
+			nbDependencies += dependencies.get(i).getReadTableIds().length;
+		}
+		int [] dsIndices = new int[nbDependencies];
+		int [] tableIds = new int[nbDependencies];
+		long [] tableStamps = new long[nbDependencies];
+		int rowLocalDependency = -1;
+		int i=0;
+		for(int dsIndx =0 ; dsIndx < nbSources ; dsIndx++){
+			for(int readTableId : dependencies.get(dsIndx).getReadTableIds()){
+				TLongLongHashMap dsStamps = stamps.get(dsIndx);
+				long stamp = dsStamps.containsKey(readTableId) ? dsStamps.get(readTableId) : -1;
+				if(stamp==-1){
+					return new MaterialisedColumn(formula);
+				}
+				if(dsIndx==srcDsIndx && readTableId==srcTableId && !readOtherRows.get()){
+					rowLocalDependency = i;
+				}
+				dsIndices[i] = dsIndx;
+				tableIds[i] = readTableId;
+				tableStamps[i] = stamp;
+				i++;
+			}
+		}
+		return new MaterialisedColumn(formula, values, rowIds, dsIndices, tableIds, tableStamps, rowLocalDependency, calculatedMillis, columnIds);
+	}
+
+	/**
+	 * Get the values for a range of rows in a column. Formula columns are calculated as a single batch,
+	 * with the mapping and source tables only looked up once.
+	 */
+	@Override
+	public void getValuesAt(int tableId, int fromRowIndex, int toRowIndex, int columnIndex, Object[] out) {
+		MaterialisedColumn column = getUpToDateMaterialised(tableId, columnIndex);
+		if(column!=null && toRowIndex <= column.values.length){
+			System.arraycopy(column.values, fromRowIndex, out, 0, toRowIndex - fromRowIndex);
+			return;
+		}
+		getValuesAt(tableId, fromRowIndex, toRowIndex, columnIndex, out, TableParameters.createTableFetcher(sources), null);
+	}
+	
+	/**
+	 * Get the values for a range of rows in a column
+	 * @param tableId
+	 * @param fromRowIndex
+	 * @param toRowIndex
+	 * @param columnIndex
+	 * @param out
+	 * @param tableFetcher
+	 * @param rowFetchers Creates the fetcher used by each row's formula, or null to use tableFetcher 
+	 */
+	private void getValuesAt(int tableId, int fromRowIndex, int toRowIndex, int columnIndex, Object[] out, TableFetcher tableFetcher, RowFetcherFactory rowFetchers) {
+		int n = toRowIndex - fromRowIndex;
+		ODLTableReadOnly srcTable=null;
+		int ds = mapping.getSourceDatasourceIndx(tableId);
+		int srcId = mapping.getSourceTableId(tableId);
+		if (ds != -1 && srcId != -1) {
+			srcTable = tableFetcher.getTableById(ds, srcId);
+		}
+		
+		int srcCol = mapping.getSourceColumnIndx(tableId, columnIndex);
+		Function formula = mapping.getFieldFormula(tableId, columnIndex);
+		if(srcTable==null || (formula==null && srcCol==-1)){
+			Arrays.fill(out, 0, n, null);
+			return;
+		}
+		
+		ODLTableDefinition destTable = mapping.getDestinationModel().getTableByImmutableId(tableId);
+		ODLColumnType srcType = null;
+		if (formula != null) {
+			FunctionParameters[] parameters = new FunctionParameters[n];
+			for(int i =0 ; i < n ; i++){
+				int rowIndex = fromRowIndex + i;
+				long rowId = srcTable.getRowId(rowIndex);
+				TableFetcher rowFetcher = rowFetchers!=null ? rowFetchers.create(rowIndex, rowId) : tableFetcher;
+				parameters[i] = new TableParameters(rowFetcher, ds, srcId, rowId, rowIndex, new ThisRow(destTable, tableId, -1, rowIndex, rowFetcher));
+			}
+			if(n == out.length){
+				formula.executeBatch(parameters, out);				
+			}else{
+				Object [] results = new Object[n];
+				formula.executeBatch(parameters, results);
+				System.arraycopy(results, 0, out, 0, n);
+			}
+		}else{
+			srcTable.getValuesAt(fromRowIndex, toRowIndex, srcCol, out);
+			srcType = srcTable.getColumnType(srcCol);
+		}
+		
+		// ensure correct type
+		for(int i =0 ; i < n ; i++){
+			if(out[i] == Functions.EXECUTION_ERROR){
+				out[i] = null;
+			}
+			else if(out[i]!=null){
+				out[i] = getConvertedType(out[i], srcType, destTable, columnIndex);
+			}
+		}
+	}
+
 	private Object getConvertedType(Object original, ODLColumnType srcColumnType, ODLTableDefinition destTable, int destCol) {
 		ODLColumnType destColType = destTable.getColumnType(destCol);
 		if (original == null) {
@@ -195,6 +195,30 @@ final public class ListenerDecorator<T extends ODLTableDefinition> extends Simpl
 		fireTableModelListener(tableId, rowNumber - 1, Integer.MAX_VALUE);
 	}
 
+	@Override
+	public void insertEmptyRows(int tableId, int[] rowNumbers, long[] rowIds) {
+		super.insertEmptyRows(tableId, rowNumbers, rowIds);
+		if (rowNumbers.length > 0) {
+			fireTableModelListener(tableId, getMinRow(rowNumbers) - 1, Integer.MAX_VALUE);
+		}
+	}
+
+	@Override
+	public void deleteRows(int tableId, int[] rowNumbers) {
+		super.deleteRows(tableId, rowNumbers);
+		if (rowNumbers.length > 0) {
+			fireTableModelListener(tableId, getMinRow(rowNumbers) - 1, Integer.MAX_VALUE);
+		}
+	}
+
+	private static int getMinRow(int[] rowNumbers) {
+		int ret = Integer.MAX_VALUE;
+		for (int row : rowNumbers) {
+			ret = Math.min(ret, row);
+		}
+		return ret;
+	}
+
 	@Override
 	public int addColumn(int tableId, int id,String name, ODLColumnType type, long flags) {
 		int index =super.addColumn(tableId, id,name, type, flags); 
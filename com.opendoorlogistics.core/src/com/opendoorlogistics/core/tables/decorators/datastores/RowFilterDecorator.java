@@ -31,6 +31,7 @@ import com.opendoorlogistics.api.tables.TableQuery;
 import com.opendoorlogistics.core.api.impl.ODLApiImpl;
 import com.opendoorlogistics.core.tables.decorators.listeners.ListenerRedirector;
 import com.opendoorlogistics.core.tables.decorators.tables.FlatDs2TableObject;
+import com.opendoorlogistics.core.tables.memory.ODLAbstractTableDefinition;
 import com.opendoorlogistics.core.tables.utils.DatastoreCopier;
 import com.opendoorlogistics.core.tables.utils.TableFlagUtils;
 import com.opendoorlogistics.core.tables.utils.TableUtils;
@@ -74,6 +75,7 @@ final public class RowFilterDecorator <T extends ODLTableReadOnly> extends Abstr
 			}
 			arrayList.add(rowId);
 			hashSet.add(rowId);
+			ODLAbstractTableDefinition.requestModificationStamp();
 			return true;
 		}
 
@@ -91,11 +93,13 @@ final public class RowFilterDecorator <T extends ODLTableReadOnly> extends Abstr
 		void removeAt(int indx) {
 			long id = arrayList.removeAt(indx);
 			hashSet.remove(id);
+			ODLAbstractTableDefinition.requestModificationStamp();
 		}
 		
 		void clear(){
 			arrayList.clear();
 			hashSet.clear();
+			ODLAbstractTableDefinition.requestModificationStamp();
 		}
 	}
 
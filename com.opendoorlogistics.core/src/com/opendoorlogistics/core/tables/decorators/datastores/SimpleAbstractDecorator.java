@@ -6,6 +6,7 @@
  ******************************************************************************/
 package com.opendoorlogistics.core.tables.decorators.datastores;
 
+import java.util.Arrays;
 import java.util.Set;
 
 import com.opendoorlogistics.api.tables.ODLColumnType;
@@ -63,6 +64,25 @@ public abstract class SimpleAbstractDecorator<T extends ODLTableDefinition> exte
 	//	return readOnlyTable(tableId)!=null?readOnlyTable(tableId).getValueAt(rowIndex, columnIndex):null;
 	}
 
+	@Override
+	public void getValuesAt(int tableId, int fromRowIndex, int toRowIndex, int columnIndex, Object[] out) {
+		ODLTableReadOnly table = readOnlyTable(tableId);
+		if(table!=null){
+			table.getValuesAt(fromRowIndex, toRowIndex, columnIndex, out);
+		}else{
+			Arrays.fill(out, 0, toRowIndex - fromRowIndex, null);
+		}
+	}
+
+	@Override
+	public long getModificationStamp(int tableId) {
+		ODLTableReadOnly table = readOnlyTable(tableId);
+		if(table!=null){
+			return table.getModificationStamp();
+		}
+		return -1;
+	}
+
 	@Override
 	public Object getValueById(int tableId, long rowId, int columnIndex) {
 		ODLTableReadOnly table = readOnlyTable(tableId);
@@ -192,6 +212,20 @@ public abstract class SimpleAbstractDecorator<T extends ODLTableDefinition> exte
 		}
 	}
 
+	@Override
+	public void insertEmptyRows(int tableId, int[] rowNumbers, long[] rowIds) {
+		if(writable(tableId)!=null){
+			writable(tableId).insertEmptyRows(rowNumbers, rowIds);
+		}
+	}
+
+	@Override
+	public void deleteRows(int tableId, int[] rowNumbers) {
+		if(writable(tableId)!=null){
+			writable(tableId).deleteRows(rowNumbers);
+		}
+	}
+
 	@Override
 	public int addColumn(int tableId,int id,String name, ODLColumnType type, long flags) {
 		if(alterable(tableId)!=null){
@@ -6,7 +6,10 @@
  ******************************************************************************/
 package com.opendoorlogistics.core.tables.decorators.datastores;
 
+import gnu.trove.impl.Constants;
 import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.util.List;
@@ -25,6 +28,7 @@ import com.opendoorlogistics.api.tables.TableFlags;
 import com.opendoorlogistics.api.tables.TableQuery;
 import com.opendoorlogistics.core.api.impl.ODLApiImpl;
 import com.opendoorlogistics.core.tables.decorators.tables.FlatDs2TableObject;
+import com.opendoorlogistics.core.tables.memory.ODLAbstractTableDefinition;
 import com.opendoorlogistics.core.tables.utils.DatastoreComparer;
 import com.opendoorlogistics.core.tables.utils.TableFlagUtils;
 import com.opendoorlogistics.core.utils.Long2Ints;
@@ -32,6 +36,7 @@ import com.opendoorlogistics.core.utils.Long2Ints;
 final public class UnionDecorator<T extends ODLTableDefinition> extends AbstractDecorator<T> {
 	private final List<ODLDatastore<? extends T>> stores;
 	private final int length;
+	private final TIntObjectHashMap<RowOffsets> offsetsByTableId = new TIntObjectHashMap<>();
 	
 	private static class UnsupportedInUnion extends UnsupportedOperationException{
 		public UnsupportedInUnion() {
@@ -53,26 +58,132 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 	}
 	
 	/**
-	 * Translate a row index in a union table into the datastore
-	 * index and row index of the non-union table.
-	 * @param tableId
-	 * @param rowIndex
-	 * @return
+	 * The row offset of each datastore's table within a union table, so a union row index is found by binary search.
+	 * The offsets are cached until the row count of any of the tables changes, or a table is created, deleted or
+	 * replaced in any of the datastores. This is only checked when a table has been modified somewhere since
+	 * the offsets were last used.
 	 */
-	private long dsRowIndx(int tableId, int rowIndex){
-		for(int dsIndex = 0; dsIndex<length;dsIndex++){
-			ODLTableReadOnly table = (ODLTableReadOnly)stores.get(dsIndex).getTableByImmutableId(tableId);
-			if(table!=null){
-				int nr =table.getRowCount();
-				if(rowIndex < nr){
-					return Long2Ints.get(dsIndex, rowIndex);
+	private class RowOffsets{
+		final int tableId;
+		final ODLTableReadOnly [] tables;
+		final int [] rowCounts;
+		
+		// offsets[i] is the union row index of the first row in datastore i and offsets[length] is the total row count
+		final int [] offsets;
+		long latestStamp;
+		TLongIntHashMap dsIndexByRowId;
+		
+		RowOffsets(int tableId, long latestStamp){
+			this.tableId = tableId;
+			this.latestStamp = latestStamp;
+			tables = new ODLTableReadOnly[length];
+			rowCounts = new int[length];
+			offsets = new int[length+1];
+			for(int dsIndex = 0; dsIndex<length;dsIndex++){
+				tables[dsIndex] = (ODLTableReadOnly)stores.get(dsIndex).getTableByImmutableId(tableId);
+				if(tables[dsIndex]!=null){
+					rowCounts[dsIndex] = tables[dsIndex].getRowCount();
 				}
-				rowIndex -= nr;
+				offsets[dsIndex+1] = offsets[dsIndex] + rowCounts[dsIndex];
 			}
 		}
-		return -1;
+		
+		boolean isRowCountsUnchanged(){
+			for(int dsIndex = 0; dsIndex<length;dsIndex++){
+				if(stores.get(dsIndex).getTableByImmutableId(tableId)!=tables[dsIndex]){
+					return false;
+				}
+				if(tables[dsIndex]!=null && tables[dsIndex].getRowCount()!=rowCounts[dsIndex]){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Translate a row index in a union table into the datastore
+		 * index and row index of the non-union table.
+		 * @param rowIndex
+		 * @return
+		 */
+		long dsRowIndx(int rowIndex){
+			if(rowIndex < 0 || rowIndex >= offsets[length]){
+				return -1;
+			}
+			
+			// find the last datastore starting at or before the row; this skips datastores with no rows
+			int lo = 0;
+			int hi = length - 1;
+			while(lo < hi){
+				int mid = (lo + hi + 1) >>> 1;
+				if(offsets[mid] <= rowIndex){
+					lo = mid;
+				}else{
+					hi = mid - 1;
+				}
+			}
+			return Long2Ints.get(lo, rowIndex - offsets[lo]);
+		}
+		
+		/**
+		 * Get the first datastore containing the row id. The lookup is built on first use and
+		 * only used as a hint, as row ids can change without the row counts changing.
+		 * @param rowId
+		 * @return
+		 */
+		int dsIndexWithRowId(long rowId){
+			TLongIntHashMap map = dsIndexByRowId;
+			if(map!=null){
+				int dsIndex = map.get(rowId);
+				if(dsIndex!=-1 && tables[dsIndex].containsRowId(rowId)){
+					return dsIndex;
+				}
+			}
+			
+			for(int dsIndex = 0; dsIndex<length;dsIndex++){
+				if(tables[dsIndex]!=null && tables[dsIndex].containsRowId(rowId)){
+					// found a row missing from the lookup, so (re)build it
+					buildRowIdLookup();
+					return dsIndex;
+				}
+			}
+			return -1;
+		}
+		
+		private void buildRowIdLookup(){
+			TLongIntHashMap map = new TLongIntHashMap(Math.max(offsets[length], Constants.DEFAULT_CAPACITY), Constants.DEFAULT_LOAD_FACTOR, -1, -1);
+			for(int dsIndex = 0; dsIndex<length;dsIndex++){
+				if(tables[dsIndex]!=null){
+					int nr = tables[dsIndex].getRowCount();
+					for(int row =0 ; row < nr ; row++){
+						// the same row can be in more than one datastore; keep the first
+						map.putIfAbsent(tables[dsIndex].getRowId(row), dsIndex);
+					}
+				}
+			}
+			dsIndexByRowId = map;
+		}
 	}
 	
+	/**
+	 * Get the table's row offsets, rebuilding them if any of the datastores' tables or row counts have changed
+	 * @param tableId
+	 * @return
+	 */
+	private synchronized RowOffsets rowOffsets(int tableId){
+		long latestStamp = ODLAbstractTableDefinition.getLatestModificationStamp();
+		RowOffsets ret = offsetsByTableId.get(tableId);
+		if(ret!=null && (ret.latestStamp == latestStamp || ret.isRowCountsUnchanged())){
+			ret.latestStamp = latestStamp;
+			return ret;
+		}
+		
+		ret = new RowOffsets(tableId, latestStamp);
+		offsetsByTableId.put(tableId, ret);
+		return ret;
+	}
+	
+	
 	private static int dsIndx(long dsIndxRowIndx){
 		return Long2Ints.getFirst(dsIndxRowIndx);
 	}
@@ -82,17 +193,13 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 	}
 	
 	
-	private int dsIndexWithRowId(int tableId, long rowId) {
-		for(int i =0 ; i< length ; i++){		
-			ODLDatastore<? extends T> store=stores.get(i);
-			ODLTableReadOnly table = (ODLTableReadOnly)store.getTableByImmutableId(tableId);
-			if(table!=null){
-				if(table.containsRowId(rowId)){
-					return i;
-				}
-			}
+	private ODLTableReadOnly tableWithRowId(int tableId, long rowId) {
+		RowOffsets offsets = rowOffsets(tableId);
+		int dsIndx;
+		synchronized (offsets) {
+			dsIndx = offsets.dsIndexWithRowId(rowId);
 		}
-		return -1;
+		return dsIndx!=-1 ? offsets.tables[dsIndx] : null;
 	}
 	
 	@Override
@@ -189,30 +296,51 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 
 	@Override
 	public int getRowCount(int tableId) {
-		int sum=0;
-		for(ODLDatastore<? extends T> ds: stores){
-			ODLTableReadOnly table = (ODLTableReadOnly)ds.getTableByImmutableId(tableId);
-			if(table!=null){
-				sum += table.getRowCount();
-			}
-		}
-		return sum;
+		RowOffsets offsets = rowOffsets(tableId);
+		return offsets.offsets[length];
 	}
 	
 	@Override
 	public Object getValueAt(int tableId, int rowIndex, int columnIndex) {
-		long dsRow = dsRowIndx(tableId, rowIndex);
+		RowOffsets offsets = rowOffsets(tableId);
+		long dsRow = offsets.dsRowIndx(rowIndex);
 		if(dsRow!=-1){
-			return readOnly(dsRow, tableId).getValueAt(rowIndx(dsRow), columnIndex);			
+			return offsets.tables[dsIndx(dsRow)].getValueAt(rowIndx(dsRow), columnIndex);			
 		}
 		return null;
 	}
+	
+	@Override
+	public void getValuesAt(int tableId, int fromRowIndex, int toRowIndex, int columnIndex, Object[] out) {
+		// read each datastore's part of the range in one go
+		RowOffsets offsets = rowOffsets(tableId);
+		for(int dsIndex = 0; dsIndex<length;dsIndex++){
+			int from = Math.max(fromRowIndex, offsets.offsets[dsIndex]);
+			int to = Math.min(toRowIndex, offsets.offsets[dsIndex+1]);
+			if(from < to){
+				int dsFrom = from - offsets.offsets[dsIndex];
+				int dsTo = to - offsets.offsets[dsIndex];
+				if(from == fromRowIndex){
+					offsets.tables[dsIndex].getValuesAt(dsFrom, dsTo, columnIndex, out);
+				}else{
+					Object [] part = new Object[to - from];
+					offsets.tables[dsIndex].getValuesAt(dsFrom, dsTo, columnIndex, part);
+					System.arraycopy(part, 0, out, from - fromRowIndex, part.length);
+				}
+			}
+		}
+		
+		// rows past the end of the table
+		for(int row = Math.max(fromRowIndex, offsets.offsets[length]); row < toRowIndex ; row++){
+			out[row - fromRowIndex] = null;
+		}
+	}
 
 	@Override
 	public Object getValueById(int tableId, long rowId, int columnIndex) {
-		int dsIndx = dsIndexWithRowId(tableId, rowId);
-		if(dsIndx!=-1){
-			return ((ODLTableReadOnly)stores.get(dsIndx).getTableByImmutableId(tableId)).getValueById(rowId, columnIndex);
+		ODLTableReadOnly table = tableWithRowId(tableId, rowId);
+		if(table!=null){
+			return table.getValueById(rowId, columnIndex);
 		}
 		return null;
 	}
@@ -264,7 +392,7 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 
 	@Override
 	public boolean containsRowId(int tableId, long rowId) {
-		return dsIndexWithRowId(tableId, rowId)!=-1;
+		return tableWithRowId(tableId, rowId)!=null;
 	}
 
 	@Override
@@ -284,21 +412,18 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 
 	@Override
 	public void setValueAt(int tableId, Object aValue, int rowIndex, int columnIndex) {
-		long dsRow = dsRowIndx(tableId, rowIndex);
+		RowOffsets offsets = rowOffsets(tableId);
+		long dsRow = offsets.dsRowIndx(rowIndex);
 		if(dsRow!=-1){
-			writable(dsRow, tableId).setValueAt(aValue,rowIndx(dsRow), columnIndex);			
+			((ODLTable)offsets.tables[dsIndx(dsRow)]).setValueAt(aValue,rowIndx(dsRow), columnIndex);			
 		}
 	}
 
-	private ODLTable writable(long dsRow, int tableId) {
-		return (ODLTable)stores.get((dsIndx(dsRow))).getTableByImmutableId(tableId);
-	}
-
 	@Override
 	public void setValueById(int tableId, Object aValue, long rowId, int columnIndex) {
-		int dsIndx = dsIndexWithRowId(tableId, rowId);
-		if(dsIndx!=-1){
-			((ODLTable)stores.get(dsIndx).getTableByImmutableId(tableId)).setValueById(aValue,rowId, columnIndex);
+		ODLTableReadOnly table = tableWithRowId(tableId, rowId);
+		if(table!=null){
+			((ODLTable)table).setValueById(aValue,rowId, columnIndex);
 		}
 	}
 
@@ -314,9 +439,10 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 
 	@Override
 	public void deleteRow(int tableId, int rowIndex) {
-		long dsRow = dsRowIndx(tableId, rowIndex);
+		RowOffsets offsets = rowOffsets(tableId);
+		long dsRow = offsets.dsRowIndx(rowIndex);
 		if(dsRow!=-1){
-			writable(dsRow, tableId).deleteRow(rowIndx(dsRow));			
+			((ODLTable)offsets.tables[dsIndx(dsRow)]).deleteRow(rowIndx(dsRow));			
 		}
 	}
 
@@ -366,33 +492,30 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 	}
 
 
-	private ODLTableReadOnly readOnly(long dsRow, int tableId) {
-		return (ODLTableReadOnly)stores.get((dsIndx(dsRow))).getTableByImmutableId(tableId);
-	}
-	
 	@Override
 	public long getRowGlobalId(int tableId, int rowIndex) {
-		long dsRow = dsRowIndx(tableId, rowIndex);
+		RowOffsets offsets = rowOffsets(tableId);
+		long dsRow = offsets.dsRowIndx(rowIndex);
 		if(dsRow!=-1){
-			return readOnly(dsRow, tableId).getRowId(rowIndx(dsRow));			
+			return offsets.tables[dsIndx(dsRow)].getRowId(rowIndx(dsRow));			
 		}
 		return -1;
 	}
 
 	@Override
 	public long getRowFlags(int tableId, long rowId) {
-		int dsIndx = dsIndexWithRowId(tableId, rowId);
-		if(dsIndx!=-1){
-			return ((ODLTableReadOnly)stores.get(dsIndx).getTableByImmutableId(tableId)).getRowFlags(rowId);
+		ODLTableReadOnly table = tableWithRowId(tableId, rowId);
+		if(table!=null){
+			return table.getRowFlags(rowId);
 		}
 		return 0;
 	}
 
 	@Override
 	public void setRowFlags(int tableId, long flags, long rowId) {
-		int dsIndx = dsIndexWithRowId(tableId, rowId);
-		if(dsIndx!=-1){
-			((ODLTable)stores.get(dsIndx).getTableByImmutableId(tableId)).setRowFlags(flags,rowId);
+		ODLTableReadOnly table = tableWithRowId(tableId, rowId);
+		if(table!=null){
+			((ODLTable)table).setRowFlags(flags,rowId);
 		}
 		
 	}
@@ -414,9 +537,9 @@ final public class UnionDecorator<T extends ODLTableDefinition> extends Abstract
 
 	@Override
 	public long getRowLastModifiedTimeMillisecs(int tableId, long rowId) {
-		int dsIndx = dsIndexWithRowId(tableId, rowId);
-		if(dsIndx!=-1){
-			return ((ODLTableReadOnly)stores.get(dsIndx).getTableByImmutableId(tableId)).getRowLastModifiedTimeMillsecs(rowId);
+		ODLTableReadOnly table = tableWithRowId(tableId, rowId);
+		if(table!=null){
+			return table.getRowLastModifiedTimeMillsecs(rowId);
 		}
 		return 0;
 	}
@@ -61,16 +61,12 @@ class OptimisedDeepCopy<T extends ODLTableDefinition> extends SimpleAbstractDeco
 		int n = tables.size();
 		for(int i =0 ; i< n ; i++){
 			TableHolder h = tables.get(i);
-			
-			// only take a deep copy when we need to
-			// TO DO .. .this looks like we could optimise this by placing this within the return,
-			// but we need to check for any adverse effects...
-			if(makeWritable && h.isImmutable){
-				h.table = (T)h.table.deepCopyWithShallowValueCopy();
-				h.isImmutable = false;
-			}
-			
 			if(h.table.getImmutableId()==id){
+				// only take a deep copy of the table being written to
+				if(makeWritable && h.isImmutable){
+					h.table = (T)h.table.deepCopyWithShallowValueCopy();
+					h.isImmutable = false;
+				}
 				return h;
 			}
 		}
@@ -10,6 +10,11 @@ package com.opendoorlogistics.core.tables.decorators.datastores.dependencies;
 
 import gnu.trove.set.hash.TIntHashSet;
 
+/**
+ * Records the tables read and written by a script component. This is thread-safe as
+ * adapter formulae can be executed on several threads at once.
+ *
+ */
 public class DataDependencies {
 	private final TIntHashSet readTableIds = new TIntHashSet();
 	private final TIntHashSet readTableValuesIds = new TIntHashSet();
@@ -26,6 +31,18 @@ public class DataDependencies {
 	}
 
 	public void add(DataDependencies addThis) {
+		// copy the other object first so we never hold both locks
+		DataDependencies copy = new DataDependencies();
+		synchronized (addThis) {
+			copy.addUnsynchronised(addThis);
+		}
+
+		synchronized (this) {
+			addUnsynchronised(copy);
+		}
+	}
+
+	private void addUnsynchronised(DataDependencies addThis) {
 		readTableIds.addAll(addThis.readTableIds);
 		readTableValuesIds.addAll(addThis.readTableValuesIds);
 		
@@ -42,11 +59,11 @@ public class DataDependencies {
 		}
 	}
 
-	public boolean isRead() {
+	public synchronized boolean isRead() {
 		return readTableIds.size() > 0 || readTableSet;
 	}
 
-	public boolean isWritten() {
+	public synchronized boolean isWritten() {
 		return writtenTableIds.size() > 0 || writtenTableSet;
 	}
 
@@ -61,11 +78,11 @@ public class DataDependencies {
 	// writtenTableSet=false;
 	// }
 
-	public boolean isReadRowFlags() {
+	public synchronized boolean isReadRowFlags() {
 		return readRowFlags;
 	}
 
-	public void setReadRowFlags(boolean readRowFlags) {
+	public synchronized void setReadRowFlags(boolean readRowFlags) {
 		this.readRowFlags = readRowFlags;
 	}
 
@@ -74,15 +91,15 @@ public class DataDependencies {
 	 * 
 	 * @return
 	 */
-	public int[] getReadTableIds() {
+	public synchronized int[] getReadTableIds() {
 		return readTableIds.toArray();
 	}
 
-	public boolean hasTableValueRead(int tableId) {
+	public synchronized boolean hasTableValueRead(int tableId) {
 		return readTableValuesIds.contains(tableId);
 	}
 	
-	public void addReadTableId(int tableId, boolean readTableValues) {
+	public synchronized void addReadTableId(int tableId, boolean readTableValues) {
 //		if (!readTableIds.contains(tableId)) {
 //	//		System.out.println("breakpoint here!!!!");
 //		}
@@ -96,11 +113,11 @@ public class DataDependencies {
 		}
 	}
 
-	public boolean isReadTableSet() {
+	public synchronized boolean isReadTableSet() {
 		return readTableSet;
 	}
 
-	public void setReadTableSet() {
+	public synchronized void setReadTableSet() {
 		this.readTableSet = true;
 	}
 
@@ -109,19 +126,19 @@ public class DataDependencies {
 	 * 
 	 * @return
 	 */
-	public int[] getWrittenTableIds() {
+	public synchronized int[] getWrittenTableIds() {
 		return writtenTableIds.toArray();
 	}
 
-	public void addWrittenTableId(int tableId) {
+	public synchronized void addWrittenTableId(int tableId) {
 		this.writtenTableIds.add(tableId);
 	}
 
-	public boolean isWrittenTableSet() {
+	public synchronized boolean isWrittenTableSet() {
 		return writtenTableSet;
 	}
 
-	public void setWrittenTableSet() {
+	public synchronized void setWrittenTableSet() {
 		this.writtenTableSet = true;
 	}
 
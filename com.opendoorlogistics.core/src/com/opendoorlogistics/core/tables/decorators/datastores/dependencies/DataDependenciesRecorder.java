@@ -82,6 +82,18 @@ final public class DataDependenciesRecorder<T extends ODLTableDefinition> extend
 		super.deleteRow(tableId, rowNumber);
 	}
 
+	@Override
+	public void deleteRows(int tableId, int[] rowNumbers) {
+		getDependencies().addWrittenTableId(tableId);
+		super.deleteRows(tableId, rowNumbers);
+	}
+
+	@Override
+	public void insertEmptyRows(int tableId, int[] rowNumbers, long[] rowIds) {
+		getDependencies().addWrittenTableId(tableId);
+		super.insertEmptyRows(tableId, rowNumbers, rowIds);
+	}
+
 	@Override
 	public void deleteTableById(int tableId) {
 		getDependencies().setWrittenTableSet();
@@ -212,6 +224,18 @@ final public class DataDependenciesRecorder<T extends ODLTableDefinition> extend
 		return super.getValueAt(tableId, rowIndex, columnIndex);
 	}
 
+	@Override
+	public void getValuesAt(int tableId, int fromRowIndex, int toRowIndex, int columnIndex, Object[] out) {
+		getDependencies().addReadTableId(tableId,true);
+		super.getValuesAt(tableId, fromRowIndex, toRowIndex, columnIndex, out);
+	}
+
+	@Override
+	public long getModificationStamp(int tableId) {
+		getDependencies().addReadTableId(tableId,true);
+		return super.getModificationStamp(tableId);
+	}
+
 	@Override
 	public long[] find(int tableId, int col, Object value) {
 		getDependencies().addReadTableId(tableId,true);
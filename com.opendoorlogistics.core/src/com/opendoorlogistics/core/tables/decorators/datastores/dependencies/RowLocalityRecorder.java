@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.tables.decorators.datastores.dependencies;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLTableDefinition;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.api.tables.TableQuery;
+import com.opendoorlogistics.core.tables.decorators.datastores.SimpleDecorator;
+
+/**
+ * This decorator records whether code calculating a value for a single row of a table reads
+ * anything from that table other than the row itself, for example another row, the row count
+ * or a find. If it doesn't, the value only changes when the row changes (or other tables change).
+ * One decorator is created per row; the flag can be shared by the decorators for all rows.
+ * @author Phil
+ *
+ */
+final public class RowLocalityRecorder<T extends ODLTableDefinition> extends SimpleDecorator<T> {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 3021559374093810962L;
+	private final int tableId;
+	private final long rowId;
+	private final int rowIndex;
+	private final AtomicBoolean readOtherRows;
+
+	/**
+	 * @param tableClass
+	 * @param decorated
+	 * @param tableId The table containing the row
+	 * @param rowId
+	 * @param rowIndex
+	 * @param readOtherRows Set to true if anything in the table other than the row is read
+	 */
+	public RowLocalityRecorder(Class<T> tableClass, ODLDatastore<? extends T> decorated, int tableId, long rowId, int rowIndex, AtomicBoolean readOtherRows) {
+		super(tableClass, decorated);
+		this.tableId = tableId;
+		this.rowId = rowId;
+		this.rowIndex = rowIndex;
+		this.readOtherRows = readOtherRows;
+	}
+
+	private void readTable(int tableId) {
+		if (tableId == this.tableId) {
+			readOtherRows.set(true);
+		}
+	}
+
+	private void readRowIndex(int tableId, int rowIndex) {
+		if (tableId == this.tableId && rowIndex != this.rowIndex) {
+			readOtherRows.set(true);
+		}
+	}
+
+	private void readRowId(int tableId, long rowId) {
+		if (tableId == this.tableId && rowId != this.rowId) {
+			readOtherRows.set(true);
+		}
+	}
+
+	@Override
+	public int getRowCount(int tableId) {
+		readTable(tableId);
+		return super.getRowCount(tableId);
+	}
+
+	@Override
+	public Object getValueAt(int tableId, int rowIndex, int columnIndex) {
+		readRowIndex(tableId, rowIndex);
+		return super.getValueAt(tableId, rowIndex, columnIndex);
+	}
+
+	@Override
+	public void getValuesAt(int tableId, int fromRowIndex, int toRowIndex, int columnIndex, Object[] out) {
+		if (fromRowIndex != rowIndex || toRowIndex != rowIndex + 1) {
+			readTable(tableId);
+		}
+		super.getValuesAt(tableId, fromRowIndex, toRowIndex, columnIndex, out);
+	}
+
+	@Override
+	public Object getValueById(int tableId, long rowId, int columnIndex) {
+		readRowId(tableId, rowId);
+		return super.getValueById(tableId, rowId, columnIndex);
+	}
+
+	@Override
+	public long getRowGlobalId(int tableId, int rowIndex) {
+		readRowIndex(tableId, rowIndex);
+		return super.getRowGlobalId(tableId, rowIndex);
+	}
+
+	@Override
+	public boolean containsRowId(int tableId, long rowId) {
+		readRowId(tableId, rowId);
+		return super.containsRowId(tableId, rowId);
+	}
+
+	@Override
+	public long getModificationStamp(int tableId) {
+		readTable(tableId);
+		return super.getModificationStamp(tableId);
+	}
+
+	@Override
+	public long[] find(int tableId, int col, Object value) {
+		readTable(tableId);
+		return super.find(tableId, col, value);
+	}
+
+	@Override
+	public long getRowLastModifiedTimeMillisecs(int tableId, long rowId) {
+		readTable(tableId);
+		return super.getRowLastModifiedTimeMillisecs(tableId, rowId);
+	}
+
+	@Override
+	public ODLTableReadOnly query(int tableId, TableQuery query) {
+		readTable(tableId);
+		return super.query(tableId, query);
+	}
+}
@@ -23,8 +23,10 @@ import com.opendoorlogistics.core.tables.commands.CreateTable;
 import com.opendoorlogistics.core.tables.commands.DeleteEmptyCol;
 import com.opendoorlogistics.core.tables.commands.DeleteEmptyTable;
 import com.opendoorlogistics.core.tables.commands.DeleteEmptyRow;
+import com.opendoorlogistics.core.tables.commands.DeleteEmptyRows;
 import com.opendoorlogistics.core.tables.commands.InsertEmptyCol;
 import com.opendoorlogistics.core.tables.commands.InsertEmptyRow;
+import com.opendoorlogistics.core.tables.commands.InsertEmptyRows;
 import com.opendoorlogistics.core.tables.commands.Set;
 import com.opendoorlogistics.core.tables.commands.SetByRowId;
 import com.opendoorlogistics.core.tables.commands.SetColumnProperty;
@@ -248,6 +250,14 @@ final public class UndoRedoDecorator<T extends ODLTableDefinition> extends Simpl
 		doCommand(new InsertEmptyRow(tableId, insertAtRowNb, rowId));
 	}
 
+	@Override
+	public void insertEmptyRows(int tableId, int[] rowNumbers, long[] rowIds) {
+		ODLTable table = (ODLTable) decorated.getTableByImmutableId(tableId);
+		if (table != null) {
+			doCommand(new InsertEmptyRows(tableId, TableUtils.getRowsToInsert(rowNumbers, rowIds, table.getRowCount()), rowIds));
+		}
+	}
+
 	@Override
 	public int addColumn(int tableId, int id, String name, ODLColumnType type, long flags) {
 		DeleteEmptyCol undo = (DeleteEmptyCol) doCommand(new InsertEmptyCol(tableId, id, decorated.getTableByImmutableId(tableId).getColumnCount(), name, type, flags, false));
@@ -306,6 +316,36 @@ final public class UndoRedoDecorator<T extends ODLTableDefinition> extends Simpl
 		}, null, true);
 	}
 
+	@Override
+	public void deleteRows(int tableId, int[] rowNumbers) {
+		TableUtils.runTransaction(this, new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() throws Exception {
+				ODLTable table = (ODLTable) decorated.getTableByImmutableId(tableId);
+				if (table != null) {
+					int[] rows = TableUtils.getRowsToDelete(rowNumbers, table.getRowCount());
+
+					// blank values and row flags first
+					int nbCol = table.getColumnCount();
+					for (int row : rows) {
+						for (int col = 0; col < nbCol; col++) {
+							setValueAt(tableId, null, row, col);
+						}
+						setRowFlags(tableId, 0, table.getRowId(row));
+					}
+
+					// then delete all the rows in one go
+					if (rows.length > 0) {
+						doCommand(new DeleteEmptyRows(tableId, rows));
+					}
+				}
+
+				return true;
+			}
+		}, null, true);
+	}
+
 	@Override
 	public void deleteCol(int tableId, int col) {
 		TableUtils.runTransaction(this, new Callable<Boolean>() {
@@ -364,9 +404,11 @@ final public class UndoRedoDecorator<T extends ODLTableDefinition> extends Simpl
 				ODLTable table = (ODLTable) decorated.getTableByImmutableId(tableId);
 				if (table != null) {
 					// delete all data rows first (i.e. the data)
-					while (table.getRowCount() > 0) {
-						deleteRow(tableId, table.getRowCount() - 1);
+					int[] rows = new int[table.getRowCount()];
+					for (int i = 0; i < rows.length; i++) {
+						rows[i] = i;
 					}
+					deleteRows(tableId, rows);
 
 					// then delete all columns (i.e. the table structure)
 					while (table.getColumnCount() > 0) {
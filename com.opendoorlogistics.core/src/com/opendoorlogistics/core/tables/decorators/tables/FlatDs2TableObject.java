@@ -49,6 +49,16 @@ public class FlatDs2TableObject implements ODLTableAlterable {
 		fds.deleteRow(tableId, rowNumber);
 	}
 
+	@Override
+	public void insertEmptyRows(int[] rowNumbers, long[] rowIds) {
+		fds.insertEmptyRows(tableId, rowNumbers, rowIds);
+	}
+
+	@Override
+	public void deleteRows(int[] rowNumbers) {
+		fds.deleteRows(tableId, rowNumbers);
+	}
+
 	@Override
 	public int getRowCount() {
 		return fds.getRowCount(tableId);
@@ -59,6 +69,16 @@ public class FlatDs2TableObject implements ODLTableAlterable {
 		return fds.getValueAt(tableId, rowIndex, columnIndex);
 	}
 
+	@Override
+	public void getValuesAt(int fromRowIndex, int toRowIndex, int columnIndex, Object[] out) {
+		fds.getValuesAt(tableId, fromRowIndex, toRowIndex, columnIndex, out);
+	}
+
+	@Override
+	public long getModificationStamp() {
+		return fds.getModificationStamp(tableId);
+	}
+
 	@Override
 	public ODLColumnType getColumnType(int i) {
 		return fds.getColumnFieldType(tableId, i);
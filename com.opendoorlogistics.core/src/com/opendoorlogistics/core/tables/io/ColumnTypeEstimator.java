@@ -48,6 +48,10 @@ class ColumnTypeEstimator {
 		}
 	}
 	
+	int getNbNonEmptyValues(){
+		return nbNonEmptyVals;
+	}
+	
 	ODLColumnType getEstimatedType(){
 		ODLColumnType selectedType = ODLColumnType.STRING;		
 		if (nbNonEmptyVals > 0) {
@@ -246,12 +246,19 @@ final public class PoiIO {
 		// set header style
 		styleHeader(sheet.getWorkbook(), sheet);
 		
-		// write data
-		for (int srcRow = 0; srcRow < table.getRowCount(); srcRow++) {
+		// write data, reading in blocks so calculated columns are calculated together
+		int nr = table.getRowCount();
+		Object[][] block = null;
+		for (int srcRow = 0; srcRow < nr; srcRow++) {
+			int blockRow = srcRow % TableUtils.ROW_BLOCK_SIZE;
+			if(blockRow==0){
+				block = TableUtils.readRowBlock(table, srcRow, Math.min(nr, srcRow + TableUtils.ROW_BLOCK_SIZE), block);
+			}
+			
 			Row row = sheet.createRow(firstOutputRow + 1 + srcRow);
 			for (int col = 0; col < nc; col++) {
 				Cell cell = row.createCell(col);
-				if(saveElementToCell(table, srcRow, col, cell)==SaveElementResult.OVERSIZED){
+				if(saveElementToCell(table, block[col][blockRow], col, cell)==SaveElementResult.OVERSIZED){
 					nbOversized++;
 				}
 
@@ -276,12 +283,12 @@ final public class PoiIO {
 		OVERSIZED
 	}
 
-	private static SaveElementResult saveElementToCell(ODLTableReadOnly table, int row, int col, Cell cell) {
+	private static SaveElementResult saveElementToCell(ODLTableReadOnly table, Object value, int col, Cell cell) {
 		boolean oversized=false;
 		switch(table.getColumnType(col)){
 		case LONG:
 		case DOUBLE:
-			Number dVal = (Number)table.getValueAt(row, col);
+			Number dVal = (Number)value;
 			if(dVal!=null){
 				cell.setCellValue(dVal.doubleValue());
 				cell.setCellType(Cell.CELL_TYPE_NUMERIC);
@@ -291,7 +298,7 @@ final public class PoiIO {
 			}
 			break;
 		default:
-			String sval = TableUtils.getValueAsString(table, row, col);
+			String sval = (String)ColumnValueProcessor.convertToMe(ODLColumnType.STRING,value,table.getColumnType(col));
 			if (sval != null) {
 				if (sval.length() >= MAX_CHAR_COUNT_IN_EXCEL_CELL) {
 					oversized=true;
@@ -13,8 +13,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
@@ -43,33 +50,48 @@ import com.opendoorlogistics.api.tables.ODLTableAlterable;
 import com.opendoorlogistics.api.tables.ODLTableDefinition;
 import com.opendoorlogistics.api.tables.ODLTableDefinitionAlterable;
 import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.core.AppProperties;
 import com.opendoorlogistics.core.scripts.execution.ExecutionReportImpl;
+import com.opendoorlogistics.core.tables.ColumnValueProcessor;
 import com.opendoorlogistics.core.tables.ODLFactory;
 import com.opendoorlogistics.core.tables.io.PoiIO.SchemaSheetInformation;
 import com.opendoorlogistics.core.tables.io.SchemaIO.SchemaColumnDefinition;
+import com.opendoorlogistics.core.tables.memory.ODLTableImpl;
 import com.opendoorlogistics.core.tables.utils.DatastoreCopier;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
 import com.opendoorlogistics.core.utils.UpdateTimer;
 import com.opendoorlogistics.core.utils.strings.Strings;
 
 /**
  * Based on example at http://poi.apache.org/spreadsheet/how-to.html#xssf_sax_api
  * Also http://blogs.msdn.com/b/brian_jones/archive/2007/05/29/simple-spreadsheetml-file-part-3-formatting.aspx
+ * <p>
+ * Sheets are parsed concurrently, each in a single pass, with rows streamed into each sheet's table once its column types are known.
  * @author Phil
  *
  */
 public class XmlParserLoader {
+	/**
+	 * Number of non-empty values in a column used to estimate its type
+	 */
+	private static final int TYPE_SAMPLE_SIZE = 1000;
 	private final UpdateTimer timer = new UpdateTimer(250);
 	private final ExecutionReport report;
 	private final File file;
 	private final ODLDatastoreAlterable<ODLTableAlterable> ds;
 	private final ProcessingApi processingApi;
-	private String baseMessage;
+	private final boolean singlePass;
 	
 	private XmlParserLoader(File file, ODLDatastoreAlterable<ODLTableAlterable> ds,ProcessingApi processingApi,ExecutionReport report ){
+		this(file, ds, processingApi, report, true);
+	}
+	
+	private XmlParserLoader(File file, ODLDatastoreAlterable<ODLTableAlterable> ds,ProcessingApi processingApi,ExecutionReport report, boolean singlePass ){
 		this.file = file;
 		this.ds = ds;
 		this.report = report;
 		this.processingApi = processingApi;
+		this.singlePass = singlePass;
 	}
 	
 	private void throwIfUserQuit(){
@@ -249,10 +271,11 @@ public class XmlParserLoader {
 	private class ReadTableDefinition implements SheetContentsHandler{
 		private final String sheetName;
 		private final SchemaIO schemaIO;
-		private int headerState=-1;
-		private final ArrayList<ColInfo> colInfos=new ArrayList<>();
+		int headerState=-1;
+		final ArrayList<ColInfo> colInfos=new ArrayList<>();
 		private final boolean useEstimators;
 		private int headerRow;
+		String statusMessage;
 		
 		ReadTableDefinition(String sheetName, SchemaIO schema, boolean useEstimators) {
 			this.sheetName = sheetName;
@@ -270,9 +293,7 @@ public class XmlParserLoader {
 				headerRow = rowNum;
 			}
 			
-			if(timer.isUpdate()){
-				postStatus("row " + (rowNum+1));
-			}
+			postRowStatus(statusMessage, rowNum);
 		}
 
 		int getHeaderRow() {
@@ -363,6 +384,7 @@ public class XmlParserLoader {
 		private final int minRowInclusive;
 		private final int maxRowExclusive;
 		private int currentOutputRow=-1;
+		String statusMessage;
 		private ReadIntoTableHandler(ODLTable table, int minRowInclusive, int maxRowExclusive) {
 			this.table = table;
 			this.minRowInclusive = minRowInclusive;
@@ -379,9 +401,7 @@ public class XmlParserLoader {
 				currentOutputRow = -1;
 			}
 			
-			if(timer.isUpdate()){
-				postStatus("row " + (rowNum+1));
-			}
+			postRowStatus(statusMessage, rowNum);
 		}
 
 		@Override
@@ -409,6 +429,183 @@ public class XmlParserLoader {
 	}
 	
 	
+	/**
+	 * Handler which reads a sheet in a single pass into its table. Each column's type is estimated from its
+	 * first {@link #TYPE_SAMPLE_SIZE} non-empty values (or taken from the schema), looking ahead at most
+	 * {@link #TYPE_SAMPLE_SIZE} rows. Rows are held until the types are fixed and then appended to the table
+	 * in chunks as they're read. If a later value doesn't fit its column's estimated type, or is the first
+	 * value in a column which was empty when the types were fixed, the table is cleared and the sheet must be read again.
+	 * @author Phil
+	 *
+	 */
+	private class ReadSheetHandler extends ReadTableDefinition{
+		private final ODLTableAlterable table;
+		private final ArrayList<Object[]> rows = new ArrayList<>();
+		private ODLColumnType[] types;
+		private boolean[] emptyWhenFixed;
+		private Object[] defaultValues;
+		private Object[] currentRow;
+		private int nbDataRows;
+		private boolean typesFixed;
+		private boolean retypeNeeded;
+
+		ReadSheetHandler(ODLTableAlterable table, String sheetName, SchemaIO schema) {
+			super(sheetName, schema, true);
+			this.table = table;
+		}
+
+		@Override
+		public void startRow(int rowNum) {
+			super.startRow(rowNum);
+			if(headerState==1 && !retypeNeeded){
+				currentRow = defaultValues.clone();
+				rows.add(currentRow);
+				nbDataRows++;
+			}
+		}
+
+		@Override
+		public void endRow(int row) {
+			boolean isHeader = headerState==0;
+			super.endRow(row);
+			if(isHeader){
+				// schema columns have their type already
+				int n = colInfos.size();
+				types = new ODLColumnType[n];
+				emptyWhenFixed = new boolean[n];
+				defaultValues = new Object[n];
+				for(int i =0 ; i < n ; i++){
+					SchemaColumnDefinition dfn = colInfos.get(i).dfn;
+					if(dfn!=null){
+						types[i] = SchemaIO.getOdlColumnType(dfn);
+						if(Strings.isEmpty(dfn.getDefaultValue())==false){
+							defaultValues[i] = ColumnValueProcessor.convertToMe(types[i], dfn.getDefaultValue());
+						}
+					}
+				}
+			}
+			else if(!retypeNeeded){
+				if(!typesFixed && (nbDataRows >= TYPE_SAMPLE_SIZE || isAllTypesFixed())){
+					fixAllTypes();
+				}
+				if(typesFixed && rows.size() >= TYPE_SAMPLE_SIZE){
+					appendRows(table, rows);
+					rows.clear();
+				}
+			}
+		}
+
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			if(headerState!=1){
+				super.cell(cellReference, formattedValue, comment);
+				return;
+			}
+			
+			int col = new CellReference(cellReference).getCol();
+			if(retypeNeeded || col >= types.length){
+				return;
+			}
+			
+			ColumnTypeEstimator estimator = colInfos.get(col).estimator;
+			ODLColumnType type = types[col];
+			if(type==null){
+				// still sampling
+				estimator.processValue(formattedValue);
+				currentRow[col] = formattedValue;
+				
+				// a column which can only be a string won't change 
+				int nbValues = estimator.getNbNonEmptyValues();
+				if(nbValues >= TYPE_SAMPLE_SIZE || (nbValues > 0 && estimator.getEstimatedType()==ODLColumnType.STRING)){
+					fixType(col);
+				}
+			}
+			else if(estimator!=null){
+				// use the same conversion test as the estimator
+				Object value = ColumnValueProcessor.convertToMe(type, formattedValue, ODLColumnType.STRING, true);
+				if((value==null || emptyWhenFixed[col]) && !Strings.isEmpty(formattedValue)){
+					setRetypeNeeded();
+					return;
+				}
+				currentRow[col] = value;
+			}
+			else{
+				currentRow[col] = ColumnValueProcessor.convertToMe(type, formattedValue);
+			}
+		}
+		
+		private boolean isAllTypesFixed(){
+			for(ODLColumnType type : types){
+				if(type==null){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Stop estimating the column's type and convert the values read so far
+		 * @param col
+		 */
+		private void fixType(int col){
+			ColumnTypeEstimator estimator = colInfos.get(col).estimator;
+			ODLColumnType type = estimator.getEstimatedType();
+			types[col] = type;
+			emptyWhenFixed[col] = estimator.getNbNonEmptyValues()==0;
+			for(Object[] row : rows){
+				row[col] = ColumnValueProcessor.convertToMe(type, row[col]);
+			}
+		}
+		
+		/**
+		 * Fix the types of all columns still being sampled and create the table's columns
+		 */
+		private void fixAllTypes(){
+			for(int i =0 ; i < types.length ; i++){
+				if(types[i]==null){
+					fixType(i);
+				}
+			}
+			DatastoreCopier.copyTableDefinition(createTableDefinition(), table);
+			typesFixed = true;
+		}
+		
+		/**
+		 * Discard everything read so far
+		 */
+		private void setRetypeNeeded(){
+			retypeNeeded = true;
+			rows.clear();
+			rows.trimToSize();
+			clearTable(table);
+		}
+		
+		/**
+		 * Create the table's columns if not done already and append the remaining rows. Call after parsing.
+		 */
+		void finish(){
+			if(retypeNeeded){
+				return;
+			}
+			
+			if(types==null){
+				// no header row
+				DatastoreCopier.copyTableDefinition(createTableDefinition(), table);
+			}
+			else{
+				if(!typesFixed){
+					fixAllTypes();
+				}
+				appendRows(table, rows);
+				rows.clear();
+			}
+		}
+		
+		boolean isRetypeNeeded(){
+			return retypeNeeded;
+		}
+	}
+	
 	private SchemaSheetInformation importSchema(XSSFReader r,StylesTable styles ,ReadOnlySharedStringsTable sst ){
 		try {
 			XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) r.getSheetsData();
@@ -439,12 +636,23 @@ public class XmlParserLoader {
 		}
 	}
 	
-	private void postStatus(String s){
+	private synchronized void postStatus(String baseMessage, String s){
 		if(processingApi!=null && baseMessage!=null){
 			processingApi.postStatusMessage(baseMessage + (s!=null? " - " + s:""));
 		}
 	}
 	
+	/**
+	 * Post the row number if enough time has passed since the last update. Called by all the sheet parsing threads.
+	 * @param baseMessage
+	 * @param rowNum
+	 */
+	private synchronized void postRowStatus(String baseMessage, int rowNum){
+		if(timer.isUpdate()){
+			postStatus(baseMessage, "row " + (rowNum+1));
+		}
+	}
+	
 	private void doImport() {
 		if(!file.exists()){
 			throw new RuntimeException("Excel file does not exist: " + file.getAbsolutePath());
@@ -493,56 +701,213 @@ public class XmlParserLoader {
 	 * @throws SAXException
 	 */
 	private void importOPCPackage(OPCPackage pkg) throws IOException, OpenXML4JException, InvalidFormatException, SAXException {
-		XSSFReader r = new XSSFReader( pkg );
-		StylesTable styles = r.getStylesTable();
-		ReadOnlySharedStringsTable sst =new ReadOnlySharedStringsTable(pkg);	
+		final XSSFReader r = new XSSFReader( pkg );
+		final StylesTable styles = r.getStylesTable();
+		final ReadOnlySharedStringsTable sst =new ReadOnlySharedStringsTable(pkg);	
 		
 		SchemaSheetInformation schema = importSchema(r,styles ,sst );
+		final SchemaIO schemaIO = schema!=null? schema.schema:null;
+		
+		if(!singlePass){
+			loadSheetsInTwoPasses(r, styles, sst, schemaIO);
+			return;
+		}
 		
-		// read table definitions first
+		// open all the sheets first as the iterator can't be shared between threads
+		ArrayList<String> names = new ArrayList<>();
+		ArrayList<InputStream> sheets = new ArrayList<>();
 		XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) r.getSheetsData();
-		ArrayList<Integer> tableIndices = new ArrayList<>();
-		ArrayList<Integer> headerRows = new ArrayList<>();
 		while(it.hasNext()) {
-			try(InputStream sheet = it.next()){
-				String name = it.getSheetName();
-				
-				if(!Strings.equalsStd(PoiIO.SCHEMA_SHEET_NAME, name)){
-					baseMessage = "Loading Excel, analysing sheet " + name;
-					postStatus(null);
-					
-					InputSource sheetSource = new InputSource(sheet);
-					ReadTableDefinition rtd = new ReadTableDefinition(name,schema!=null? schema.schema:null,true);
-					parseSheet(styles, sst, sheetSource, rtd);
-					tableIndices.add(ds.getTableCount());
-					headerRows.add(rtd.getHeaderRow());
-					DatastoreCopier.copyTableDefinition(rtd.createTableDefinition(), ds);
-				}	
+			InputStream sheet = it.next();
+			String name = it.getSheetName();
+			if(Strings.equalsStd(PoiIO.SCHEMA_SHEET_NAME, name)){
+				sheet.close();
+			}else{
+				names.add(name);
+				sheets.add(sheet);
 			}
 		}
 		
-		// Then actual tables
-		it = (XSSFReader.SheetIterator) r.getSheetsData();
-		int i =0 ; 
-		while(it.hasNext()) {
-			try(InputStream sheet = it.next()){
-				InputSource sheetSource = new InputSource(sheet);
-				String name = it.getSheetName();
-				if(!Strings.equalsStd(PoiIO.SCHEMA_SHEET_NAME, name)){
-					baseMessage = "Loading sheet " + name + " into memory";
-					postStatus(null);
-					
-					ODLTable table = ds.getTableAt(i);
-					int headerRow = headerRows.get(i);
-					ReadIntoTableHandler readerHandler = new ReadIntoTableHandler(table, headerRow+1, Integer.MAX_VALUE);
-					parseSheet(styles, sst, sheetSource, readerHandler);
-					i++;
-				}	
-			}				
+		// parse the sheets concurrently; the styles and shared strings are only read by the parsers
+		ExecutorService service = Executors.newFixedThreadPool(getNbThreads(sheets.size()), new ThreadFactory() {
+			ThreadFactory factory = Executors.defaultThreadFactory();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread ret = factory.newThread(runnable);
+				ret.setName("ExcelSheetLoader-" + ret.getName());
+				ret.setDaemon(true);
+				return ret;
+			}
+		});
+		
+		try {
+			// create the tables in sheet order; each is then only written to by its sheet's parsing thread
+			ArrayList<ODLTableAlterable> tables = new ArrayList<>();
+			for(String name : names){
+				ODLTableAlterable table = ds.createTable(name, -1);
+				if(table==null){
+					throw new RuntimeException("Cannot create table for Excel sheet " + name);
+				}
+				tables.add(table);
+			}
+			
+			ArrayList<Future<ReadSheetHandler>> futures = new ArrayList<>();
+			for(int i =0 ; i < sheets.size() ; i++){
+				final String name = names.get(i);
+				final InputStream sheet = sheets.get(i);
+				final ODLTableAlterable table = tables.get(i);
+				futures.add(service.submit(new Callable<ReadSheetHandler>() {
 
+					@Override
+					public ReadSheetHandler call() throws Exception {
+						try{
+							ReadSheetHandler handler = new ReadSheetHandler(table, name, schemaIO);
+							handler.statusMessage = "Loading Excel, reading sheet " + name;
+							postStatus(handler.statusMessage, null);
+							parseSheet(styles, sst, new InputSource(sheet), handler);
+							handler.finish();
+							return handler;							
+						}finally{
+							sheet.close();
+						}
+					}
+				}));
+			}
+			
+			// then wait for the sheets in order, reading again any whose values didn't fit the types estimated from the sample
+			for(int i =0 ; i < futures.size() ; i++){
+				ReadSheetHandler handler = getResult(futures.get(i));
+				throwIfUserQuit();
+				if(handler.isRetypeNeeded()){
+					loadSheetInTwoPasses(r, styles, sst, schemaIO, i, tables.get(i));
+				}
+			}
+		} finally {
+			service.shutdownNow();
+			for(InputStream sheet : sheets){
+				try {
+					sheet.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+	
+	private static int getNbThreads(int nbSheets) {
+		int ret = AppProperties.getDouble(AppProperties.EXCEL_IMPORT_THREADS, 0).intValue();
+		if (ret <= 0) {
+			ret = Runtime.getRuntime().availableProcessors();
+		}
+		return Math.max(1, Math.min(ret, nbSheets));
+	}
+	
+	private static <T> T getResult(Future<T> future){
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void appendRows(ODLTableAlterable table, List<Object[]> rows){
+		if(table instanceof ODLTableImpl){
+			((ODLTableImpl)table).appendRows(rows);
+		}else{
+			int nc = table.getColumnCount();
+			for(Object[] values : rows){
+				int row = table.createEmptyRow(-1);
+				for(int col =0 ; col < nc ; col++){
+					table.setValueAt(values[col], row, col);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Remove all of the table's rows and columns
+	 * @param table
+	 */
+	private static void clearTable(ODLTableAlterable table){
+		TableUtils.removeAllRows(table);
+		while(table.getColumnCount()>0){
+			table.deleteColumn(table.getColumnCount()-1);
 		}
 	}
 	
+	/**
+	 * Read the sheet's table definition, estimating types from all values, and then read the sheet again to load it
+	 * @param r
+	 * @param styles
+	 * @param sst
+	 * @param schemaIO
+	 * @param sheetIndex Index of the sheet, excluding the schema sheet
+	 * @param table Empty table for the sheet
+	 */
+	private void loadSheetInTwoPasses(XSSFReader r, StylesTable styles, ReadOnlySharedStringsTable sst, SchemaIO schemaIO, int sheetIndex, ODLTableAlterable table){
+		String name = table.getName();
+		ReadTableDefinition rtd = new ReadTableDefinition(name,schemaIO,true);
+		rtd.statusMessage = "Loading Excel, analysing sheet " + name;
+		postStatus(rtd.statusMessage, null);
+		try(InputStream sheet = openSheet(r, sheetIndex)){
+			parseSheet(styles, sst, new InputSource(sheet), rtd);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
+		DatastoreCopier.copyTableDefinition(rtd.createTableDefinition(), table);
+		
+		ReadIntoTableHandler readerHandler = new ReadIntoTableHandler(table, rtd.getHeaderRow()+1, Integer.MAX_VALUE);
+		readerHandler.statusMessage = "Loading sheet " + name + " into memory";
+		postStatus(readerHandler.statusMessage, null);
+		try(InputStream sheet = openSheet(r, sheetIndex)){
+			parseSheet(styles, sst, new InputSource(sheet), readerHandler);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Load every sheet one at a time using {@link #loadSheetInTwoPasses}
+	 */
+	private void loadSheetsInTwoPasses(XSSFReader r, StylesTable styles, ReadOnlySharedStringsTable sst, SchemaIO schemaIO) throws IOException, InvalidFormatException{
+		XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) r.getSheetsData();
+		int sheetIndex=0;
+		while(it.hasNext()) {
+			it.next().close();
+			String name = it.getSheetName();
+			if(!Strings.equalsStd(PoiIO.SCHEMA_SHEET_NAME, name)){
+				ODLTableAlterable table = ds.createTable(name, -1);
+				if(table==null){
+					throw new RuntimeException("Cannot create table for Excel sheet " + name);
+				}
+				loadSheetInTwoPasses(r, styles, sst, schemaIO, sheetIndex++, table);
+			}
+		}
+	}
+	
+	private InputStream openSheet(XSSFReader r, int sheetIndex){
+		try {
+			XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) r.getSheetsData();
+			int i=0;
+			while(it.hasNext()) {
+				InputStream sheet = it.next();
+				if(!Strings.equalsStd(PoiIO.SCHEMA_SHEET_NAME, it.getSheetName()) && i++ == sheetIndex){
+					return sheet;
+				}
+				sheet.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		throw new RuntimeException("Cannot find Excel sheet " + sheetIndex);
+	}
+	
 	static void importExcel(InputStream stream, ODLDatastoreAlterable<ODLTableAlterable> ds,ProcessingApi processingApi, ExecutionReport report) {
 		new XmlParserLoader(null, ds, processingApi, report).doImport(stream);
 	}
@@ -557,6 +922,18 @@ public class XmlParserLoader {
 		new XmlParserLoader(file,ds,processingApi,report).doImport();
 	}
 
+	/**
+	 * Load by reading each sheet twice, first to estimate the column types from all values. Used for testing.
+	 * @param file
+	 * @param report
+	 * @return
+	 */
+	static ODLDatastoreAlterable<ODLTableAlterable> importExcelInTwoPasses(File file, ExecutionReport report) {
+		ODLDatastoreAlterable<ODLTableAlterable> ret = ODLFactory.createAlterable();
+		new XmlParserLoader(file,ret,null,report, false).doImport();
+		return ret;
+	}
+
 	
 	public static void main(String[] args) throws Exception {
 		ODLDatastoreAlterable<ODLTableAlterable> ret = ODLFactory.createAlterable();
@@ -18,6 +18,12 @@ import com.opendoorlogistics.core.tables.utils.TableFlagUtils;
 import com.opendoorlogistics.core.tables.utils.TableUtils;
 import com.opendoorlogistics.core.utils.strings.Strings;
 
+/**
+ * Index of a column's values, built lazily and updated as the column changes. Not thread safe;
+ * the owning table must synchronise all calls, including finds. 
+ * @author Phil
+ *
+ */
 final public class ColumnIndex {
 	private HashMap<Object, TLongArrayList> index;
 	private ODLColumnType lastColumnType;
@@ -45,6 +51,17 @@ final public class ColumnIndex {
 		}
 	}
 
+	/**
+	 * Drop the index after changing many rows at once, so it's rebuilt in a single pass
+	 * the next time it's used rather than updated for every row
+	 */
+	void invalidate(){
+		index = null;
+		if(state == IndexState.ACTIVE){
+			state = IndexState.PENDING;
+		}
+	}
+	
 	/**
 	 * Change the value in the index. It is assumed the input value
 	 * is of the correct type.
@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.tables.memory;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+
+/**
+ * Storage for a single column of an {@link ODLColumnarTableImpl}. Doubles and longs are held
+ * in primitive arrays with a bitmap recording which rows are non-null, strings are dictionary
+ * encoded into an int array and all other types fall back to an object array.
+ * Values passed to {@link #set(int, Object)} must already be validated to the column type.
+ * @author Phil
+ *
+ */
+abstract class ColumnStore {
+	protected int capacity;
+
+	ColumnStore(int capacity) {
+		this.capacity = capacity;
+	}
+
+	static ColumnStore create(ODLColumnType type, int capacity) {
+		switch (type) {
+		case DOUBLE:
+			return new DoubleStore(capacity);
+
+		case LONG:
+			return new LongStore(capacity);
+
+		case STRING:
+			return new StringStore(capacity);
+
+		default:
+			return new ObjectStore(capacity);
+		}
+	}
+
+	abstract Object get(int row);
+
+	abstract void set(int row, Object value);
+
+	abstract boolean isNull(int row);
+
+	/**
+	 * Grow the arrays to at least the capacity
+	 * @param newCapacity
+	 */
+	abstract void ensureCapacity(int newCapacity);
+
+	/**
+	 * Insert a null value at the row, shifting all later rows up one.
+	 * @param row
+	 * @param size The number of rows before the insert
+	 */
+	abstract void insert(int row, int size);
+
+	/**
+	 * Remove the row, shifting all later rows down one.
+	 * @param row
+	 * @param size The number of rows before the removal
+	 */
+	abstract void remove(int row, int size);
+
+	/**
+	 * Copy the value (or null) from one row to another, used to insert or remove
+	 * many rows in a single pass
+	 * @param fromRow
+	 * @param toRow
+	 */
+	abstract void move(int fromRow, int toRow);
+
+	/**
+	 * Copy the first size rows into a new store
+	 * @param size
+	 * @return
+	 */
+	abstract ColumnStore copy(int size);
+
+	/**
+	 * A bitmap where a set bit means the row holds a value. Bits at or above
+	 * the row count are always kept clear so inserted rows start as null.
+	 */
+	static final class NotNullBits {
+		private long[] words;
+
+		NotNullBits(int capacity) {
+			words = new long[wordCount(capacity)];
+		}
+
+		NotNullBits(NotNullBits copyThis, int size) {
+			words = Arrays.copyOf(copyThis.words, Math.max(wordCount(size), 1));
+		}
+
+		private static int wordCount(int bits) {
+			return (bits + 63) >>> 6;
+		}
+
+		void ensureCapacity(int capacity) {
+			int n = wordCount(capacity);
+			if (n > words.length) {
+				words = Arrays.copyOf(words, n);
+			}
+		}
+
+		boolean get(int bit) {
+			return (words[bit >>> 6] & (1L << bit)) != 0;
+		}
+
+		void set(int bit, boolean value) {
+			if (value) {
+				words[bit >>> 6] |= 1L << bit;
+			} else {
+				words[bit >>> 6] &= ~(1L << bit);
+			}
+		}
+
+		void insert(int bit, int size) {
+			int first = bit >>> 6;
+			int last = size >>> 6;
+			for (int w = last; w > first; w--) {
+				words[w] = (words[w] << 1) | (words[w - 1] >>> 63);
+			}
+
+			// keep the bits below the insert position and shift the rest up, leaving a clear bit
+			long below = (1L << bit) - 1;
+			long word = words[first];
+			words[first] = (word & below) | ((word & ~below) << 1);
+		}
+
+		void remove(int bit, int size) {
+			int first = bit >>> 6;
+			int last = (size - 1) >>> 6;
+			long below = (1L << bit) - 1;
+			long word = words[first];
+			word = (word & below) | ((word >>> 1) & ~below);
+			for (int w = first; w <= last; w++) {
+				if (w > first) {
+					word = words[w] >>> 1;
+				}
+				if (w < last) {
+					word |= words[w + 1] << 63;
+				}
+				words[w] = word;
+			}
+		}
+	}
+
+	static final class DoubleStore extends ColumnStore {
+		private double[] values;
+		private final NotNullBits notNull;
+
+		DoubleStore(int capacity) {
+			super(capacity);
+			values = new double[capacity];
+			notNull = new NotNullBits(capacity);
+		}
+
+		private DoubleStore(DoubleStore copyThis, int size) {
+			super(size);
+			values = Arrays.copyOf(copyThis.values, size);
+			notNull = new NotNullBits(copyThis.notNull, size);
+		}
+
+		@Override
+		Object get(int row) {
+			return notNull.get(row) ? values[row] : null;
+		}
+
+		double getDouble(int row) {
+			return values[row];
+		}
+
+		@Override
+		void set(int row, Object value) {
+			if (value != null) {
+				values[row] = ((Number) value).doubleValue();
+				notNull.set(row, true);
+			} else {
+				values[row] = 0;
+				notNull.set(row, false);
+			}
+		}
+
+		@Override
+		boolean isNull(int row) {
+			return !notNull.get(row);
+		}
+
+		@Override
+		void ensureCapacity(int newCapacity) {
+			if (newCapacity > capacity) {
+				values = Arrays.copyOf(values, newCapacity);
+				notNull.ensureCapacity(newCapacity);
+				capacity = newCapacity;
+			}
+		}
+
+		@Override
+		void insert(int row, int size) {
+			System.arraycopy(values, row, values, row + 1, size - row);
+			values[row] = 0;
+			notNull.insert(row, size);
+		}
+
+		@Override
+		void remove(int row, int size) {
+			System.arraycopy(values, row + 1, values, row, size - row - 1);
+			values[size - 1] = 0;
+			notNull.remove(row, size);
+		}
+
+		@Override
+		void move(int fromRow, int toRow) {
+			values[toRow] = values[fromRow];
+			notNull.set(toRow, notNull.get(fromRow));
+		}
+
+		@Override
+		ColumnStore copy(int size) {
+			return new DoubleStore(this, size);
+		}
+	}
+
+	static final class LongStore extends ColumnStore {
+		private long[] values;
+		private final NotNullBits notNull;
+
+		LongStore(int capacity) {
+			super(capacity);
+			values = new long[capacity];
+			notNull = new NotNullBits(capacity);
+		}
+
+		private LongStore(LongStore copyThis, int size) {
+			super(size);
+			values = Arrays.copyOf(copyThis.values, size);
+			notNull = new NotNullBits(copyThis.notNull, size);
+		}
+
+		@Override
+		Object get(int row) {
+			return notNull.get(row) ? values[row] : null;
+		}
+
+		long getLong(int row) {
+			return values[row];
+		}
+
+		@Override
+		void set(int row, Object value) {
+			if (value != null) {
+				values[row] = ((Number) value).longValue();
+				notNull.set(row, true);
+			} else {
+				values[row] = 0;
+				notNull.set(row, false);
+			}
+		}
+
+		@Override
+		boolean isNull(int row) {
+			return !notNull.get(row);
+		}
+
+		@Override
+		void ensureCapacity(int newCapacity) {
+			if (newCapacity > capacity) {
+				values = Arrays.copyOf(values, newCapacity);
+				notNull.ensureCapacity(newCapacity);
+				capacity = newCapacity;
+			}
+		}
+
+		@Override
+		void insert(int row, int size) {
+			System.arraycopy(values, row, values, row + 1, size - row);
+			values[row] = 0;
+			notNull.insert(row, size);
+		}
+
+		@Override
+		void remove(int row, int size) {
+			System.arraycopy(values, row + 1, values, row, size - row - 1);
+			values[size - 1] = 0;
+			notNull.remove(row, size);
+		}
+
+		@Override
+		void move(int fromRow, int toRow) {
+			values[toRow] = values[fromRow];
+			notNull.set(toRow, notNull.get(fromRow));
+		}
+
+		@Override
+		ColumnStore copy(int size) {
+			return new LongStore(this, size);
+		}
+	}
+
+	/**
+	 * Strings are stored as codes into a dictionary of distinct values, so repeated values
+	 * (e.g. territory names) are only held once. Code 0 is reserved for null. The dictionary
+	 * only grows; unused entries are dropped when the store is copied.
+	 */
+	static final class StringStore extends ColumnStore {
+		private int[] codes;
+		private final ArrayList<String> dictionary = new ArrayList<>();
+		private final TObjectIntHashMap<String> codesByValue = new TObjectIntHashMap<>(16, 0.5f, 0);
+
+		StringStore(int capacity) {
+			super(capacity);
+			codes = new int[capacity];
+			dictionary.add(null);
+		}
+
+		private StringStore(StringStore copyThis, int size) {
+			this(size);
+			for (int row = 0; row < size; row++) {
+				int code = copyThis.codes[row];
+				if (code != 0) {
+					codes[row] = encode(copyThis.dictionary.get(code));
+				}
+			}
+		}
+
+		private int encode(String value) {
+			int code = codesByValue.get(value);
+			if (code == 0) {
+				code = dictionary.size();
+				dictionary.add(value);
+				codesByValue.put(value, code);
+			}
+			return code;
+		}
+
+		@Override
+		Object get(int row) {
+			return dictionary.get(codes[row]);
+		}
+
+		@Override
+		void set(int row, Object value) {
+			codes[row] = value != null ? encode((String) value) : 0;
+		}
+
+		@Override
+		boolean isNull(int row) {
+			return codes[row] == 0;
+		}
+
+		@Override
+		void ensureCapacity(int newCapacity) {
+			if (newCapacity > capacity) {
+				codes = Arrays.copyOf(codes, newCapacity);
+				capacity = newCapacity;
+			}
+		}
+
+		@Override
+		void insert(int row, int size) {
+			System.arraycopy(codes, row, codes, row + 1, size - row);
+			codes[row] = 0;
+		}
+
+		@Override
+		void remove(int row, int size) {
+			System.arraycopy(codes, row + 1, codes, row, size - row - 1);
+			codes[size - 1] = 0;
+		}
+
+		@Override
+		void move(int fromRow, int toRow) {
+			codes[toRow] = codes[fromRow];
+		}
+
+		@Override
+		ColumnStore copy(int size) {
+			return new StringStore(this, size);
+		}
+	}
+
+	static final class ObjectStore extends ColumnStore {
+		private Object[] values;
+
+		ObjectStore(int capacity) {
+			super(capacity);
+			values = new Object[capacity];
+		}
+
+		private ObjectStore(ObjectStore copyThis, int size) {
+			super(size);
+
+			// values should be treated as immutable, copying ref should be safe
+			values = Arrays.copyOf(copyThis.values, size);
+		}
+
+		@Override
+		Object get(int row) {
+			return values[row];
+		}
+
+		@Override
+		void set(int row, Object value) {
+			values[row] = value;
+		}
+
+		@Override
+		boolean isNull(int row) {
+			return values[row] == null;
+		}
+
+		@Override
+		void ensureCapacity(int newCapacity) {
+			if (newCapacity > capacity) {
+				values = Arrays.copyOf(values, newCapacity);
+				capacity = newCapacity;
+			}
+		}
+
+		@Override
+		void insert(int row, int size) {
+			System.arraycopy(values, row, values, row + 1, size - row);
+			values[row] = null;
+		}
+
+		@Override
+		void remove(int row, int size) {
+			System.arraycopy(values, row + 1, values, row, size - row - 1);
+			values[size - 1] = null;
+		}
+
+		@Override
+		void move(int fromRow, int toRow) {
+			values[toRow] = values[fromRow];
+		}
+
+		@Override
+		ColumnStore copy(int size) {
+			return new ObjectStore(this, size);
+		}
+	}
+}
@@ -11,6 +11,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -37,6 +39,15 @@ public abstract class ODLAbstractTableDefinition<T extends ODLColumnDefinition>
 	 */
 	private static final long serialVersionUID = -5898189091620297143L;
 	
+	/**
+	 * Shared by all tables so a stamp is never reused, even by a table replacing another with the same id
+	 */
+	private static final AtomicLong MODIFICATION_STAMPS = new AtomicLong();
+	private static final AtomicBoolean MODIFICATION_STAMP_REQUESTED = new AtomicBoolean();
+	
+	@XmlTransient
+	private volatile long modificationStamp = MODIFICATION_STAMPS.incrementAndGet();
+	
 	@XmlTransient
 	private final IntIDGenerator columnIdGenerator = new IntIDGenerator(new IsExistingId() {
 		
@@ -166,6 +177,7 @@ public abstract class ODLAbstractTableDefinition<T extends ODLColumnDefinition>
 		}
 		T col = createColObj(id,name,type,flags);
 		columns.add(col);
+		modified();
 		return columns.size()-1;
 	}
 
@@ -184,6 +196,7 @@ public abstract class ODLAbstractTableDefinition<T extends ODLColumnDefinition>
 		}
 
 		columns.remove(col);
+		modified();
 	}
 	
 	protected int validateNewColumnId(int id) {
@@ -212,9 +225,47 @@ public abstract class ODLAbstractTableDefinition<T extends ODLColumnDefinition>
 		}else{
 			columns.add(column);
 		}
+		modified();
 		return true;
 	}
 
+	/**
+	 * Get a stamp which changes whenever the table's columns or (for tables holding data) its rows
+	 * or values change. Row flags are not included. 
+	 * @return
+	 */
+	public long getModificationStamp(){
+		return modificationStamp;
+	}
+	
+	/**
+	 * Get the most recent stamp given out. If this hasn't changed then no table has been modified,
+	 * so anything cached from any tables is still valid.
+	 * @return
+	 */
+	public static long getLatestModificationStamp(){
+		if(MODIFICATION_STAMP_REQUESTED.get() && MODIFICATION_STAMP_REQUESTED.compareAndSet(true, false)){
+			return MODIFICATION_STAMPS.incrementAndGet();
+		}
+		return MODIFICATION_STAMPS.get();
+	}
+	
+	/**
+	 * Call when the rows seen through a decorator change without any table being modified, so caches
+	 * checking {@link #getLatestModificationStamp()} are rechecked. The new stamp is only taken when the
+	 * latest stamp is next read, so many changes in a row (e.g. building a filter) take a single stamp.
+	 */
+	public static void requestModificationStamp(){
+		MODIFICATION_STAMP_REQUESTED.set(true);
+	}
+	
+	/**
+	 * Call after any change to the columns, rows or values
+	 */
+	protected void modified(){
+		modificationStamp = MODIFICATION_STAMPS.incrementAndGet();
+	}
+	
 	public synchronized void setName(String name){
 		this.name = name;
 	}
@@ -0,0 +1,557 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.core.tables.memory;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.api.tables.ODLTableDefinition;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.api.tables.TableQuery;
+import com.opendoorlogistics.core.tables.ColumnValueProcessor;
+import com.opendoorlogistics.core.tables.ODLTableFactory;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
+import com.opendoorlogistics.core.utils.IntIDGenerator;
+import com.opendoorlogistics.core.utils.IntIDGenerator.IsExistingId;
+
+/**
+ * An in-memory table which stores its data by column rather than by row, for very large tables.
+ * Double and long columns are held in primitive arrays and string columns are dictionary encoded
+ * (see {@link ColumnStore}), so a row costs a few bytes per column instead of a row object
+ * holding a list of boxed values. Behaves identically to {@link ODLTableImpl} otherwise.
+ * @author Phil
+ *
+ */
+final public class ODLColumnarTableImpl extends ODLTableDefinitionImpl implements ODLTableAlterable {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -1965471127011640718L;
+	private static final int MIN_CAPACITY = 16;
+	private final ArrayList<ColumnStore> stores = new ArrayList<>();
+	private final TIntIntHashMap rowIndexByLocalId = new TIntIntHashMap(MIN_CAPACITY, 0.5f, -1, -1);
+	private int rowCount;
+	private int capacity;
+	private int[] localIds;
+	private long[] rowFlags;
+	private long[] lastModified;
+	private IntIDGenerator rowIdGenerator = new IntIDGenerator(new IsExistingId() {
+		private static final long serialVersionUID = 6120978934418120574L;
+
+		@Override
+		public boolean isExistingId(int id) {
+			return rowIndexByLocalId.containsKey(id);
+		}
+	});
+
+	public ODLColumnarTableImpl(int id, String name) {
+		super(id, name);
+		allocateRowArrays(MIN_CAPACITY);
+	}
+
+	/**
+	 * Deep copy the input table
+	 *
+	 * @param copyThis
+	 */
+	public ODLColumnarTableImpl(ODLColumnarTableImpl copyThis) {
+		super(copyThis);
+
+		// copy all column data; column indexes will create themselves later if needed
+		rowCount = copyThis.rowCount;
+		capacity = Math.max(rowCount, MIN_CAPACITY);
+		localIds = Arrays.copyOf(copyThis.localIds, capacity);
+		rowFlags = Arrays.copyOf(copyThis.rowFlags, capacity);
+		lastModified = Arrays.copyOf(copyThis.lastModified, capacity);
+		rowIndexByLocalId.putAll(copyThis.rowIndexByLocalId);
+		for (ColumnStore store : copyThis.stores) {
+			ColumnStore copy = store.copy(rowCount);
+			copy.ensureCapacity(capacity);
+			stores.add(copy);
+		}
+
+		// ensure the next ids match as well ... needed when we merge modified tables
+		rowIdGenerator.setNextId(copyThis.rowIdGenerator.getNextId());
+	}
+
+	@Override
+	public synchronized ODLTableDefinition deepCopyWithShallowValueCopy() {
+		return new ODLColumnarTableImpl(this);
+	}
+
+	private void allocateRowArrays(int newCapacity) {
+		capacity = newCapacity;
+		localIds = new int[capacity];
+		rowFlags = new long[capacity];
+		lastModified = new long[capacity];
+	}
+
+	private void ensureCapacity(int required) {
+		if (required <= capacity) {
+			return;
+		}
+
+		// grow by 50% to amortise the copying
+		int newCapacity = Math.max(required, capacity + (capacity >> 1));
+		localIds = Arrays.copyOf(localIds, newCapacity);
+		rowFlags = Arrays.copyOf(rowFlags, newCapacity);
+		lastModified = Arrays.copyOf(lastModified, newCapacity);
+		for (ColumnStore store : stores) {
+			store.ensureCapacity(newCapacity);
+		}
+		capacity = newCapacity;
+	}
+
+	@Override
+	public synchronized int addColumn(int id, String name, ODLColumnType type, long flags) {
+		int index = super.addColumn(id, name, type, flags);
+		if (index != -1) {
+			stores.add(ColumnStore.create(type, capacity));
+		}
+		return index;
+	}
+
+	@Override
+	public synchronized boolean insertColumn(int id, int col, String name, ODLColumnType type, long flags, boolean allowDuplicateNames) {
+		if (col > getColumnCount()) {
+			col = getColumnCount();
+		}
+		if (super.insertColumn(id, col, name, type, flags, allowDuplicateNames)) {
+			stores.add(col, ColumnStore.create(type, capacity));
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized void deleteColumn(int col) {
+		if (col >= getColumnCount()) {
+			return;
+		}
+		super.deleteColumn(col);
+		stores.remove(col);
+	}
+
+	@Override
+	public synchronized int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public synchronized Object getValueAt(int rowIndex, int columnIndex) {
+		if (columnIndex >= columns.size() || rowIndex >= rowCount) {
+			return null;
+		}
+
+		return stores.get(columnIndex).get(rowIndex);
+	}
+
+	/**
+	 * Get a double column value without boxing. Returns 0 for nulls, use {@link #isNull(int, int)} to distinguish them.
+	 * @param rowIndex
+	 * @param columnIndex
+	 * @return
+	 */
+	public synchronized double getDouble(int rowIndex, int columnIndex) {
+		ColumnStore store = stores.get(columnIndex);
+		if (store instanceof ColumnStore.DoubleStore) {
+			return ((ColumnStore.DoubleStore) store).getDouble(rowIndex);
+		}
+		Object value = store.get(rowIndex);
+		return value != null ? ((Number) value).doubleValue() : 0;
+	}
+
+	/**
+	 * Get a long column value without boxing. Returns 0 for nulls, use {@link #isNull(int, int)} to distinguish them.
+	 * @param rowIndex
+	 * @param columnIndex
+	 * @return
+	 */
+	public synchronized long getLong(int rowIndex, int columnIndex) {
+		ColumnStore store = stores.get(columnIndex);
+		if (store instanceof ColumnStore.LongStore) {
+			return ((ColumnStore.LongStore) store).getLong(rowIndex);
+		}
+		Object value = store.get(rowIndex);
+		return value != null ? ((Number) value).longValue() : 0;
+	}
+
+	public synchronized boolean isNull(int rowIndex, int columnIndex) {
+		return stores.get(columnIndex).isNull(rowIndex);
+	}
+
+	@Override
+	public synchronized void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+		if (columnIndex >= columns.size() || rowIndex >= rowCount) {
+			return;
+		}
+
+		// input value may not be of the expected type .. we should do a conversion to ensure it is
+		aValue = toValidated(aValue, columnIndex);
+
+		// update index
+		ColumnStore store = stores.get(columnIndex);
+		getIndex(columnIndex).set(getRowId(rowIndex), store.get(rowIndex), aValue, this, columnIndex);
+
+		// set the value
+		store.set(rowIndex, aValue);
+		lastModified[rowIndex] = System.currentTimeMillis();
+		modified();
+	}
+
+	/**
+	 * Input value may not be of the expected type .. we should do a conversion to ensure it is
+	 *
+	 * @param val
+	 * @param col
+	 * @return
+	 */
+	private Object toValidated(Object val, int col) {
+		val = ColumnValueProcessor.convertToMe(getColumnType(col), val);
+		return val;
+	}
+
+	@Override
+	public final synchronized int createEmptyRow(long rowId) {
+		int row = rowCount;
+		insertEmptyRow(row, rowId);
+		return row;
+	}
+
+	@Override
+	public final synchronized void insertEmptyRow(int insertAtRowNb, long rowId) {
+
+		// get internal id
+		int localId = -1;
+		if (rowId == -1) {
+			localId = rowIdGenerator.generateId();
+		} else {
+			// we only use the local part of the rowid as may be copying from another table..
+			localId = TableUtils.getLocalRowId(rowId);
+		}
+
+		// generate new id if this one already used
+		if (rowIndexByLocalId.containsKey(localId)) {
+			localId = rowIdGenerator.generateId();
+		}
+
+		if (insertAtRowNb > rowCount) {
+			insertAtRowNb = rowCount;
+		}
+
+		// make space for the row in all arrays
+		ensureCapacity(rowCount + 1);
+		int nc = getColumnCount();
+		for (int col = 0; col < nc; col++) {
+			stores.get(col).insert(insertAtRowNb, rowCount);
+		}
+		int nbAfter = rowCount - insertAtRowNb;
+		System.arraycopy(localIds, insertAtRowNb, localIds, insertAtRowNb + 1, nbAfter);
+		System.arraycopy(rowFlags, insertAtRowNb, rowFlags, insertAtRowNb + 1, nbAfter);
+		System.arraycopy(lastModified, insertAtRowNb, lastModified, insertAtRowNb + 1, nbAfter);
+		for (int row = insertAtRowNb + 1; row <= rowCount; row++) {
+			rowIndexByLocalId.put(localIds[row], row);
+		}
+		localIds[insertAtRowNb] = localId;
+		rowFlags[insertAtRowNb] = 0;
+		lastModified[insertAtRowNb] = System.currentTimeMillis();
+		rowIndexByLocalId.put(localId, insertAtRowNb);
+		rowCount++;
+
+		// set default values if we have them
+		for (int col = 0; col < nc; col++) {
+			Object val = getColumnDefaultValue(col);
+			if (val != null) {
+				val = toValidated(val, col);
+				stores.get(col).set(insertAtRowNb, val);
+			}
+		}
+
+		// update indices
+		long rowid = getRowId(insertAtRowNb);
+		for (int col = 0; col < nc; col++) {
+			getIndex(col).insert(rowid, stores.get(col).get(insertAtRowNb), this, col);
+		}
+		modified();
+	}
+
+	@Override
+	public synchronized void deleteRow(int rowNumber) {
+		if (rowNumber < rowCount) {
+
+			// remove values from column indexes
+			int nc = getColumnCount();
+			long rowid = getRowId(rowNumber);
+			for (int col = 0; col < nc; col++) {
+				Object value = getValueAt(rowNumber, col);
+				getIndex(col).remove(rowid, value, this, col);
+			}
+
+			// remove row
+			rowIndexByLocalId.remove(localIds[rowNumber]);
+			for (int col = 0; col < nc; col++) {
+				stores.get(col).remove(rowNumber, rowCount);
+			}
+			int nbAfter = rowCount - rowNumber - 1;
+			System.arraycopy(localIds, rowNumber + 1, localIds, rowNumber, nbAfter);
+			System.arraycopy(rowFlags, rowNumber + 1, rowFlags, rowNumber, nbAfter);
+			System.arraycopy(lastModified, rowNumber + 1, lastModified, rowNumber, nbAfter);
+			rowCount--;
+			for (int row = rowNumber; row < rowCount; row++) {
+				rowIndexByLocalId.put(localIds[row], row);
+			}
+			modified();
+		}
+	}
+
+	@Override
+	public synchronized void deleteRows(int[] rowNumbers) {
+		int[] rows = TableUtils.getRowsToDelete(rowNumbers, rowCount);
+		if (rows.length == 0) {
+			return;
+		}
+
+		for (int row : rows) {
+			rowIndexByLocalId.remove(localIds[row]);
+		}
+
+		// move each remaining row down once, starting from the first deleted row
+		int nc = getColumnCount();
+		int write = rows[0];
+		int next = 0;
+		for (int read = write; read < rowCount; read++) {
+			if (next < rows.length && rows[next] == read) {
+				next++;
+				continue;
+			}
+			moveRow(read, write, nc);
+			write++;
+		}
+
+		// clear the rows now past the end so they start empty if reused
+		for (int row = write; row < rowCount; row++) {
+			for (int col = 0; col < nc; col++) {
+				stores.get(col).set(row, null);
+			}
+		}
+		rowCount = write;
+		invalidateIndices();
+		modified();
+	}
+
+	@Override
+	public synchronized void insertEmptyRows(int[] rowNumbers, long[] rowIds) {
+		int[] rows = TableUtils.getRowsToInsert(rowNumbers, rowIds, rowCount);
+		int n = rows.length;
+		if (n == 0) {
+			return;
+		}
+
+		// we only use the local part of the rowids as may be copying from another table..
+		int[] newIds = new int[n];
+		for (int i = 0; i < n; i++) {
+			newIds[i] = rowIds[i] == -1 ? -1 : TableUtils.getLocalRowId(rowIds[i]);
+		}
+		newIds = rowIdGenerator.generateIds(newIds);
+
+		// move each existing row up once, working down from the end, and fill in the new rows
+		ensureCapacity(rowCount + n);
+		int nc = getColumnCount();
+		long now = System.currentTimeMillis();
+		int read = rowCount - 1;
+		int next = n - 1;
+		for (int write = rowCount + n - 1; next >= 0; write--) {
+			if (rows[next] == write) {
+				for (int col = 0; col < nc; col++) {
+					stores.get(col).set(write, null);
+				}
+				localIds[write] = newIds[next--];
+				rowFlags[write] = 0;
+				lastModified[write] = now;
+				rowIndexByLocalId.put(localIds[write], write);
+			} else {
+				moveRow(read--, write, nc);
+			}
+		}
+		rowCount += n;
+
+		// set default values if we have them
+		for (int col = 0; col < nc; col++) {
+			Object val = getColumnDefaultValue(col);
+			if (val != null) {
+				val = toValidated(val, col);
+				for (int row : rows) {
+					stores.get(col).set(row, val);
+				}
+			}
+		}
+
+		invalidateIndices();
+		modified();
+	}
+
+	private void moveRow(int fromRow, int toRow, int nc) {
+		for (int col = 0; col < nc; col++) {
+			stores.get(col).move(fromRow, toRow);
+		}
+		localIds[toRow] = localIds[fromRow];
+		rowFlags[toRow] = rowFlags[fromRow];
+		lastModified[toRow] = lastModified[fromRow];
+		rowIndexByLocalId.put(localIds[toRow], toRow);
+	}
+
+	/**
+	 * Column indexes are rebuilt when next used after changing many rows at once
+	 */
+	private void invalidateIndices() {
+		int nc = getColumnCount();
+		for (int col = 0; col < nc; col++) {
+			getIndex(col).invalidate();
+		}
+	}
+
+	private static ODLColumnarTableImpl createTable(ODLDatastore<? extends ODLTableDefinition> ds, String name, int id) {
+		if (id == -1) {
+			throw new RuntimeException();
+		}
+
+		if (ds.getTableByImmutableId(id) != null) {
+			return null;
+		}
+
+		return new ODLColumnarTableImpl(id, name);
+	}
+
+	public final static ODLTableFactory<ODLTableAlterable> ODLTableAlterableFactory = new ODLTableFactory<ODLTableAlterable>() {
+
+		@Override
+		public ODLTableAlterable create(ODLDatastore<? extends ODLTableDefinition> ds, String name, int id) {
+			return createTable(ds, name, id);
+		}
+	};
+
+	@Override
+	public synchronized String toString() {
+		return TableUtils.convertToString(this);
+	}
+
+	@Override
+	public synchronized long getRowId(int rowIndex) {
+		if (rowIndex >= rowCount) {
+			return -1;
+		}
+		return TableUtils.getGlobalId(getImmutableId(), localIds[rowIndex]);
+	}
+
+	/**
+	 * Get the row index for the global row id or -1 if not found
+	 * @param rowId
+	 * @return
+	 */
+	private int getRowIndexById(long rowId) {
+		if (TableUtils.getTableId(rowId) != getImmutableId()) {
+			return -1;
+		}
+		return rowIndexByLocalId.get(TableUtils.getLocalRowId(rowId));
+	}
+
+	@Override
+	public synchronized Object getValueById(long rowId, int columnIndex) {
+		int row = getRowIndexById(rowId);
+		if (row != -1 && columnIndex < columns.size()) {
+			return stores.get(columnIndex).get(row);
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized void setValueById(Object aValue, long rowid, int columnIndex) {
+		int row = getRowIndexById(rowid);
+		if (row != -1) {
+			setValueAt(aValue, row, columnIndex);
+		}
+	}
+
+	private ColumnIndex getIndex(int columnIndex) {
+		return ((ODLIndexableColumn) columns.get(columnIndex)).index;
+	}
+
+	@Override
+	public synchronized boolean containsRowId(long rowId) {
+		return getRowIndexById(rowId) != -1;
+	}
+
+	@Override
+	protected ODLColumnDefinition createColObj(int id, String name, ODLColumnType type, long flags) {
+		id = validateNewColumnId(id);
+		return new ODLIndexableColumn(id, name, type, flags);
+	}
+
+	@Override
+	public synchronized long[] find(int col, Object value) {
+		return getIndex(col).find(this, col, value);
+	}
+
+	@Override
+	public synchronized long getRowFlags(long rowId) {
+		int row = getRowIndexById(rowId);
+		if (row != -1) {
+			return rowFlags[row];
+		}
+		return 0;
+	}
+
+	@Override
+	public synchronized void setRowFlags(long flags, long rowId) {
+		int row = getRowIndexById(rowId);
+		if (row != -1) {
+			rowFlags[row] = flags;
+			lastModified[row] = System.currentTimeMillis();
+		}
+	}
+
+	@Override
+	public synchronized long getRowLastModifiedTimeMillsecs(long rowId) {
+		int row = rowIndexByLocalId.get(TableUtils.getLocalRowId(rowId));
+		if (row != -1) {
+			return lastModified[row];
+		}
+		return 0;
+	}
+
+	@Override
+	public ODLTableReadOnly query(TableQuery query) {
+		// to do ... implement queries
+		throw new UnsupportedOperationException();
+	}
+
+	public static void main(String[] args) {
+		// test when memory starts to run out with large tables; compare with ODLTableImpl.main
+		int million = 1000000;
+		ODLColumnarTableImpl table = new ODLColumnarTableImpl(1, "test");
+		table.addColumn(0, "postcode", ODLColumnType.STRING, 0);
+		table.addColumn(1, "territory", ODLColumnType.STRING, 0);
+		table.addColumn(2, "value", ODLColumnType.DOUBLE, 0);
+		for (int i = 0; i < 10 * million; i++) {
+			int row = table.createEmptyRow(-1);
+			table.setValueAt(UUID.randomUUID().toString(), row, 0);
+			table.setValueAt("Territory" + (i % 1000), row, 1);
+			table.setValueAt(i, row, 2);
+			if (i % 100000 == 0) {
+				long bytes = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+				System.out.println(LocalDateTime.now() + ": " + i + " records, " + (bytes / (1024 * 1024)) + " MB");
+			}
+		}
+	}
+}
@@ -50,7 +50,7 @@ final public class ODLDatastoreImpl <T extends ODLTableDefinition> implements OD
 		this.factory = copyThis.factory;
 		this.flags = copyThis.flags;
 		for(T table : copyThis.tablesByIndx){
-			if(ODLTableImpl.class.isInstance(table)==false){
+			if(ODLTableImpl.class.isInstance(table)==false && ODLColumnarTableImpl.class.isInstance(table)==false){
 				throw new UnsupportedOperationException();
 			}
 			addTable((T)table.deepCopyWithShallowValueCopy());
@@ -175,6 +175,17 @@ final public class ODLDatastoreImpl <T extends ODLTableDefinition> implements OD
 		}
 	};
 
+	/**
+	 * Factory for datastores whose tables use columnar storage, for very large tables
+	 */
+	public static final ODLDatastoreAlterableFactory<ODLTableAlterable> columnarAlterableFactory = new ODLDatastoreAlterableFactory<ODLTableAlterable>() {
+		
+		@Override
+		public ODLDatastoreAlterable<ODLTableAlterable> create() {
+			return new ODLDatastoreImpl<>(ODLColumnarTableImpl.ODLTableAlterableFactory);
+		}
+	};
+
 	@Override
 	public void disableListeners() {
 		//throwListenersUnsupportedException();		
@@ -191,6 +202,9 @@ final public class ODLDatastoreImpl <T extends ODLTableDefinition> implements OD
 		if(table!=null){
 			tablesByIndx.remove(table);
 			tablesById.remove(tableId);
+			
+			// no table is modified, so request a stamp for caches which check for deleted tables
+			ODLAbstractTableDefinition.requestModificationStamp();
 		}
 	}
 
@@ -7,6 +7,8 @@
 package com.opendoorlogistics.core.tables.memory;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 
@@ -34,7 +36,7 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 	 * 
 	 */
 	private static final long serialVersionUID = 3487573687352027587L;
-	private final MapList<ODLRowImpl> list = new MapList<>();
+	private final MapList<ODLRowImpl> list;
 	private IntIDGenerator rowIdGenerator = new IntIDGenerator(new IsExistingId() {
 
 		@Override
@@ -44,15 +46,12 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 	});
 
 	/**
-	 * Deep copy the input table
-	 * 
-	 * @param copyThis
+	 * Rows are copied when first modified in either a table or its copy
 	 */
-	public ODLTableImpl(ODLTableImpl copyThis) {
-		super(copyThis);
+	private static final MapList.ValueCopier<ODLRowImpl> ROW_COPIER = new MapList.ValueCopier<ODLRowImpl>() {
 
-		// copy all rows; column indexes will create themselves later if needed
-		for (ODLRowImpl row : copyThis.list) {
+		@Override
+		public ODLRowImpl copy(ODLRowImpl row) {
 			int n = row.getColumnCount();
 			ODLRowImpl copy = new ODLRowImpl(row.getTableInternalId(), n);
 			copy.setFlags(row.getFlags());
@@ -60,8 +59,22 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 				// values in rows should be treated as immutable, copying ref should be safe
 				copy.add(row.get(i));
 			}
+			return copy;
+		}
+	};
+
+	/**
+	 * Deep copy the input table. The rows are shared with the copy and only copied when first modified
+	 * in either table, so the copy is cheap even for large tables.
+	 * 
+	 * @param copyThis
+	 */
+	public ODLTableImpl(ODLTableImpl copyThis) {
+		super(copyThis);
 
-			list.add(copy.getTableInternalId(), copy);
+		// share all rows; column indexes will create themselves later if needed
+		synchronized (copyThis) {
+			list = copyThis.list.share();
 		}
 
 		// ensure the next ids match as well ... needed when we merge modified tables
@@ -75,6 +88,7 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 
 	public ODLTableImpl(int id, String name) {
 		super(id, name);
+		list = new MapList<>(ROW_COPIER);
 		// rows = new TreeList<ODLRowImpl>();
 	}
 
@@ -86,8 +100,9 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 	public synchronized int addColumn(int id, String name, ODLColumnType type, long flags) {
 		int index = super.addColumn(id, name, type, flags);
 		if (index!=-1) {
-			for (ODLRowImpl node : list) {
-				node.add(null);
+			int nr = list.size();
+			for (int row = 0; row < nr; row++) {
+				list.getAtForWrite(row).add(null);
 			}
 			return index;
 		}
@@ -121,7 +136,8 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 		getIndex(columnIndex).set(getRowId(rowIndex), getValueAt(rowIndex, columnIndex), aValue, this, columnIndex);
 
 		// set the value
-		list.getAt(rowIndex).set(columnIndex, aValue);
+		list.getAtForWrite(rowIndex).set(columnIndex, aValue);
+		modified();
 	}
 
 	/**
@@ -185,9 +201,38 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 		for (int col = 0; col < nc; col++) {
 			getIndex(col).insert(rowid, newRow.get(col), this, col);
 		}
+		modified();
 
 	}
 
+	/**
+	 * Append rows for bulk loading, setting each row's values in one go rather than creating an
+	 * empty row and setting each value. Values are converted to the column types as in
+	 * {@link #setValueAt(Object, int, int)} but column default values are not applied.
+	 * 
+	 * @param rows
+	 *            Values for each row, by column index. Missing columns are left null.
+	 */
+	public synchronized void appendRows(List<Object[]> rows) {
+		int nc = getColumnCount();
+		for (Object[] values : rows) {
+			ODLRowImpl newRow = new ODLRowImpl(rowIdGenerator.generateId(), nc);
+			for (int col = 0; col < nc; col++) {
+				newRow.add(col < values.length ? toValidated(values[col], col) : null);
+			}
+			list.add(newRow.getTableInternalId(), newRow);
+
+			long rowid = TableUtils.getGlobalId(getImmutableId(), newRow.getTableInternalId());
+			for (int col = 0; col < nc; col++) {
+				getIndex(col).insert(rowid, newRow.get(col), this, col);
+			}
+		}
+
+		if (rows.size() > 0) {
+			modified();
+		}
+	}
+
 	@Override
 	public synchronized void deleteRow(int rowNumber) {
 		if (rowNumber < list.size()) {
@@ -202,6 +247,62 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 
 			// remove row
 			list.removeAt(rowNumber);
+			modified();
+		}
+	}
+
+	@Override
+	public synchronized void deleteRows(int[] rowNumbers) {
+		int[] rows = TableUtils.getRowsToDelete(rowNumbers, list.size());
+		if (rows.length > 0) {
+			list.removeAt(rows);
+			invalidateIndices();
+			modified();
+		}
+	}
+
+	@Override
+	public synchronized void insertEmptyRows(int[] rowNumbers, long[] rowIds) {
+		int[] rows = TableUtils.getRowsToInsert(rowNumbers, rowIds, list.size());
+		if (rows.length == 0) {
+			return;
+		}
+
+		// we only use the local part of the rowids as may be copying from another table..
+		int[] localIds = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			localIds[i] = rowIds[i] == -1 ? -1 : TableUtils.getLocalRowId(rowIds[i]);
+		}
+		localIds = rowIdGenerator.generateIds(localIds);
+
+		// allocate row objects with default values
+		int nc = getColumnCount();
+		Object[] defaults = new Object[nc];
+		for (int col = 0; col < nc; col++) {
+			Object val = getColumnDefaultValue(col);
+			defaults[col] = val != null ? toValidated(val, col) : null;
+		}
+		ArrayList<ODLRowImpl> newRows = new ArrayList<>(rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			ODLRowImpl newRow = new ODLRowImpl(localIds[i], nc);
+			for (int col = 0; col < nc; col++) {
+				newRow.add(defaults[col]);
+			}
+			newRows.add(newRow);
+		}
+
+		list.insertAt(rows, localIds, newRows);
+		invalidateIndices();
+		modified();
+	}
+
+	/**
+	 * Column indexes are rebuilt when next used after changing many rows at once
+	 */
+	private void invalidateIndices() {
+		int nc = getColumnCount();
+		for (int col = 0; col < nc; col++) {
+			getIndex(col).invalidate();
 		}
 	}
 
@@ -211,8 +312,9 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 			return;
 		}
 		super.deleteColumn(col);
-		for (ODLRowImpl row : list) {
-			row.remove(col);
+		int nr = list.size();
+		for (int i = 0; i < nr; i++) {
+			list.getAtForWrite(i).remove(col);
 		}
 	}
 
@@ -222,7 +324,9 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 			col = getColumnCount();
 		}
 		if (super.insertColumn(id, col, name, type, flags, allowDuplicateNames)) {
-			for (ODLRowImpl row : list) {
+			int nr = list.size();
+			for (int i = 0; i < nr; i++) {
+				ODLRowImpl row = list.getAtForWrite(i);
 				if (col < row.getColumnCount()) {
 					row.add(col, null);
 				} else {
@@ -298,13 +402,14 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 			// convert to correct type
 			aValue = toValidated(aValue, columnIndex);
 
-			ODLRowImpl row = list.getByID(TableUtils.getLocalRowId(rowid));
+			ODLRowImpl row = list.getByIDForWrite(TableUtils.getLocalRowId(rowid));
 			if (row != null) {
 				// update index
 				getIndex(columnIndex).set(rowid, row.get(columnIndex), aValue, this, columnIndex);
 
 				// set the value
 				row.set(columnIndex, aValue);
+				modified();
 			}
 		}
 	}
@@ -325,7 +430,7 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 	}
 
 	@Override
-	public long[] find(int col, Object value) {
+	public synchronized long[] find(int col, Object value) {
 		return getIndex(col).find(this, col, value);
 	}
 
@@ -342,11 +447,11 @@ final public class ODLTableImpl extends ODLTableDefinitionImpl implements ODLTab
 	}
 
 	@Override
-	public void setRowFlags(long flags, long rowId) {
+	public synchronized void setRowFlags(long flags, long rowId) {
 		if (TableUtils.getTableId(rowId) != getImmutableId()) {
 			return ;
 		}
-		ODLRowImpl row = list.getByID(TableUtils.getLocalRowId(rowId));
+		ODLRowImpl row = list.getByIDForWrite(TableUtils.getLocalRowId(rowId));
 		if (row != null) {
 			row.setFlags(flags);
 		}
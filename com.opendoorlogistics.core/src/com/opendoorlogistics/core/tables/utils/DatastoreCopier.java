@@ -254,9 +254,15 @@ final public class DatastoreCopier {
 			throw unequalStructureException();
 		}
 
+		// read in blocks so calculated columns are calculated together
 		int nr = tFrom.getRowCount();
-		for(int srcRow =0 ; srcRow < nr ; srcRow++){
-			insertRow(tFrom, srcRow, tTo, tTo.getRowCount(),copyRowFlags);
+		Object[][] block = null;
+		for(int from =0 ; from < nr ; from+= TableUtils.ROW_BLOCK_SIZE){
+			int to = Math.min(nr, from + TableUtils.ROW_BLOCK_SIZE);
+			block = TableUtils.readRowBlock(tFrom, from, to, block);
+			for(int srcRow =from ; srcRow < to ; srcRow++){
+				insertRow(tFrom, srcRow, tTo, tTo.getRowCount(),copyRowFlags, block, srcRow - from);
+			}
 		}
 			
 	}
@@ -324,6 +330,13 @@ final public class DatastoreCopier {
 	}
 	
 	public static void insertRow(ODLTableReadOnly tFrom,int fromRow, ODLTable tTo, int toRow, boolean copyRowFlags){
+		insertRow(tFrom, fromRow, tTo, toRow, copyRowFlags, null, -1);
+	}
+	
+	/**
+	 * Insert the row, taking the values from the block if not null
+	 */
+	private static void insertRow(ODLTableReadOnly tFrom,int fromRow, ODLTable tTo, int toRow, boolean copyRowFlags, Object[][] block, int blockRow){
 		// use original id if available
 		long id = tFrom.getRowId(fromRow);
 		
@@ -341,7 +354,11 @@ final public class DatastoreCopier {
 		tTo.insertEmptyRow(toRow,id);
 		int nc = tFrom.getColumnCount();
 		for(int col =0 ; col < nc; col++){
-			copyCell(tFrom, fromRow,col, tTo, toRow, col);
+			if(block!=null){
+				tTo.setValueAt(block[col][blockRow], toRow, col);
+			}else{
+				copyCell(tFrom, fromRow,col, tTo, toRow, col);				
+			}
 		}
 		
 		// Set flags
@@ -16,6 +16,7 @@ import gnu.trove.set.hash.TLongHashSet;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -35,6 +36,8 @@ import com.opendoorlogistics.api.tables.ODLTableAlterable;
 import com.opendoorlogistics.api.tables.ODLTableDefinition;
 import com.opendoorlogistics.api.tables.ODLTableDefinitionAlterable;
 import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.api.tables.ODLTime;
+import com.opendoorlogistics.api.tables.RowNumbers;
 import com.opendoorlogistics.api.tables.TableFlags;
 import com.opendoorlogistics.core.scripts.wizard.TagUtils;
 import com.opendoorlogistics.core.tables.ColumnValueProcessor;
@@ -254,6 +257,34 @@ final public class TableUtils {
 		return (String)ColumnValueProcessor.convertToMe(ODLColumnType.STRING,table.getValueAt(row, col),table.getColumnType(col));
 	}
 
+	/**
+	 * Number of rows to read at once when processing a whole table column by column
+	 */
+	public static final int ROW_BLOCK_SIZE = 1024;
+
+	/**
+	 * Read a block of rows for all columns using {@link ODLTableReadOnly#getValuesAt(int, int, int, Object[])},
+	 * which is much faster than reading cell by cell when the table has calculated columns.
+	 * @param table
+	 * @param fromRow
+	 * @param toRow
+	 * @param columns Arrays for each column of length at least toRow - fromRow. Arrays are created if null.
+	 * @return
+	 */
+	public static Object[][] readRowBlock(ODLTableReadOnly table, int fromRow, int toRow, Object[][] columns){
+		int nc = table.getColumnCount();
+		if(columns==null){
+			columns = new Object[nc][];
+		}
+		for(int col = 0 ; col < nc ; col++){
+			if(columns[col]==null || columns[col].length < toRow - fromRow){
+				columns[col] = new Object[toRow - fromRow];
+			}
+			table.getValuesAt(fromRow, toRow, col, columns[col]);
+		}
+		return columns;
+	}
+
 	public static <T extends ODLTableDefinition> int findTableIndexWithFlag(ODLDatastore<T> database,long flag) {
 		for(int i =0 ; i<database.getTableCount();i++){
 			if((database.getTableAt(i).getFlags() & flag )==flag){
@@ -562,15 +593,51 @@ final public class TableUtils {
 		}
 	}
 
+	/**
+	 * Get the rows to delete for {@link ODLTable#deleteRows(int[])} sorted, without duplicates
+	 * and without any outside the table
+	 * @param rowNumbers
+	 * @param rowCount
+	 * @return
+	 */
+	public static int[] getRowsToDelete(int[] rowNumbers, int rowCount){
+		return RowNumbers.getRowsToDelete(rowNumbers, rowCount);
+	}
+	
+	/**
+	 * Get the rows to insert for {@link ODLTable#insertEmptyRows(int[], long[])}, with any past the
+	 * end of the table moved to the end as in {@link ODLTable#insertEmptyRow(int, long)}
+	 * @param rowNumbers
+	 * @param rowIds
+	 * @param rowCount
+	 * @return
+	 */
+	public static int[] getRowsToInsert(int[] rowNumbers, long[] rowIds, int rowCount){
+		if(rowNumbers.length != rowIds.length){
+			throw new IllegalArgumentException("Number of row ids does not match number of rows");
+		}
+		
+		int[] ret = new int[rowNumbers.length];
+		for(int i =0 ; i < ret.length ; i++){
+			ret[i] = Math.min(rowNumbers[i], rowCount + i);
+			if(ret[i] < 0 || (i>0 && ret[i] <= ret[i-1])){
+				throw new IllegalArgumentException("Rows to insert must be in ascending order");				
+			}
+		}
+		return ret;
+	}
+	
 	/**
 	 * Remove all rows in the most efficient manner - deleting
-	 * the end one each time.
+	 * them all in a single call to {@link ODLTable#deleteRows(int[])}.
 	 * @param table
 	 */
 	public static void removeAllRows(ODLTable table){
-		while(table.getRowCount()>0){
-			table.deleteRow(table.getRowCount()-1);
+		int [] rows = new int[table.getRowCount()];
+		for(int i =0 ; i < rows.length ; i++){
+			rows[i] = i;
 		}
+		table.deleteRows(rows);
 	}
 	
 	private static boolean isEmpty(Object o){
@@ -590,16 +657,28 @@ final public class TableUtils {
 			numeric[i] = isColumnValuesNumeric(table, cols[i].getIndx());
 		}
 		
-		sort(table, new Comparator<ODLRowReadOnly>(){
+		// copy the rows first as the original table gets emptied
+		ODLTableImpl copy = copyRowsForSort(table);
+		
+		// precompute the sort keys so values aren't converted on every comparison
+		int nr = copy.getRowCount();
+		final Object[][] keys = new Object[cols.length][nr];
+		for(int i =0 ; i < cols.length ; i++){
+			int col = cols[i].getIndx();
+			for(int row =0 ; row < nr ; row++){
+				keys[i][row] = getSortKey(copy.getValueAt(row, col), numeric[i]);
+			}
+		}
+		
+		// the keys are read-only so the sort can run in parallel
+		Integer[] order = createOrder(nr);
+		Arrays.parallelSort(order, new Comparator<Integer>(){
 			
 			@Override
-			public int compare(ODLRowReadOnly o1, ODLRowReadOnly o2) {
+			public int compare(Integer o1, Integer o2) {
 				int diff=0;
 				for(int i =0 ; i < cols.length && diff==0; i++){
-					int col = cols[i].getIndx();
-					boolean isNumeric = numeric[i];
-					
-					diff = internalCompareRowElement(o1, o2, col, isNumeric);
+					diff = compareSortKeys(keys[i][o1], keys[i][o2]);
 					
 					if(diff!=0 && cols[i].isAscending()==false){
 						diff = -diff;
@@ -609,41 +688,104 @@ final public class TableUtils {
 			}
 			
 		});
+		
+		reinsertRows(copy, order, table);
 	}
 	
-	public static void sort(ODLTable table, Comparator<ODLRowReadOnly> comparator){
-		// copy and remove all using a temporary table
+	/**
+	 * Sort the table using a stable sort, so rows which compare as equal keep their order.
+	 * Rows keep their ids.
+	 * @param table
+	 * @param comparator
+	 */
+	public static void sort(ODLTable table, final Comparator<ODLRowReadOnly> comparator){
+		final ODLTableImpl copy = copyRowsForSort(table);
+		
+		// the comparator may not be thread safe so sort on this thread
+		Integer[] order = createOrder(copy.getRowCount());
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return comparator.compare(new ODLRowReadOnlyImpl(copy, o1), new ODLRowReadOnlyImpl(copy, o2));
+			}
+		});
+		
+		reinsertRows(copy, order, table);
+	}
+	
+	private static ODLTableImpl copyRowsForSort(ODLTable table){
 		ODLTableImpl copy = new ODLTableImpl(0, table.getName());
 		DatastoreCopier.copyTableDefinition(table, copy);
 		DatastoreCopier.copyData(table, copy);
+		return copy;
+	}
+	
+	private static Integer[] createOrder(int nbRows){
+		Integer[] ret = new Integer[nbRows];
+		for(int i =0 ; i < nbRows ; i++){
+			ret[i] = i;
+		}
+		return ret;
+	}
+	
+	/**
+	 * Empty the table and then add the rows in their sorted order, each at the end of the table so
+	 * nothing is shifted. Rows are copied with their original ids and flags.
+	 * @param copy
+	 * @param order
+	 * @param table
+	 */
+	private static void reinsertRows(ODLTableImpl copy, Integer[] order, ODLTable table){
 		removeAllRows(table);
-		
-		// do basic (a.k.a. slow) insertion sort
-		for(int i =0 ; i < copy.getRowCount() ; i++){
-			int insertAt=-1;
-			ODLRowReadOnlyImpl inserting = new ODLRowReadOnlyImpl(copy, i);
+		for(int i =0 ; i < order.length ; i++){
+			DatastoreCopier.insertRow(copy, order[i], table, i);
+		}
+	}
 	
-			int nr = table.getRowCount();
-			if(nr==0){
-				insertAt=0;
-			}else{
-				for(int j =0 ; j < nr ; j++){
-					// do comparison
-					ODLRowReadOnlyImpl comparing = new ODLRowReadOnlyImpl(table, j);
-					if(comparator.compare(inserting, comparing)<=0){
-						insertAt = j;
-						break;
-					}
-				}	
-			}
-
-			if(insertAt==-1){
-				// insert at end
-				insertAt = nr;
+	/**
+	 * Get the value used to sort with {@link #compareSortKeys(Object, Object)}, giving the same
+	 * order as {@link ColumnValueProcessor#compareValues(Object, Object, boolean)}
+	 * @param value
+	 * @param isNumeric
+	 * @return Null if the value is empty
+	 */
+	private static Object getSortKey(Object value, boolean isNumeric){
+		if(isEmpty(value)){
+			return null;
+		}
+		
+		if(isNumeric){
+			Object ret = ColumnValueProcessor.convertToMe(ODLColumnType.DOUBLE, value);
+			if(ret!=null){
+				return ret;
 			}
-			
-			DatastoreCopier.insertRow(copy, i, table, insertAt);
 		}
+		
+		if(ODLTime.class.isInstance(value)){
+			return value;
+		}
+		
+		// ignore case in string compare
+		return value.toString().toLowerCase();
+	}
+	
+	private static int compareSortKeys(Object key1, Object key2){
+		// sort empty last when ascending
+		int diff = Boolean.compare(key1==null, key2==null);
+		if(diff!=0 || key1==null){
+			return diff;
+		}
+		
+		if(Double.class.isInstance(key1) && Double.class.isInstance(key2)){
+			return ((Double)key1).compareTo((Double)key2);
+		}
+		
+		if(ODLTime.class.isInstance(key1) && ODLTime.class.isInstance(key2)){
+			return ((ODLTime)key1).compareTo((ODLTime)key2);
+		}
+		
+		return key1.toString().toLowerCase().compareTo(key2.toString().toLowerCase());
 	}
 
 	public static String[] getAlphabeticallySortedTableNames(ODLDatastore<? extends ODLTableDefinition> ds){
@@ -802,13 +944,6 @@ final public class TableUtils {
 		return ret;
 	}
 	
-	private static int internalCompareRowElement(ODLRowReadOnly o1, ODLRowReadOnly o2, int col, boolean isNumeric) {
-		// sort empty last when ascending
-		Object val1 = o1.get(col);
-		Object val2 = o2.get(col);
-		return ColumnValueProcessor.compareValues(val1, val2, isNumeric);
-	}
-
 //	public static int compareValues(Object val1, Object val2, boolean isNumeric) {
 //		int diff;
 //		boolean empty1 = isEmpty(val1);
@@ -910,10 +1045,8 @@ final public class TableUtils {
 			}
 		}
 		
-		// delete in reverse order so indices are still valid
-		for(int i = list.size()-1; i>=0 ; i--){
-			int row = list.get(i);
-			table.deleteRow(row);
+		if(list.size()>0){
+			table.deleteRows(list.toArray());
 		}
 	}
 	
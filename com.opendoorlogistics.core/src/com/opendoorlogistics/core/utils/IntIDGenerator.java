@@ -6,6 +6,8 @@
  ******************************************************************************/
 package com.opendoorlogistics.core.utils;
 
+import gnu.trove.set.hash.TIntHashSet;
+
 import java.io.Serializable;
 
 /**
@@ -42,6 +44,31 @@ public class IntIDGenerator implements Serializable {
 		return nextId;
 	}
 
+	/**
+	 * Get ids for several new objects at once, before any of them exist. Each requested id
+	 * is used unless it is -1, already exists or was used earlier in the batch, in which case
+	 * a new id is generated.
+	 * @param requestedIds
+	 * @return
+	 */
+	public int[] generateIds(int[] requestedIds) {
+		TIntHashSet used = new TIntHashSet(requestedIds.length);
+		int[] ret = new int[requestedIds.length];
+		for (int i = 0; i < ret.length; i++) {
+			int id = requestedIds[i];
+			if (id == -1 || isExisting.isExistingId(id) || used.contains(id)) {
+				id = generateId();
+				while (used.contains(id)) {
+					nextId = id + 1 == Integer.MAX_VALUE ? 0 : id + 1;
+					id = generateId();
+				}
+			}
+			used.add(id);
+			ret[i] = id;
+		}
+		return ret;
+	}
+
 	public int getNextId(){
 		return nextId;
 	}
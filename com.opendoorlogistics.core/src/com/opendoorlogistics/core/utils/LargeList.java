@@ -8,12 +8,17 @@ package com.opendoorlogistics.core.utils;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * A list which uses multiple memory blocks to store its contents and therefore doesn't require a single contiguous memory block for the whole list.
  * The size of the list is still limited by Integer.MaxValue and the total available memory in the system but it is no longer limited by the the total
  * contiguous memory available.
+ * <p>
+ * A list can be copied cheaply by sharing its blocks with the copy (see {@link #LargeList(LargeList)}). A shared block is
+ * only copied when either list first writes to it, so the cost of the copy is proportional to the blocks later modified.
  * 
  * @author Phil
  * 
@@ -25,6 +30,7 @@ final public class LargeList<T> extends AbstractList<T> {
 	private final int blockSize;
 	private final ArrayList<T> firstBlock = new ArrayList<>();
 	private final ArrayList<Object[]> blocks = new ArrayList<>();
+	private final BitSet sharedBlocks = new BitSet();
 	
 	//private final ArrayList<ArrayList<T>> blocks = new ArrayList<>();
 	private long size;
@@ -42,6 +48,22 @@ final public class LargeList<T> extends AbstractList<T> {
 		ensureCapacity(initialCapacity);
 	}
 	
+	/**
+	 * Copy the list, sharing its blocks with the copy. Only the first block is copied immediately.
+	 * Shared lists must not be modified concurrently with each other.
+	 * @param shareWith
+	 */
+	public LargeList(LargeList<T> shareWith){
+		this.blockSize = shareWith.blockSize;
+		firstBlock.addAll(shareWith.firstBlock);
+		blocks.addAll(shareWith.blocks);
+		size = shareWith.size;
+		
+		// blocks are now shared by both lists
+		sharedBlocks.set(0, blocks.size());
+		shareWith.sharedBlocks.set(0, blocks.size());
+	}
+	
 	public LargeList(Collection<T> collection){
 		this(collection.size());
 		for(T o : collection){
@@ -53,6 +75,7 @@ final public class LargeList<T> extends AbstractList<T> {
     public void clear() {
 		size=0;
 		blocks.clear();
+		sharedBlocks.clear();
 		firstBlock.clear();
 	}
 
@@ -88,10 +111,84 @@ final public class LargeList<T> extends AbstractList<T> {
 		return remove((long)index);
     }
 
+	/**
+	 * Remove the elements at several indices in a single pass, moving each later element
+	 * down only once.
+	 * @param sortedIndices Indices in ascending order without duplicates
+	 */
+	public void removeAt(int[] sortedIndices) {
+		if (sortedIndices.length == 0) {
+			return;
+		}
+		if (sortedIndices[0] < 0 || sortedIndices[sortedIndices.length - 1] >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		long write = sortedIndices[0];
+		int next = 0;
+		for (long read = write; read < size; read++) {
+			if (next < sortedIndices.length && sortedIndices[next] == read) {
+				next++;
+			} else {
+				set(write++, get(read));
+			}
+		}
+
+		// then remove from the end
+		while (size > write) {
+			remove(size - 1);
+		}
+	}
+
+	/**
+	 * Insert several elements in a single pass, moving each existing element up only once.
+	 * @param sortedIndices Index of each element after the insert, in ascending order without duplicates
+	 * @param elements
+	 */
+	public void insertAt(int[] sortedIndices, List<T> elements) {
+		int n = sortedIndices.length;
+		if (n == 0) {
+			return;
+		}
+		if (sortedIndices[0] < 0 || sortedIndices[n - 1] >= size + n) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		// add empty positions at the end and copy everything up, filling in the new elements
+		long read = size - 1;
+		ensureCapacity(size + n);
+		for (int i = 0; i < n; i++) {
+			add(size, null);
+		}
+		int next = n - 1;
+		for (long write = size - 1; next >= 0; write--) {
+			if (sortedIndices[next] == write) {
+				set(write, elements.get(next--));
+			} else {
+				set(write, get(read--));
+			}
+		}
+	}
+
 	private int indexInBlock(long indx) {
 		return (int) (indx % blockSize);
 	}
 
+	/**
+	 * Get a block for writing, copying it first if it's shared with another list
+	 * @param blockIndex
+	 * @return
+	 */
+	private Object[] writableBlock(int blockIndex) {
+		Object[] block = blocks.get(blockIndex);
+		if (sharedBlocks.get(blockIndex)) {
+			block = block.clone();
+			blocks.set(blockIndex, block);
+			sharedBlocks.clear(blockIndex);
+		}
+		return block;
+	}
+
 	@SuppressWarnings("unchecked")
 	public T get(long index){
 		if(index < blockSize){
@@ -129,7 +226,7 @@ final public class LargeList<T> extends AbstractList<T> {
 		}
 		else{
 			index -= blockSize;
-			blocks.get((int)(index/blockSize))[indexInBlock(index)] = element;			
+			writableBlock((int)(index/blockSize))[indexInBlock(index)] = element;			
 		}
 		return element;
 	}
@@ -169,7 +266,7 @@ final public class LargeList<T> extends AbstractList<T> {
     		}else{
     			// adding to fixed list blocks
     			index -= blockSize;	
-    			blocks.get((int)(index/blockSize))[indexInBlock(index)]=element;
+    			writableBlock((int)(index/blockSize))[indexInBlock(index)]=element;
     		}
     		size++;
     	}
@@ -194,6 +291,7 @@ final public class LargeList<T> extends AbstractList<T> {
     	while(blocks.size() > nbBlocksNeeded){
     		blocks.remove(blocks.size()-1);
     	}
+    	sharedBlocks.clear(blocks.size(), Math.max(blocks.size(), sharedBlocks.length()));
    
     	if(size< blockSize){
     		firstBlock.trimToSize();
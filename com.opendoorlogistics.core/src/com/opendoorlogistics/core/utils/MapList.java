@@ -7,24 +7,40 @@
 package com.opendoorlogistics.core.utils;
 
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * A collection which supports list ordering and retrieval by id.
+ * <p>
+ * If created with a {@link ValueCopier}, the collection can be copied in time proportional to the number of list blocks
+ * (see {@link #share()}). The copy shares the list blocks, the id map chunks and the objects with the original. The shared
+ * objects should be treated as read-only; call {@link #getAtForWrite(int)} or {@link #getByIDForWrite(int)}
+ * before modifying an object, which copies it if it's still shared. Like the list blocks, an id map chunk is only
+ * copied when the collection first writes to it, so the first write after a copy doesn't copy the whole id map.
  * @author Phil
  *
  * @param <T>
  */
 final public class MapList<T> implements Iterable<T> {
+	public interface ValueCopier<T>{
+		T copy(T value);
+	}
+	
 	private class MapListNode{
 		final T value;
 		final int id;
+		final Object owner;
 		
 		MapListNode( int id, T value) {
 			this.value = value;
 			this.id = id;
+			this.owner = MapList.this.owner;
 		}
 		
 		@Override
@@ -33,20 +49,192 @@ final public class MapList<T> implements Iterable<T> {
 		}
 	}
 	
-	private final TIntObjectHashMap<MapListNode> map = new TIntObjectHashMap<>();
-	private final List<MapListNode> list = new LargeList<>();
-
+	/**
+	 * Part of the id map, holding the ids which hash to the chunk
+	 */
+	private class IdChunk{
+		final TIntObjectHashMap<MapListNode> nodes;
+		
+		/**
+		 * Ids of objects copied when fetched for writing by id, whose list position still holds the shared node 
+		 */
+		final TIntHashSet staleIds;
+		
+		IdChunk(){
+			nodes = new TIntObjectHashMap<>();
+			staleIds = new TIntHashSet();
+		}
+		
+		IdChunk(IdChunk copyThis){
+			nodes = new TIntObjectHashMap<>(copyThis.nodes);
+			staleIds = new TIntHashSet(copyThis.staleIds);
+		}
+	}
+	
+	/**
+	 * The number of chunks doubles when the average chunk holds more ids than this
+	 */
+	private static final int MAX_CHUNK_SIZE = 4096;
+	
+	private final ValueCopier<T> copier;
+	private final LargeList<MapListNode> list;
+	private final ArrayList<IdChunk> chunks = new ArrayList<>();
+	
+	/**
+	 * Chunks are copied before their first modification if shared
+	 */
+	private final BitSet sharedChunks = new BitSet();
+	
+	/**
+	 * There are 2^chunkBits chunks
+	 */
+	private int chunkBits;
+	
+	/**
+	 * Total number of stale ids in all chunks, so reads can skip checking when there are none
+	 */
+	private int nbStaleIds;
+	
+	/**
+	 * Nodes created by a different owner are shared with another collection
+	 */
+	private Object owner = new Object();
+	
+	public MapList(){
+		this((ValueCopier<T>)null);
+	}
+	
+	public MapList(ValueCopier<T> copier){
+		this.copier = copier;
+		this.list = new LargeList<>();
+		this.chunks.add(new IdChunk());
+	}
+	
+	private MapList(MapList<T> shareWith){
+		this.copier = shareWith.copier;
+		this.list = new LargeList<>(shareWith.list);
+		this.chunks.addAll(shareWith.chunks);
+		this.chunkBits = shareWith.chunkBits;
+		this.nbStaleIds = shareWith.nbStaleIds;
+		
+		// chunks are now shared by both collections
+		sharedChunks.set(0, chunks.size());
+		shareWith.sharedChunks.set(0, chunks.size());
+	}
+	
+	/**
+	 * Copy the collection, sharing the stored objects with the copy until they are fetched for writing
+	 * in either collection. The collections must not be modified concurrently with each other.
+	 * @return
+	 */
+	public MapList<T> share(){
+		if(copier==null){
+			throw new UnsupportedOperationException();
+		}
+		
+		// all existing nodes now belong to neither collection. Stale ids are shared with
+		// the chunks, so the copy also reads objects copied by id from the id map.
+		owner = new Object();
+		return new MapList<>(this);
+	}
+	
+	private int chunkIndex(int id){
+		if(chunkBits==0){
+			return 0;
+		}
+		
+		// multiplicative hashing spreads consecutive ids over all chunks
+		return (id * 0x9E3779B9) >>> (32 - chunkBits);
+	}
+	
+	private IdChunk chunk(int id){
+		return chunks.get(chunkIndex(id));
+	}
+	
+	private IdChunk writableChunk(int id){
+		int index = chunkIndex(id);
+		IdChunk chunk = chunks.get(index);
+		if(sharedChunks.get(index)){
+			chunk = new IdChunk(chunk);
+			chunks.set(index, chunk);
+			sharedChunks.clear(index);
+		}
+		return chunk;
+	}
+	
+	private void putNode(MapListNode node){
+		writableChunk(node.id).nodes.put(node.id, node);
+	}
+	
+	private void removeNode(int id){
+		IdChunk chunk = writableChunk(id);
+		chunk.nodes.remove(id);
+		if(chunk.staleIds.remove(id)){
+			nbStaleIds--;
+		}
+	}
+	
+	/**
+	 * Double the number of chunks until they're not too large, so the cost of copying a chunk stays bounded
+	 */
+	private void checkChunkSizes(){
+		if(list.size() <= (long)chunks.size() * MAX_CHUNK_SIZE){
+			return;
+		}
+		
+		ArrayList<IdChunk> oldChunks = new ArrayList<>(chunks);
+		while(list.size() > (1L<<chunkBits) * MAX_CHUNK_SIZE){
+			chunkBits++;
+		}
+		chunks.clear();
+		sharedChunks.clear();
+		for(int i =0 ; i < (1<<chunkBits) ; i++){
+			chunks.add(new IdChunk());
+		}
+		
+		for(IdChunk oldChunk : oldChunks){
+			for(MapListNode node : oldChunk.nodes.valueCollection()){
+				chunk(node.id).nodes.put(node.id, node);
+			}
+			for(int id : oldChunk.staleIds.toArray()){
+				chunk(id).staleIds.add(id);
+			}
+		}
+	}
+	
+	/**
+	 * Get the current node at the list position, which may have been copied by id 
+	 * @param index
+	 * @return
+	 */
+	private MapListNode node(int index){
+		MapListNode node = list.get(index);
+		if(node.owner!=owner && nbStaleIds>0){
+			IdChunk chunk = chunk(node.id);
+			if(chunk.staleIds.contains(node.id)){
+				node = chunk.nodes.get(node.id);
+			}
+		}
+		return node;
+	}
+	
+	private MapListNode copy(MapListNode node){
+		MapListNode copy = new MapListNode(node.id, copier.copy(node.value));
+		putNode(copy);
+		return copy;
+	}
 	
 	public void add(int id, T obj){
 		id = validateId(id);
 		
 		MapListNode node = new MapListNode(id,obj);
-		map.put(id, node);
+		putNode(node);
 		list.add(node);
+		checkChunkSizes();
 	}
 
 	public boolean containsID(int id){
-		return map.containsKey(id);
+		return chunk(id).nodes.containsKey(id);
 	}
 	
 	private int validateId(int id) {
@@ -55,7 +243,7 @@ final public class MapList<T> implements Iterable<T> {
 			throw new IllegalArgumentException("Invalid key");			
 		}
 		
-		if(map.containsKey(id)){
+		if(containsID(id)){
 			throw new IllegalArgumentException("Duplicate key");
 		}
 		return id;
@@ -66,30 +254,77 @@ final public class MapList<T> implements Iterable<T> {
 	}
 	
 	public T getAt(int i){
-		return list.get(i).value;
+		return node(i).value;
+	}
+	
+	/**
+	 * Get the object at the index for modification, copying it first if it's shared with another collection
+	 * @param i
+	 * @return
+	 */
+	public T getAtForWrite(int i){
+		MapListNode node = list.get(i);
+		if(node.owner!=owner){
+			MapListNode current = node(i);
+			if(current.owner!=owner){
+				current = copy(current);
+			}
+			if(nbStaleIds>0 && chunk(current.id).staleIds.contains(current.id)){
+				writableChunk(current.id).staleIds.remove(current.id);
+				nbStaleIds--;
+			}
+			list.set(i, current);
+			node = current;
+		}
+		return node.value;
 	}
 	
 	public T getByID(int id){
-		MapListNode node = map.get(id);
+		MapListNode node = chunk(id).nodes.get(id);
 		if(node!=null){
 			return node.value;
 		}
 		return null;
 	}
 	
+	/**
+	 * Get the object with the id for modification, copying it first if it's shared with another collection.
+	 * The copy is placed in the list when next fetched for writing by index or when shared.
+	 * @param id
+	 * @return
+	 */
+	public T getByIDForWrite(int id){
+		MapListNode node = chunk(id).nodes.get(id);
+		if(node==null){
+			return null;
+		}
+		if(node.owner!=owner){
+			node = copy(node);
+			if(writableChunk(id).staleIds.add(id)){
+				nbStaleIds++;
+			}
+		}
+		return node.value;
+	}
+	
 	public void clear(){
 		list.clear();
-		map.clear();
+		chunks.clear();
+		chunks.add(new IdChunk());
+		sharedChunks.clear();
+		chunkBits = 0;
+		nbStaleIds = 0;
 	}
 	
 	public void insertAt(int index, int id,T obj){
 		id = validateId(id);
 		MapListNode node = new MapListNode(id,obj);
-		map.put(id, node);
+		putNode(node);
 		if(index > list.size()){
 			index = list.size();
 		}
 		list.add(index, node);
+		checkChunkSizes();
 	}
 	
 	public int getIDAt(int index){
@@ -99,7 +334,36 @@ final public class MapList<T> implements Iterable<T> {
 	public void removeAt(int index){
 		int id = getIDAt(index);
 		list.remove(index);
-		map.remove(id);
+		removeNode(id);
+	}
+	
+	/**
+	 * Remove the objects at several indices in a single pass
+	 * @param sortedIndices Indices in ascending order without duplicates
+	 */
+	public void removeAt(int [] sortedIndices){
+		for(int index : sortedIndices){
+			removeNode(getIDAt(index));
+		}
+		list.removeAt(sortedIndices);
+	}
+	
+	/**
+	 * Insert several objects in a single pass
+	 * @param sortedIndices Index of each object after the insert, in ascending order without duplicates
+	 * @param ids
+	 * @param objs
+	 */
+	public void insertAt(int [] sortedIndices, int [] ids, List<T> objs){
+		ArrayList<MapListNode> nodes = new ArrayList<>(ids.length);
+		for(int i =0 ; i < ids.length ; i++){
+			int id = validateId(ids[i]);
+			MapListNode node = new MapListNode(id,objs.get(i));
+			putNode(node);
+			nodes.add(node);
+		}
+		list.insertAt(sortedIndices, nodes);
+		checkChunkSizes();
 	}
 	
 	public static void main(String []args){
@@ -114,17 +378,20 @@ final public class MapList<T> implements Iterable<T> {
 
 	@Override
 	public Iterator<T> iterator() {
-		final Iterator<MapListNode> nodeIt = list.iterator();
 		return new Iterator<T>() {
+			int next;
 
 			@Override
 			public boolean hasNext() {
-				return nodeIt.hasNext();
+				return next < list.size();
 			}
 
 			@Override
 			public T next() {
-				return nodeIt.next().value;
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return node(next++).value;
 			}
 
 			@Override
@@ -17,7 +17,10 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.MemoryImageSource;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.IOException;
 
 import net.jpountz.lz4.LZ4Factory;
 import net.jpountz.lz4.LZ4FastDecompressor;
@@ -80,6 +83,39 @@ public class CompressedImage {
 
 	}
 
+	private CompressedImage(int width, int height, CompressedType type, byte[] data, int uncompressedLength) {
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		this.data = data;
+		this.uncompressedLength = uncompressedLength;
+	}
+
+	/**
+	 * Write the compressed image so it can be read back using {@link #read(DataInput)}
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeUTF(type.name());
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(uncompressedLength);
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	public static CompressedImage read(DataInput in) throws IOException {
+		CompressedType type = CompressedType.valueOf(in.readUTF());
+		int width = in.readInt();
+		int height = in.readInt();
+		int uncompressedLength = in.readInt();
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		return new CompressedImage(width, height, type, data, uncompressedLength);
+	}
+
 	public Image get() {
 		switch (type) {
 		case PNG:
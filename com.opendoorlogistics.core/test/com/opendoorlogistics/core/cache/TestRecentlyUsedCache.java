@@ -0,0 +1,123 @@
+package com.opendoorlogistics.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.cache.ObjectCacheStatistics;
+
+public class TestRecentlyUsedCache {
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		RecentlyUsedCache cache = new RecentlyUsedCache("test", Long.MAX_VALUE, 100);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, i, 8);
+
+			// keep touching the first entry
+			assertEquals(0, cache.get(0));
+		}
+
+		assertEquals(100, cache.getNbEntries());
+		assertEquals(100, cache.getSnapshot().size());
+		assertEquals(999, cache.get(999));
+		assertNull(cache.get(1));
+	}
+
+	@Test
+	public void testBytesAccounting() {
+		RecentlyUsedCache cache = new RecentlyUsedCache("test", 1000000);
+		cache.put("a", "a", 100);
+		long oneEntry = cache.getEstimatedTotalBytes();
+		cache.put("a", "a2", 100);
+		assertEquals(oneEntry, cache.getEstimatedTotalBytes());
+		assertEquals("a2", cache.get("a"));
+		cache.remove("a");
+		assertEquals(0, cache.getEstimatedTotalBytes());
+
+		// a single object bigger than the limit is still kept
+		cache.put("big", "big", 10000000);
+		assertNotNull(cache.get("big"));
+		cache.put("big2", "big2", 10000000);
+		assertNotNull(cache.get("big2"));
+		assertNull(cache.get("big"));
+
+		cache.clear();
+		assertEquals(0, cache.getEstimatedTotalBytes());
+		assertEquals(0, cache.getNbEntries());
+	}
+
+	@Test
+	public void testStatistics() {
+		RecentlyUsedCache cache = new RecentlyUsedCache("test", Long.MAX_VALUE, 2);
+		cache.put(1, 1, 8);
+		cache.put(2, 2, 8);
+		cache.get(1);
+		cache.get(3);
+		cache.put(3, 3, 8);
+
+		ObjectCacheStatistics stats = cache.getStatistics();
+		assertEquals("test", stats.getCacheId());
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(3, stats.getPuts());
+		assertEquals(1, stats.getEvictions());
+		assertEquals(2, stats.getNbEntries());
+		assertEquals(3, cache.get(3));
+
+		// reducing the budget evicts straight away
+		cache.setBytesLimit(0);
+		assertEquals(0, cache.getNbEntries());
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final RecentlyUsedCache cache = new RecentlyUsedCache("test", 200 * 1000);
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						Random r = new Random(seed);
+						for (int i = 0; i < 100000; i++) {
+							Integer key = r.nextInt(5000);
+							Object val = cache.get(key);
+							if (val != null && !val.equals(key)) {
+								throw new RuntimeException("Wrong value for key " + key);
+							}
+							if (val == null) {
+								cache.put(key, key, r.nextInt(200));
+							} else if (r.nextInt(10) == 0) {
+								cache.remove(key);
+							}
+						}
+					} catch (Throwable e) {
+						error.set(e);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertNull(error.get());
+		assertTrue(cache.getEstimatedTotalBytes() <= 200 * 1000);
+		assertEquals(cache.getSnapshot().size(), cache.getNbEntries());
+		cache.clear();
+		assertEquals(0, cache.getEstimatedTotalBytes());
+	}
+}
@@ -0,0 +1,64 @@
+package com.opendoorlogistics.core.distances;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCostMatrixStore {
+
+	private static void fillAndCheck(CostMatrixStore store) {
+		Random r = new Random(123);
+		int n = store.getN();
+		double[][][] expected = new double[store.getNbCosts()][n][n];
+		for (int dim = 0; dim < store.getNbCosts(); dim++) {
+			for (int from = 0; from < n; from++) {
+				for (int to = 0; to < n; to++) {
+					double value = r.nextInt(10) == 0 ? Double.POSITIVE_INFINITY : r.nextDouble() * 1000;
+					if (store.isSinglePrecision()) {
+						value = (float) value;
+					}
+					expected[dim][from][to] = value;
+					store.set(value, dim, from, to);
+				}
+			}
+		}
+
+		for (int dim = 0; dim < store.getNbCosts(); dim++) {
+			for (int from = 0; from < n; from++) {
+				for (int to = 0; to < n; to++) {
+					assertEquals(expected[dim][from][to], store.get(dim, from, to), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStores() throws Exception {
+		for (boolean singlePrecision : new boolean[] { false, true }) {
+			fillAndCheck(CostMatrixStore.createHeap(3, 37, singlePrecision));
+			fillAndCheck(CostMatrixStore.createDirect(3, 37, singlePrecision));
+
+			File file = File.createTempFile("matrix", ".bin");
+			file.deleteOnExit();
+			CostMatrixStore mapped = CostMatrixStore.createMapped(file, 3, 37, singlePrecision);
+			fillAndCheck(mapped);
+			assertEquals(mapped.getSizeInBytes(), file.length());
+
+			// reopening the file keeps the values
+			mapped.set(42, 2, 36, 36);
+			assertEquals(42, CostMatrixStore.createMapped(file, 3, 37, singlePrecision).get(2, 36, 36), 0);
+		}
+	}
+
+	@Test
+	public void testMatrixTableView() {
+		ODLCostMatrixImpl matrix = new ODLCostMatrixImpl(Arrays.asList("a", "b"), ODLCostMatrixImpl.STANDARD_COST_FIELDNAMES, true);
+		matrix.set(1.5, 0, 1, 2);
+		assertEquals(1.5, (Double) matrix.getValueAt(1, 4), 0);
+		assertEquals(2 * 2 * 3 * 4, matrix.getSizeInBytes());
+	}
+}
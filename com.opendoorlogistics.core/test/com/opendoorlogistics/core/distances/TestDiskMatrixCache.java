@@ -0,0 +1,142 @@
+package com.opendoorlogistics.core.distances;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.distances.DistancesConfiguration;
+import com.opendoorlogistics.api.distances.DistancesConfiguration.CalculationMethod;
+import com.opendoorlogistics.api.geometry.LatLong;
+import com.opendoorlogistics.core.gis.map.data.LatLongImpl;
+import com.opendoorlogistics.core.utils.strings.StandardisedStringTreeMap;
+
+public class TestDiskMatrixCache {
+
+	private static DistancesConfiguration createConfig() throws Exception {
+		File graphDir = Files.createTempDirectory("graph").toFile();
+		new File(graphDir, "nodes").createNewFile();
+		DistancesConfiguration config = new DistancesConfiguration();
+		config.setMethod(CalculationMethod.ROAD_NETWORK);
+		config.getGraphhopperConfig().setGraphDirectory(graphDir.getAbsolutePath());
+		return config;
+	}
+
+	private static StandardisedStringTreeMap<LatLong> createPoints(double offset) {
+		StandardisedStringTreeMap<LatLong> points = new StandardisedStringTreeMap<>(false);
+		for (int i = 0; i < 5; i++) {
+			points.put("loc" + i, new LatLongImpl(51 + i * 0.01 + offset, -1 + i * 0.01));
+		}
+		return points;
+	}
+
+	private static ODLCostMatrixImpl createMatrix(StandardisedStringTreeMap<LatLong> points) {
+		ODLCostMatrixImpl matrix = ODLCostMatrixImpl.createEmptyMatrix(new ArrayList<>(points.entrySet()));
+		for (int dim = 0; dim < 3; dim++) {
+			for (int from = 0; from < 5; from++) {
+				for (int to = 0; to < 5; to++) {
+					matrix.set(dim * 100 + from * 10 + to, from, to, dim);
+				}
+			}
+		}
+		return matrix;
+	}
+
+	private static void assertSameMatrix(ODLCostMatrixImpl expected, ODLCostMatrixImpl matrix) {
+		assertNotNull(matrix);
+		for (int dim = 0; dim < 3; dim++) {
+			for (int from = 0; from < 5; from++) {
+				assertEquals(expected.getFromId(from), matrix.getFromId(from));
+				for (int to = 0; to < 5; to++) {
+					assertEquals(expected.get(from, to, dim), matrix.get(from, to, dim), 0);
+				}
+			}
+		}
+	}
+
+	private static File[] listFiles(File dir, final String extension) {
+		return dir.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(extension);
+			}
+		});
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		File cacheDir = Files.createTempDirectory("matrixcache").toFile();
+		DistancesConfiguration config = createConfig();
+		StandardisedStringTreeMap<LatLong> points = createPoints(0);
+		ODLCostMatrixImpl matrix = createMatrix(points);
+
+		DiskMatrixCache cache = new DiskMatrixCache(cacheDir, Long.MAX_VALUE);
+		assertNull(cache.load(config, points));
+		cache.save(config, points, matrix);
+
+		ODLCostMatrixImpl loaded = cache.load(config, points);
+		assertSameMatrix(matrix, loaded);
+
+		// saving again while the matrix is mapped leaves the cached files alone
+		cache.save(config, points, matrix);
+		assertSameMatrix(matrix, loaded);
+		assertSameMatrix(matrix, cache.load(config, points));
+
+		// single precision values are written in the mapped layout too
+		config.getOutputConfig().setSinglePrecision(true);
+		cache.save(config, points, matrix);
+		assertSameMatrix(matrix, cache.load(config, points));
+		assertEquals(0, listFiles(cacheDir, ".tmp").length);
+
+		// a different configuration shouldn't match
+		config.getGraphhopperConfig().setTimeMultiplier(2);
+		assertNull(cache.load(config, points));
+	}
+
+	@Test
+	public void testTrim() throws Exception {
+		File cacheDir = Files.createTempDirectory("matrixcache").toFile();
+		DistancesConfiguration config = createConfig();
+
+		// measure one matrix's files, then allow room for two
+		StandardisedStringTreeMap<LatLong> points0 = createPoints(0);
+		new DiskMatrixCache(cacheDir, Long.MAX_VALUE).save(config, points0, createMatrix(points0));
+		long bytes = 0;
+		for (File file : cacheDir.listFiles()) {
+			bytes += file.length();
+		}
+		DiskMatrixCache cache = new DiskMatrixCache(cacheDir, bytes * 2);
+		listFiles(cacheDir, ".ids")[0].setLastModified(System.currentTimeMillis() - 100000);
+
+		// an orphaned matrix file is deleted
+		File orphan = new File(cacheDir, "orphan.matrix");
+		assertTrue(orphan.createNewFile());
+
+		StandardisedStringTreeMap<LatLong> points1 = createPoints(1);
+		cache.save(config, points1, createMatrix(points1));
+		for (File file : listFiles(cacheDir, ".ids")) {
+			if (file.lastModified() > System.currentTimeMillis() - 50000) {
+				file.setLastModified(System.currentTimeMillis() - 50000);
+			}
+		}
+		StandardisedStringTreeMap<LatLong> points2 = createPoints(2);
+		cache.save(config, points2, createMatrix(points2));
+
+		// the least recently used matrix is deleted, along with its values file
+		assertNull(cache.load(config, points0));
+		assertSameMatrix(createMatrix(points1), cache.load(config, points1));
+		assertSameMatrix(createMatrix(points2), cache.load(config, points2));
+		assertEquals(2, listFiles(cacheDir, ".ids").length);
+		assertEquals(2, listFiles(cacheDir, ".matrix").length);
+		assertFalse(orphan.exists());
+	}
+}
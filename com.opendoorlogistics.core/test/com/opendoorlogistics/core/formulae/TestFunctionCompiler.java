@@ -0,0 +1,98 @@
+package com.opendoorlogistics.core.formulae;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.core.formulae.Functions.FmConst;
+import com.opendoorlogistics.core.formulae.definitions.FunctionDefinitionLibrary;
+import com.opendoorlogistics.core.scripts.formulae.FmLocalElement;
+import com.opendoorlogistics.core.scripts.formulae.TableParameters;
+import com.opendoorlogistics.core.tables.memory.ODLTableImpl;
+
+public class TestFunctionCompiler {
+	private static final String[] FORMULAE = new String[] { "a + b", "a + b + c + 1 + 2", "(a * b) + (a * b) * 2", "a * b * c * 3",
+			"if(a > 0.5, a * b + 1, (a * b + 1) / 2)", "2 * 3 + a", "if(1 > 2, a, b)", "s & \"x\" & s", "upper(s) = upper(s)",
+			"a < 0.3 || 0.7 < a", "b >= 500", "10 <= b", "\"3\" > a", "max(a, b, a + b) - min(a, b, a + b)", "(a + b) * (a + b) + (a + b)",
+			"len(s) + len(s & s) + len(s)", "\"a\" & \"b\" & \"c\"", "abs(a - 0.5) + abs(a - 0.5)", "a > null", "null + a + a" };
+
+	private static Function parse(ODLTableReadOnly table, String formula) {
+		FormulaParser parser = new FormulaParser(FmLocalElement.createUserVariableProvider(table), FunctionDefinitionLibrary.DEFAULT_LIB, null);
+		return parser.parse(formula);
+	}
+
+	@Test
+	public void testCompiledMatchesOriginal() {
+		final ODLTableImpl table = new ODLTableImpl(1, "Test");
+		table.addColumn(-1, "a", ODLColumnType.DOUBLE, 0);
+		table.addColumn(-1, "b", ODLColumnType.LONG, 0);
+		table.addColumn(-1, "c", ODLColumnType.DOUBLE, 0);
+		table.addColumn(-1, "s", ODLColumnType.STRING, 0);
+		Random r = new Random(123);
+		for (int i = 0; i < 200; i++) {
+			int row = table.createEmptyRow(-1);
+			table.setValueAt(r.nextInt(10) == 0 ? null : r.nextDouble(), row, 0);
+			table.setValueAt(r.nextInt(10) == 0 ? null : (long) r.nextInt(1000), row, 1);
+			table.setValueAt(r.nextDouble() * 1000, row, 2);
+			table.setValueAt(r.nextInt(10) == 0 ? null : "s" + r.nextInt(10), row, 3);
+		}
+
+		TableParameters.TableFetcher fetcher = new TableParameters.TableFetcher() {
+
+			@Override
+			public ODLTableReadOnly getTableById(int datastoreIndx, int tableId) {
+				return table;
+			}
+		};
+
+		for (String text : FORMULAE) {
+			Function original = parse(table, text);
+			Function compiled = FunctionCompiler.compile(parse(table, text));
+			int nr = table.getRowCount();
+			TableParameters[] batch = new TableParameters[nr];
+			for (int row = 0; row < nr; row++) {
+				TableParameters parameters = new TableParameters(fetcher, 0, table.getImmutableId(), table.getRowId(row), row, null);
+				assertEquals(text + " at row " + row, original.execute(parameters), compiled.execute(parameters));
+				batch[row] = parameters;
+			}
+
+			Object[] batchResults = new Object[nr];
+			compiled.executeBatch(batch, batchResults);
+			for (int row = 0; row < nr; row++) {
+				assertEquals(text + " batch at row " + row, original.execute(batch[row]), batchResults[row]);
+			}
+		}
+	}
+
+	@Test
+	public void testFoldsConstants() {
+		Function f = FunctionCompiler.compile(parse(null, "2 * 3 + 1"));
+		assertTrue(f instanceof FmConst);
+		assertEquals(7.0, ((FmConst) f).value());
+
+		f = FunctionCompiler.compile(parse(null, "if(1 < 2, \"yes\", \"no\")"));
+		assertEquals("yes", ((FmConst) f).value());
+
+		// non-deterministic functions are never folded
+		f = FunctionCompiler.compile(parse(null, "rand() + 1"));
+		assertTrue(!(f instanceof FmConst));
+	}
+
+	@Test
+	public void testSharesCommonSubexpressions() {
+		ODLTableImpl table = new ODLTableImpl(1, "Test");
+		table.addColumn(-1, "a", ODLColumnType.DOUBLE, 0);
+		table.addColumn(-1, "b", ODLColumnType.DOUBLE, 0);
+		Function f = FunctionCompiler.compile(parse(table, "(a + b) * (a + b) + (a + b)"));
+		assertTrue(f instanceof FunctionCompiler.FmCompiled);
+		assertEquals("((a+b)*(a+b))+(a+b)", f.toString());
+
+		f = FunctionCompiler.compile(parse(table, "a * b"));
+		assertTrue(!(f instanceof FunctionCompiler.FmCompiled));
+	}
+}
@@ -0,0 +1,56 @@
+package com.opendoorlogistics.core.geometry.operations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+public class TestGeomContains {
+
+	/**
+	 * Star-shaped polygon with a hole, with many vertices
+	 */
+	private static Geometry createPolygon(GeometryFactory factory) {
+		int n = 5000;
+		Coordinate[] shell = new Coordinate[n + 1];
+		Coordinate[] hole = new Coordinate[n + 1];
+		for (int i = 0; i < n; i++) {
+			double angle = 2 * Math.PI * i / n;
+			double radius = 10 + 3 * Math.sin(angle * 20);
+			shell[i] = new Coordinate(radius * Math.cos(angle), radius * Math.sin(angle));
+			hole[n - 1 - i] = new Coordinate(2 * Math.cos(angle), 2 * Math.sin(angle));
+		}
+		shell[n] = shell[0];
+		hole[n] = hole[0];
+		return factory.createPolygon(factory.createLinearRing(shell), new LinearRing[] { factory.createLinearRing(hole) });
+	}
+
+	@Test
+	public void testContainsPointMatchesGeometry() {
+		GeometryFactory factory = new GeometryFactory();
+		Geometry polygon = createPolygon(factory);
+		PreparedGeometry prepared = PreparedGeometryFactory.prepare(polygon);
+		Random r = new Random(123);
+		for (int i = 0; i < 2000; i++) {
+			Coordinate c = new Coordinate(r.nextDouble() * 30 - 15, r.nextDouble() * 30 - 15);
+			assertEquals(polygon.contains(factory.createPoint(c)), GeomContains.containsPoint(prepared, c));
+		}
+
+		// boundary vertices aren't contained
+		Coordinate vertex = polygon.getCoordinates()[10];
+		assertEquals(false, GeomContains.containsPoint(prepared, vertex));
+
+		// non-polygon geometries use the prepared geometry's contains
+		Geometry line = factory.createLineString(new Coordinate[] { new Coordinate(0, 0), new Coordinate(10, 0) });
+		assertEquals(true, GeomContains.containsPoint(PreparedGeometryFactory.prepare(line), new Coordinate(5, 0)));
+		assertEquals(false, GeomContains.containsPoint(PreparedGeometryFactory.prepare(line), new Coordinate(5, 1)));
+	}
+}
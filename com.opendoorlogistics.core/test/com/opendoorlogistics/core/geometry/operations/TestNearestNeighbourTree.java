@@ -0,0 +1,99 @@
+package com.opendoorlogistics.core.geometry.operations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.core.geometry.GreateCircle;
+import com.opendoorlogistics.core.gis.map.data.LatLongImpl;
+
+public class TestNearestNeighbourTree {
+
+	/**
+	 * Distances between circles, with ties created by snapping centres to a coarse grid
+	 */
+	@Test
+	public void testPlanarMatchesBruteForce() {
+		Random r = new Random(123);
+		int n = 2000;
+		final double[] centres = new double[2 * n];
+		final double[] radii = new double[n];
+		for (int i = 0; i < n; i++) {
+			centres[2 * i] = r.nextInt(200);
+			centres[2 * i + 1] = r.nextInt(200);
+			radii[i] = r.nextInt(3) == 0 ? r.nextInt(5) : 0;
+		}
+		NearestNeighbourTree tree = NearestNeighbourTree.createPlanar(centres, radii);
+
+		for (int q = 0; q < 500; q++) {
+			final double x = r.nextInt(250) - 25;
+			final double y = r.nextInt(250) - 25;
+			final double radius = r.nextInt(3);
+			NearestNeighbourTree.ItemDistances distances = new NearestNeighbourTree.ItemDistances() {
+
+				@Override
+				public double lowerBound(int item) {
+					return Math.hypot(x - centres[2 * item], y - centres[2 * item + 1]) - radius - radii[item];
+				}
+
+				@Override
+				public double distance(int item) {
+					return Math.max(0, lowerBound(item));
+				}
+			};
+
+			int expected = -1;
+			for (int i = 0; i < n; i++) {
+				if (expected == -1 || distances.distance(i) < distances.distance(expected)
+						|| (distances.distance(i) == distances.distance(expected) && distances.lowerBound(i) < distances.lowerBound(expected))) {
+					expected = i;
+				}
+			}
+			assertEquals(expected, tree.nearestPlanar(x, y, radius, distances));
+		}
+	}
+
+	@Test
+	public void testGreatCircleMatchesBruteForce() {
+		Random r = new Random(123);
+		int n = 3000;
+		final double[] lats = new double[n];
+		final double[] lngs = new double[n];
+		for (int i = 0; i < n; i++) {
+			lats[i] = -90 + 180 * r.nextDouble();
+			lngs[i] = -180 + 360 * r.nextDouble();
+		}
+		NearestNeighbourTree tree = NearestNeighbourTree.createGreatCircle(lats, lngs);
+
+		for (int q = 0; q < 500; q++) {
+			final LatLongImpl ll = new LatLongImpl(-90 + 180 * r.nextDouble(), -180 + 360 * r.nextDouble());
+			NearestNeighbourTree.ItemDistances distances = new NearestNeighbourTree.ItemDistances() {
+
+				@Override
+				public double lowerBound(int item) {
+					return 0;
+				}
+
+				@Override
+				public double distance(int item) {
+					return GreateCircle.greatCircleApprox(ll, new LatLongImpl(lats[item], lngs[item]));
+				}
+			};
+
+			int expected = -1;
+			double closest = Double.MAX_VALUE;
+			for (int i = 0; i < n; i++) {
+				double d = distances.distance(i);
+				if (d < closest) {
+					closest = d;
+					expected = i;
+				}
+			}
+			assertEquals(expected, tree.nearestGreatCircle(ll.getLatitude(), ll.getLongitude(), distances));
+		}
+
+		assertEquals(-1, NearestNeighbourTree.createGreatCircle(new double[0], new double[0]).nearestGreatCircle(0, 0, null));
+	}
+}
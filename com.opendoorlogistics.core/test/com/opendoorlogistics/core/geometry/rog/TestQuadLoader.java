@@ -0,0 +1,150 @@
+package com.opendoorlogistics.core.geometry.rog;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import de.undercouch.bson4jackson.BsonFactory;
+
+public class TestQuadLoader {
+	private static final int NB_BLOCKS = 20;
+	private static final int NB_LEAVES = 15;
+
+	private static Geometry createGeometry(GeometryFactory factory, int blockNb, int leafNb) {
+		Coordinate[] coords = new Coordinate[leafNb + 2];
+		for (int i = 0; i < coords.length; i++) {
+			coords[i] = new Coordinate(blockNb + i, leafNb - i);
+		}
+		return factory.createLineString(coords);
+	}
+
+	private static void writeByteArray(byte[] bytes, DataOutputStream dos) throws Exception {
+		dos.writeInt(bytes != null ? bytes.length : 0);
+		if (bytes != null) {
+			dos.write(bytes);
+		}
+	}
+
+	/**
+	 * Write a file with no objects and blocks of line strings, in the same layout as the builder
+	 */
+	private static File writeFile(GeometryFactory factory) throws Exception {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(header);
+		ByteArrayOutputStream bson = new ByteArrayOutputStream();
+		JsonGenerator gen = new BsonFactory().createJsonGenerator(bson);
+		gen.writeStartObject();
+		gen.writeFieldName(RogReaderUtils.VERSION_KEY);
+		gen.writeNumber(RogReaderUtils.RENDER_GEOMETRY_FILE_VERSION);
+		gen.writeEndObject();
+		gen.close();
+		writeByteArray(bson.toByteArray(), dos);
+		dos.writeInt(0);
+
+		List<byte[]> blocks = new ArrayList<>();
+		for (int b = 0; b < NB_BLOCKS; b++) {
+			List<byte[]> leaves = new ArrayList<>();
+			for (int l = 0; l < NB_LEAVES; l++) {
+				ByteArrayOutputStream leaf = new ByteArrayOutputStream();
+				DataOutputStream ldos = new DataOutputStream(leaf);
+				ldos.writeLong(b * 1000 + l);
+				writeByteArray(l % 2 == 0 ? null : new byte[] { 1, 2, 3 }, ldos);
+				writeByteArray(new WKBWriter().write(createGeometry(factory, b, l)), ldos);
+				leaves.add(leaf.toByteArray());
+			}
+
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			DataOutputStream bdos = new DataOutputStream(block);
+			bdos.writeInt(b);
+			writeByteArray(new byte[b], bdos);
+			bdos.writeInt(NB_LEAVES);
+			int leafPos = bdos.size() + 4 * NB_LEAVES;
+			for (byte[] leaf : leaves) {
+				bdos.writeInt(leafPos);
+				leafPos += leaf.length;
+			}
+			for (byte[] leaf : leaves) {
+				bdos.write(leaf);
+			}
+			blocks.add(block.toByteArray());
+		}
+
+		long pos = dos.size() + 8 + 8 * NB_BLOCKS;
+		dos.writeLong(NB_BLOCKS);
+		for (byte[] block : blocks) {
+			dos.writeLong(pos);
+			pos += block.length;
+		}
+		for (byte[] block : blocks) {
+			dos.write(block);
+		}
+
+		File file = File.createTempFile("test", "." + RogReaderUtils.RENDER_GEOMETRY_FILE_EXT);
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(header.toByteArray());
+		}
+		return file;
+	}
+
+	@Test
+	public void testConcurrentLoads() throws Exception {
+		final GeometryFactory factory = new GeometryFactory();
+		final QuadLoader loader = new QuadLoader(writeFile(factory));
+		ExecutorService service = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				final int offset = t;
+				results.add(service.submit(new Callable<Boolean>() {
+
+					@Override
+					public Boolean call() throws Exception {
+							for (int i = 0; i < NB_BLOCKS * NB_LEAVES; i++) {
+							int index = (i * 7 + offset) % (NB_BLOCKS * NB_LEAVES);
+							int b = index / NB_LEAVES;
+							int l = index % NB_LEAVES;
+							Geometry g = loader.loadGeometry(b * 1000 + l, b, l);
+							if (!g.equalsExact(createGeometry(factory, b, l))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			service.shutdown();
+			loader.close();
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testWrongGeomId() throws Exception {
+		QuadLoader loader = new QuadLoader(writeFile(new GeometryFactory()));
+		try {
+			loader.loadGeometry(5, 0, 1);
+		} finally {
+			loader.close();
+		}
+	}
+}
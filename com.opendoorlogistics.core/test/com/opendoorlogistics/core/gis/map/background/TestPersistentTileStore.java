@@ -0,0 +1,100 @@
+package com.opendoorlogistics.core.gis.map.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.core.utils.images.CompressedImage;
+import com.opendoorlogistics.core.utils.images.CompressedImage.CompressedType;
+
+public class TestPersistentTileStore {
+
+	private static CompressedImage createImage(int seed) {
+		BufferedImage img = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				img.setRGB(x, y, 0xFF000000 | (seed * 31 + x * 16 + y));
+			}
+		}
+		return new CompressedImage(img, CompressedType.LZ4);
+	}
+
+	private static void assertSameImage(int seed, CompressedImage image) {
+		BufferedImage expected = createImage(seed).getBufferedImage();
+		BufferedImage actual = image.getBufferedImage();
+		for (int x = 0; x < 16; x++) {
+			for (int y = 0; y < 16; y++) {
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testSurvivesReopening() throws Exception {
+		File dir = Files.createTempDirectory("tilestore").toFile();
+		PersistentTileStore store = PersistentTileStore.open(dir, "version1", Long.MAX_VALUE);
+		assertNull(store.get(1, 2, 3));
+		for (int i = 0; i < 50; i++) {
+			store.put(i, i + 1, 5, createImage(i));
+		}
+
+		// read after writing, which remaps the file
+		assertSameImage(7, store.get(7, 8, 5));
+		store.put(100, 100, 5, createImage(100));
+		assertSameImage(100, store.get(100, 100, 5));
+		store.release();
+
+		// simulate a crash part-way through writing a record
+		File file = dir.listFiles()[0];
+		long length = file.length();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length + 20);
+			raf.seek(length);
+			raf.writeLong(0);
+			raf.writeInt(1000);
+		}
+
+		store = PersistentTileStore.open(dir, "version1", Long.MAX_VALUE);
+		assertEquals(51, store.size());
+		assertEquals(length, file.length());
+		for (int i = 0; i < 50; i++) {
+			assertTrue(store.contains(i, i + 1, 5));
+			assertSameImage(i, store.get(i, i + 1, 5));
+		}
+		assertFalse(store.contains(1, 1, 5));
+		store.release();
+
+		// a different version uses a different store
+		store = PersistentTileStore.open(dir, "version2", Long.MAX_VALUE);
+		assertNotNull(store);
+		assertEquals(0, store.size());
+		store.release();
+	}
+
+	@Test
+	public void testSharedAndSizeLimited() throws Exception {
+		File dir = Files.createTempDirectory("tilestore").toFile();
+		PersistentTileStore a = PersistentTileStore.open(dir, "version", 2000);
+		PersistentTileStore b = PersistentTileStore.open(dir, "version", 2000);
+		assertTrue(a == b);
+		for (int i = 0; i < 100; i++) {
+			a.put(i, 0, 10, createImage(i));
+		}
+		assertTrue(a.size() > 0 && a.size() < 100);
+		assertTrue(dir.listFiles()[0].length() <= 2000);
+
+		// still usable after one user releases it
+		a.release();
+		assertSameImage(0, b.get(0, 0, 10));
+		b.release();
+	}
+}
@@ -0,0 +1,114 @@
+package com.opendoorlogistics.core.gis.map.tiled;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.geometry.LatLong;
+import com.opendoorlogistics.api.geometry.LatLongToScreen;
+import com.opendoorlogistics.core.gis.map.DatastoreRenderer;
+import com.opendoorlogistics.core.gis.map.data.DrawableObject;
+import com.opendoorlogistics.core.gis.map.data.DrawableObjectImpl;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+public class TestDrawableObjectTileIndex {
+
+	/**
+	 * Simple converter with 100 pixels per degree, which can't convert invalid positions
+	 */
+	private static final LatLongToScreen CONVERTER = new LatLongToScreen() {
+
+		@Override
+		public Point2D getOnScreenPixelPosition(LatLong latLong) {
+			return getWorldBitmapPixelPosition(latLong);
+		}
+
+		@Override
+		public Point2D getWorldBitmapPixelPosition(LatLong latLong) {
+			if (Double.isNaN(latLong.getLatitude())) {
+				return null;
+			}
+			return new Point2D.Double(latLong.getLongitude() * 100, latLong.getLatitude() * 100);
+		}
+
+		@Override
+		public Rectangle2D getViewportWorldBitmapScreenPosition() {
+			return new Rectangle2D.Double(0, 0, 2000, 2000);
+		}
+
+		@Override
+		public LatLong getLongLat(double pixelX, double pixelY) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object getZoomHashmapKey() {
+			return 1;
+		}
+
+		@Override
+		public int getZoomForObjectFiltering() {
+			return 1;
+		}
+	};
+
+	private static Rectangle2D grow(Rectangle2D r, double pixels) {
+		return new Rectangle2D.Double(r.getX() - pixels, r.getY() - pixels, r.getWidth() + 2 * pixels, r.getHeight() + 2 * pixels);
+	}
+
+	@Test
+	public void testMatchesBruteForce() {
+		Random random = new Random(123);
+		ArrayList<DrawableObject> objects = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			DrawableObjectImpl obj = new DrawableObjectImpl(random.nextDouble() * 20, random.nextDouble() * 20, Color.RED, "");
+
+			// some objects are large enough to cover many tiles
+			obj.setPixelWidth(i % 50 == 0 ? 1500 : 2 + random.nextInt(20));
+			objects.add(obj);
+		}
+
+		// objects without valid bounds are returned for all tiles
+		DrawableObjectImpl unbounded = new DrawableObjectImpl(Double.NaN, 1, Color.RED, "");
+		objects.add(250, unbounded);
+
+		DrawableObjectTileIndex index = new DrawableObjectTileIndex(objects, CONVERTER);
+		for (int ix = -1; ix <= 8; ix++) {
+			for (int iy = -1; iy <= 8; iy++) {
+				TilePosition position = new TilePosition(ix, iy, 1);
+				Rectangle2D tile = position.createBounds();
+				int[] indices = index.getObjectIndices(position);
+				TIntHashSet found = new TIntHashSet(indices);
+
+				// ascending, so in drawing order
+				for (int i = 1; i < indices.length; i++) {
+					assertTrue(indices[i - 1] < indices[i]);
+				}
+
+				for (int i = 0; i < objects.size(); i++) {
+					DrawableObject obj = objects.get(i);
+					if (obj == unbounded) {
+						assertTrue(found.contains(i));
+						continue;
+					}
+
+					// every object drawn on the tile is returned, and only objects near the tile are returned
+					Rectangle2D bounds = DatastoreRenderer.getRenderedWorldBitmapBounds(obj, CONVERTER);
+					if (bounds.intersects(tile)) {
+						assertTrue(found.contains(i));
+					}
+					if (found.contains(i)) {
+						assertTrue(grow(bounds, 5 + obj.getPixelWidth()).intersects(tile));
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.opendoorlogistics.core.scripts.execution;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.api.tables.TableFlags;
+import com.opendoorlogistics.core.tables.ODLFactory;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
+import com.opendoorlogistics.core.utils.strings.Strings;
+
+public class TestBatchKeyInformation {
+	private static final Object[] STRING_KEYS = new Object[] { "a", " A", "b", "B ", "c", "10", null };
+	private static final Object[] LONG_KEYS = new Object[] { 1L, 10L, 2L, null };
+	private static final Object[] DOUBLE_KEYS = new Object[] { 1.0, 10.0, 2.5, null };
+
+	private static ODLTableAlterable createTable(ODLDatastoreAlterable<ODLTableAlterable> ds, String name, ODLColumnType keyType, boolean batchKey,
+			Object[] keys, int nbRows, Random random) {
+		ODLTableAlterable table = ds.createTable(name, -1);
+		table.addColumn(-1, "Key", keyType, batchKey ? TableFlags.FLAG_IS_BATCH_KEY : 0);
+		table.addColumn(-1, "Row", ODLColumnType.LONG, 0);
+		for (int row = 0; row < nbRows; row++) {
+			TableUtils.createFilledRow(table, keys[random.nextInt(keys.length)], (long) row);
+		}
+		return table;
+	}
+
+	/**
+	 * Get the row ids for the batch key by testing every row, as each key's filter used to be built
+	 */
+	private static long[] scanRowIds(ODLTableReadOnly table, int keyCol, String batchKey) {
+		ArrayList<Long> ret = new ArrayList<>();
+		for (int row = 0; row < table.getRowCount(); row++) {
+			Object value = keyCol != -1 ? table.getValueAt(row, keyCol) : null;
+			if (value == null || Strings.equalsStd(batchKey, value.toString())) {
+				ret.add(table.getRowId(row));
+			}
+		}
+		long[] ids = new long[ret.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = ret.get(i);
+		}
+		return ids;
+	}
+
+	private static long[] getRowIds(ODLTableReadOnly table) {
+		long[] ret = new long[table.getRowCount()];
+		for (int row = 0; row < ret.length; row++) {
+			ret[row] = table.getRowId(row);
+		}
+		return ret;
+	}
+
+	private static void assertSameAsScan(ODLDatastore<? extends ODLTable> ds, BatchKeyInformation info) {
+		for (String batchKey : info.values) {
+			ODLDatastore<? extends ODLTable> filtered = info.createFilter(ds, batchKey);
+			assertEquals(ds.getTableCount(), filtered.getTableCount());
+			for (int i = 0; i < ds.getTableCount(); i++) {
+				assertArrayEquals(scanRowIds(ds.getTableAt(i), info.batchKeys[i], batchKey), getRowIds(filtered.getTableAt(i)));
+			}
+		}
+	}
+
+	@Test
+	public void testFiltersMatchScan() {
+		Random random = new Random(123);
+		ODLDatastoreAlterable<ODLTableAlterable> ds = ODLFactory.createAlterable();
+		createTable(ds, "Strings", ODLColumnType.STRING, true, STRING_KEYS, 500, random);
+		createTable(ds, "Longs", ODLColumnType.LONG, true, LONG_KEYS, 300, random);
+
+		// double keys are converted to strings differently for the key values and the matching, as before
+		createTable(ds, "Doubles", ODLColumnType.DOUBLE, true, DOUBLE_KEYS, 200, random);
+
+		// tables without a batch key, or without rows, are included in every filter
+		createTable(ds, "NoKey", ODLColumnType.STRING, false, STRING_KEYS, 50, random);
+		createTable(ds, "Empty", ODLColumnType.STRING, true, STRING_KEYS, 0, random);
+
+		// only null keys
+		createTable(ds, "Nulls", ODLColumnType.STRING, true, new Object[] { null }, 20, random);
+
+		// deleting rows leaves gaps in the row ids
+		ODLTableAlterable table = ds.getTableByImmutableId(ds.getTableAt(0).getImmutableId());
+		for (int row = table.getRowCount() - 1; row >= 0; row -= 7) {
+			table.deleteRow(row);
+		}
+
+		ExecutionReportImpl report = new ExecutionReportImpl();
+		BatchKeyInformation info = new BatchKeyInformation(ds, false, report);
+		assertFalse(report.isFailed());
+		assertTrue(info.values.contains("a"));
+		assertTrue(info.values.contains("10"));
+		assertSameAsScan(ds, info);
+	}
+
+	@Test
+	public void testNoBatchKey() {
+		ODLDatastoreAlterable<ODLTableAlterable> ds = ODLFactory.createAlterable();
+		createTable(ds, "NoKey", ODLColumnType.STRING, false, STRING_KEYS, 50, new Random(123));
+		ExecutionReportImpl report = new ExecutionReportImpl();
+		BatchKeyInformation info = new BatchKeyInformation(ds, false, report);
+		assertFalse(report.isFailed());
+		assertEquals(0, info.values.size());
+	}
+}
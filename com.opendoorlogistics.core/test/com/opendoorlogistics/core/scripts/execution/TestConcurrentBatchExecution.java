@@ -0,0 +1,238 @@
+package com.opendoorlogistics.core.scripts.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import javax.swing.Icon;
+import javax.swing.JPanel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opendoorlogistics.api.ExecutionReport;
+import com.opendoorlogistics.api.ODLApi;
+import com.opendoorlogistics.api.components.ComponentConfigurationEditorAPI;
+import com.opendoorlogistics.api.components.ComponentExecutionApi;
+import com.opendoorlogistics.api.components.ODLComponent;
+import com.opendoorlogistics.api.scripts.ScriptOption.OutputType;
+import com.opendoorlogistics.api.scripts.ScriptTemplatesBuilder;
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.api.tables.ODLTableDefinition;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.api.tables.TableFlags;
+import com.opendoorlogistics.core.AppProperties;
+import com.opendoorlogistics.core.api.impl.ODLApiImpl;
+import com.opendoorlogistics.core.components.ODLGlobalComponents;
+import com.opendoorlogistics.core.scripts.ScriptConstants;
+import com.opendoorlogistics.core.scripts.elements.InstructionConfig;
+import com.opendoorlogistics.core.scripts.elements.OutputConfig;
+import com.opendoorlogistics.core.scripts.elements.Script;
+import com.opendoorlogistics.core.tables.ODLFactory;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
+
+public class TestConcurrentBatchExecution {
+	private static final String COMPONENT_ID = "com.opendoorlogistics.core.test.concurrentbatch";
+	private static final String[] KEYS = new String[] { "a", "b", "c", "d", "e", "f", "g", "h" };
+
+	private String previousThreads;
+
+	/**
+	 * Sums each batch key's values, logging a warning for each key and failing on the keys in its configuration.
+	 * Earlier keys take longer so later keys tend to finish first when run concurrently.
+	 */
+	private static class SumComponent implements ODLComponent {
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+		private static ODLDatastoreAlterable<ODLTableAlterable> createDs(String table, String... columns) {
+			ODLDatastoreAlterable<ODLTableAlterable> ret = ODLFactory.createAlterable();
+			ODLTableAlterable t = ret.createTable(table, -1);
+			t.addColumn(-1, columns[0], ODLColumnType.STRING, 0);
+			for (int i = 1; i < columns.length; i++) {
+				t.addColumn(-1, columns[i], ODLColumnType.LONG, 0);
+			}
+			return ret;
+		}
+
+		@Override
+		public String getId() {
+			return COMPONENT_ID;
+		}
+
+		@Override
+		public String getName() {
+			return "Concurrent batch sum";
+		}
+
+		@Override
+		public ODLDatastore<? extends ODLTableDefinition> getIODsDefinition(ODLApi api, Serializable configuration) {
+			return createDs("Input", "Key", "Value");
+		}
+
+		@Override
+		public ODLDatastore<? extends ODLTableDefinition> getOutputDsDefinition(ODLApi api, int mode, Serializable configuration) {
+			return createDs("Output", "Key", "Rows", "Sum");
+		}
+
+		@Override
+		public void execute(ComponentExecutionApi api, int mode, Object configuration, ODLDatastore<? extends ODLTable> ioDs,
+				ODLDatastoreAlterable<? extends ODLTableAlterable> outputDs) {
+			threads.add(Thread.currentThread());
+			String key = api.getBatchKey();
+			int index = Arrays.asList(KEYS).indexOf(key);
+			try {
+				Thread.sleep(5 * (KEYS.length - index));
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+
+			ODLTableReadOnly input = ioDs.getTableAt(0);
+			long sum = 0;
+			for (int row = 0; row < input.getRowCount(); row++) {
+				sum += (Long) input.getValueAt(row, 1);
+			}
+
+			if (configuration != null && ((String) configuration).contains(key)) {
+				throw new RuntimeException("Failed on key " + key);
+			}
+
+			api.logWarning("Key " + key + " has " + input.getRowCount() + " rows");
+			TableUtils.createFilledRow(outputDs.getTableAt(0), key, (long) input.getRowCount(), sum);
+		}
+
+		@Override
+		public Class<? extends Serializable> getConfigClass() {
+			return String.class;
+		}
+
+		@Override
+		public JPanel createConfigEditorPanel(ComponentConfigurationEditorAPI api, int mode, Serializable config, boolean isFixedIO) {
+			return null;
+		}
+
+		@Override
+		public long getFlags(ODLApi api, int mode) {
+			return FLAG_THREAD_SAFE_BATCH_EXECUTION;
+		}
+
+		@Override
+		public Icon getIcon(ODLApi api, int mode) {
+			return null;
+		}
+
+		@Override
+		public boolean isModeSupported(ODLApi api, int mode) {
+			return true;
+		}
+
+		@Override
+		public void registerScriptTemplates(ScriptTemplatesBuilder templatesApi) {
+		}
+	}
+
+	private static void setBatchThreads(String value) {
+		Properties properties = new Properties();
+		properties.setProperty(AppProperties.SCRIPT_BATCH_THREADS, value);
+		AppProperties.add(properties);
+	}
+
+	@Before
+	public void before() {
+		previousThreads = AppProperties.getString(AppProperties.SCRIPT_BATCH_THREADS);
+	}
+
+	@After
+	public void after() {
+		setBatchThreads(previousThreads != null ? previousThreads : "0");
+	}
+
+	private static ODLDatastoreAlterable<ODLTableAlterable> createInput() {
+		ODLDatastoreAlterable<ODLTableAlterable> ret = ODLFactory.createAlterable();
+		ODLTableAlterable table = ret.createTable("Input", -1);
+		table.addColumn(-1, "Key", ODLColumnType.STRING, TableFlags.FLAG_IS_BATCH_KEY);
+		table.addColumn(-1, "Value", ODLColumnType.LONG, 0);
+		Random random = new Random(123);
+		for (int row = 0; row < 400; row++) {
+			int key = random.nextInt(KEYS.length + 1);
+			TableUtils.createFilledRow(table, key < KEYS.length ? KEYS[key] : null, (long) random.nextInt(100));
+		}
+		return ret;
+	}
+
+	private static ExecutionReport execute(SumComponent component, String failKeys, int nbThreads, ODLDatastoreAlterable<ODLTableAlterable> ds) {
+		ODLGlobalComponents.register(component);
+		setBatchThreads(Integer.toString(nbThreads));
+
+		Script script = new Script();
+		script.getInstructions().add(new InstructionConfig(ScriptConstants.EXTERNAL_DS_NAME, "sums", COMPONENT_ID, failKeys));
+		OutputConfig output = new OutputConfig();
+		output.setDatastore("sums");
+		output.setType(OutputType.COPY_ALL_TABLES);
+		script.getOutputs().add(output);
+
+		return new ScriptExecutor(new ODLApiImpl(), false, null).execute(script, ds);
+	}
+
+	private static void assertSameTable(ODLTableReadOnly expected, ODLTableReadOnly table) {
+		assertEquals(expected.getColumnCount(), table.getColumnCount());
+		assertEquals(expected.getRowCount(), table.getRowCount());
+		for (int row = 0; row < expected.getRowCount(); row++) {
+			for (int col = 0; col < expected.getColumnCount(); col++) {
+				assertEquals(expected.getValueAt(row, col), table.getValueAt(row, col));
+			}
+		}
+	}
+
+	@Test
+	public void testSameOutputAsSequential() {
+		ODLDatastoreAlterable<ODLTableAlterable> sequentialDs = createInput();
+		ExecutionReportImpl sequential = (ExecutionReportImpl) execute(new SumComponent(), null, 1, sequentialDs);
+		assertFalse(sequential.isFailed());
+
+		SumComponent component = new SumComponent();
+		ODLDatastoreAlterable<ODLTableAlterable> concurrentDs = createInput();
+		ExecutionReportImpl concurrent = (ExecutionReportImpl) execute(component, null, 4, concurrentDs);
+		assertFalse(concurrent.isFailed());
+
+		// the keys were executed off the calling thread
+		assertFalse(component.threads.contains(Thread.currentThread()));
+		assertTrue(component.threads.size() > 1);
+
+		ODLTableReadOnly expected = TableUtils.findTable(sequentialDs, "Output");
+		assertEquals(KEYS.length, expected.getRowCount());
+		assertSameTable(expected, TableUtils.findTable(concurrentDs, "Output"));
+
+		List<String> lines = sequential.getLines(false);
+		assertTrue(lines.contains("Key a has " + expected.getValueAt(0, 1) + " rows"));
+		assertEquals(lines, concurrent.getLines(false));
+	}
+
+	@Test
+	public void testSameFailureAsSequential() {
+		// key f finishes before key d when run concurrently, but d fails first in batch key order
+		ExecutionReportImpl sequential = (ExecutionReportImpl) execute(new SumComponent(), "df", 1, createInput());
+		assertTrue(sequential.isFailed());
+
+		ExecutionReportImpl concurrent = (ExecutionReportImpl) execute(new SumComponent(), "df", 4, createInput());
+		assertTrue(concurrent.isFailed());
+
+		List<String> lines = sequential.getLines(false);
+		assertTrue(lines.toString().contains("Key c has"));
+		assertFalse(lines.toString().contains("Key e has"));
+		assertEquals(lines, concurrent.getLines(false));
+	}
+}
@@ -0,0 +1,131 @@
+package com.opendoorlogistics.core.scripts.execution.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.api.tables.ODLTime;
+import com.opendoorlogistics.core.formulae.Function;
+import com.opendoorlogistics.core.formulae.FunctionUtils;
+import com.opendoorlogistics.core.formulae.Functions.FmAnd;
+import com.opendoorlogistics.core.formulae.Functions.FmConst;
+import com.opendoorlogistics.core.formulae.Functions.FmEquals;
+import com.opendoorlogistics.core.formulae.Functions.FmGreaterThan;
+import com.opendoorlogistics.core.scripts.execution.ExecutionReportImpl;
+import com.opendoorlogistics.core.scripts.formulae.FmLocalElement;
+import com.opendoorlogistics.core.scripts.formulae.TableParameters;
+import com.opendoorlogistics.core.tables.ODLFactory;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
+
+public class TestFilterFormulaOptimiser {
+	private static final ODLColumnType[] OUTER_TYPES = new ODLColumnType[] { ODLColumnType.TIME, ODLColumnType.STRING };
+	private static final ODLColumnType[] INNER_TYPES = new ODLColumnType[] { ODLColumnType.LONG, ODLColumnType.DOUBLE, ODLColumnType.LONG };
+
+	// join table columns
+	private static final Function TIME = new FmLocalElement(0, "Time");
+	private static final Function TEXT = new FmLocalElement(1, "Text");
+	private static final Function COUNT = new FmLocalElement(2, "Count");
+	private static final Function NUMBER = new FmLocalElement(3, "Number");
+	private static final Function FLAG = new FmLocalElement(4, "Flag");
+
+	private final ODLDatastoreAlterable<ODLTableAlterable> ds = ODLFactory.createAlterable();
+	private final List<ODLDatastoreAlterable<ODLTableAlterable>> datasources = Arrays.asList(ds);
+	private final ODLTableAlterable outer = createTable("Outer", OUTER_TYPES);
+	private final ODLTableAlterable inner = createTable("Inner", INNER_TYPES);
+
+	public TestFilterFormulaOptimiser() {
+		Object[][] outerRows = new Object[][] { { new ODLTime(0), "5" }, { new ODLTime(60000), "ABC" }, { new ODLTime(3600000), "1.0E20" }, { null, null },
+				{ new ODLTime(60000), "0" }, { new ODLTime(5), "abc" } };
+		for (Object[] row : outerRows) {
+			TableUtils.createFilledRow(outer, row);
+		}
+
+		Object[][] innerRows = new Object[][] { { 60000L, 5.0, 1L }, { 0L, 0.0, 1L }, { 3600000L, 1e20, 0L }, { null, null, 1L }, { 60000L, 5.0, 0L },
+				{ 5L, 0.0, 1L }, { 0L, -0.0, 1L } };
+		for (Object[] row : innerRows) {
+			TableUtils.createFilledRow(inner, row);
+		}
+	}
+
+	private ODLTableAlterable createTable(String name, ODLColumnType... types) {
+		ODLTableAlterable table = ds.createTable(name, -1);
+		for (int i = 0; i < types.length; i++) {
+			table.addColumn(-1, "Col" + i, types[i], 0);
+		}
+		return table;
+	}
+
+	private ODLTableAlterable createJoinTable() {
+		ArrayList<ODLColumnType> types = new ArrayList<>(Arrays.asList(OUTER_TYPES));
+		types.addAll(Arrays.asList(INNER_TYPES));
+		return createTable(TableUtils.getUniqueNumberedTableName("Join", ds), types.toArray(new ODLColumnType[types.size()]));
+	}
+
+	private static List<List<Object>> getRows(ODLTableAlterable table) {
+		ArrayList<List<Object>> ret = new ArrayList<>();
+		for (int row = 0; row < table.getRowCount(); row++) {
+			ArrayList<Object> values = new ArrayList<>();
+			for (int col = 0; col < table.getColumnCount(); col++) {
+				values.add(table.getValueAt(row, col));
+			}
+			ret.add(values);
+		}
+		return ret;
+	}
+
+	/**
+	 * Join using the optimiser and by testing every pair of rows in order, checking both give the same rows
+	 * @param formula
+	 * @return
+	 */
+	private List<List<Object>> assertSameAsNestedLoop(Function formula) {
+		ExecutionReportImpl report = new ExecutionReportImpl();
+		ODLTableAlterable optimised = createJoinTable();
+		new FilterFormulaOptimiser(formula.toString(), formula, OUTER_TYPES.length).fillJoinTable(outer, inner, optimised, datasources, 0, report);
+		assertFalse(report.isFailed());
+
+		// without a formula the optimiser fills the join table with all pairs, outer rows first
+		ODLTableAlterable nested = createJoinTable();
+		new FilterFormulaOptimiser(null, null, OUTER_TYPES.length).fillJoinTable(outer, inner, nested, datasources, 0, report);
+		assertEquals(outer.getRowCount() * inner.getRowCount(), nested.getRowCount());
+		for (int row = nested.getRowCount() - 1; row >= 0; row--) {
+			TableParameters parameters = new TableParameters(datasources, 0, nested.getImmutableId(), nested.getRowId(row), row, null);
+			if (!FunctionUtils.isTrue(formula.execute(parameters))) {
+				nested.deleteRow(row);
+			}
+		}
+
+		List<List<Object>> ret = getRows(optimised);
+		assertEquals(getRows(nested), ret);
+		return ret;
+	}
+
+	@Test
+	public void testTimeEqualsNumber() {
+		// times are compared numerically with numbers
+		assertTrue(assertSameAsNestedLoop(new FmEquals(TIME, COUNT)).size() > 0);
+		assertTrue(assertSameAsNestedLoop(new FmEquals(COUNT, TIME)).size() > 0);
+	}
+
+	@Test
+	public void testStringEqualsNumberWithPushdown() {
+		// strings are compared with numbers by their string form, and the flag test is independent of the outer table
+		assertTrue(assertSameAsNestedLoop(new FmAnd(new FmEquals(TEXT, NUMBER), new FmGreaterThan(FLAG, new FmConst(0L)))).size() > 0);
+		assertSameAsNestedLoop(new FmEquals(TEXT, COUNT));
+	}
+
+	@Test
+	public void testCompositeKeys() {
+		assertSameAsNestedLoop(new FmAnd(new FmEquals(COUNT, TIME), new FmEquals(TEXT, NUMBER)));
+		assertSameAsNestedLoop(new FmAnd(new FmAnd(new FmEquals(TEXT, TEXT), new FmEquals(TIME, COUNT)), new FmGreaterThan(FLAG, new FmConst(0L))));
+	}
+}
@@ -0,0 +1,83 @@
+package com.opendoorlogistics.core.scripts.execution.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.core.scripts.elements.AdaptedTableConfig;
+import com.opendoorlogistics.core.scripts.elements.AdapterColumnConfig.SortField;
+import com.opendoorlogistics.core.scripts.elements.AdapterConfig;
+import com.opendoorlogistics.core.scripts.execution.ScriptExecutionBlackboardImpl;
+import com.opendoorlogistics.core.tables.ODLFactory;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
+import com.opendoorlogistics.core.utils.strings.StandardisedStringSet;
+
+public class TestParallelLookups {
+	private static final int NB_SOURCE_ROWS = 20000;
+	private static final int NB_KEYS = 5000;
+	private static final String LOOKUP = "lookup(key, \"Other\", \"key\", \"value\")";
+
+	/**
+	 * The filter and sort formulae look up values in another table, which is new for each trial
+	 * so its column index is built while the rows are evaluated in parallel. The results
+	 * must match those calculated row by row.
+	 */
+	@Test
+	public void testLookupsMatchSerial() {
+		// expected results, row by row: keys with value > 3000, sorted by value descending, keeping source order for ties
+		ArrayList<Long> expected = new ArrayList<>();
+		for (int key = NB_KEYS - 1; key >= 0; key--) {
+			if (key * 3L > 3000) {
+				for (int row = key; row < NB_SOURCE_ROWS; row += NB_KEYS) {
+					expected.add((long) row);
+				}
+			}
+		}
+
+		for (int trial = 0; trial < 5; trial++) {
+			ODLDatastoreAlterable<ODLTableAlterable> ds = ODLFactory.createAlterable();
+			ODLTableAlterable source = ds.createTable("Source", -1);
+			source.addColumn(-1, "row", ODLColumnType.LONG, 0);
+			source.addColumn(-1, "key", ODLColumnType.LONG, 0);
+			for (int row = 0; row < NB_SOURCE_ROWS; row++) {
+				TableUtils.createFilledRow(source, (long) row, (long) (row % NB_KEYS));
+			}
+			ODLTableAlterable other = ds.createTable("Other", -1);
+			other.addColumn(-1, "key", ODLColumnType.LONG, 0);
+			other.addColumn(-1, "value", ODLColumnType.LONG, 0);
+			for (int key = 0; key < NB_KEYS; key++) {
+				TableUtils.createFilledRow(other, (long) key, key * 3L);
+			}
+
+			ScriptExecutionBlackboardImpl bb = new ScriptExecutionBlackboardImpl(false);
+			bb.addDatastore("ds", null, ds);
+			AdapterConfig config = new AdapterConfig("adapter");
+			AdaptedTableConfig table = config.createTable("Source", "Out");
+			table.setFrom("ds", "Source");
+			table.setFilterFormula(LOOKUP + " > 3000");
+			table.addMappedColumn("row", "row", ODLColumnType.LONG, 0);
+			table.addMappedFormulaColumn(LOOKUP, "value", ODLColumnType.LONG, 0);
+
+			// sort columns are used for sorting only and don't appear in the output
+			table.addMappedFormulaColumn(LOOKUP, "sort", ODLColumnType.LONG, 0).setSortField(SortField.DESCENDING);
+
+			ODLDatastore<? extends ODLTable> built = new AdapterBuilder(config, new StandardisedStringSet(false), bb, null, new BuiltAdapters()).build();
+			assertFalse(bb.isFailed());
+			ODLTable out = built.getTableAt(0);
+			assertEquals(expected.size(), out.getRowCount());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(2, out.getColumnCount());
+				assertEquals(expected.get(i), out.getValueAt(i, 0));
+				assertEquals((expected.get(i) % NB_KEYS) * 3, out.getValueAt(i, 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.opendoorlogistics.core.scripts.execution.adapters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.core.scripts.execution.adapters.ParallelRowEvaluator.FirstError;
+import com.opendoorlogistics.core.scripts.execution.adapters.ParallelRowEvaluator.RangeProcessor;
+
+public class TestParallelRowEvaluator {
+
+	@Test
+	public void testEachRowProcessedOnce() {
+		for (int nbRows : new int[] { 0, 1, 511, 100000 }) {
+			final int[] ranges = ParallelRowEvaluator.split(nbRows);
+			assertEquals(0, ranges[0]);
+			assertEquals(nbRows, ranges[ranges.length - 1]);
+
+			final AtomicIntegerArray counts = new AtomicIntegerArray(nbRows);
+			ParallelRowEvaluator.process(ranges, new RangeProcessor() {
+
+				@Override
+				public void process(int rangeIndex, int fromRow, int toRow) {
+					assertEquals(ranges[rangeIndex], fromRow);
+					assertEquals(ranges[rangeIndex + 1], toRow);
+					for (int row = fromRow; row < toRow; row++) {
+						counts.incrementAndGet(row);
+					}
+				}
+			});
+
+			for (int row = 0; row < nbRows; row++) {
+				assertEquals(1, counts.get(row));
+			}
+		}
+	}
+
+	@Test
+	public void testFirstErrorKeepsLowestRow() {
+		final FirstError error = new FirstError();
+		ParallelRowEvaluator.process(100000, new RangeProcessor() {
+
+			@Override
+			public void process(int rangeIndex, int fromRow, int toRow) {
+				for (int row = fromRow; row < toRow && !error.isSetBefore(row); row++) {
+					if (row % 1000 == 999) {
+						error.set(row, "Failed on row " + row);
+						return;
+					}
+				}
+			}
+		});
+
+		assertTrue(error.isSet());
+		assertArrayEquals(new String[] { "Failed on row 999" }, error.getMessages());
+	}
+}
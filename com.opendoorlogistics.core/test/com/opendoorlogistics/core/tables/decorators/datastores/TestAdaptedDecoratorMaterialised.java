@@ -0,0 +1,145 @@
+package com.opendoorlogistics.core.tables.decorators.datastores;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.core.api.impl.ODLApiImpl;
+import com.opendoorlogistics.core.formulae.Function;
+import com.opendoorlogistics.core.formulae.FunctionImpl;
+import com.opendoorlogistics.core.formulae.FunctionParameters;
+import com.opendoorlogistics.core.scripts.formulae.TableParameters;
+import com.opendoorlogistics.core.tables.decorators.datastores.AdaptedDecorator.AdapterMapping;
+import com.opendoorlogistics.core.tables.decorators.datastores.undoredo.UndoRedoDecorator;
+import com.opendoorlogistics.core.tables.memory.ODLTableDefinitionImpl;
+
+public class TestAdaptedDecoratorMaterialised {
+
+	/**
+	 * Formula giving the row's value multiplied by the value in another table, counting its executions
+	 */
+	private static class CountingFormula extends FunctionImpl {
+		final AtomicInteger executions = new AtomicInteger();
+		final int srcTableId;
+		final int multiplierTableId;
+
+		CountingFormula(int srcTableId, int multiplierTableId) {
+			this.srcTableId = srcTableId;
+			this.multiplierTableId = multiplierTableId;
+		}
+
+		@Override
+		public Object execute(FunctionParameters parameters) {
+			executions.incrementAndGet();
+			TableParameters tp = (TableParameters) parameters;
+			ODLTableReadOnly src = tp.getTableById(0, srcTableId);
+			ODLTableReadOnly multiplier = tp.getTableById(0, multiplierTableId);
+			return (Long) src.getValueById(tp.getRowId(), 0) * (Long) multiplier.getValueAt(0, 0);
+		}
+
+		@Override
+		public Function deepCopy() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Wait so rows modified before now have earlier modified times than a calculation started after
+	 */
+	private static void waitForClock() {
+		try {
+			Thread.sleep(5);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Object[] getValues(ODLTable adapted) {
+		waitForClock();
+		Object[] ret = new Object[adapted.getRowCount()];
+		adapted.getValuesAt(0, ret.length, 0, ret);
+		return ret;
+	}
+
+	@Test
+	public void testInvalidatedByChanges() {
+		ODLApiImpl api = new ODLApiImpl();
+		ODLDatastoreAlterable<? extends ODLTableAlterable> raw = api.tables().createAlterableDs();
+		UndoRedoDecorator<ODLTableAlterable> ds = new UndoRedoDecorator<ODLTableAlterable>(ODLTableAlterable.class, raw, 1024 * 1024);
+		ODLTableAlterable src = ds.createTable("Source", -1);
+		src.addColumn(-1, "Value", ODLColumnType.LONG, 0);
+		int nr = 100;
+		for (int i = 0; i < nr; i++) {
+			src.setValueAt((long) i, src.createEmptyRow(-1), 0);
+		}
+		ODLTableAlterable multiplier = ds.createTable("Multiplier", -1);
+		multiplier.addColumn(-1, "Value", ODLColumnType.LONG, 0);
+		multiplier.setValueAt(2L, multiplier.createEmptyRow(-1), 0);
+
+		ODLTableDefinitionImpl dest = new ODLTableDefinitionImpl(1, "Dest");
+		dest.addColumn(-1, "Result", ODLColumnType.LONG, 0);
+		AdapterMapping mapping = AdapterMapping.createUnassignedMapping(dest, false);
+		mapping.setTableSourceId(dest.getImmutableId(), 0, src.getImmutableId());
+		CountingFormula formula = new CountingFormula(src.getImmutableId(), multiplier.getImmutableId());
+		mapping.setFieldFormula(dest.getImmutableId(), 0, formula);
+		mapping.setFieldMaterialised(dest.getImmutableId(), 0, true);
+		ODLTable adapted = new AdaptedDecorator<ODLTable>(mapping, ds).getTableAt(0);
+
+		// single reads don't calculate the whole column
+		for (int i = 0; i < nr; i++) {
+			assertEquals(2L * i, adapted.getValueAt(i, 0));
+		}
+		assertEquals(nr, formula.executions.get());
+
+		// a batch read calculates it once, then reads use it
+		Object[] values = getValues(adapted);
+		assertEquals(2 * nr, formula.executions.get());
+		for (int pass = 0; pass < 3; pass++) {
+			for (int i = 0; i < nr; i++) {
+				assertEquals(2L * i, values[i]);
+				assertEquals(2L * i, adapted.getValueAt(i, 0));
+				assertEquals(2L * i, adapted.getValueById(src.getRowId(i), 0));
+			}
+			values = getValues(adapted);
+		}
+		assertEquals(2 * nr, formula.executions.get());
+
+		// changing a row of the adapted table only calculates the changed row
+		src.setValueAt(1000L, 5, 0);
+		assertEquals(2000L, adapted.getValueAt(5, 0));
+		assertEquals(12L, adapted.getValueAt(6, 0));
+		assertEquals(2 * nr + 1, formula.executions.get());
+		values = getValues(adapted);
+		assertEquals(2000L, values[5]);
+		assertEquals(2 * nr + 2, formula.executions.get());
+
+		// deleting a row moves the rows after it, which are calculated again
+		src.deleteRow(0);
+		assertEquals(nr - 1, adapted.getRowCount());
+		assertEquals(2000L, adapted.getValueAt(4, 0));
+		values = getValues(adapted);
+		assertEquals(2000L, values[4]);
+		assertEquals(2 * nr + 3 + (nr - 1), formula.executions.get());
+
+		// changing another table read by the formula calculates everything
+		multiplier.setValueAt(3L, 0, 0);
+		values = getValues(adapted);
+		assertEquals(3000L, values[4]);
+		assertEquals(3L * 99, values[nr - 2]);
+		assertEquals(2 * nr + 3 + 2 * (nr - 1), formula.executions.get());
+
+		// undo goes through the tables so is detected too
+		ds.undo();
+		assertEquals(2000L, adapted.getValueAt(4, 0));
+		values = getValues(adapted);
+		assertEquals(2L * 99, values[nr - 2]);
+		assertEquals(2 * nr + 4 + 3 * (nr - 1), formula.executions.get());
+	}
+}
@@ -0,0 +1,160 @@
+package com.opendoorlogistics.core.tables.decorators.datastores;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
+import com.opendoorlogistics.api.tables.ODLTable;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.core.tables.ODLFactory;
+import com.opendoorlogistics.core.tables.memory.ODLAbstractTableDefinition;
+
+public class TestUnionDecorator {
+	private static final int TABLE_ID = 7;
+
+	private static ODLDatastoreAlterable<ODLTableAlterable> createDs(int nbRows, String prefix) {
+		ODLDatastoreAlterable<ODLTableAlterable> ds = ODLFactory.createAlterable();
+		ODLTableAlterable table = ds.createTable("Table", TABLE_ID);
+		table.addColumn(-1, "Value", ODLColumnType.STRING, 0);
+		for (int i = 0; i < nbRows; i++) {
+			createRow(table, prefix + i);
+		}
+		return ds;
+	}
+
+	/**
+	 * Create a row with an id unique across the datastores, as rows with the same id are the same row in a union
+	 */
+	private static void createRow(ODLTable table, String value) {
+		int row = table.createEmptyRow(value.hashCode() & 0xFFFFFF);
+		table.setValueAt(value, row, 0);
+	}
+
+	private static List<String> expected(List<ODLDatastoreAlterable<ODLTableAlterable>> stores) {
+		List<String> ret = new ArrayList<>();
+		for (ODLDatastoreAlterable<ODLTableAlterable> ds : stores) {
+			ODLTable table = ds.getTableByImmutableId(TABLE_ID);
+			for (int i = 0; table != null && i < table.getRowCount(); i++) {
+				ret.add((String) table.getValueAt(i, 0));
+			}
+		}
+		return ret;
+	}
+
+	private static void check(List<ODLDatastoreAlterable<ODLTableAlterable>> stores, ODLTable union) {
+		List<String> expected = expected(stores);
+		assertEquals(expected.size(), union.getRowCount());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), union.getValueAt(i, 0));
+			assertEquals(expected.get(i), union.getValueById(union.getRowId(i), 0));
+		}
+
+		// bulk read across the datastore boundaries, including past the end
+		Object[] values = new Object[expected.size() + 1];
+		union.getValuesAt(0, values.length, 0, values);
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), values[i]);
+		}
+		assertEquals(null, values[expected.size()]);
+		if (expected.size() > 3) {
+			values = new Object[expected.size() - 3];
+			union.getValuesAt(2, expected.size() - 1, 0, values);
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(expected.get(i + 2), values[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testRowCountChanges() {
+		List<ODLDatastoreAlterable<ODLTableAlterable>> stores = new ArrayList<>();
+		stores.add(createDs(3, "a"));
+		stores.add(createDs(0, "b"));
+		stores.add(createDs(4, "c"));
+		stores.add(createDs(2, "d"));
+		List<ODLDatastore<? extends ODLTable>> list = new ArrayList<ODLDatastore<? extends ODLTable>>(stores);
+		ODLTable union = new UnionDecorator<ODLTable>(list).getTableByImmutableId(TABLE_ID);
+		check(stores, union);
+
+		// change constituent tables directly
+		createRow(stores.get(1).getTableByImmutableId(TABLE_ID), "b0");
+		stores.get(2).getTableByImmutableId(TABLE_ID).deleteRow(0);
+		check(stores, union);
+
+		// and through the union
+		union.deleteRow(0);
+		union.deleteRow(union.getRowCount() - 1);
+		check(stores, union);
+		assertEquals(-1, union.getRowId(union.getRowCount()));
+	}
+
+	@Test
+	public void testTableCreatedAfterRead() {
+		List<ODLDatastoreAlterable<ODLTableAlterable>> stores = new ArrayList<>();
+		stores.add(createDs(3, "a"));
+		stores.add(createDs(2, "b"));
+		stores.add(createDs(4, "c"));
+		List<ODLDatastore<? extends ODLTable>> list = new ArrayList<ODLDatastore<? extends ODLTable>>(stores);
+		ODLTable union = new UnionDecorator<ODLTable>(list).getTableByImmutableId(TABLE_ID);
+		check(stores, union);
+
+		// read the union while the middle store is empty
+		stores.get(1).deleteTableById(TABLE_ID);
+		check(stores, union);
+
+		// create the table in the empty store
+		ODLTableAlterable created = stores.get(1).createTable("Table", TABLE_ID);
+		created.addColumn(-1, "Value", ODLColumnType.STRING, 0);
+		createRow(created, "x0");
+		createRow(created, "x1");
+		check(stores, union);
+		assertEquals("x0", union.getValueAt(3, 0));
+
+		// and replace it with another table of the same id and row count
+		stores.get(1).deleteTableById(TABLE_ID);
+		created = stores.get(1).createTable("Table", TABLE_ID);
+		created.addColumn(-1, "Value", ODLColumnType.STRING, 0);
+		createRow(created, "y0");
+		createRow(created, "y1");
+		check(stores, union);
+		assertEquals("y1", union.getValueAt(4, 0));
+	}
+
+	@Test
+	public void testFilteredStores() {
+		List<ODLDatastoreAlterable<ODLTableAlterable>> stores = new ArrayList<>();
+		stores.add(createDs(5, "a"));
+		stores.add(createDs(5, "b"));
+		List<RowFilterDecorator<ODLTable>> filters = new ArrayList<>();
+		for (ODLDatastoreAlterable<ODLTableAlterable> ds : stores) {
+			filters.add(new RowFilterDecorator<ODLTable>(ds));
+		}
+		ODLTable union = new UnionDecorator<ODLTable>(new ArrayList<ODLDatastore<? extends ODLTable>>(filters)).getTableByImmutableId(TABLE_ID);
+		assertEquals(0, union.getRowCount());
+
+		// rows added to a filter change the union without any table being modified
+		ODLTable b = stores.get(1).getTableByImmutableId(TABLE_ID);
+		filters.get(1).addRowToFilter(TABLE_ID, b.getRowId(3));
+		assertEquals(1, union.getRowCount());
+		assertEquals("b3", union.getValueAt(0, 0));
+		assertTrue(union.containsRowId(b.getRowId(3)));
+		assertTrue(!union.containsRowId(b.getRowId(2)));
+
+		// filling a filter takes a single stamp however many rows are added
+		ODLTable a = stores.get(0).getTableByImmutableId(TABLE_ID);
+		long stamp = ODLAbstractTableDefinition.getLatestModificationStamp();
+		for (int i = 0; i < a.getRowCount(); i++) {
+			filters.get(0).addRowToFilter(TABLE_ID, a.getRowId(i));
+		}
+		assertEquals(stamp + 1, ODLAbstractTableDefinition.getLatestModificationStamp());
+		assertEquals(6, union.getRowCount());
+		assertEquals("a0", union.getValueAt(0, 0));
+	}
+}
@@ -0,0 +1,180 @@
+package com.opendoorlogistics.core.tables.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastore;
+import com.opendoorlogistics.api.tables.ODLTableReadOnly;
+import com.opendoorlogistics.core.scripts.execution.ExecutionReportImpl;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
+
+public class TestXmlParserLoader {
+
+	/**
+	 * Column values by row, with null for an empty cell. Numbers are written as numeric cells and anything else as text.
+	 */
+	private interface ColumnValues {
+		Object get(int row);
+	}
+
+	private static void addSheet(XSSFWorkbook wb, String name, int nbRows, String[] headers, ColumnValues... columns) {
+		Sheet sheet = wb.createSheet(name);
+		if (headers == null) {
+			return;
+		}
+		Row header = sheet.createRow(0);
+		for (int col = 0; col < headers.length; col++) {
+			header.createCell(col).setCellValue(headers[col]);
+		}
+		for (int row = 0; row < nbRows; row++) {
+			Row excelRow = sheet.createRow(row + 1);
+			for (int col = 0; col < columns.length; col++) {
+				Object value = columns[col].get(row);
+				if (value instanceof Number) {
+					excelRow.createCell(col).setCellValue(((Number) value).doubleValue());
+				} else if (value != null) {
+					excelRow.createCell(col).setCellValue(value.toString());
+				}
+			}
+		}
+	}
+
+	private static File createWorkbook() throws Exception {
+		XSSFWorkbook wb = new XSSFWorkbook();
+
+		// column types known from the sample, with values streamed in chunks afterwards
+		addSheet(wb, "Streamed", 5000, new String[] { "Id", "Name", "Half", "Sparse", "Blank" }, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return row;
+			}
+		}, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return "n" + row;
+			}
+		}, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return row * 0.5;
+			}
+		}, new ColumnValues() {
+
+			// too few values to fill the sample, so the type is fixed after the sample rows
+			@Override
+			public Object get(int row) {
+				return row == 3 ? "1" : row == 10 ? "2.5" : row == 4000 ? "3" : null;
+			}
+		}, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return null;
+			}
+		});
+
+		// types which change after the first 1000 values
+		addSheet(wb, "TextAfterSample", 3000, new String[] { "Value", "Other" }, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return row == 1500 ? "abc" : Integer.toString(row);
+			}
+		}, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return "x" + row;
+			}
+		});
+		addSheet(wb, "DoubleAfterSample", 3000, new String[] { "Value" }, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return row == 1200 ? "2.5" : Integer.toString(row);
+			}
+		});
+
+		// a column without values in the sample
+		addSheet(wb, "LateValues", 3000, new String[] { "Id", "Late" }, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return row;
+			}
+		}, new ColumnValues() {
+
+			@Override
+			public Object get(int row) {
+				return row >= 2500 ? "7" : null;
+			}
+		});
+
+		addSheet(wb, "HeaderOnly", 0, new String[] { "A", "B" });
+		addSheet(wb, "Empty", 0, null);
+
+		File file = File.createTempFile("TestXmlParserLoader", ".xlsx");
+		file.deleteOnExit();
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			wb.write(fos);
+		}
+		wb.close();
+		return file;
+	}
+
+	private static void assertType(ODLDatastore<? extends ODLTableReadOnly> ds, String table, String column, ODLColumnType expected) {
+		ODLTableReadOnly t = TableUtils.findTable(ds, table);
+		assertEquals(expected, t.getColumnType(TableUtils.findColumnIndx(t, column)));
+	}
+
+	@Test
+	public void testSameAsTwoPasses() throws Exception {
+		File file = createWorkbook();
+		ExecutionReportImpl report = new ExecutionReportImpl();
+		ODLDatastore<? extends ODLTableReadOnly> singlePass = XmlParserLoader.importExcel(file, null, report);
+		ODLDatastore<? extends ODLTableReadOnly> twoPasses = XmlParserLoader.importExcelInTwoPasses(file, report);
+		assertFalse(report.isFailed());
+
+		assertEquals(6, twoPasses.getTableCount());
+		assertEquals(twoPasses.getTableCount(), singlePass.getTableCount());
+		for (int i = 0; i < twoPasses.getTableCount(); i++) {
+			ODLTableReadOnly expected = twoPasses.getTableAt(i);
+			ODLTableReadOnly table = singlePass.getTableAt(i);
+			assertEquals(expected.getName(), table.getName());
+			assertEquals(expected.getColumnCount(), table.getColumnCount());
+			for (int col = 0; col < expected.getColumnCount(); col++) {
+				assertEquals(expected.getColumnName(col), table.getColumnName(col));
+				assertEquals(expected.getColumnType(col), table.getColumnType(col));
+			}
+			assertEquals(expected.getRowCount(), table.getRowCount());
+			for (int row = 0; row < expected.getRowCount(); row++) {
+				for (int col = 0; col < expected.getColumnCount(); col++) {
+					assertEquals(expected.getValueAt(row, col), table.getValueAt(row, col));
+				}
+			}
+		}
+
+		assertType(singlePass, "Streamed", "Id", ODLColumnType.LONG);
+		assertType(singlePass, "Streamed", "Name", ODLColumnType.STRING);
+		assertType(singlePass, "Streamed", "Half", ODLColumnType.DOUBLE);
+		assertType(singlePass, "Streamed", "Sparse", ODLColumnType.DOUBLE);
+		assertType(singlePass, "Streamed", "Blank", ODLColumnType.STRING);
+		assertType(singlePass, "TextAfterSample", "Value", ODLColumnType.STRING);
+		assertType(singlePass, "DoubleAfterSample", "Value", ODLColumnType.DOUBLE);
+		assertType(singlePass, "LateValues", "Late", ODLColumnType.LONG);
+		assertEquals(5000, TableUtils.findTable(singlePass, "Streamed").getRowCount());
+		assertEquals("abc", TableUtils.findTable(singlePass, "TextAfterSample").getValueAt(1500, 0));
+	}
+}
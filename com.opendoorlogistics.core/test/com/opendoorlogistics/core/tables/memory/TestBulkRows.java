@@ -0,0 +1,160 @@
+package com.opendoorlogistics.core.tables.memory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLDatastoreAlterable;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.core.tables.ODLFactory;
+import com.opendoorlogistics.core.tables.concurrency.WriteRecorderDecorator;
+import com.opendoorlogistics.core.tables.decorators.datastores.undoredo.UndoRedoDecorator;
+import com.opendoorlogistics.core.tables.utils.DatastoreComparer;
+import com.opendoorlogistics.core.tables.utils.TableUtils;
+
+public class TestBulkRows {
+
+	private static ODLTableAlterable createTable(ODLTableAlterable table) {
+		table.addColumn(-1, "Name", ODLColumnType.STRING, 0);
+		table.addColumn(-1, "Count", ODLColumnType.LONG, 0);
+		return table;
+	}
+
+	private static int[] randomRows(Random r, int nbRows, int max) {
+		int[] ret = new int[nbRows];
+		for (int i = 0; i < nbRows; i++) {
+			ret[i] = r.nextInt(max);
+		}
+		return ret;
+	}
+
+	private static long[] sortedFind(ODLTableAlterable table, Object value) {
+		long[] ret = table.find(0, value);
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * Apply the same bulk inserts and deletes to the row-based and columnar tables and
+	 * check they match a table modified one row at a time, including ids and lookups.
+	 */
+	@Test
+	public void testMatchesSingleRowOperations() {
+		Random r = new Random(123);
+		ODLTableAlterable control = createTable(new ODLTableImpl(1, "Test"));
+		ODLTableAlterable rowBased = createTable(new ODLTableImpl(1, "Test"));
+		ODLTableAlterable columnar = createTable(new ODLColumnarTableImpl(1, "Test"));
+		ODLTableAlterable[] bulkTables = new ODLTableAlterable[] { rowBased, columnar };
+
+		for (int step = 0; step < 500; step++) {
+			int nr = control.getRowCount();
+			if (r.nextBoolean() || nr == 0) {
+				// convert random positions in the current table to final row numbers and insert
+				// in the control one row at a time
+				int[] rows = randomRows(r, 1 + r.nextInt(20), nr + 1);
+				Arrays.sort(rows);
+				for (int i = 0; i < rows.length; i++) {
+					rows[i] += i;
+				}
+				long[] ids = new long[rows.length];
+				for (int i = 0; i < rows.length; i++) {
+					control.insertEmptyRow(rows[i], -1);
+					ids[i] = control.getRowId(rows[i]);
+				}
+				for (ODLTableAlterable table : bulkTables) {
+					table.insertEmptyRows(rows, ids);
+				}
+				for (int row : rows) {
+					Object[] values = new Object[] { "s" + r.nextInt(10), (long) r.nextInt(100) };
+					for (int col = 0; col < values.length; col++) {
+						control.setValueAt(values[col], row, col);
+						for (ODLTableAlterable table : bulkTables) {
+							table.setValueAt(values[col], row, col);
+						}
+					}
+				}
+			} else {
+				// unsorted with duplicates
+				int[] rows = randomRows(r, 1 + r.nextInt(20), nr);
+				int[] unique = TableUtils.getRowsToDelete(rows, nr);
+				for (int i = unique.length - 1; i >= 0; i--) {
+					control.deleteRow(unique[i]);
+				}
+				for (ODLTableAlterable table : bulkTables) {
+					table.deleteRows(rows);
+				}
+			}
+
+			for (ODLTableAlterable table : bulkTables) {
+				assertTrue(DatastoreComparer.isSame(control, table, DatastoreComparer.CHECK_ALL));
+				String value = "s" + r.nextInt(10);
+				assertArrayEquals(sortedFind(control, value), sortedFind(table, value));
+			}
+		}
+	}
+
+	@Test
+	public void testUndo() {
+		UndoRedoDecorator<ODLTableAlterable> ds = new UndoRedoDecorator<ODLTableAlterable>(ODLTableAlterable.class, ODLFactory.createAlterable());
+		ODLTableAlterable table = createTable(ds.createTable("Test", -1));
+		int nr = 10;
+		long[] ids = new long[nr];
+		for (int i = 0; i < nr; i++) {
+			TableUtils.createFilledRow(table, "s" + i, (long) i);
+			ids[i] = table.getRowId(i);
+		}
+
+		table.deleteRows(new int[] { 7, 2, 3, 7, 99 });
+		assertEquals(nr - 3, table.getRowCount());
+		assertEquals(ids[4], table.getRowId(2));
+		assertEquals("s8", table.getValueAt(5, 0));
+
+		ds.undo();
+		assertEquals(nr, table.getRowCount());
+		for (int i = 0; i < nr; i++) {
+			assertEquals(ids[i], table.getRowId(i));
+			assertEquals("s" + i, table.getValueAt(i, 0));
+			assertEquals((long) i, table.getValueAt(i, 1));
+		}
+
+		table.insertEmptyRows(new int[] { 0, 5, 12 }, new long[] { -1, -1, -1 });
+		assertEquals(nr + 3, table.getRowCount());
+		assertEquals(ids[0], table.getRowId(1));
+		assertEquals(null, table.getValueAt(5, 0));
+		assertEquals("s3", table.getValueAt(4, 0));
+		assertEquals("s4", table.getValueAt(6, 0));
+
+		ds.undo();
+		assertEquals(nr, table.getRowCount());
+		ds.redo();
+		assertEquals(nr + 3, table.getRowCount());
+		assertEquals("s9", table.getValueAt(11, 0));
+	}
+
+	@Test
+	public void testWriteRecorder() {
+		ODLDatastoreAlterable<ODLTableAlterable> original = ODLFactory.createAlterable();
+		ODLTableAlterable originalTable = createTable(original.createTable("Test", -1));
+		int nr = 10;
+		for (int i = 0; i < nr; i++) {
+			TableUtils.createFilledRow(originalTable, "s" + i, (long) i);
+		}
+
+		WriteRecorderDecorator<ODLTableAlterable> ds = new WriteRecorderDecorator<ODLTableAlterable>(ODLTableAlterable.class, original);
+		ODLTableAlterable table = ds.getTableAt(0);
+		long[] expected = new long[] { table.getRowId(2), table.getRowId(3), table.getRowId(7) };
+
+		// duplicate and out of range rows are ignored
+		table.deleteRows(new int[] { 7, -1, 2, 3, 7, 99 });
+		assertEquals(nr - 3, table.getRowCount());
+		long[] deleted = ds.getDeletedOriginalRowIds();
+		Arrays.sort(deleted);
+		assertArrayEquals(expected, deleted);
+	}
+}
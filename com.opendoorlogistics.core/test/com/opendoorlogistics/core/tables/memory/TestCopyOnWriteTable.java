@@ -0,0 +1,127 @@
+package com.opendoorlogistics.core.tables.memory;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+
+public class TestCopyOnWriteTable {
+
+	private static void assertValues(ODLTableImpl table, long[] expected) {
+		assertEquals(expected.length, table.getRowCount());
+		for (int row = 0; row < expected.length; row++) {
+			assertEquals(expected[row], table.getValueAt(row, 0));
+			assertEquals(expected[row], table.getValueById(table.getRowId(row), 0));
+		}
+	}
+
+	@Test
+	public void testCopiesDiverge() {
+		// enough rows to span several list blocks
+		int nr = 40000;
+		ODLTableImpl table = new ODLTableImpl(1, "Table");
+		table.addColumn(-1, "Value", ODLColumnType.LONG, 0);
+		long[] original = new long[nr];
+		for (int i = 0; i < nr; i++) {
+			original[i] = i;
+			table.setValueAt((long) i, table.createEmptyRow(-1), 0);
+		}
+
+		ODLTableImpl copy = (ODLTableImpl) table.deepCopyWithShallowValueCopy();
+		long[] copied = original.clone();
+		assertValues(copy, copied);
+
+		// write to the copy by index and by id
+		copy.setValueAt(-1L, 20000, 0);
+		copy.setValueById(-2L, copy.getRowId(30000), 0);
+		copy.setRowFlags(1, copy.getRowId(30000));
+		copied[20000] = -1;
+		copied[30000] = -2;
+
+		// and to the original
+		table.setValueById(-3L, table.getRowId(5), 0);
+		table.setValueAt(-4L, 35000, 0);
+		original[5] = -3;
+		original[35000] = -4;
+
+		assertValues(table, original);
+		assertValues(copy, copied);
+		assertEquals(0, table.getRowFlags(table.getRowId(30000)));
+		assertEquals(1, copy.getRowFlags(copy.getRowId(30000)));
+
+		// copy the copy after writing by id, then change it again
+		ODLTableImpl copy2 = (ODLTableImpl) copy.deepCopyWithShallowValueCopy();
+		long[] copied2 = copied.clone();
+		copy.setValueAt(-5L, 30000, 0);
+		copied[30000] = -5;
+		assertValues(copy2, copied2);
+		assertValues(copy, copied);
+
+		// structural changes
+		copy.deleteRows(new int[] { 0, 1 });
+		long[] afterDelete = new long[nr - 2];
+		System.arraycopy(copied, 2, afterDelete, 0, afterDelete.length);
+		table.addColumn(-1, "Other", ODLColumnType.STRING, 0);
+		table.setValueAt("x", 0, 1);
+		table.createEmptyRow(-1);
+		long[] afterAppend = new long[nr + 1];
+		System.arraycopy(original, 0, afterAppend, 0, nr);
+
+		assertEquals(nr + 1, table.getRowCount());
+		for (int row = 0; row < nr; row++) {
+			assertEquals(afterAppend[row], table.getValueAt(row, 0));
+		}
+		assertEquals("x", table.getValueAt(0, 1));
+		assertEquals(1, copy.getColumnCount());
+		assertValues(copy, afterDelete);
+		assertValues(copy2, copied2);
+	}
+
+	@Test
+	public void testRepeatedCopies() {
+		// copy after every write, as auto-refreshing reports do, keeping all the copies
+		int nr = 20000;
+		ODLTableImpl table = new ODLTableImpl(1, "Table");
+		table.addColumn(-1, "Value", ODLColumnType.LONG, 0);
+		long[] values = new long[nr];
+		for (int i = 0; i < nr; i++) {
+			values[i] = i;
+			table.setValueAt((long) i, table.createEmptyRow(-1), 0);
+		}
+
+		Random random = new Random(123);
+		ArrayList<ODLTableImpl> copies = new ArrayList<>();
+		ArrayList<long[]> copiedValues = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			copies.add((ODLTableImpl) table.deepCopyWithShallowValueCopy());
+			copiedValues.add(values.clone());
+
+			// write to the table by id or by index, sometimes writing the same row again
+			int row = i % 3 == 0 ? nr / 2 : random.nextInt(nr);
+			long value = -i - 1;
+			if (random.nextBoolean()) {
+				table.setValueById(value, table.getRowId(row), 0);
+			} else {
+				table.setValueAt(value, row, 0);
+			}
+			values[row] = value;
+
+			// and sometimes to the latest copy
+			if (i % 10 == 0) {
+				ODLTableImpl copy = copies.get(copies.size() - 1);
+				int copyRow = random.nextInt(values.length);
+				copy.setValueById(value - 1000, copy.getRowId(copyRow), 0);
+				copiedValues.get(copiedValues.size() - 1)[copyRow] = value - 1000;
+			}
+		}
+
+		assertValues(table, values);
+		for (int i = 0; i < copies.size(); i++) {
+			assertValues(copies.get(i), copiedValues.get(i));
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.opendoorlogistics.core.tables.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.core.tables.utils.DatastoreComparer;
+
+public class TestODLColumnarTableImpl {
+
+	private static ODLTableAlterable createTable(ODLTableAlterable table) {
+		table.addColumn(-1, "Name", ODLColumnType.STRING, 0);
+		table.addColumn(-1, "Value", ODLColumnType.DOUBLE, 0);
+		table.addColumn(-1, "Count", ODLColumnType.LONG, 0);
+		table.addColumn(-1, "Colour", ODLColumnType.COLOUR, 0);
+		return table;
+	}
+
+	private static Object randomValue(Random r, int col) {
+		if (r.nextInt(5) == 0) {
+			return null;
+		}
+		switch (col) {
+		case 0:
+			return "s" + r.nextInt(20);
+		case 1:
+			return r.nextDouble();
+		case 2:
+			return (long) r.nextInt(1000);
+		default:
+			return new java.awt.Color(r.nextInt(256), r.nextInt(256), r.nextInt(256));
+		}
+	}
+
+	/**
+	 * Apply the same random inserts, deletes and sets to a columnar and row-based table
+	 * and check they stay identical, including row ids and lookups by id.
+	 */
+	@Test
+	public void testMatchesRowBasedTable() {
+		Random r = new Random(123);
+		ODLTableAlterable control = createTable(new ODLTableImpl(1, "Test"));
+		ODLTableAlterable columnar = createTable(new ODLColumnarTableImpl(1, "Test"));
+
+		for (int step = 0; step < 5000; step++) {
+			int nr = control.getRowCount();
+			int op = r.nextInt(10);
+			if (op < 4 || nr == 0) {
+				int row = nr > 0 ? r.nextInt(nr + 1) : 0;
+				control.insertEmptyRow(row, -1);
+				columnar.insertEmptyRow(row, control.getRowId(row));
+			} else if (op < 6) {
+				int row = r.nextInt(nr);
+				control.deleteRow(row);
+				columnar.deleteRow(row);
+			} else {
+				int row = r.nextInt(nr);
+				int col = r.nextInt(control.getColumnCount());
+				Object value = randomValue(r, col);
+				control.setValueAt(value, row, col);
+				columnar.setValueById(value, control.getRowId(row), col);
+			}
+
+			if (step % 100 == 0) {
+				assertTrue(DatastoreComparer.isSame(control, columnar, DatastoreComparer.CHECK_ALL));
+			}
+		}
+
+		assertTrue(DatastoreComparer.isSame(control, columnar, DatastoreComparer.CHECK_ALL));
+		for (int row = 0; row < control.getRowCount(); row++) {
+			long id = control.getRowId(row);
+			assertTrue(columnar.containsRowId(id));
+			for (int col = 0; col < control.getColumnCount(); col++) {
+				assertEquals(control.getValueAt(row, col), columnar.getValueById(id, col));
+			}
+		}
+
+		// a deep copy should be independent of the original
+		ODLTableAlterable copy = (ODLTableAlterable) columnar.deepCopyWithShallowValueCopy();
+		assertTrue(DatastoreComparer.isSame(columnar, copy, DatastoreComparer.CHECK_ALL));
+		copy.setValueAt("changed", 0, 0);
+		assertTrue(!DatastoreComparer.isSame(columnar, copy, DatastoreComparer.CHECK_ALL));
+	}
+
+	@Test
+	public void testFindUsesIndex() {
+		ODLTableAlterable table = createTable(new ODLColumnarTableImpl(1, "Test"));
+		for (int i = 0; i < 1000; i++) {
+			int row = table.createEmptyRow(-1);
+			table.setValueAt("Territory" + (i % 10), row, 0);
+			table.setValueAt(i, row, 2);
+		}
+
+		assertEquals(100, table.find(0, "territory3").length);
+		table.deleteRow(3);
+		assertEquals(99, table.find(0, "TERRITORY3").length);
+		assertEquals(1, table.find(2, 500).length);
+	}
+}
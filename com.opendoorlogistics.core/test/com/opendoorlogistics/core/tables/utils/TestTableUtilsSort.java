@@ -0,0 +1,49 @@
+package com.opendoorlogistics.core.tables.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.opendoorlogistics.api.tables.ODLColumnType;
+import com.opendoorlogistics.api.tables.ODLTableAlterable;
+import com.opendoorlogistics.core.tables.ODLFactory;
+import com.opendoorlogistics.core.tables.decorators.datastores.undoredo.UndoRedoDecorator;
+
+public class TestTableUtilsSort {
+
+	@Test
+	public void testSortKeepsIdsAndTies() {
+		UndoRedoDecorator<ODLTableAlterable> ds = new UndoRedoDecorator<ODLTableAlterable>(ODLTableAlterable.class, ODLFactory.createAlterable());
+		ODLTableAlterable table = ds.createTable("Table", -1);
+		table.addColumn(-1, "Group", ODLColumnType.STRING, 0);
+		table.addColumn(-1, "Value", ODLColumnType.STRING, 0);
+
+		// numeric strings so the value column sorts numerically
+		String[] groups = new String[] { "b", "A", null, "a", "B", "a" };
+		String[] values = new String[] { "10", "9", "1", "100", "2", "9" };
+		long[] ids = new long[groups.length];
+		for (int i = 0; i < groups.length; i++) {
+			TableUtils.createFilledRow(table, groups[i], values[i]);
+			ids[i] = table.getRowId(i);
+		}
+
+		ds.startTransaction();
+		TableUtils.sort(table, new SortColumn[] { new SortColumn(0, true), new SortColumn(1, false) });
+		ds.endTransaction();
+
+		// case-insensitive groups with empty last, then values descending; ties keep their original order
+		int[] expected = new int[] { 3, 1, 5, 0, 4, 2 };
+		assertEquals(expected.length, table.getRowCount());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(ids[expected[i]], table.getRowId(i));
+			assertEquals(values[expected[i]], table.getValueAt(i, 1));
+		}
+
+		// undo restores the original order
+		ds.undo();
+		for (int i = 0; i < groups.length; i++) {
+			assertEquals(ids[i], table.getRowId(i));
+			assertEquals(groups[i], table.getValueAt(i, 0));
+		}
+	}
+}
@@ -10,13 +10,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
 import com.graphhopper.GraphHopper;
-import com.graphhopper.routing.Path;
-import com.graphhopper.routing.PathBidirRef;
 import com.graphhopper.routing.QueryGraph;
 import com.graphhopper.routing.ch.PreparationWeighting;
 import com.graphhopper.routing.util.BikeFlagEncoder;
@@ -32,18 +33,17 @@ import com.graphhopper.routing.util.Weighting;
 import com.graphhopper.routing.util.WeightingMap;
 import com.graphhopper.storage.CHGraph;
 import com.graphhopper.storage.Directory;
-import com.graphhopper.storage.EdgeEntry;
 import com.graphhopper.storage.Graph;
 import com.graphhopper.storage.RAMDirectory;
 import com.graphhopper.storage.StorableProperties;
 import com.graphhopper.storage.index.QueryResult;
 import com.graphhopper.util.EdgeExplorer;
-import com.graphhopper.util.EdgeIterator;
 import com.graphhopper.util.PMap;
 import com.graphhopper.util.shapes.GHPoint;
 
-import gnu.trove.map.hash.TIntObjectHashMap;
-import gnu.trove.procedure.TIntObjectProcedure;
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
 
 public class CHMatrixGeneration {
 	/**
@@ -366,82 +366,110 @@ public class CHMatrixGeneration {
 	}
 
 	/**
-	 * A map of node id to EdgeEntries generated for a single shortest path query
+	 * The nodes reached by a single shortest path query, held in primitive arrays in the
+	 * order they were first reached. Parents are indices into the same arrays (-1 for the start node).
 	 * 
 	 * @author Phil
 	 *
 	 */
-	public static class ShortestPathTree extends TIntObjectHashMap<EdgeEntry> {
-		public final int startNodeId;
-		public final boolean reverseQuery;
+	public static class ShortestPathTree {
+		int startNodeId;
+		boolean reverseQuery;
+		int size;
+		int[] nodes;
+		int[] edges;
+		int[] parents;
+		double[] weights;
+
+		ShortestPathTree(int capacity) {
+			nodes = new int[capacity];
+			edges = new int[capacity];
+			parents = new int[capacity];
+			weights = new double[capacity];
+		}
 
-		public ShortestPathTree(int nodeId, boolean reverseQuery) {
-			this.startNodeId = nodeId;
+		void reset(int startNodeId, boolean reverseQuery) {
+			this.startNodeId = startNodeId;
 			this.reverseQuery = reverseQuery;
+			size = 0;
 		}
 
-	}
-
-	public ShortestPathTree search(int startNode, EdgeExplorer edgeExplorer, boolean isBackwards) {
-		return search(startNode, edgeExplorer, levelEdgeFilter, isBackwards);
-	}
-
-	public ShortestPathTree search(int startNode, EdgeExplorer edgeExplorer, EdgeFilter edgeFilter, boolean isBackwards) {
-
-		PriorityQueue<EdgeEntry> openSet = new PriorityQueue<>();
-		ShortestPathTree shortestWeightMap = new ShortestPathTree(startNode, isBackwards);
-
-		EdgeEntry firstEdge = new EdgeEntry(EdgeIterator.NO_EDGE, startNode, 0);
-		shortestWeightMap.put(startNode, firstEdge);
-		openSet.add(firstEdge);
+		int add(int node, int edge, int parent, double weight) {
+			if (size == nodes.length) {
+				int newCapacity = nodes.length + (nodes.length >> 1) + 1;
+				nodes = Arrays.copyOf(nodes, newCapacity);
+				edges = Arrays.copyOf(edges, newCapacity);
+				parents = Arrays.copyOf(parents, newCapacity);
+				weights = Arrays.copyOf(weights, newCapacity);
+			}
+			nodes[size] = node;
+			edges[size] = edge;
+			parents[size] = parent;
+			weights[size] = weight;
+			return size++;
+		}
 
-		// int nodeCount = 0;
+		/**
+		 * Copy the tree into arrays of exactly the right size
+		 * @return
+		 */
+		public ShortestPathTree copy() {
+			ShortestPathTree ret = new ShortestPathTree(0);
+			ret.startNodeId = startNodeId;
+			ret.reverseQuery = reverseQuery;
+			ret.size = size;
+			ret.nodes = Arrays.copyOf(nodes, size);
+			ret.edges = Arrays.copyOf(edges, size);
+			ret.parents = Arrays.copyOf(parents, size);
+			ret.weights = Arrays.copyOf(weights, size);
+			return ret;
+		}
 
-		while (openSet.size() > 0) {
+		public int getStartNodeId() {
+			return startNodeId;
+		}
 
-			// The node at the adjacent edge is now settled.
-			EdgeEntry currEdge = openSet.poll();
-			int currNode = currEdge.adjNode;
-			EdgeIterator iter = edgeExplorer.setBaseNode(currNode);
+		public boolean isReverseQuery() {
+			return reverseQuery;
+		}
 
-			// nodeCount++;
-			// System.out.println("" + nodeCount + ": " + currEdge.edge +
-			// " weight=" + currEdge.weight + " opencount=" + openSet.size());
+		public int size() {
+			return size;
+		}
 
-			while (iter.next()) {
-				int adjNode = iter.getAdjNode();
+		public int getNode(int index) {
+			return nodes[index];
+		}
 
-				// Filter out the base (no CH) graph
-				if (!edgeFilter.accept(iter)) {
-					continue;
-				}
+		public double getWeight(int index) {
+			return weights[index];
+		}
 
-				// As turn restrictions aren't enabled at the moment we should be safe putting
-				// a non-existent edge for the previous or next edge, though we should fix this in the future...
-				int previousOrNextEdge = -1;
-				double tmpWeight = prepareWeighting.calcWeight(iter, isBackwards, previousOrNextEdge) + currEdge.weight;
-
-				EdgeEntry de = shortestWeightMap.get(adjNode);
-				if (de == null) {
-					de = new EdgeEntry(iter.getEdge(), adjNode, tmpWeight);
-					de.parent = currEdge;
-					shortestWeightMap.put(adjNode, de);
-					openSet.add(de);
-				} else if (de.weight > tmpWeight) {
-					// Update the weight (i.e. travel cost) on the node.
-					// This should never be called for a settled node as the
-					// existing weight will be lower than the tmpWeight
-					openSet.remove(de);
-					de.edge = iter.getEdge();
-					de.weight = tmpWeight;
-					de.parent = currEdge;
-					openSet.add(de);
-				}
-			}
+		/**
+		 * Get the edge used to reach the node at the index, which is invalid for the start node
+		 * @param index
+		 * @return
+		 */
+		public int getEdge(int index) {
+			return edges[index];
+		}
 
+		/**
+		 * Get the index of the node's parent, or -1 for the start node
+		 * @param index
+		 * @return
+		 */
+		public int getParent(int index) {
+			return parents[index];
 		}
+	}
+
+	public ShortestPathTree search(int startNode, EdgeExplorer edgeExplorer, boolean isBackwards) {
+		return search(startNode, edgeExplorer, levelEdgeFilter, isBackwards);
+	}
 
-		return shortestWeightMap;
+	public ShortestPathTree search(int startNode, EdgeExplorer edgeExplorer, EdgeFilter edgeFilter, boolean isBackwards) {
+		return new CHSearchSpace().search(startNode, edgeExplorer, edgeFilter, prepareWeighting, isBackwards);
 	}
 
 	public GraphHopper getGraphhopper() {
@@ -453,198 +481,432 @@ public class CHMatrixGeneration {
 	}
 
 	public MatrixResult calculateMatrix(GHPoint[] points, CHProcessingApi processingApi) {
+		return calculateMatrix(points, 1, processingApi);
+	}
+
+	/**
+	 * Calculate the matrix using several threads. Each thread gets its own query graph, edge explorers
+	 * and edge expansion cache; the CH graph itself is only read. Results are identical to the single
+	 * threaded calculation.
+	 * 
+	 * @param points
+	 * @param nbThreads
+	 *            Number of threads to use. Zero or less uses all available processors.
+	 * @param processingApi
+	 * @return
+	 */
+	public MatrixResult calculateMatrix(GHPoint[] points, int nbThreads, final CHProcessingApi processingApi) {
+		return calculateMatrix(points, null, nbThreads, processingApi);
+	}
+
+	/**
+	 * Calculate only the rows and columns of the matrix for the required points, i.e. all pairs where
+	 * either the from or the to point is required. Other pairs are left infinite. This is used to
+	 * extend a matrix calculated earlier when new points are added. Searches are still run from every
+	 * point but the joining of forward and backward searches, and the path extraction, which
+	 * dominate for large matrices, are only done for the required pairs.
+	 * 
+	 * @param points
+	 * @param required
+	 *            Flag for each point, or null if all points are required.
+	 * @param nbThreads
+	 *            Number of threads to use. Zero or less uses all available processors.
+	 * @param processingApi
+	 * @return
+	 */
+	public MatrixResult calculateMatrix(GHPoint[] points, final boolean[] required, int nbThreads, final CHProcessingApi processingApi) {
 		if (outputText) {
 			System.out.println("Starting calculate matrix");
 		}
 
-		// query positions
-		List<QueryResult> validResults = new ArrayList<QueryResult>(points.length);
-		QueryResult[] snapToResults = queryPositions(points, validResults);
-		if (processingApi != null && processingApi.isCancelled()) {
-			return null;
+		final int n = points.length;
+		if (nbThreads <= 0) {
+			nbThreads = Runtime.getRuntime().availableProcessors();
 		}
+		nbThreads = Math.max(1, Math.min(nbThreads, n));
+
+		ExecutorService executorService = nbThreads > 1 ? Executors.newFixedThreadPool(nbThreads) : null;
+		try {
+			// Query positions and create a query graph per thread. The query graph is a graph including virtual
+			// edges based on the snapped-to locations. The closest node in the QueryResults will
+			// be changed to a virtual node in the QueryGraph.
+			if (outputText) {
+				System.out.println("Creating query graph");
+			}
+			if (processingApi != null) {
+				processingApi.postStatusMessage("Querying positions against graph");
+			}
+			SearchContext[] contexts = createContexts(points, nbThreads, executorService);
+			if (processingApi != null && processingApi.isCancelled()) {
+				return null;
+			}
 
-		// Create a query graph from the snap-to results, this is a graph including virtual
-		// edges based on the snapped-to locations. The closest node in the QueryResults will
-		// be changed to a virtual node in the QueryGraph.
-		if (outputText) {
-			System.out.println("Creating query graph");
-		}
-		if (processingApi != null) {
-			processingApi.postStatusMessage("Querying positions against graph");
-		}
-		final QueryGraph queryGraph = new QueryGraph(chGraph);
-		queryGraph.lookup(validResults);
-		if (processingApi != null && processingApi.isCancelled()) {
-			return null;
-		}
+			// run the search forward individually from each point
+			final QueryResult[] snapToResults = contexts[0].snapToResults;
+			final ShortestPathTree[] forwardTrees = new ShortestPathTree[n];
+			if (outputText) {
+				System.out.println("Running forward searches");
+			}
+			runAll(contexts, executorService, n, "Performed forward search for ", processingApi, new IndexProcessor() {
 
-		// run the search forward individually from each point
-		final ShortestPathTree[] forwardTrees = new ShortestPathTree[points.length];
-		final TIntObjectHashMap<List<FromIndexEdge>> visitedByNodeId = new TIntObjectHashMap<>();
-		if (processingApi != null) {
-			processingApi.postStatusMessage("Performing forward search");
-		}
-		searchAllForward(snapToResults, queryGraph, forwardTrees, visitedByNodeId, processingApi);
-		if (processingApi != null && processingApi.isCancelled()) {
-			return null;
-		}
+				@Override
+				public void process(SearchContext context, int fromIndex) {
+					if (snapToResults[fromIndex].isValid()) {
+						forwardTrees[fromIndex] = context.searchSpace
+								.search(snapToResults[fromIndex].getClosestNode(), context.outEdgeExplorer, levelEdgeFilter, prepareWeighting, false).copy();
+					}
+				}
+			});
+			if (processingApi != null && processingApi.isCancelled()) {
+				return null;
+			}
 
-		// run the search backward for all
-		MatrixResult ret = searchAllBackward(snapToResults, queryGraph, forwardTrees, visitedByNodeId, processingApi);
-		if (processingApi != null && processingApi.isCancelled()) {
-			return null;
+			// Index the forward trees by the nodes they visited. If only some points are required
+			// we also index just the required forward trees, for use with the backward trees of non-required points.
+			final ForwardBuckets visitedByNodeId = new ForwardBuckets(nbThreads);
+			final ForwardBuckets requiredVisitedByNodeId = required != null ? new ForwardBuckets(nbThreads) : visitedByNodeId;
+			final int nbShards = nbThreads;
+			runAll(contexts, executorService, required != null ? 2 * nbShards : nbShards, null, processingApi, new IndexProcessor() {
+
+				@Override
+				public void process(SearchContext context, int index) {
+					if (index < nbShards) {
+						visitedByNodeId.buildShard(index, forwardTrees, null);
+					} else {
+						requiredVisitedByNodeId.buildShard(index - nbShards, forwardTrees, required);
+					}
+				}
+			});
+			if (processingApi != null && processingApi.isCancelled()) {
+				return null;
+			}
+
+			// run the search backward for all
+			if (outputText) {
+				System.out.println("Running backward searches and extracting matrix results");
+			}
+			final MatrixResult ret = new MatrixResult(n);
+			runAll(contexts, executorService, n, "Performed backwards search for ", processingApi, new IndexProcessor() {
+
+				@Override
+				public void process(SearchContext context, int toIndex) {
+					if (snapToResults[toIndex].isValid()) {
+						boolean allFroms = required == null || required[toIndex];
+						searchBackward(context, toIndex, forwardTrees, allFroms ? visitedByNodeId : requiredVisitedByNodeId, ret);
+					}
+				}
+			});
+			if (processingApi != null && processingApi.isCancelled()) {
+				return null;
+			}
+
+			if (outputText) {
+				System.out.println("Finished calculate matrix");
+			}
+
+			return ret;
+		} finally {
+			if (executorService != null) {
+				executorService.shutdown();
+			}
 		}
+	}
 
-		if (outputText) {
-			System.out.println("Finished calculate matrix");
+	/**
+	 * Run a single backward search and fill in the matrix column for its point.
+	 * Each call writes to a different column so calls can run concurrently.
+	 */
+	private void searchBackward(SearchContext context, int toIndex, final ShortestPathTree[] forwardTrees, final ForwardBuckets visitedByNodeId,
+			MatrixResult ret) {
+
+		// run query
+		final int n = forwardTrees.length;
+		ShortestPathTree reverseTree = context.searchSpace.search(context.snapToResults[toIndex].getClosestNode(), context.inEdgeExplorer, levelEdgeFilter,
+				prepareWeighting, true);
+
+		// This reverse tree is used to find all results going TO the current point.
+
+		// Parse all nodes of the reverse tree finding the minimum cost meeting node for each from
+		final double[] minCost = context.minCost;
+		Arrays.fill(minCost, Double.POSITIVE_INFINITY);
+		final int[] minCostForward = context.minCostForward;
+		final int[] minCostReverse = context.minCostReverse;
+		Arrays.fill(minCostReverse, -1);
+		int reverseSize = reverseTree.size();
+		for (int reverseIndex = 0; reverseIndex < reverseSize; reverseIndex++) {
+			// Use all FROM trees which encountered this node
+			int meetingPointNode = reverseTree.getNode(reverseIndex);
+			ForwardBuckets.Shard shard = visitedByNodeId.getShard(meetingPointNode);
+			int bucket = shard.bucketByNode.get(meetingPointNode);
+			if (bucket == -1) {
+				continue;
+			}
+
+			double reverseWeight = reverseTree.getWeight(reverseIndex);
+			int end = shard.offsets[bucket + 1];
+			for (int i = shard.offsets[bucket]; i < end; i++) {
+				int fromIndex = shard.fromIndices[i];
+
+				// see if this meeting point has a lower cost than the other
+				double cost = shard.weights[i] + reverseWeight;
+				if (cost < minCost[fromIndex]) {
+					minCost[fromIndex] = cost;
+					minCostForward[fromIndex] = shard.treeIndices[i];
+					minCostReverse[fromIndex] = reverseIndex;
+				}
+			}
 		}
 
-		return ret;
+		// extract the path for each one so we can get the distance and time, reading the trees directly
+		CacheablePath4CH pathCh = context.pathExtractor;
+		for (int fromIndex = 0; fromIndex < n; fromIndex++) {
+			if (minCostReverse[fromIndex] != -1) {
+				pathCh.extract(forwardTrees[fromIndex], minCostForward[fromIndex], reverseTree, minCostReverse[fromIndex]);
+				ret.setTimeMilliseconds(fromIndex, toIndex, pathCh.getTime());
+				ret.setDistanceMetres(fromIndex, toIndex, pathCh.getDistance());
+			}
+		}
 	}
 
-	private MatrixResult searchAllBackward(QueryResult[] snapToResults, final QueryGraph snapToGraph, final ShortestPathTree[] forwardTrees,
-			final TIntObjectHashMap<List<FromIndexEdge>> visitedByNodeId, CHProcessingApi processingApi) {
+	/**
+	 * Create one search context per thread. The query graph assigns virtual node and edge ids
+	 * deterministically from the snap-to results, so the trees built using one thread's query graph
+	 * can be used with another's. We check this holds as the searches rely on it.
+	 */
+	private SearchContext[] createContexts(final GHPoint[] points, int nbThreads, ExecutorService executorService) {
+		SearchContext[] ret = new SearchContext[nbThreads];
+		if (executorService == null) {
+			ret[0] = new SearchContext(points);
+			return ret;
+		}
+
+		ArrayList<Callable<SearchContext>> creators = new ArrayList<>();
+		for (int i = 0; i < nbThreads; i++) {
+			creators.add(new Callable<SearchContext>() {
 
-		if (outputText) {
-			System.out.println("Running backward searches and extracting matrix results");
+				@Override
+				public SearchContext call() throws Exception {
+					return new SearchContext(points);
+				}
+			});
 		}
 
-		// instantiate return object
-		final int n = snapToResults.length;
-		MatrixResult ret = new MatrixResult(n);
+		try {
+			List<Future<SearchContext>> futures = executorService.invokeAll(creators);
+			for (int i = 0; i < nbThreads; i++) {
+				ret[i] = futures.get(i).get();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 
-		// create a cache of expanded edge results
-		final HashMap<EdgeExpansionCacheKey, DistanceTime> expansionCache;
-		if (useExpansionCache) {
-			expansionCache = new HashMap<>();
-		} else {
-			expansionCache = null;
+		for (int i = 1; i < nbThreads; i++) {
+			for (int j = 0; j < points.length; j++) {
+				QueryResult a = ret[0].snapToResults[j];
+				QueryResult b = ret[i].snapToResults[j];
+				if (a.isValid() != b.isValid() || (a.isValid() && a.getClosestNode() != b.getClosestNode())) {
+					throw new RuntimeException("Inconsistent snap-to results between matrix calculation threads");
+				}
+			}
 		}
+		return ret;
+	}
 
-		// now query all in a reverse direction, building up the final matrix
-		// for each one
-		EdgeExplorer inEdgeExplorer = createBackwardsEdgeExplorer(snapToGraph);
-		// UpdateTimer timer = new UpdateTimer(100);
-		long lastUpdateTime = System.currentTimeMillis();
-		for (int toIndex = 0; toIndex < n; toIndex++) {
+	/**
+	 * Process indices 0 to n-1, with one worker per search context. Indices are handed out one at a time
+	 * so slow searches (e.g. from points in dense areas) don't leave other threads idle.
+	 */
+	private void runAll(SearchContext[] contexts, ExecutorService executorService, final int n, final String statusPrefix,
+			final CHProcessingApi processingApi, final IndexProcessor processor) {
 
-			// check for user quitting
-			if (processingApi != null && processingApi.isCancelled()) {
-				return null;
+		class Progress {
+			int next;
+			int nbProcessed;
+			long lastUpdateTime = System.currentTimeMillis();
+
+			synchronized int allocate() {
+				if (next < n) {
+					return next++;
+				}
+				return -1;
 			}
 
-			if (snapToResults[toIndex].isValid()) {
-				// run query
-				ShortestPathTree reverseTree = search(snapToResults[toIndex].getClosestNode(), inEdgeExplorer, true);
-
-				// This reverse tree is used to find all results going TO the current point.
-
-				// Parse all nodes of the reverse tree finding the minimum cost meeting node for each from
-				final double[] minCost = new double[n];
-				Arrays.fill(minCost, Double.POSITIVE_INFINITY);
-				final int[] minCostNode = new int[n];
-				Arrays.fill(minCostNode, -1);
-				reverseTree.forEachEntry(new TIntObjectProcedure<EdgeEntry>() {
-
-					@Override
-					public boolean execute(int meetingPointNode, EdgeEntry reverseEdge) {
-						// Use list of all FROM trees which encountered this node
-						List<FromIndexEdge> list = visitedByNodeId.get(meetingPointNode);
-						if (list == null) {
-							return true;
-						}
-						int size = list.size();
-						for (int i = 0; i < size; i++) {
-							FromIndexEdge fie = list.get(i);
-							int fromIndex = fie.fromIndex;
-							EdgeEntry forwardEdge = fie.edge;
-							// see if this meeting point has a lower cost than the other
-							double cost = forwardEdge.weight + reverseEdge.weight;
-							if (cost < minCost[fromIndex]) {
-								minCost[fromIndex] = cost;
-								minCostNode[fromIndex] = meetingPointNode;
-							}
+			synchronized void processed() {
+				nbProcessed++;
+				if (statusPrefix != null && processingApi != null && System.currentTimeMillis() - lastUpdateTime > 100) {
+					lastUpdateTime = System.currentTimeMillis();
+					processingApi.postStatusMessage(statusPrefix + nbProcessed + "/" + n + " points");
+				}
+			}
+		}
+		final Progress progress = new Progress();
+
+		ArrayList<Callable<Void>> workers = new ArrayList<>();
+		for (final SearchContext context : contexts) {
+			workers.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					int index;
+					while ((index = progress.allocate()) != -1) {
+						// check for user quitting
+						if (processingApi != null && processingApi.isCancelled()) {
+							break;
 						}
-						return true;
-					}
-				});
-
-				// extract the path for each one so we can get the distance and time
-				for (int fromIndex = 0; fromIndex < n; fromIndex++) {
-					int meetingPointNode = minCostNode[fromIndex];
-					if (meetingPointNode != -1) {
-
-						// use a cache of expanded CH edges for performance reasons
-						PathBidirRef pathCh = new CacheablePath4CH(snapToGraph, getFlagEncoder(), expansionCache);
-						// PathBidirRef pathCh = new Path4CH(snapToGraph, snapToGraph.getBaseGraph(),getFlagEncoder());
-						pathCh.setSwitchToFrom(false);
-						EdgeEntry edgeEntry = forwardTrees[fromIndex].get(meetingPointNode);
-						pathCh.setEdgeEntry(edgeEntry);
-
-						EdgeEntry edgeEntryTo = reverseTree.get(meetingPointNode);
-						pathCh.setEdgeEntryTo(edgeEntryTo);
-
-						Path path = pathCh.extract();
-						ret.setTimeMilliseconds(fromIndex, toIndex, path.getTime());
-						ret.setDistanceMetres(fromIndex, toIndex, path.getDistance());
+						processor.process(context, index);
+						progress.processed();
 					}
+					return null;
 				}
-			}
+			});
+		}
 
-			if (System.currentTimeMillis() - lastUpdateTime > 100 && processingApi != null) {
-				lastUpdateTime = System.currentTimeMillis();
-				processingApi.postStatusMessage("Performed backwards search for " + (toIndex + 1) + "/" + n + " points");
+		try {
+			if (executorService == null) {
+				workers.get(0).call();
+			} else {
+				for (Future<Void> future : executorService.invokeAll(workers)) {
+					// rethrows any exception from the worker
+					future.get();
+				}
 			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
 		}
-		return ret;
 	}
 
-	private void searchAllForward(QueryResult[] snapToResults, final QueryGraph queryGraph, final ShortestPathTree[] forwardTrees,
-			final TIntObjectHashMap<List<FromIndexEdge>> visitedByNodeId, CHProcessingApi continueCB) {
+	private static interface IndexProcessor {
+		void process(SearchContext context, int index);
+	}
 
-		if (outputText) {
-			System.out.println("Running forward searches");
+	/**
+	 * Objects used by the searches which cannot be shared between threads
+	 */
+	private class SearchContext {
+		private final QueryResult[] snapToResults;
+		private final QueryGraph queryGraph;
+		private final EdgeExplorer outEdgeExplorer;
+		private final EdgeExplorer inEdgeExplorer;
+		private final HashMap<EdgeExpansionCacheKey, DistanceTime> expansionCache;
+		private final CacheablePath4CH pathExtractor;
+		private final CHSearchSpace searchSpace = new CHSearchSpace();
+		private final double[] minCost;
+		private final int[] minCostForward;
+		private final int[] minCostReverse;
+
+		SearchContext(GHPoint[] points) {
+			// lookup changes the closest node of the query results, so each query graph needs its own results
+			List<QueryResult> validResults = new ArrayList<QueryResult>(points.length);
+			snapToResults = queryPositions(points, validResults);
+			queryGraph = new QueryGraph(chGraph);
+			queryGraph.lookup(validResults);
+			outEdgeExplorer = createForwardsEdgeExplorer(queryGraph);
+			inEdgeExplorer = createBackwardsEdgeExplorer(queryGraph);
+
+			// create a cache of expanded edge results
+			expansionCache = useExpansionCache ? new HashMap<EdgeExpansionCacheKey, DistanceTime>() : null;
+
+			// use the cache of expanded CH edges for performance reasons
+			pathExtractor = new CacheablePath4CH(queryGraph, getFlagEncoder(), expansionCache);
+
+			// working arrays for joining the forward and backward searches
+			minCost = new double[points.length];
+			minCostForward = new int[points.length];
+			minCostReverse = new int[points.length];
 		}
+	}
 
-		EdgeExplorer outEdgeExplorer = createForwardsEdgeExplorer(queryGraph);
-		for (int fromIndex = 0; fromIndex < snapToResults.length; fromIndex++) {
+	/**
+	 * For each node, the forward trees which visited it, stored as one flat array per shard with an
+	 * offset per node (i.e. compressed rows). Nodes are split into shards by id so each shard can be built
+	 * by a different thread. Within a node the trees are in from index order, so ties between meeting
+	 * points are broken the same way regardless of the number of threads.
+	 */
+	private static class ForwardBuckets {
+		private final Shard[] shards;
+
+		private static class Shard {
+			private final TIntIntHashMap bucketByNode = new TIntIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1, -1);
+			private int[] offsets;
+			private int[] fromIndices;
+			private int[] treeIndices;
+			private double[] weights;
+		}
 
-			// check for user quitting
-			if (continueCB != null && continueCB.isCancelled()) {
-				return;
+		ForwardBuckets(int nbShards) {
+			shards = new Shard[nbShards];
+			for (int i = 0; i < nbShards; i++) {
+				shards[i] = new Shard();
 			}
+		}
 
-			final int finalFromIndx = fromIndex;
-			if (snapToResults[fromIndex].isValid()) {
-				forwardTrees[fromIndex] = search(snapToResults[fromIndex].getClosestNode(), outEdgeExplorer, false);
-				forwardTrees[fromIndex].forEachEntry(new TIntObjectProcedure<EdgeEntry>() {
-
-					@Override
-					public boolean execute(int nodeId, EdgeEntry edge) {
-						List<FromIndexEdge> visited = visitedByNodeId.get(nodeId);
-						if (visited == null) {
-							visited = new ArrayList<>(1);
-							visitedByNodeId.put(nodeId, visited);
-						}
-						visited.add(new FromIndexEdge(finalFromIndx, edge));
-						return true;
-					}
-				});
-			}
+		Shard getShard(int nodeId) {
+			return shards[nodeId % shards.length];
 		}
-	}
 
-	private static class FromIndexEdge {
-		private final int fromIndex;
-		private final EdgeEntry edge;
+		/**
+		 * Build the shard
+		 * @param shardIndex
+		 * @param forwardTrees
+		 * @param include Flag for each tree saying whether to include it, or null to include all
+		 */
+		void buildShard(int shardIndex, ShortestPathTree[] forwardTrees, boolean[] include) {
+			Shard shard = shards[shardIndex];
+			int nbShards = shards.length;
+
+			// count the trees visiting each node
+			TIntArrayList counts = new TIntArrayList();
+			for (int fromIndex = 0; fromIndex < forwardTrees.length; fromIndex++) {
+				ShortestPathTree tree = forwardTrees[fromIndex];
+				if (tree == null || (include != null && !include[fromIndex])) {
+					continue;
+				}
+				for (int i = 0; i < tree.size; i++) {
+					int nodeId = tree.nodes[i];
+					if (nodeId % nbShards != shardIndex) {
+						continue;
+					}
+					int bucket = shard.bucketByNode.get(nodeId);
+					if (bucket == -1) {
+						bucket = counts.size();
+						shard.bucketByNode.put(nodeId, bucket);
+						counts.add(0);
+					}
+					counts.set(bucket, counts.get(bucket) + 1);
+				}
+			}
 
-		FromIndexEdge(int fromIndex, EdgeEntry edge) {
-			super();
-			this.fromIndex = fromIndex;
-			this.edge = edge;
+			int nbBuckets = counts.size();
+			shard.offsets = new int[nbBuckets + 1];
+			for (int bucket = 0; bucket < nbBuckets; bucket++) {
+				shard.offsets[bucket + 1] = shard.offsets[bucket] + counts.get(bucket);
+			}
+			int total = shard.offsets[nbBuckets];
+			shard.fromIndices = new int[total];
+			shard.treeIndices = new int[total];
+			shard.weights = new double[total];
+
+			// fill in from index order
+			int[] next = Arrays.copyOf(shard.offsets, nbBuckets);
+			for (int fromIndex = 0; fromIndex < forwardTrees.length; fromIndex++) {
+				ShortestPathTree tree = forwardTrees[fromIndex];
+				if (tree == null || (include != null && !include[fromIndex])) {
+					continue;
+				}
+				for (int i = 0; i < tree.size; i++) {
+					int nodeId = tree.nodes[i];
+					if (nodeId % nbShards != shardIndex) {
+						continue;
+					}
+					int position = next[shard.bucketByNode.get(nodeId)]++;
+					shard.fromIndices[position] = fromIndex;
+					shard.treeIndices[position] = i;
+					shard.weights[position] = tree.weights[i];
+				}
+			}
 		}
-
 	}
 
 	public Weighting getWeighting(){
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Open Door Logistics (www.opendoorlogistics.com)
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v3
+ * which accompanies this distribution, and is available at http://www.gnu.org/licenses/lgpl.txt
+ ******************************************************************************/
+package com.opendoorlogistics.graphhopper;
+
+import java.util.Arrays;
+
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.Weighting;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+import com.opendoorlogistics.graphhopper.CHMatrixGeneration.ShortestPathTree;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Working memory for the one-to-all Dijkstra searches used to build a CH matrix.
+ * Nodes are given a slot in the tree arrays when first reached and the open set is
+ * an indexed binary heap over the slots, supporting decrease-key in O(log n).
+ * Everything is kept between searches so, once the arrays have grown to fit the
+ * largest search space, a search allocates nothing. Not thread safe; use one per thread.
+ * @author Phil
+ *
+ */
+final class CHSearchSpace {
+	private static final int INITIAL_CAPACITY = 1024;
+	private final TIntIntHashMap slotByNode = new TIntIntHashMap(INITIAL_CAPACITY, 0.5f, -1, -1);
+	private final ShortestPathTree tree = new ShortestPathTree(INITIAL_CAPACITY);
+	private int[] heap = new int[INITIAL_CAPACITY];
+	private int[] heapPositions = new int[INITIAL_CAPACITY];
+	private int heapSize;
+
+	/**
+	 * Run the search. The returned tree is owned by this object and is overwritten
+	 * by the next search; use {@link ShortestPathTree#copy()} to keep it.
+	 */
+	ShortestPathTree search(int startNode, EdgeExplorer edgeExplorer, EdgeFilter edgeFilter, Weighting weighting, boolean isBackwards) {
+		slotByNode.clear();
+		tree.reset(startNode, isBackwards);
+		heapSize = 0;
+
+		push(addSlot(startNode, EdgeIterator.NO_EDGE, -1, 0));
+		while (heapSize > 0) {
+
+			// The node at the adjacent edge is now settled.
+			int currSlot = pop();
+			int currNode = tree.nodes[currSlot];
+			double currWeight = tree.weights[currSlot];
+			EdgeIterator iter = edgeExplorer.setBaseNode(currNode);
+			while (iter.next()) {
+
+				// Filter out the base (no CH) graph
+				if (!edgeFilter.accept(iter)) {
+					continue;
+				}
+
+				// As turn restrictions aren't enabled at the moment we should be safe putting
+				// a non-existent edge for the previous or next edge, though we should fix this in the future...
+				int previousOrNextEdge = -1;
+				double tmpWeight = weighting.calcWeight(iter, isBackwards, previousOrNextEdge) + currWeight;
+
+				int adjNode = iter.getAdjNode();
+				int slot = slotByNode.get(adjNode);
+				if (slot == -1) {
+					push(addSlot(adjNode, iter.getEdge(), currSlot, tmpWeight));
+				} else if (tree.weights[slot] > tmpWeight) {
+					// Update the weight (i.e. travel cost) on the node.
+					// This should never be called for a settled node as the
+					// existing weight will be lower than the tmpWeight
+					tree.edges[slot] = iter.getEdge();
+					tree.parents[slot] = currSlot;
+					tree.weights[slot] = tmpWeight;
+					if (heapPositions[slot] != -1) {
+						siftUp(heapPositions[slot]);
+					} else {
+						push(slot);
+					}
+				}
+			}
+		}
+
+		return tree;
+	}
+
+	private int addSlot(int node, int edge, int parent, double weight) {
+		int slot = tree.add(node, edge, parent, weight);
+		slotByNode.put(node, slot);
+		if (slot >= heapPositions.length) {
+			int newCapacity = Math.max(slot + 1, heapPositions.length + (heapPositions.length >> 1));
+			heapPositions = Arrays.copyOf(heapPositions, newCapacity);
+			heap = Arrays.copyOf(heap, newCapacity);
+		}
+		heapPositions[slot] = -1;
+		return slot;
+	}
+
+	private void push(int slot) {
+		heap[heapSize] = slot;
+		heapPositions[slot] = heapSize;
+		siftUp(heapSize++);
+	}
+
+	private int pop() {
+		int ret = heap[0];
+		heapPositions[ret] = -1;
+		heapSize--;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapPositions[heap[0]] = 0;
+			siftDown(0);
+		}
+		return ret;
+	}
+
+	private void siftUp(int position) {
+		int slot = heap[position];
+		double weight = tree.weights[slot];
+		while (position > 0) {
+			int parentPosition = (position - 1) >>> 1;
+			int parentSlot = heap[parentPosition];
+			if (tree.weights[parentSlot] <= weight) {
+				break;
+			}
+			heap[position] = parentSlot;
+			heapPositions[parentSlot] = position;
+			position = parentPosition;
+		}
+		heap[position] = slot;
+		heapPositions[slot] = position;
+	}
+
+	private void siftDown(int position) {
+		int slot = heap[position];
+		double weight = tree.weights[slot];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && tree.weights[heap[child + 1]] < tree.weights[heap[child]]) {
+				child++;
+			}
+			int childSlot = heap[child];
+			if (tree.weights[childSlot] >= weight) {
+				break;
+			}
+			heap[position] = childSlot;
+			heapPositions[childSlot] = position;
+			position = child;
+		}
+		heap[position] = slot;
+		heapPositions[slot] = position;
+	}
+}
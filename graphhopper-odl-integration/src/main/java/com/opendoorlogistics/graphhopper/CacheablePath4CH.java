@@ -7,6 +7,8 @@ import com.graphhopper.routing.PathBidirRef;
 import com.graphhopper.routing.ch.Path4CH;
 import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+import com.opendoorlogistics.graphhopper.CHMatrixGeneration.ShortestPathTree;
 
 /**
  * CH path extractor with caching
@@ -51,6 +53,37 @@ public class CacheablePath4CH extends PathBidirRef {
 
 	}
 
+	/**
+	 * Calculate the distance and time of the path joining a forward and a backward search tree at a meeting node,
+	 * walking each tree's parents directly in its arrays. This gives the same result as setting the trees' edge
+	 * entries and calling {@link #extract()}, without creating the entries, and the instance can be reused
+	 * for other paths on the same graph. Read the result using {@link #getDistance()} and {@link #getTime()}.
+	 * 
+	 * @param forward
+	 * @param forwardIndex
+	 *            Index of the meeting node in the forward tree
+	 * @param backward
+	 * @param backwardIndex
+	 *            Index of the meeting node in the backward tree
+	 */
+	public void extract(ShortestPathTree forward, int forwardIndex, ShortestPathTree backward, int backwardIndex) {
+		if (forward.getNode(forwardIndex) != backward.getNode(backwardIndex)) {
+			throw new IllegalStateException("Locations of the 'to'- and 'from'-Edge has to be the same.");
+		}
+		distance = 0;
+		time = 0;
+
+		// forward tree from the meeting node back to its start, then the backward tree, in the same order as PathBidirRef
+		reverseOrder = true;
+		for (int i = forwardIndex; EdgeIterator.Edge.isValid(forward.getEdge(i)); i = forward.getParent(i)) {
+			processEdge(forward.getEdge(i), forward.getNode(i));
+		}
+		reverseOrder = false;
+		for (int i = backwardIndex; EdgeIterator.Edge.isValid(backward.getEdge(i)); i = backward.getParent(i)) {
+			processEdge(backward.getEdge(i), backward.getNode(backward.getParent(i)));
+		}
+	}
+
 	private DistanceTime unpackSingleEdge2DistTime(int tmpEdge, int endNode, boolean isReverseOrder) {
 		Path tmpPath = unpackSingleEdge(routingGraph, routingGraph.getBaseGraph(), encoder, tmpEdge, endNode,isReverseOrder);
 		DistanceTime dtTmp = new DistanceTime(tmpPath.getDistance(), tmpPath.getTime());